@@ -0,0 +1,157 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Checks the structure of the IPA and dSYM archives from their central directory, and optionally their
+ * content, so that a broken artifact fails the build before it is uploaded.
+ *
+ * @author Brewin' Apps AS
+ */
+class ArtifactVerifier {
+
+    static final String BUNDLE_IDENTIFIER = "CFBundleIdentifier";
+    static final String BUNDLE_SHORT_VERSION = "CFBundleShortVersionString";
+    static final String BUNDLE_VERSION = "CFBundleVersion";
+    static final String BUNDLE_EXECUTABLE = "CFBundleExecutable";
+
+    private static final List<String> INFO_KEYS = Arrays.asList(BUNDLE_IDENTIFIER, BUNDLE_SHORT_VERSION,
+            BUNDLE_VERSION, BUNDLE_EXECUTABLE);
+
+    private final ExecutorService executor;
+
+    /**
+     * @param executor inflates the entries to check their CRC, null to only check the structure
+     */
+    ArtifactVerifier(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param ipa
+     * @param appName name of the .app bundle, without extension
+     * @return the values of the Info.plist of the app
+     * @throws IOSException if the IPA is broken
+     */
+    Map<String, String> verifyIpa(File ipa, String appName) throws IOSException {
+        ZipCentralDirectory zip = readCentralDirectory(ipa);
+        String appPath = "Payload/" + appName + ".app/";
+        ZipCentralDirectory.Entry infoEntry = zip.getEntry(appPath + "Info.plist");
+        if (null == infoEntry) {
+            throw new IOSException(ipa.getName() + " has no " + appPath + "Info.plist, the bundles are "
+                    + findBundles(zip, "Payload/", ".app/"));
+        }
+
+        Map<String, String> info;
+        try {
+            info = readInfoPlist(zip.read(infoEntry));
+        } catch (IOException e) {
+            throw new IOSException("Invalid Info.plist in " + ipa.getName() + ": " + e.getMessage());
+        }
+        String executable = info.get(BUNDLE_EXECUTABLE);
+        if (null != executable && null == zip.getEntry(appPath + executable)) {
+            throw new IOSException(ipa.getName() + " has no executable " + appPath + executable);
+        }
+
+        verifyContent(ipa, zip);
+        return info;
+    }
+
+    /**
+     * @param dsym the zipped dSYM
+     * @throws IOSException if the archive is broken or holds no DWARF file
+     */
+    void verifyDsym(File dsym) throws IOSException {
+        ZipCentralDirectory zip = readCentralDirectory(dsym);
+        boolean dwarf = false;
+        for (ZipCentralDirectory.Entry entry : zip.getEntries().values()) {
+            dwarf |= !entry.isDirectory() && entry.name.contains(".dSYM/Contents/Resources/DWARF/");
+        }
+        if (!dwarf) {
+            throw new IOSException(dsym.getName() + " holds no DWARF file");
+        }
+        verifyContent(dsym, zip);
+    }
+
+    private static ZipCentralDirectory readCentralDirectory(File artifact) throws IOSException {
+        try {
+            return ZipCentralDirectory.read(artifact);
+        } catch (IOException e) {
+            throw new IOSException(e.getMessage());
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOSException(artifact.getName() + " is corrupt: a record points outside the archive");
+        }
+    }
+
+    private void verifyContent(File artifact, ZipCentralDirectory zip) throws IOSException {
+        if (null == executor) {
+            return;
+        }
+        List<String> problems;
+        try {
+            problems = zip.verifyContent(executor);
+        } catch (IOException e) {
+            throw new IOSException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOSException(e);
+        }
+        if (!problems.isEmpty()) {
+            throw new IOSException(artifact.getName() + " is corrupt: " + problems.size()
+                    + " entries failed verification, e.g. " + problems.get(0));
+        }
+    }
+
+    private static List<String> findBundles(ZipCentralDirectory zip, String prefix, String suffix) {
+        List<String> bundles = new ArrayList<String>();
+        for (String name : zip.getEntries().keySet()) {
+            int end = name.indexOf(suffix, prefix.length());
+            if (name.startsWith(prefix) && end > 0 && name.indexOf('/', prefix.length()) == end + suffix.length() - 1) {
+                String bundle = name.substring(prefix.length(), end + suffix.length() - 1);
+                if (!bundles.contains(bundle)) {
+                    bundles.add(bundle);
+                }
+            }
+        }
+        return bundles;
+    }
+
+    /**
+     * @param content an Info.plist, in the binary, XML or OpenStep format
+     * @return the string values of the bundle keys found
+     * @throws IOException if the property list cannot be parsed
+     */
+    static Map<String, String> readInfoPlist(byte[] content) throws IOException {
+        Map<String, String> info = new HashMap<String, String>();
+        if (BinaryPlistReader.isBinary(content)) {
+            BinaryPlistReader reader = new BinaryPlistReader(ByteBuffer.wrap(content));
+            for (String key : INFO_KEYS) {
+                Object value = reader.get(key);
+                if (null != value && !(value instanceof Map || value instanceof List)) {
+                    info.put(key, value.toString());
+                }
+            }
+            return info;
+        }
+
+        Object plist = PropertyList.parse(content);
+        if (!(plist instanceof Map)) {
+            throw new IOException("The top object is not a dictionary");
+        }
+        for (String key : INFO_KEYS) {
+            Object value = ((Map<?, ?>) plist).get(key);
+            if (null != value && !(value instanceof Map || value instanceof List)) {
+                info.put(key, value.toString());
+            }
+        }
+        return info;
+    }
+}
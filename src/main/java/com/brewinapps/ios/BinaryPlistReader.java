@@ -0,0 +1,342 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads values from a binary property list (bplist00) lazily: only the objects on the way to the requested
+ * values are decoded, straight from the buffer, which may be a mapped file. Keys are compared in place,
+ * without being decoded.
+ *
+ * @author Brewin' Apps AS
+ */
+class BinaryPlistReader {
+
+    static final String MAGIC = "bplist00";
+
+    /**
+     * Dates are stored as seconds since 2001-01-01T00:00:00Z.
+     */
+    static final long EPOCH_MILLIS = 978307200000L;
+
+    private static final int TRAILER_SIZE = 32;
+    private static final int MAX_DEPTH = 512;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+    private final ByteBuffer buffer;
+    private final int offsetSize;
+    private final int refSize;
+    private final long objectCount;
+    private final long topObject;
+    private final long offsetTable;
+
+    /**
+     * @param buffer the whole property list, positioned at its start
+     * @throws IOException if it is not a binary property list
+     */
+    BinaryPlistReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        if (this.buffer.limit() < MAGIC.length() + TRAILER_SIZE || !MAGIC.equals(readAscii(0, MAGIC.length()))) {
+            throw new IOException("Not a binary property list");
+        }
+
+        int trailer = this.buffer.limit() - TRAILER_SIZE;
+        offsetSize = this.buffer.get(trailer + 6) & 0xff;
+        refSize = this.buffer.get(trailer + 7) & 0xff;
+        objectCount = this.buffer.getLong(trailer + 8);
+        topObject = this.buffer.getLong(trailer + 16);
+        offsetTable = this.buffer.getLong(trailer + 24);
+        if (offsetSize < 1 || offsetSize > 8 || refSize < 1 || refSize > 8 || topObject < 0
+                || topObject >= objectCount || offsetTable < 0 || offsetTable + objectCount * offsetSize > trailer) {
+            throw new IOException("Corrupt binary property list trailer");
+        }
+    }
+
+    static boolean isBinary(byte[] content) {
+        return content.length >= MAGIC.length() && MAGIC.equals(new String(content, 0, MAGIC.length(), ASCII));
+    }
+
+    /**
+     * @return the reference of the top object
+     */
+    long getTopObject() {
+        return topObject;
+    }
+
+    /**
+     * @param dictionary reference of a dictionary
+     * @param key
+     * @return the reference of the value, or -1 if the dictionary has no such key
+     * @throws IOException if the object is not a dictionary
+     */
+    long lookup(long dictionary, String key) throws IOException {
+        try {
+            int offset = getOffset(dictionary);
+            int marker = buffer.get(offset) & 0xff;
+            if ((marker >> 4) != 0xd) {
+                throw new IOException("Object " + dictionary + " is not a dictionary");
+            }
+            long[] count = readCount(offset, marker);
+            int keys = (int) count[1];
+            for (long i = 0; i < count[0]; i++) {
+                if (keyEquals(readRef(keys + (int) (i * refSize)), key)) {
+                    return readRef(keys + (int) ((count[0] + i) * refSize));
+                }
+            }
+            return -1;
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * @param array reference of an array
+     * @param index
+     * @return the reference of the element, or -1 if the array is shorter
+     * @throws IOException if the object is not an array
+     */
+    long element(long array, int index) throws IOException {
+        try {
+            int offset = getOffset(array);
+            int marker = buffer.get(offset) & 0xff;
+            if ((marker >> 4) != 0xa) {
+                throw new IOException("Object " + array + " is not an array");
+            }
+            long[] count = readCount(offset, marker);
+            if (index < 0 || index >= count[0]) {
+                return -1;
+            }
+            return readRef((int) count[1] + index * refSize);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * Follows the path from the top object, decoding only the objects on the way.
+     *
+     * @param path dictionary keys, and indexes for the arrays
+     * @return the value, decoded as by {@link #readObject(long)}, or null if it is missing
+     * @throws IOException
+     */
+    Object get(String... path) throws IOException {
+        long ref = topObject;
+        for (String key : path) {
+            ref = isArray(ref) ? element(ref, parseIndex(key)) : lookup(ref, key);
+            if (ref < 0) {
+                return null;
+            }
+        }
+        return readObject(ref);
+    }
+
+    /**
+     * @param ref
+     * @return the scalar value of the object, null for collections and data
+     * @throws IOException
+     */
+    Object readValue(long ref) throws IOException {
+        try {
+            int offset = getOffset(ref);
+            int marker = buffer.get(offset) & 0xff;
+            switch (marker >> 4) {
+                case 0x0:
+                    return marker == 0x09 ? Boolean.TRUE : (marker == 0x08 ? Boolean.FALSE : null);
+                case 0x1:
+                    return readInt(offset + 1, 1 << (marker & 0xf));
+                case 0x2:
+                    return (marker & 0xf) == 2 ? (double) buffer.getFloat(offset + 1) : buffer.getDouble(offset + 1);
+                case 0x3:
+                    return new Date(EPOCH_MILLIS + Math.round(buffer.getDouble(offset + 1) * 1000));
+                case 0x5: {
+                    long[] count = readCount(offset, marker);
+                    return readAscii((int) count[1], (int) count[0]);
+                }
+                case 0x6: {
+                    long[] count = readCount(offset, marker);
+                    return new String(readBytes((int) count[1], (int) count[0] * 2), UTF_16BE);
+                }
+                case 0x8:
+                    return readUnsigned(offset + 1, (marker & 0xf) + 1);
+                default:
+                    return null;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    /**
+     * Decodes the object and everything it contains. Dictionaries become maps, arrays and sets lists,
+     * integers and UIDs longs, reals doubles, dates dates and data byte arrays.
+     *
+     * @param ref
+     * @return the object
+     * @throws IOException
+     */
+    Object readObject(long ref) throws IOException {
+        try {
+            return readObject(ref, 0);
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    private Object readObject(long ref, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("The binary property list nests too deep, or has a cycle");
+        }
+        int offset = getOffset(ref);
+        int marker = buffer.get(offset) & 0xff;
+        switch (marker >> 4) {
+            case 0x4: {
+                long[] count = readCount(offset, marker);
+                return readBytes((int) count[1], (int) count[0]);
+            }
+            case 0xa:
+            case 0xc: {
+                long[] count = readCount(offset, marker);
+                List<Object> list = new ArrayList<Object>((int) Math.min(count[0], 1024));
+                for (long i = 0; i < count[0]; i++) {
+                    list.add(readObject(readRef((int) (count[1] + i * refSize)), depth + 1));
+                }
+                return list;
+            }
+            case 0xd: {
+                long[] count = readCount(offset, marker);
+                Map<String, Object> dictionary = new LinkedHashMap<String, Object>();
+                for (long i = 0; i < count[0]; i++) {
+                    Object key = readValue(readRef((int) (count[1] + i * refSize)));
+                    if (!(key instanceof String)) {
+                        throw new IOException("Dictionary keys must be strings, in object " + ref);
+                    }
+                    dictionary.put((String) key,
+                            readObject(readRef((int) (count[1] + (count[0] + i) * refSize)), depth + 1));
+                }
+                return dictionary;
+            }
+            default:
+                return readValue(ref);
+        }
+    }
+
+    private boolean isArray(long ref) throws IOException {
+        try {
+            return (buffer.get(getOffset(ref)) & 0xf0) == 0xa0;
+        } catch (IndexOutOfBoundsException e) {
+            throw corrupt(e);
+        }
+    }
+
+    private static int parseIndex(String key) throws IOException {
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            throw new IOException("'" + key + "' is not an array index");
+        }
+    }
+
+    /**
+     * Compares a string object to the key without decoding it.
+     */
+    private boolean keyEquals(long ref, String key) throws IOException {
+        int offset = getOffset(ref);
+        int marker = buffer.get(offset) & 0xff;
+        int type = marker >> 4;
+        if (type != 0x5 && type != 0x6) {
+            return false;
+        }
+        long[] count = readCount(offset, marker);
+        if (count[0] != key.length()) {
+            return false;
+        }
+        int content = (int) count[1];
+        for (int i = 0; i < key.length(); i++) {
+            char c = type == 0x5 ? (char) (buffer.get(content + i) & 0xff) : buffer.getChar(content + 2 * i);
+            if (c != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the count of the object, and the offset of its content
+     */
+    private long[] readCount(int offset, int marker) throws IOException {
+        int count = marker & 0xf;
+        if (count != 0xf) {
+            return new long[]{count, offset + 1};
+        }
+        int intMarker = buffer.get(offset + 1) & 0xff;
+        if ((intMarker >> 4) != 0x1) {
+            throw new IOException("Corrupt object count at " + offset);
+        }
+        int size = 1 << (intMarker & 0xf);
+        long value = readInt(offset + 2, size);
+        if (value < 0 || value > buffer.limit()) {
+            throw new IOException("Corrupt object count at " + offset);
+        }
+        return new long[]{value, offset + 2 + size};
+    }
+
+    private int getOffset(long ref) throws IOException {
+        if (ref < 0 || ref >= objectCount) {
+            throw new IOException("Invalid object reference " + ref);
+        }
+        long offset = readUnsigned((int) (offsetTable + ref * offsetSize), offsetSize);
+        if (offset < MAGIC.length() || offset >= offsetTable) {
+            throw new IOException("Invalid offset of object " + ref);
+        }
+        return (int) offset;
+    }
+
+    private long readRef(int offset) {
+        return readUnsigned(offset, refSize);
+    }
+
+    private long readInt(int offset, int size) {
+        if (size == 16) {
+            // 128 bit integers only hold values beyond the signed 64 bit range in their low half
+            return buffer.getLong(offset + 8);
+        }
+        if (size == 8) {
+            return buffer.getLong(offset);
+        }
+        return readUnsigned(offset, size);
+    }
+
+    private long readUnsigned(int offset, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer.get(offset + i) & 0xff);
+        }
+        return value;
+    }
+
+    private byte[] readBytes(int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || (long) offset + length > buffer.limit()) {
+            throw new IOException("Corrupt binary property list: an object lies outside the buffer");
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private String readAscii(int offset, int length) throws IOException {
+        return new String(readBytes(offset, length), ASCII);
+    }
+
+    private static IOException corrupt(RuntimeException e) {
+        return new IOException("Corrupt binary property list: an object lies outside the buffer", e);
+    }
+}
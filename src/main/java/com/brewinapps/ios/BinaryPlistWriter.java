@@ -0,0 +1,223 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes binary property lists (bplist00). Equal strings, numbers, booleans and dates are written once
+ * and shared, as Apple's writer does. The objects are the ones of {@link BinaryPlistReader#readObject(long)}.
+ *
+ * @author Brewin' Apps AS
+ */
+class BinaryPlistWriter {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+    private final List<Object> objects = new ArrayList<Object>();
+    private final Map<Object, Integer> uniqued = new HashMap<Object, Integer>();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int refSize;
+
+    private BinaryPlistWriter() {
+    }
+
+    /**
+     * @param root
+     * @return the binary property list
+     * @throws IOException if an object cannot be written to a property list
+     */
+    static byte[] write(Object root) throws IOException {
+        return new BinaryPlistWriter().writeRoot(root);
+    }
+
+    private byte[] writeRoot(Object root) throws IOException {
+        collect(root);
+        refSize = getSize(objects.size());
+
+        out.write(BinaryPlistReader.MAGIC.getBytes(ASCII));
+        long[] offsets = new long[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            offsets[i] = out.size();
+            writeObject(objects.get(i));
+        }
+
+        long offsetTable = out.size();
+        int offsetSize = getSize(offsetTable);
+        for (long offset : offsets) {
+            writeUnsigned(offset, offsetSize);
+        }
+
+        out.write(new byte[6]);
+        out.write(offsetSize);
+        out.write(refSize);
+        writeUnsigned(objects.size(), 8);
+        writeUnsigned(0, 8);
+        writeUnsigned(offsetTable, 8);
+        return out.toByteArray();
+    }
+
+    /**
+     * Numbers the objects depth first, the root being 0.
+     */
+    private int collect(Object value) throws IOException {
+        if (null == value) {
+            throw new IOException("Property lists cannot hold null values");
+        }
+        boolean scalar = !(value instanceof Map || value instanceof Collection || value instanceof byte[]);
+        Object key = scalar ? getUniqueKey(value) : null;
+        if (scalar) {
+            Integer ref = uniqued.get(key);
+            if (null != ref) {
+                return ref;
+            }
+        }
+
+        int ref = objects.size();
+        objects.add(value);
+        if (scalar) {
+            uniqued.put(key, ref);
+        }
+        if (value instanceof Map) {
+            List<Integer> refs = new ArrayList<Integer>();
+            Map<?, ?> dictionary = (Map<?, ?>) value;
+            for (Object entryKey : dictionary.keySet()) {
+                refs.add(collect(String.valueOf(entryKey)));
+            }
+            for (Object entryValue : dictionary.values()) {
+                refs.add(collect(entryValue));
+            }
+            objects.set(ref, new Container(0xd, dictionary.size(), refs));
+        } else if (value instanceof Collection) {
+            List<Integer> refs = new ArrayList<Integer>();
+            for (Object element : (Collection<?>) value) {
+                refs.add(collect(element));
+            }
+            objects.set(ref, new Container(0xa, refs.size(), refs));
+        }
+        return ref;
+    }
+
+    /**
+     * Integers and reals must not be merged, nor 1 and true, whatever their Java type.
+     */
+    private static Object getUniqueKey(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Boolean || value instanceof Date) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    private void writeObject(Object value) throws IOException {
+        if (value instanceof Container) {
+            Container container = (Container) value;
+            writeMarker(container.type, container.count);
+            for (int ref : container.refs) {
+                writeUnsigned(ref, refSize);
+            }
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? 0x09 : 0x08);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.write(0x23);
+            writeUnsigned(Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+        } else if (value instanceof Number) {
+            writeInt(((Number) value).longValue());
+        } else if (value instanceof Date) {
+            out.write(0x33);
+            double seconds = (((Date) value).getTime() - BinaryPlistReader.EPOCH_MILLIS) / 1000.0;
+            writeUnsigned(Double.doubleToLongBits(seconds), 8);
+        } else if (value instanceof byte[]) {
+            byte[] data = (byte[]) value;
+            writeMarker(0x4, data.length);
+            out.write(data);
+        } else {
+            String text = value.toString();
+            if (isAscii(text)) {
+                writeMarker(0x5, text.length());
+                out.write(text.getBytes(ASCII));
+            } else {
+                writeMarker(0x6, text.length());
+                out.write(text.getBytes(UTF_16BE));
+            }
+        }
+    }
+
+    private void writeMarker(int type, int count) {
+        if (count < 0xf) {
+            out.write(type << 4 | count);
+        } else {
+            out.write(type << 4 | 0xf);
+            writeInt(count);
+        }
+    }
+
+    private void writeInt(long value) {
+        if (value < 0) {
+            out.write(0x13);
+            writeUnsigned(value, 8);
+            return;
+        }
+        int size = getSize(value);
+        out.write(0x10 | Integer.numberOfTrailingZeros(size));
+        writeUnsigned(value, size);
+    }
+
+    private void writeUnsigned(long value, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            out.write((int) (value >>> (8 * i)) & 0xff);
+        }
+    }
+
+    /**
+     * @return the number of bytes holding the non-negative value, a power of two
+     */
+    private static int getSize(long value) {
+        if (value < 1L << 8) {
+            return 1;
+        }
+        if (value < 1L << 16) {
+            return 2;
+        }
+        if (value < 1L << 32) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A dictionary or an array, once its content is numbered.
+     */
+    private static class Container {
+        final int type;
+        final int count;
+        final List<Integer> refs;
+
+        Container(int type, int count, List<Integer> refs) {
+            this.type = type;
+            this.count = count;
+            this.refs = refs;
+        }
+    }
+}
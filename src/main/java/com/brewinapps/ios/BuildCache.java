@@ -0,0 +1,388 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Persistent cache of the xcodebuild intermediates, precompiled headers and module caches, kept outside
+ * of the target directory so that they survive a clean.
+ * <p>
+ * There is one entry per project, branch, configuration and SDK. The least recently used entries are
+ * evicted once the cache is over its maximum size. Each entry records its size, its last use and a lease
+ * per build using it in a properties file, so that eviction does not walk the other entries.
+ *
+ * @author Brewin' Apps AS
+ */
+class BuildCache {
+
+    static final String INTERMEDIATES_DIR = "Intermediates";
+    static final String PRECOMPS_DIR = "PrecompiledHeaders";
+    static final String MODULE_CACHE_DIR = "ModuleCache";
+
+    private static final String ENTRY_FILE = ".cache-entry";
+    private static final String STATS_FILE = "stats.properties";
+    private static final String LOCK_FILE = ".lock";
+    private static final String SIZE = "size";
+    private static final String LAST_USED = "lastUsed";
+    private static final String LEASE_PREFIX = "inUse.";
+
+    /**
+     * A lease this old was left behind by a build that did not complete.
+     */
+    static final long IN_USE_TIMEOUT = 24 * 60 * 60 * 1000L;
+
+    /**
+     * File locks are held by the JVM, the variants of a build matrix also need to exclude each other.
+     */
+    private static final Object LOCK = new Object();
+
+    private final File cacheDir;
+    private final long maxSize;
+
+    /**
+     * @param cacheDir
+     * @param maxSize maximum size of the cache, in bytes
+     */
+    BuildCache(File cacheDir, long maxSize) {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param name readable name of the project
+     * @param projectId uniquely identifies the project, e.g. its coordinates and base directory
+     * @param branch
+     * @param configuration
+     * @param sdk
+     * @return a readable key, unique for the project
+     */
+    static String computeKey(String name, String projectId, String branch, String configuration, String sdk) {
+        MessageDigest sha1 = Digests.newSha1();
+        Digests.update(sha1, projectId);
+        String hash = Digests.toHex(sha1.digest()).substring(0, 8);
+
+        return sanitize(name + "-" + branch + "-" + configuration + "-" + sdk) + "-" + hash;
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @param dir a directory of the repository
+     * @return the checked out branch, "detached" for a detached HEAD, or "default" outside of a git repository
+     */
+    static String readBranch(File dir) {
+        for (File current = dir.getAbsoluteFile(); null != current; current = current.getParentFile()) {
+            File git = new File(current, ".git");
+            try {
+                if (git.isFile()) {
+                    // A worktree or a submodule
+                    String gitDir = read(git).trim().replaceFirst("^gitdir:\\s*", "");
+                    git = new File(gitDir).isAbsolute() ? new File(gitDir) : new File(current, gitDir);
+                }
+                File head = new File(git, "HEAD");
+                if (head.isFile()) {
+                    String ref = read(head).trim();
+                    return ref.startsWith("ref: refs/heads/") ? ref.substring("ref: refs/heads/".length()) : "detached";
+                }
+            } catch (IOException e) {
+                return "default";
+            }
+        }
+        return "default";
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * @param key
+     * @return the directory of the entry, whether it exists or not
+     */
+    File getEntryDir(String key) {
+        return new File(cacheDir, key);
+    }
+
+    /**
+     * Leases the entry, so that it is not evicted while it is in use, and counts the hit or miss.
+     * Several builds may hold a lease on the same entry.
+     *
+     * @param key
+     * @return the lease, to return to {@link #close}
+     * @throws IOException
+     */
+    Lease open(String key) throws IOException {
+        return open(key, true);
+    }
+
+    /**
+     * Leases the entry without counting a hit or miss, for the commands reusing the products of a build.
+     *
+     * @param key
+     * @return the lease, to return to {@link #close}
+     * @throws IOException
+     */
+    Lease lease(String key) throws IOException {
+        return open(key, false);
+    }
+
+    private Lease open(String key, boolean count) throws IOException {
+        File entryDir = getEntryDir(key);
+        boolean hit = new File(entryDir, ENTRY_FILE).isFile();
+        entryDir.mkdirs();
+        Lease lease = new Lease(key, UUID.randomUUID().toString(), hit);
+
+        synchronized (LOCK) {
+            FileLock lock = lock();
+            try {
+                Properties entry = hit ? load(new File(entryDir, ENTRY_FILE)) : new Properties();
+                String now = Long.toString(System.currentTimeMillis());
+                entry.setProperty(LAST_USED, now);
+                entry.setProperty(LEASE_PREFIX + lease.id, now);
+                store(entry, new File(entryDir, ENTRY_FILE));
+
+                if (count) {
+                    Properties stats = loadStats();
+                    increment(stats, hit ? "hits" : "misses");
+                    store(stats, new File(cacheDir, STATS_FILE));
+                }
+            } finally {
+                release(lock);
+            }
+        }
+        return lease;
+    }
+
+    /**
+     * Returns the lease and records the size of the entry once the build completed, then evicts the least
+     * recently used entries until the cache fits in its maximum size. Leased entries, including this one,
+     * are never evicted.
+     *
+     * @param lease
+     * @return the directories of the evicted entries
+     * @throws IOException
+     */
+    List<File> close(Lease lease) throws IOException {
+        File entryDir = getEntryDir(lease.key);
+        long size = sizeOf(entryDir.toPath());
+
+        synchronized (LOCK) {
+            FileLock lock = lock();
+            try {
+                File entryFile = new File(entryDir, ENTRY_FILE);
+                Properties entry = entryFile.isFile() ? load(entryFile) : new Properties();
+                entry.setProperty(SIZE, Long.toString(size));
+                entry.setProperty(LAST_USED, Long.toString(System.currentTimeMillis()));
+                entry.remove(LEASE_PREFIX + lease.id);
+                store(entry, entryFile);
+
+                List<File> evicted = evict(entryDir, System.currentTimeMillis());
+                if (!evicted.isEmpty()) {
+                    Properties stats = loadStats();
+                    increment(stats, "evictions", evicted.size());
+                    store(stats, new File(cacheDir, STATS_FILE));
+                }
+                return evicted;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    private List<File> evict(File keep, long now) throws IOException {
+        List<CachedEntry> entries = listEntries();
+        long total = 0;
+        for (CachedEntry entry : entries) {
+            total += entry.size;
+        }
+
+        Collections.sort(entries, new Comparator<CachedEntry>() {
+            public int compare(CachedEntry a, CachedEntry b) {
+                return a.lastUsed < b.lastUsed ? -1 : (a.lastUsed == b.lastUsed ? 0 : 1);
+            }
+        });
+
+        List<File> evicted = new ArrayList<File>();
+        for (CachedEntry entry : entries) {
+            if (total <= maxSize) {
+                break;
+            }
+            if (entry.dir.equals(keep) || now - entry.inUseSince < IN_USE_TIMEOUT) {
+                continue;
+            }
+            // The entry file goes first, so that a half deleted entry is not mistaken for a hit
+            new File(entry.dir, ENTRY_FILE).delete();
+            FileUtils.deleteDirectory(entry.dir);
+            total -= entry.size;
+            evicted.add(entry.dir);
+        }
+        return evicted;
+    }
+
+    /**
+     * @return the entries of the cache, with the size recorded when they were last closed
+     * @throws IOException
+     */
+    List<CachedEntry> listEntries() throws IOException {
+        List<CachedEntry> entries = new ArrayList<CachedEntry>();
+        File[] dirs = cacheDir.listFiles();
+        if (null == dirs) {
+            return entries;
+        }
+        for (File dir : dirs) {
+            File entryFile = new File(dir, ENTRY_FILE);
+            if (dir.isDirectory() && entryFile.isFile()) {
+                Properties entry = load(entryFile);
+                long leasedSince = 0;
+                for (String name : entry.stringPropertyNames()) {
+                    if (name.startsWith(LEASE_PREFIX)) {
+                        leasedSince = Math.max(leasedSince, parseLong(entry.getProperty(name)));
+                    }
+                }
+                entries.add(new CachedEntry(dir, parseLong(entry.getProperty(SIZE)),
+                        parseLong(entry.getProperty(LAST_USED)), leasedSince));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the hit, miss and eviction counts since the cache was created
+     * @throws IOException
+     */
+    Properties loadStats() throws IOException {
+        File statsFile = new File(cacheDir, STATS_FILE);
+        return statsFile.isFile() ? load(statsFile) : new Properties();
+    }
+
+    private static void increment(Properties stats, String name) {
+        increment(stats, name, 1);
+    }
+
+    private static void increment(Properties stats, String name, long count) {
+        stats.setProperty(name, Long.toString(parseLong(stats.getProperty(name)) + count));
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return null != value ? Long.parseLong(value.trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static long sizeOf(Path dir) throws IOException {
+        final AtomicLong size = new AtomicLong();
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size.addAndGet(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    /**
+     * Builds of other projects may open and evict entries at the same time.
+     */
+    private FileLock lock() throws IOException {
+        cacheDir.mkdirs();
+        return new RandomAccessFile(new File(cacheDir, LOCK_FILE), "rw").getChannel().lock();
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, null);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * A build's use of an entry.
+     */
+    static class Lease {
+        final String key;
+        final String id;
+        final boolean hit;
+
+        Lease(String key, String id, boolean hit) {
+            this.key = key;
+            this.id = id;
+            this.hit = hit;
+        }
+    }
+
+    /**
+     * An entry of the cache.
+     */
+    static class CachedEntry {
+        final File dir;
+        final long size;
+        final long lastUsed;
+        /**
+         * When the latest lease was taken, 0 if the entry is not leased
+         */
+        final long inUseSince;
+
+        CachedEntry(File dir, long size, long lastUsed, long inUseSince) {
+            this.dir = dir;
+            this.size = size;
+            this.lastUsed = lastUsed;
+            this.inUseSince = inUseSince;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.brewinapps.ios;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Resident process running the commands of the builds, so that the tool versions and the parsed Xcode
+ * projects stay warm across Maven invocations.
+ * <p/>
+ * The daemon listens on the loopback interface only. Its port and a random token, which every request
+ * must start with, are written to a properties file readable by the current user only. The output of the
+ * commands is streamed back as frames of bytes, the standard output and error streams being kept apart.
+ * The daemon exits after it has been idle for the given time, or on a stop request.
+ *
+ * @author Brewin' Apps AS
+ */
+public class BuildDaemon {
+
+    static final String INFO_FILE = "daemon.properties";
+    static final String LOG_FILE = "daemon.log";
+    static final String PORT = "port";
+    static final String TOKEN = "token";
+    static final String CLASSPATH = "classpath";
+
+    static final String PING = "ping";
+    static final String RUN = "run";
+    static final String VERSION = "version";
+    static final String MODEL = "model";
+    static final String STOP = "stop";
+
+    static final int STARTED = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    static final int EXIT = 3;
+    static final int RESULT = 4;
+    static final int ERROR = 5;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final File daemonDir;
+    private final long idleTimeoutMillis;
+    private final String token;
+    private final Log log = new SystemStreamLog();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile boolean stopped;
+
+    BuildDaemon(File daemonDir, long idleTimeoutMillis) {
+        this.daemonDir = daemonDir;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        this.token = Digests.toHex(random);
+    }
+
+    /**
+     * @param args the daemon directory, and the idle timeout in minutes
+     */
+    public static void main(String[] args) throws IOException {
+        File daemonDir = new File(args[0]);
+        long idleMinutes = args.length > 1 ? Long.parseLong(args[1]) : 180;
+        new BuildDaemon(daemonDir, idleMinutes * 60 * 1000).serve();
+        System.exit(0);
+    }
+
+    /**
+     * Accepts requests until the daemon is stopped or idle.
+     *
+     * @throws IOException if the daemon could not start
+     */
+    void serve() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        try {
+            server.setSoTimeout(1000);
+            writeInfo(server.getLocalPort());
+            log.info("Build daemon listening on port " + server.getLocalPort());
+
+            while (!stopped) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity > idleTimeoutMillis) {
+                        log.info("Build daemon idle, exiting");
+                        break;
+                    }
+                    continue;
+                }
+                activeRequests.incrementAndGet();
+                threads.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } catch (IOException e) {
+                            log.debug("Request failed: " + e.getMessage());
+                        } finally {
+                            close(socket);
+                            lastActivity = System.currentTimeMillis();
+                            activeRequests.decrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            deleteInfo();
+            server.close();
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Written atomically, the clients never read a partial file.
+     */
+    private void writeInfo(int port) throws IOException {
+        daemonDir.mkdirs();
+        Properties info = new Properties();
+        info.setProperty(PORT, Integer.toString(port));
+        info.setProperty(TOKEN, token);
+        info.setProperty(CLASSPATH, getClasspathStamp());
+
+        File temp = File.createTempFile(INFO_FILE, ".tmp", daemonDir);
+        try {
+            Files.setPosixFilePermissions(temp.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+        OutputStream output = new FileOutputStream(temp);
+        try {
+            info.store(output, null);
+        } finally {
+            output.close();
+        }
+        Files.move(temp.toPath(), new File(daemonDir, INFO_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Only deletes the file if it is still ours, another daemon may have replaced it.
+     */
+    private void deleteInfo() {
+        File infoFile = new File(daemonDir, INFO_FILE);
+        try {
+            Properties info = new Properties();
+            InputStream input = new FileInputStream(infoFile);
+            try {
+                info.load(input);
+            } finally {
+                input.close();
+            }
+            if (token.equals(info.getProperty(TOKEN))) {
+                infoFile.delete();
+            }
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        FrameWriter out = new FrameWriter(socket.getOutputStream());
+        if (!token.equals(in.readUTF())) {
+            log.warn("Rejected a request with an invalid token");
+            return;
+        }
+
+        String request = in.readUTF();
+        if (PING.equals(request)) {
+            out.writeResult(new byte[0]);
+        } else if (RUN.equals(request)) {
+            run(in, out);
+        } else if (VERSION.equals(request)) {
+            String tool = in.readUTF();
+            // The tool the client would run depends on its own environment, not on the daemon's
+            ToolRegistry registry = ToolRegistry.getInstance(in.readUTF(), in.readUTF());
+            try {
+                String version = registry.getVersion(tool, log);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                new DataOutputStream(bytes).writeUTF(version);
+                out.writeResult(bytes.toByteArray());
+            } catch (IOSException e) {
+                out.writeError(e.getMessage());
+            }
+        } else if (MODEL.equals(request)) {
+            File container = new File(in.readUTF());
+            try {
+                out.writeResult(encodeModel(XcodeModelCache.describe(container)));
+            } catch (IOException e) {
+                out.writeError(e.getMessage());
+            }
+        } else if (STOP.equals(request)) {
+            stopped = true;
+            out.writeResult(new byte[0]);
+        } else {
+            out.writeError("Unknown request '" + request + "'");
+        }
+    }
+
+    /**
+     * Runs the command, streaming its output, and kills it if the client goes away.
+     */
+    private void run(final DataInputStream in, final FrameWriter out) throws IOException {
+        String dir = in.readUTF();
+        int envSize = in.readInt();
+        ProcessBuilder pb = new ProcessBuilder(new ArrayList<String>());
+        pb.environment().clear();
+        for (int i = 0; i < envSize; i++) {
+            pb.environment().put(in.readUTF(), in.readUTF());
+        }
+        int argCount = in.readInt();
+        List<String> command = new ArrayList<String>();
+        for (int i = 0; i < argCount; i++) {
+            command.add(in.readUTF());
+        }
+        pb.command(command);
+        if (dir.length() > 0) {
+            pb.directory(new File(dir));
+        }
+
+        final Process process;
+        try {
+            process = pb.start();
+        } catch (IOException e) {
+            out.writeError(e.getMessage());
+            return;
+        }
+        out.writeFrame(STARTED, new byte[0], 0);
+
+        Future<?> stdout = threads.submit(new FramePump(process.getInputStream(), STDOUT, out));
+        Future<?> stderr = threads.submit(new FramePump(process.getErrorStream(), STDERR, out));
+        Future<?> watcher = threads.submit(new Runnable() {
+            public void run() {
+                try {
+                    // The client sends nothing more, the end of the stream means it cancelled
+                    in.read();
+                } catch (IOException e) {
+                    // Closed by the client or by us
+                }
+                if (isAlive(process)) {
+                    ProcessTreeKiller.kill(process);
+                }
+            }
+        });
+
+        try {
+            int exitCode = process.waitFor();
+            stdout.get();
+            stderr.get();
+            out.writeExit(exitCode);
+        } catch (Exception e) {
+            ProcessTreeKiller.kill(process);
+            out.writeError(e.getMessage());
+        } finally {
+            watcher.cancel(true);
+        }
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    static byte[] encodeModel(Map<String, List<String>> model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(model.size());
+        for (Map.Entry<String, List<String>> entry : model.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String name : entry.getValue()) {
+                out.writeUTF(name);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the code sources of the plugin and of its dependencies used by the daemon, with their
+     *         modification times, so that clients notice a daemon running another version of the plugin
+     */
+    static String getClasspathStamp() {
+        StringBuilder stamp = new StringBuilder();
+        for (File entry : getClasspath()) {
+            if (stamp.length() > 0) {
+                stamp.append(File.pathSeparatorChar);
+            }
+            stamp.append(entry.getAbsolutePath()).append('@').append(entry.lastModified());
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * @return the jars, or class directories, the daemon needs
+     */
+    static List<File> getClasspath() {
+        List<File> classpath = new ArrayList<File>();
+        for (Class<?> type : new Class<?>[]{BuildDaemon.class, Log.class, org.codehaus.plexus.util.StringUtils.class}) {
+            try {
+                File entry = new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+                if (!classpath.contains(entry)) {
+                    classpath.add(entry);
+                }
+            } catch (Exception e) {
+                // Loaded by the boot class loader, or from an unusual location
+            }
+        }
+        return classpath;
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignored
+        }
+    }
+
+    /**
+     * Writes the frames of a response: a type, a length and the bytes. Shared by the pumps of both streams.
+     */
+    static class FrameWriter {
+        private final DataOutputStream out;
+
+        FrameWriter(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE + 5));
+        }
+
+        synchronized void writeFrame(int type, byte[] data, int length) throws IOException {
+            out.writeByte(type);
+            out.writeInt(length);
+            out.write(data, 0, length);
+            out.flush();
+        }
+
+        void writeResult(byte[] data) throws IOException {
+            writeFrame(RESULT, data, data.length);
+        }
+
+        void writeError(String message) throws IOException {
+            byte[] data = String.valueOf(message).getBytes(CommandHelper.OUTPUT_CHARSET);
+            writeFrame(ERROR, data, data.length);
+        }
+
+        void writeExit(int exitCode) throws IOException {
+            byte[] data = new byte[4];
+            data[0] = (byte) (exitCode >>> 24);
+            data[1] = (byte) (exitCode >>> 16);
+            data[2] = (byte) (exitCode >>> 8);
+            data[3] = (byte) exitCode;
+            writeFrame(EXIT, data, data.length);
+        }
+    }
+
+    /**
+     * Copies an output stream of the command to the client, chunk by chunk.
+     */
+    private static class FramePump implements Runnable {
+        private final InputStream input;
+        private final int type;
+        private final FrameWriter out;
+
+        FramePump(InputStream input, int type, FrameWriter out) {
+            this.input = input;
+            this.type = type;
+            this.out = out;
+        }
+
+        public void run() {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    if (read > 0) {
+                        out.writeFrame(type, buffer, read);
+                    }
+                }
+            } catch (IOException e) {
+                // The process or the client went away
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fingerprint of the inputs of an Xcode build: the source tree, the Podfile.lock,
+ * the xcodebuild arguments and the tool version.
+ * <p/>
+ * The fingerprint of the last successful build is stored along with the mtime, size and hash
+ * of every source file, so that only the files whose mtime or size changed are hashed again.
+ *
+ * @author Brewin' Apps AS
+ */
+class BuildFingerprint {
+
+    /**
+     * Directories and files that are not inputs of the build.
+     */
+    static final Set<String> EXCLUDED_NAMES = new HashSet<String>(Arrays.asList(
+            ".git", ".svn", ".hg", "Pods", "build", "DerivedData", "xcuserdata", ".DS_Store"));
+
+    private static final String FILE_PREFIX = "file.";
+    private static final String DIGEST_KEY = "digest";
+
+    private final File fingerprintFile;
+    private final Properties previous = new Properties();
+    private final Properties current = new Properties();
+    private String digest;
+    private int hashedFileCount;
+
+    /**
+     * @param fingerprintFile where the fingerprint of the last successful build is stored
+     * @throws IOException
+     */
+    BuildFingerprint(File fingerprintFile) throws IOException {
+        this.fingerprintFile = fingerprintFile;
+        if (fingerprintFile.exists()) {
+            InputStream input = new FileInputStream(fingerprintFile);
+            try {
+                previous.load(input);
+            } catch (IllegalArgumentException e) {
+                // Corrupted fingerprint, everything gets hashed again
+                previous.clear();
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * @param sourceDir the source tree
+     * @param excludedDir a directory of the source tree to ignore, typically the build output
+     * @param podfileLock
+     * @param arguments the xcodebuild arguments
+     * @param toolVersion
+     * @return the fingerprint
+     * @throws IOException
+     */
+    String compute(File sourceDir, File excludedDir, File podfileLock, List<String> arguments, String toolVersion)
+            throws IOException {
+        current.clear();
+        Map<String, File> files = listFiles(sourceDir.toPath().toAbsolutePath().normalize(),
+                excludedDir.toPath().toAbsolutePath().normalize());
+
+        Map<String, Future<String>> pending = new TreeMap<String, Future<String>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                final File file = entry.getValue();
+                String stamp = file.lastModified() + ":" + file.length();
+                String previousValue = previous.getProperty(FILE_PREFIX + entry.getKey());
+                if (null != previousValue && previousValue.startsWith(stamp + ":")) {
+                    current.setProperty(FILE_PREFIX + entry.getKey(), previousValue);
+                } else {
+                    pending.put(entry.getKey(), executor.submit(new Callable<String>() {
+                        public String call() throws IOException {
+                            return Digests.sha1(file);
+                        }
+                    }));
+                    current.setProperty(FILE_PREFIX + entry.getKey(), stamp + ":");
+                }
+            }
+            for (Map.Entry<String, Future<String>> entry : pending.entrySet()) {
+                String key = FILE_PREFIX + entry.getKey();
+                current.setProperty(key, current.getProperty(key) + entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing the source tree");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not hash the source tree: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        hashedFileCount = pending.size();
+
+        MessageDigest sha1 = Digests.newSha1();
+        for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(current).entrySet()) {
+            String value = (String) entry.getValue();
+            Digests.update(sha1, (String) entry.getKey());
+            Digests.update(sha1, value.substring(value.lastIndexOf(':') + 1));
+        }
+        Digests.update(sha1, podfileLock.exists() ? Digests.sha1(podfileLock) : "");
+        for (String argument : arguments) {
+            Digests.update(sha1, argument);
+        }
+        Digests.update(sha1, toolVersion);
+
+        digest = Digests.toHex(sha1.digest());
+        current.setProperty(DIGEST_KEY, digest);
+        return digest;
+    }
+
+    /**
+     * @return true if the computed fingerprint is the one of the last successful build
+     */
+    boolean matchesPrevious() {
+        return null != digest && digest.equals(previous.getProperty(DIGEST_KEY));
+    }
+
+    /**
+     * @return the number of files hashed by the last computation
+     */
+    int getHashedFileCount() {
+        return hashedFileCount;
+    }
+
+    /**
+     * Records the computed fingerprint as the one of the last successful build.
+     *
+     * @throws IOException
+     */
+    void save() throws IOException {
+        fingerprintFile.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(fingerprintFile);
+        try {
+            current.store(output, "iOS build fingerprint");
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Forgets the fingerprint of the last build, e.g. when a build fails.
+     */
+    void invalidate() {
+        if (fingerprintFile.exists() && !fingerprintFile.delete()) {
+            fingerprintFile.deleteOnExit();
+        }
+    }
+
+    private static Map<String, File> listFiles(final Path root, final Path excludedDir) throws IOException {
+        final Map<String, File> files = new TreeMap<String, File>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(excludedDir) || (!dir.equals(root) && isExcluded(dir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !isExcluded(file)) {
+                    files.put(root.relativize(file).toString(), file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private static boolean isExcluded(Path path) {
+        return EXCLUDED_NAMES.contains(path.getFileName().toString());
+    }
+}
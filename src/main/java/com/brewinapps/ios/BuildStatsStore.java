@@ -0,0 +1,296 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of the build metrics of every run, such as the duration of xcodebuild or the size of the IPA.
+ * <p>
+ * Each record starts with a marker and ends with a CRC, so a record cut short by a crash is skipped
+ * without losing the records appended after it. Queries scan the mapped file once and only keep
+ * the most recent values of each metric.
+ *
+ * @author Brewin' Apps AS
+ */
+class BuildStatsStore {
+
+    private static final int MAGIC = 0x494f5353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final int RECORD_MARKER = 0x5245437c;
+
+    private static final Map<File, BuildStatsStore> STORES = new HashMap<File, BuildStatsStore>();
+
+    private final File storeFile;
+
+    private BuildStatsStore(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * The threads of a JVM share a store, as file locks only exclude other processes.
+     *
+     * @param storeFile
+     * @return the store
+     */
+    static BuildStatsStore forFile(File storeFile) {
+        File file = storeFile.getAbsoluteFile();
+        synchronized (STORES) {
+            BuildStatsStore store = STORES.get(file);
+            if (null == store) {
+                store = new BuildStatsStore(file);
+                STORES.put(file, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Appends a record, holding a lock on the store so that concurrent builds do not interleave.
+     *
+     * @param key the project, scheme and configuration the metric belongs to
+     * @param metric
+     * @param value
+     * @throws IOException
+     */
+    synchronized void append(String key, String metric, long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(System.currentTimeMillis());
+        payload.writeUTF(key);
+        payload.writeUTF(metric);
+        payload.writeLong(value);
+        payload.close();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.size() + 12);
+        buffer.putInt(RECORD_MARKER).putInt(bytes.size()).put(bytes.toByteArray()).putInt((int) crc.getValue());
+        buffer.flip();
+
+        storeFile.getParentFile().mkdirs();
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() < HEADER_SIZE) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC).putInt(VERSION).flip();
+                    channel.truncate(0);
+                    writeFully(channel, header, 0);
+                }
+                writeFully(channel, buffer, channel.size());
+            } finally {
+                lock.release();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * @param key
+     * @param window number of values kept per metric, on top of the latest one
+     * @return the recent history of each metric of the key, by metric name
+     * @throws IOException
+     */
+    synchronized Map<String, MetricHistory> query(String key, int window) throws IOException {
+        Map<String, MetricHistory> histories = new TreeMap<String, MetricHistory>();
+        if (!storeFile.exists()) {
+            return histories;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(storeFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                return histories;
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(storeFile + " is too large, delete it to start over");
+            }
+            ByteBuffer store = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (store.getInt(0) != MAGIC || store.getInt(4) != VERSION) {
+                throw new IOException(storeFile + " is not a build statistics store");
+            }
+
+            ByteArrayOutputStream encodedKey = new ByteArrayOutputStream();
+            new DataOutputStream(encodedKey).writeUTF(key);
+            byte[] keyBytes = encodedKey.toByteArray();
+            CRC32 crc = new CRC32();
+            int position = HEADER_SIZE;
+            while (position + 12 <= store.limit()) {
+                int length = store.getInt(position + 4);
+                if (store.getInt(position) != RECORD_MARKER || length < 0 || length > MAX_RECORD_SIZE
+                        || position + 12 + length > store.limit()) {
+                    // Garbage left by an interrupted build, skipped up to the next record
+                    position++;
+                    continue;
+                }
+
+                byte[] payload = new byte[length];
+                ByteBuffer record = store.duplicate();
+                record.position(position + 8);
+                record.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if (record.getInt() != (int) crc.getValue()) {
+                    position++;
+                    continue;
+                }
+                position += 12 + length;
+
+                // The key is compared before decoding the rest of the record
+                if (!startsWithKey(payload, keyBytes)) {
+                    continue;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload));
+                long timestamp = fields.readLong();
+                fields.readUTF();
+                String metric = fields.readUTF();
+                long value = fields.readLong();
+
+                MetricHistory history = histories.get(metric);
+                if (null == history) {
+                    history = new MetricHistory(metric, window);
+                    histories.put(metric, history);
+                }
+                history.add(timestamp, value);
+            }
+        } finally {
+            file.close();
+        }
+        return histories;
+    }
+
+    private static boolean startsWithKey(byte[] payload, byte[] key) {
+        // A long timestamp, then the key as written by writeUTF
+        if (payload.length < 8 + key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (payload[8 + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * What a metric measures, told by its name: sizes end with 'Size', and flags, recorded as 0 or 1, end with
+     * 'Hit'. The other metrics are durations.
+     */
+    enum Unit {
+        MILLISECONDS, BYTES, FLAG;
+
+        static Unit of(String metric) {
+            if (metric.endsWith("Size")) {
+                return BYTES;
+            } else if (metric.endsWith("Hit")) {
+                return FLAG;
+            }
+            return MILLISECONDS;
+        }
+    }
+
+    /**
+     * The latest value of a metric and the values preceding it.
+     */
+    static class MetricHistory {
+        private final String metric;
+        private final int window;
+        private final Deque<Long> previous = new ArrayDeque<Long>();
+        private long latest;
+        private long latestTimestamp;
+        private int count;
+
+        MetricHistory(String metric, int window) {
+            this.metric = metric;
+            this.window = window;
+        }
+
+        void add(long timestamp, long value) {
+            if (count++ > 0) {
+                previous.addLast(latest);
+                if (previous.size() > window) {
+                    previous.removeFirst();
+                }
+            }
+            latest = value;
+            latestTimestamp = timestamp;
+        }
+
+        String getMetric() {
+            return metric;
+        }
+
+        Unit getUnit() {
+            return Unit.of(metric);
+        }
+
+        long getLatest() {
+            return latest;
+        }
+
+        long getLatestTimestamp() {
+            return latestTimestamp;
+        }
+
+        /**
+         * @return the number of values preceding the latest one in the window
+         */
+        int getPreviousCount() {
+            return previous.size();
+        }
+
+        /**
+         * @return the sum of the values preceding the latest one in the window
+         */
+        long getPreviousSum() {
+            long sum = 0;
+            for (long value : previous) {
+                sum += value;
+            }
+            return sum;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the percentile of the values preceding the latest one, nearest rank
+         */
+        long getPercentile(double percentile) {
+            if (previous.isEmpty()) {
+                return latest;
+            }
+            List<Long> sorted = new ArrayList<Long>(previous);
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+            return sorted.get(Math.min(sorted.size() - 1, Math.max(0, rank - 1)));
+        }
+    }
+}
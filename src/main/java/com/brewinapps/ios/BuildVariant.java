@@ -0,0 +1,68 @@
+package com.brewinapps.ios;
+
+import java.util.Map;
+
+/**
+ * One entry of the build matrix. Unset values fall back on the goal configuration.
+ *
+ * @author Brewin' Apps AS
+ */
+public class BuildVariant {
+
+    /**
+     * Name of the variant, used for its build directory: letters, digits, '.', '_' and '-'.
+     * Defaults to scheme-configuration-sdk.
+     */
+    private String name;
+
+    private String scheme;
+
+    private String sdk;
+
+    private String configuration;
+
+    /**
+     * Build settings of this variant, overriding the buildSettings of the goal
+     */
+    private Map<String, String> buildSettings;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public void setScheme(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public String getSdk() {
+        return sdk;
+    }
+
+    public void setSdk(String sdk) {
+        this.sdk = sdk;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public void setConfiguration(String configuration) {
+        this.configuration = configuration;
+    }
+
+    public Map<String, String> getBuildSettings() {
+        return buildSettings;
+    }
+
+    public void setBuildSettings(Map<String, String> buildSettings) {
+        this.buildSettings = buildSettings;
+    }
+}
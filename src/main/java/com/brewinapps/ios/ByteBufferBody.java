@@ -0,0 +1,48 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * Multipart body streaming a shared artifact, from its mapped buffer or, past 2 GB, from its file.
+ *
+ * @author Brewin' Apps AS
+ */
+public class ByteBufferBody extends AbstractContentBody {
+
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final SharedArtifact artifact;
+
+    /**
+     * @param artifact
+     * @param mimeType
+     */
+    public ByteBufferBody(SharedArtifact artifact, String mimeType) {
+        super(mimeType);
+        this.artifact = artifact;
+    }
+
+    public String getFilename() {
+        return artifact.getFile().getName();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        artifact.writeTo(out);
+    }
+
+    public String getCharset() {
+        return null;
+    }
+
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    public long getContentLength() {
+        return artifact.getSize();
+    }
+}
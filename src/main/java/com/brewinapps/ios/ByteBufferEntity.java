@@ -0,0 +1,46 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request entity streaming a shared artifact, for raw PUT uploads.
+ *
+ * @author Brewin' Apps AS
+ */
+public class ByteBufferEntity extends AbstractHttpEntity {
+
+    private final SharedArtifact artifact;
+
+    /**
+     * @param artifact
+     * @param contentType
+     */
+    public ByteBufferEntity(SharedArtifact artifact, String contentType) {
+        this.artifact = artifact;
+        setContentType(contentType);
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public long getContentLength() {
+        return artifact.getSize();
+    }
+
+    public InputStream getContent() throws IOException {
+        return artifact.newInputStream();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        artifact.writeTo(out);
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+}
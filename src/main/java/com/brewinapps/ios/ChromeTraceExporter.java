@@ -0,0 +1,64 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Writes the spans as complete events of the Chrome trace event format, loadable in chrome://tracing or Perfetto.
+ * <p>
+ * The file is a JSON array that is never closed, which the format allows, so that the spans of
+ * successive builds can be appended to it.
+ *
+ * @author Brewin' Apps AS
+ */
+class ChromeTraceExporter implements SpanExporter {
+
+    private final File traceFile;
+    private final long pid;
+
+    ChromeTraceExporter(File traceFile) {
+        this.traceFile = traceFile;
+        this.pid = getPid();
+    }
+
+    public void export(String traceId, Span span) throws IOException {
+        StringWriter event = new StringWriter(256);
+        JsonWriter json = new JsonWriter(event);
+        json.beginObject();
+        json.name("name").value(span.getName());
+        json.name("cat").value("ios");
+        json.name("ph").value("X");
+        json.name("ts").value(span.getStartMillis() * 1000);
+        json.name("dur").value(span.getDurationNanos() / 1000);
+        json.name("pid").value(pid);
+        json.name("tid").value(span.getThreadId());
+        json.name("args").beginObject();
+        json.name("traceId").value(traceId);
+        json.name("spanId").value(span.getSpanId());
+        if (null != span.getParentSpanId()) {
+            json.name("parentSpanId").value(span.getParentSpanId());
+        }
+        for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+            json.name(attribute.getKey()).value(String.valueOf(attribute.getValue()));
+        }
+        if (null != span.getError()) {
+            json.name("error").value(span.getError());
+        }
+        json.endObject();
+        json.endObject();
+
+        TraceFiles.append(traceFile, "[\n", event + ",\n");
+    }
+
+    private static long getPid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('@')));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.brewinapps.ios;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Handle on a command started by {@link CommandHelper#startCommand}.
+ * The output is drained on pump threads, so the caller is free to do other work until {@link #waitFor()}.
+ *
+ * @author Brewin' Apps AS
+ */
+public class CommandExecution {
+
+    private final String commandLine;
+    private final Process process;
+    private final OutputTail tail;
+    private final long timeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long startTime;
+    private final Span span;
+    private final CommandScheduler.Permit permit;
+
+    private Future<Void> stdoutPump;
+    private Future<Void> stderrPump;
+    private StreamPump stdout;
+    private StreamPump stderr;
+    private volatile long lastActivity;
+    private volatile String killReason;
+
+    private Integer exitCode;
+    private boolean permitReleased;
+
+    CommandExecution(String commandLine, Process process, OutputTail tail, long timeoutMillis, long idleTimeoutMillis,
+                     Span span, CommandScheduler.Permit permit) {
+        this.commandLine = commandLine;
+        this.span = span;
+        this.permit = permit;
+        this.process = process;
+        this.tail = tail;
+        this.timeoutMillis = timeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.startTime = System.currentTimeMillis();
+        this.lastActivity = startTime;
+    }
+
+    void setPumps(Future<Void> stdoutPump, Future<Void> stderrPump, StreamPump stdout, StreamPump stderr) {
+        this.stdoutPump = stdoutPump;
+        this.stderrPump = stderrPump;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * @return a consumer recording when the command last produced output
+     */
+    StreamConsumer createActivityMonitor() {
+        return new StreamConsumer() {
+            public void consumeLine(String line) {
+                lastActivity = System.currentTimeMillis();
+            }
+        };
+    }
+
+    /**
+     * @return a task releasing the permit as soon as the process exits, so that a caller failing before
+     *         {@link #waitFor()} does not hold the permit for the rest of the build
+     */
+    Callable<Void> createReaper() {
+        return new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                process.waitFor();
+                releasePermit();
+                return null;
+            }
+        };
+    }
+
+    boolean hasLimits() {
+        return timeoutMillis > 0 || idleTimeoutMillis > 0;
+    }
+
+    /**
+     * Kills the command if it is over its limits.
+     *
+     * @param now
+     * @return true if the command was killed
+     */
+    boolean checkLimits(long now) {
+        if (timeoutMillis > 0 && now - startTime > timeoutMillis) {
+            kill("it did not complete within " + timeoutMillis / 1000 + " seconds");
+            return true;
+        }
+        if (idleTimeoutMillis > 0 && now - lastActivity > idleTimeoutMillis) {
+            kill("it produced no output for " + idleTimeoutMillis / 1000 + " seconds");
+            return true;
+        }
+        return false;
+    }
+
+    private void kill(String reason) {
+        killReason = reason;
+        ProcessTreeKiller.kill(process);
+    }
+
+    /**
+     * Releases the permit once, even if {@link #waitFor()} is called again after being interrupted.
+     */
+    private synchronized void releasePermit() {
+        if (!permitReleased) {
+            permitReleased = true;
+            permit.release();
+        }
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    /**
+     * @return true once the process exited and its output was fully drained
+     */
+    public boolean isDone() {
+        return stdoutPump.isDone() && stderrPump.isDone();
+    }
+
+    /**
+     * Kills the process and its descendants. The pumps stop on their own once the streams are closed.
+     */
+    public void cancel() {
+        kill("it was cancelled");
+    }
+
+    /**
+     * Kills the command if it is still running and waits for it, for callers giving up on it after an error of
+     * their own.
+     */
+    public void abandon() {
+        try {
+            process.exitValue();
+        } catch (IllegalThreadStateException e) {
+            cancel();
+        }
+        try {
+            waitFor();
+        } catch (IOSException e) {
+            // The caller reports its own error
+        }
+    }
+
+    /**
+     * Waits for the process to exit and for its output to be drained.
+     *
+     * @return the exit code, always 0
+     * @throws IOSCommandTimeoutException if the command was killed
+     * @throws IOSException if the command was unsuccessful
+     */
+    public synchronized int waitFor() throws IOSException {
+        if (null == exitCode) {
+            try {
+                int rc = process.waitFor();
+                stdoutPump.get();
+                stderrPump.get();
+                exitCode = rc;
+                releasePermit();
+            } catch (InterruptedException e) {
+                ProcessTreeKiller.kill(process);
+                releasePermit();
+                Thread.currentThread().interrupt();
+                span.setError("interrupted").end();
+                throw new IOSException(e);
+            } catch (ExecutionException e) {
+                releasePermit();
+                span.setError(e.getCause().getMessage()).end();
+                throw new IOSException("An error occurred while reading the output of '" + commandLine + "': "
+                        + e.getCause().getMessage());
+            }
+
+            if (span.isRecording()) {
+                span.setAttribute("exit.code", exitCode);
+                span.setAttribute("output.bytes", stdout.getBytesRead() + stderr.getBytesRead());
+                if (null != killReason) {
+                    span.setError("killed because " + killReason);
+                } else if (exitCode != 0) {
+                    span.setError("exit code " + exitCode);
+                }
+                span.end();
+            }
+        }
+
+        if (null != killReason) {
+            throw new IOSCommandTimeoutException("The command '" + commandLine + "' was killed because " + killReason
+                    + CommandHelper.formatTail(tail));
+        }
+        if (exitCode != 0) {
+            throw new IOSException("The command was unsuccessful (exit code " + exitCode + ")"
+                    + CommandHelper.formatTail(tail));
+        }
+        return exitCode;
+    }
+}
@@ -1,10 +1,19 @@
 package com.brewinapps.ios;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 /**
  * @author Brewin' Apps AS
@@ -12,54 +21,207 @@ import org.apache.maven.plugin.logging.Log;
 public class CommandHelper {
 
     /**
+     * Number of output characters kept to report a failing command.
+     */
+    static final int DEFAULT_TAIL_SIZE = 16 * 1024;
+
+    /**
+     * The Xcode tools write their output in UTF-8, whatever the platform charset is.
+     */
+    static final Charset OUTPUT_CHARSET = Charset.forName("UTF-8");
+
+    private static final String REDACTED = "****";
+    private static final Pattern PASSWORD_OPTION = Pattern.compile("--?(?:password|passphrase|token)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern SECRET_NAME = Pattern.compile("password|passphrase|secret|token", Pattern.CASE_INSENSITIVE);
+
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ios-command-pump-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Runs the command, streaming its output to the given consumers.
+     * Only the last {@link #DEFAULT_TAIL_SIZE} characters are retained, for error reporting.
+     *
      * @param pb
+     * @param logger
+     * @param consumers additional consumers receiving every line of the standard output
      * @throws IOSException
      */
-    public static String performCommand(final ProcessBuilder pb, Log logger) throws IOSException {
-        pb.redirectErrorStream(true);
+    public static void performCommand(final ProcessBuilder pb, Log logger, StreamConsumer... consumers) throws IOSException {
+        performCommand(pb, logger, CommandOptions.DEFAULT, consumers);
+    }
 
-        StringBuilder joinedCommand = new StringBuilder();
-        for (String segment : pb.command()) {
-            joinedCommand.append(segment).append(" ");
+    /**
+     * Runs the command within the limits of the options.
+     *
+     * @param pb
+     * @param logger
+     * @param options
+     * @param consumers additional consumers receiving every line of the standard output
+     * @throws IOSCommandTimeoutException if the command was killed for exceeding a limit
+     * @throws IOSException
+     */
+    public static void performCommand(final ProcessBuilder pb, Log logger, CommandOptions options,
+                                      StreamConsumer... consumers) throws IOSException {
+        startCommand(pb, logger, options, consumers).waitFor();
+    }
+
+    /**
+     * Runs the command and captures its whole standard output. Only use this for commands with a short output.
+     *
+     * @param pb
+     * @param logger
+     * @return the output of the command, one line per output line
+     * @throws IOSException
+     */
+    public static String performCommandForOutput(final ProcessBuilder pb, Log logger) throws IOSException {
+        return performCommandForOutput(pb, logger, CommandOptions.DEFAULT);
+    }
+
+    /**
+     * Runs the command within the limits of the options and captures its whole standard output.
+     *
+     * @param pb
+     * @param logger
+     * @param options
+     * @return the output of the command, one line per output line
+     * @throws IOSException
+     */
+    public static String performCommandForOutput(final ProcessBuilder pb, Log logger, CommandOptions options) throws IOSException {
+        CommandLineUtils.StringStreamConsumer output = new CommandLineUtils.StringStreamConsumer();
+        performCommand(pb, logger, options, output);
+
+        return output.getOutput();
+    }
+
+    /**
+     * Starts the command and returns immediately. The standard output and error streams
+     * are drained separately on pump threads.
+     *
+     * @param pb
+     * @param logger
+     * @param consumers additional consumers receiving every line of the standard output
+     * @return a handle to wait for the command
+     * @throws IOSException if the command could not be started
+     */
+    public static CommandExecution startCommand(final ProcessBuilder pb, Log logger, StreamConsumer... consumers) throws IOSException {
+        return startCommand(pb, logger, CommandOptions.DEFAULT, consumers);
+    }
+
+    /**
+     * Starts the command once the {@link CommandScheduler} grants it a permit. The command is killed, along with its
+     * descendants, if it exceeds the limits of the options.
+     *
+     * @param pb
+     * @param logger
+     * @param options
+     * @param consumers additional consumers receiving every line of the standard output
+     * @return a handle to wait for the command
+     * @throws IOSException if the command could not be started
+     */
+    public static CommandExecution startCommand(final ProcessBuilder pb, Log logger, CommandOptions options,
+                                                StreamConsumer... consumers) throws IOSException {
+        pb.redirectErrorStream(false);
+
+        String commandLine = redact(pb.command());
+        logger.info("Executing '" + commandLine + "'");
+
+        OutputTail tail = new OutputTail(DEFAULT_TAIL_SIZE);
+        List<StreamConsumer> stdoutConsumers = new ArrayList<StreamConsumer>();
+        List<StreamConsumer> stderrConsumers = new ArrayList<StreamConsumer>();
+        stdoutConsumers.add(tail);
+        stderrConsumers.add(tail);
+        if (logger.isDebugEnabled()) {
+            LogStreamConsumer logConsumer = new LogStreamConsumer(logger);
+            stdoutConsumers.add(logConsumer);
+            stderrConsumers.add(logConsumer);
+        }
+        stdoutConsumers.addAll(Arrays.asList(consumers));
+
+        Span span = Tracer.get().startSpan(CommandOptions.getToolName(pb.command().get(0)));
+        span.setAttribute("command", commandLine);
+
+        CommandScheduler.Permit permit;
+        try {
+            permit = CommandScheduler.getInstance().acquire(pb.command().get(0), logger);
+        } catch (IOSException e) {
+            span.setError("interrupted").end();
+            throw e;
         }
-        logger.info("Executing '" + joinedCommand.toString().trim() + "'");
+        span.setAttribute("queue.wait.ms", permit.getWaitMillis());
 
         Process p;
         try {
-            p = pb.start();
+            p = null != options.getDaemon() ? options.getDaemon().start(pb) : pb.start();
         } catch (IOException e) {
+            permit.release();
+            span.setError(e.getMessage()).end();
             throw new IOSException(e);
         }
 
-        BufferedReader input = new BufferedReader(
-                new InputStreamReader(p.getInputStream()));
+        CommandExecution execution = new CommandExecution(commandLine, p, tail,
+                options.getTimeoutMillis(pb.command()), options.getIdleTimeoutMillis(), span, permit);
+        if (options.getIdleTimeoutMillis() > 0) {
+            StreamConsumer activityMonitor = execution.createActivityMonitor();
+            stdoutConsumers.add(activityMonitor);
+            stderrConsumers.add(activityMonitor);
+        }
 
-        int rc;
-        String returnValue;
-        try {
-            // Display output
-            String outLine;
-            StringBuilder sb = new StringBuilder();
-            while ((outLine = input.readLine()) != null) {
-                sb.append(outLine);
-                logger.debug(outLine);
-            }
-            returnValue = sb.toString();
-            input.close();
-        } catch (IOException e) {
-            throw new IOSException("An error occurred while reading the input stream");
+        StreamPump stdout = new StreamPump(p.getInputStream(), OUTPUT_CHARSET, stdoutConsumers);
+        StreamPump stderr = new StreamPump(p.getErrorStream(), OUTPUT_CHARSET, stderrConsumers);
+        execution.setPumps(PUMPS.submit(stdout), PUMPS.submit(stderr), stdout, stderr);
+        if (permit != CommandScheduler.Permit.NONE) {
+            PUMPS.submit(execution.createReaper());
         }
 
-        try {
-            rc = p.waitFor();
-        } catch (InterruptedException e) {
-            throw new IOSException(e);
+        if (execution.hasLimits()) {
+            CommandWatchdog.watch(execution);
         }
+        return execution;
+    }
 
-        if (rc != 0) {
-            throw new IOSException("The command was unsuccessful");
+    /**
+     * Joins the command, masking the passwords and secrets, as it is logged and recorded in the traces:
+     * the values of the password options, of the -p and -P options of 'security', and of the build settings
+     * named like a password, secret or token.
+     *
+     * @param command
+     * @return the command line to report
+     */
+    static String redact(List<String> command) {
+        boolean security = !command.isEmpty() && "security".equals(CommandOptions.getToolName(command.get(0)));
+        StringBuilder commandLine = new StringBuilder();
+        boolean secret = false;
+        for (String segment : command) {
+            if (commandLine.length() > 0) {
+                commandLine.append(' ');
+            }
+            int equals = segment.indexOf('=');
+            if (secret) {
+                commandLine.append(REDACTED);
+            } else if (equals > 0 && SECRET_NAME.matcher(segment.substring(0, equals)).find()) {
+                commandLine.append(segment, 0, equals + 1).append(REDACTED);
+            } else {
+                commandLine.append(segment);
+            }
+            secret = PASSWORD_OPTION.matcher(segment).matches()
+                    || (security && ("-p".equals(segment) || "-P".equals(segment)));
         }
+        return commandLine.toString();
+    }
 
-        return returnValue;
+    static String formatTail(OutputTail tail) {
+        String output = tail.toString();
+        if (output.length() == 0) {
+            return "";
+        }
+        return ". " + (tail.isTruncated() ? "Last output" : "Output") + ":\n" + output;
     }
 }
@@ -0,0 +1,92 @@
+package com.brewinapps.ios;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits applied to the commands run by the plugin. A limit of 0 means no limit.
+ * Instances are immutable.
+ *
+ * @author Brewin' Apps AS
+ */
+public class CommandOptions {
+
+    public static final CommandOptions DEFAULT = new CommandOptions(0, 0, Collections.<String, Long>emptyMap(), null);
+
+    private final long timeoutMillis;
+    private final long idleTimeoutMillis;
+    private final Map<String, Long> toolTimeoutsMillis;
+    private final DaemonClient daemon;
+
+    private CommandOptions(long timeoutMillis, long idleTimeoutMillis, Map<String, Long> toolTimeoutsMillis,
+                           DaemonClient daemon) {
+        this.timeoutMillis = timeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.toolTimeoutsMillis = toolTimeoutsMillis;
+        this.daemon = daemon;
+    }
+
+    /**
+     * @param timeout maximum run time of a command
+     * @param unit
+     */
+    public CommandOptions withTimeout(long timeout, TimeUnit unit) {
+        return new CommandOptions(unit.toMillis(timeout), idleTimeoutMillis, toolTimeoutsMillis, daemon);
+    }
+
+    /**
+     * @param timeout maximum time a command may stay silent on both its output streams
+     * @param unit
+     */
+    public CommandOptions withIdleTimeout(long timeout, TimeUnit unit) {
+        return new CommandOptions(timeoutMillis, unit.toMillis(timeout), toolTimeoutsMillis, daemon);
+    }
+
+    /**
+     * @param tool name of the executable, e.g. 'pod'
+     * @param timeout maximum run time of the commands of this tool, overriding the general timeout
+     * @param unit
+     */
+    public CommandOptions withToolTimeout(String tool, long timeout, TimeUnit unit) {
+        Map<String, Long> timeouts = new HashMap<String, Long>(toolTimeoutsMillis);
+        timeouts.put(tool, unit.toMillis(timeout));
+        return new CommandOptions(timeoutMillis, idleTimeoutMillis, Collections.unmodifiableMap(timeouts), daemon);
+    }
+
+    /**
+     * @param daemon the build daemon the commands are run by, null to run them in this JVM
+     */
+    CommandOptions withDaemon(DaemonClient daemon) {
+        return new CommandOptions(timeoutMillis, idleTimeoutMillis, toolTimeoutsMillis, daemon);
+    }
+
+    DaemonClient getDaemon() {
+        return daemon;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @param command the command line
+     * @return the timeout applying to the command
+     */
+    public long getTimeoutMillis(List<String> command) {
+        if (!command.isEmpty()) {
+            Long toolTimeout = toolTimeoutsMillis.get(getToolName(command.get(0)));
+            if (null != toolTimeout) {
+                return toolTimeout;
+            }
+        }
+        return timeoutMillis;
+    }
+
+    static String getToolName(String executable) {
+        int separator = executable.lastIndexOf('/');
+        return separator >= 0 ? executable.substring(separator + 1) : executable;
+    }
+}
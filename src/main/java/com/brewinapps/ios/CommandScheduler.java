@@ -0,0 +1,224 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * JVM wide governor of the commands run by the plugin, so that the modules of a parallel reactor
+ * build do not start more xcodebuild or CocoaPods processes than the host can take.
+ * <p/>
+ * Each tool class has a number of permits, handed out in arrival order. Tools without a limit are not
+ * queued. Optionally, the permits are also slots locked in a directory shared by all the Maven processes
+ * of the host; those are polled, so the order across processes is not guaranteed.
+ *
+ * @author Brewin' Apps AS
+ */
+class CommandScheduler {
+
+    /**
+     * Permits per tool class when none are configured.
+     */
+    static final Map<String, Integer> DEFAULT_PERMITS;
+
+    static {
+        Map<String, Integer> permits = new HashMap<String, Integer>();
+        permits.put(ToolRegistry.XCODEBUILD, 2);
+        permits.put(ToolRegistry.POD, 1);
+        DEFAULT_PERMITS = Collections.unmodifiableMap(permits);
+    }
+
+    /**
+     * Waits shorter than this are only logged at debug level.
+     */
+    static final long REPORTED_WAIT_MILLIS = 1000;
+
+    private static final long POLL_MILLIS = 200;
+
+    private static final CommandScheduler INSTANCE = new CommandScheduler();
+
+    private final Map<String, Semaphore> semaphores = new HashMap<String, Semaphore>();
+    private final Map<String, Integer> semaphoreLimits = new HashMap<String, Integer>();
+    private Map<String, Integer> permits = DEFAULT_PERMITS;
+    private File lockDir;
+
+    static CommandScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Commands already holding a permit keep it, the new limits apply to the next commands.
+     *
+     * @param permits permits per tool class, 0 meaning no limit, overriding the defaults
+     * @param lockDir directory of the slots shared with the other processes of the host, null to only
+     *                govern this JVM
+     */
+    synchronized void configure(Map<String, Integer> permits, File lockDir) {
+        Map<String, Integer> merged = new HashMap<String, Integer>(DEFAULT_PERMITS);
+        if (null != permits) {
+            merged.putAll(permits);
+        }
+        this.permits = merged;
+        this.lockDir = lockDir;
+    }
+
+    /**
+     * @param toolClass
+     * @return the number of commands of the tool class run at the same time, 0 if there is no limit
+     */
+    synchronized int getPermits(String toolClass) {
+        Integer configured = permits.get(toolClass);
+        return null != configured && configured > 0 ? configured : 0;
+    }
+
+    /**
+     * @param executable
+     * @return the class of the tool, the tools sharing the same resources being in the same class
+     */
+    static String getToolClass(String executable) {
+        String tool = CommandOptions.getToolName(executable);
+        return ToolRegistry.XCTOOL.equals(tool) ? ToolRegistry.XCODEBUILD : tool;
+    }
+
+    /**
+     * Waits for a permit to run the executable.
+     *
+     * @param executable
+     * @param logger
+     * @return the permit, to release once the command completed
+     * @throws IOSException if interrupted while waiting
+     */
+    Permit acquire(String executable, Log logger) throws IOSException {
+        String toolClass = getToolClass(executable);
+        Semaphore semaphore;
+        int limit;
+        File slotDir;
+        synchronized (this) {
+            Integer configured = permits.get(toolClass);
+            limit = null != configured ? configured : 0;
+            if (limit <= 0) {
+                return Permit.NONE;
+            }
+            semaphore = semaphores.get(toolClass);
+            if (null == semaphore || limit != semaphoreLimits.get(toolClass)) {
+                semaphore = new Semaphore(limit, true);
+                semaphores.put(toolClass, semaphore);
+                semaphoreLimits.put(toolClass, limit);
+            }
+            slotDir = lockDir;
+        }
+
+        long start = System.currentTimeMillis();
+        if (!semaphore.tryAcquire()) {
+            logger.debug("Waiting for one of the " + limit + " " + toolClass + " permits");
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOSException(e);
+            }
+        }
+
+        Permit permit = new Permit(semaphore);
+        if (null != slotDir) {
+            try {
+                permit.lock = lockSlot(slotDir, toolClass, limit);
+            } catch (IOException e) {
+                logger.warn("Failed to lock a " + toolClass + " slot in " + slotDir + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                permit.release();
+                Thread.currentThread().interrupt();
+                throw new IOSException(e);
+            }
+        }
+
+        permit.waitMillis = System.currentTimeMillis() - start;
+        if (permit.waitMillis >= REPORTED_WAIT_MILLIS) {
+            logger.info(String.format("Waited %.1f s for a %s permit", permit.waitMillis / 1000.0, toolClass));
+        }
+        return permit;
+    }
+
+    /**
+     * Locks the first free slot of the tool class, polling until one is released by another process.
+     */
+    private static FileLock lockSlot(File slotDir, String toolClass, int limit)
+            throws IOException, InterruptedException {
+        slotDir.mkdirs();
+        while (true) {
+            for (int i = 0; i < limit; i++) {
+                FileChannel channel = new RandomAccessFile(new File(slotDir, toolClass + "." + i + ".lock"), "rw")
+                        .getChannel();
+                FileLock lock = null;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    // Held by another thread of this JVM
+                } finally {
+                    if (null == lock) {
+                        channel.close();
+                    }
+                }
+                if (null != lock) {
+                    return lock;
+                }
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * The right to run one command.
+     */
+    static class Permit {
+
+        /**
+         * Permit of the tools without a limit.
+         */
+        static final Permit NONE = new Permit(null);
+
+        private final Semaphore semaphore;
+        private FileLock lock;
+        private long waitMillis;
+        private boolean released;
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        /**
+         * @return how long the command was queued
+         */
+        long getWaitMillis() {
+            return waitMillis;
+        }
+
+        /**
+         * Releases the permit. Releasing it again has no effect.
+         */
+        synchronized void release() {
+            if (released || null == semaphore) {
+                return;
+            }
+            released = true;
+            if (null != lock) {
+                try {
+                    lock.release();
+                    lock.channel().close();
+                } catch (IOException e) {
+                    // The lock is released when the channel is closed, or when the process exits
+                }
+            }
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.brewinapps.ios;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checks the running commands and kills those over their time or silence limits.
+ *
+ * @author Brewin' Apps AS
+ */
+class CommandWatchdog {
+
+    static final long CHECK_INTERVAL_MILLIS = 500;
+
+    private static final Set<CommandExecution> WATCHED =
+            Collections.newSetFromMap(new ConcurrentHashMap<CommandExecution, Boolean>());
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ios-command-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        TIMER.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check(System.currentTimeMillis());
+            }
+        }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private CommandWatchdog() {
+    }
+
+    static void watch(CommandExecution execution) {
+        WATCHED.add(execution);
+    }
+
+    static void check(long now) {
+        Iterator<CommandExecution> it = WATCHED.iterator();
+        while (it.hasNext()) {
+            CommandExecution execution = it.next();
+            if (execution.isDone() || execution.checkLimits(now)) {
+                it.remove();
+            }
+        }
+    }
+}
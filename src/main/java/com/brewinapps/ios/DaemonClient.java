@@ -0,0 +1,293 @@
+package com.brewinapps.ios;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Connection to the {@link BuildDaemon} of the host, started on first use.
+ * Every request opens its own connection, so a client can be shared by threads.
+ *
+ * @author Brewin' Apps AS
+ */
+class DaemonClient {
+
+    private static final long START_TIMEOUT_MILLIS = 20 * 1000;
+    private static final String START_LOCK_FILE = "start.lock";
+
+    private final int port;
+    private final String token;
+
+    DaemonClient(int port, String token) {
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Connects to the daemon, starting it if it is not running or runs another version of the plugin.
+     *
+     * @param daemonDir
+     * @param idleTimeoutMinutes how long a started daemon waits for requests before exiting
+     * @param logger
+     * @return the client
+     * @throws IOException if the daemon could not be started
+     */
+    static DaemonClient connect(File daemonDir, int idleTimeoutMinutes, Log logger) throws IOException {
+        daemonDir.mkdirs();
+        RandomAccessFile lockFile = new RandomAccessFile(new File(daemonDir, START_LOCK_FILE), "rw");
+        try {
+            // Builds started at the same time must not start several daemons
+            FileLock lock = lockFile.getChannel().lock();
+            try {
+                DaemonClient client = find(daemonDir);
+                if (null != client) {
+                    return client;
+                }
+                return start(daemonDir, idleTimeoutMinutes, logger);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    /**
+     * @param daemonDir
+     * @return a client of the running daemon, or null if none runs this version of the plugin
+     */
+    static DaemonClient find(File daemonDir) {
+        Properties info = readInfo(daemonDir);
+        if (null == info) {
+            return null;
+        }
+
+        DaemonClient client;
+        try {
+            client = new DaemonClient(Integer.parseInt(info.getProperty(BuildDaemon.PORT)),
+                    info.getProperty(BuildDaemon.TOKEN));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!client.ping()) {
+            return null;
+        }
+        if (!BuildDaemon.getClasspathStamp().equals(info.getProperty(BuildDaemon.CLASSPATH))) {
+            client.stop();
+            return null;
+        }
+        return client;
+    }
+
+    private static DaemonClient start(File daemonDir, int idleTimeoutMinutes, Log logger) throws IOException {
+        StringBuilder classpath = new StringBuilder();
+        for (File entry : BuildDaemon.getClasspath()) {
+            if (classpath.length() > 0) {
+                classpath.append(File.pathSeparatorChar);
+            }
+            classpath.append(entry.getAbsolutePath());
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(classpath.toString());
+        command.add(BuildDaemon.class.getName());
+        command.add(daemonDir.getAbsolutePath());
+        command.add(Integer.toString(idleTimeoutMinutes));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(daemonDir, BuildDaemon.LOG_FILE)));
+        logger.info("Starting the build daemon, logging to " + new File(daemonDir, BuildDaemon.LOG_FILE));
+        Process process = pb.start();
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            DaemonClient client = find(daemonDir);
+            if (null != client) {
+                return client;
+            }
+            try {
+                process.exitValue();
+                throw new IOException("The build daemon exited, see " + new File(daemonDir, BuildDaemon.LOG_FILE));
+            } catch (IllegalThreadStateException e) {
+                // Still starting
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        process.destroy();
+        throw new IOException("The build daemon did not start within " + START_TIMEOUT_MILLIS / 1000 + " seconds");
+    }
+
+    private static Properties readInfo(File daemonDir) {
+        File infoFile = new File(daemonDir, BuildDaemon.INFO_FILE);
+        if (!infoFile.isFile()) {
+            return null;
+        }
+        Properties info = new Properties();
+        try {
+            InputStream input = new FileInputStream(infoFile);
+            try {
+                info.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return info;
+    }
+
+    /**
+     * @return true if the daemon answered
+     */
+    boolean ping() {
+        try {
+            request(BuildDaemon.PING);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Asks the daemon to exit once its running commands completed.
+     */
+    void stop() {
+        try {
+            request(BuildDaemon.STOP);
+        } catch (IOException e) {
+            // Not running anymore
+        }
+    }
+
+    /**
+     * @param tool
+     * @return the version of the tool found with the PATH and DEVELOPER_DIR of this JVM, cached by the daemon
+     * @throws IOException
+     */
+    String getVersion(String tool) throws IOException {
+        return getVersion(tool, ToolRegistry.getInstance());
+    }
+
+    /**
+     * @param tool
+     * @param registry the environment the tool is looked up in
+     * @return the version of the tool found with the PATH and DEVELOPER_DIR of the registry, cached by the daemon
+     * @throws IOException
+     */
+    String getVersion(String tool, ToolRegistry registry) throws IOException {
+        String developerDir = registry.getDeveloperDir();
+        return new DataInputStream(new ByteArrayInputStream(request(BuildDaemon.VERSION, tool,
+                registry.getSearchPath(), null != developerDir ? developerDir : ""))).readUTF();
+    }
+
+    /**
+     * @param container the .xcworkspace or .xcodeproj directory
+     * @return the names of the schemes, targets and configurations, see {@link XcodeModelCache#describe}
+     * @throws IOException
+     */
+    Map<String, List<String>> describeModel(File container) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                request(BuildDaemon.MODEL, container.getAbsolutePath())));
+        Map<String, List<String>> model = new LinkedHashMap<String, List<String>>();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            int count = in.readInt();
+            List<String> names = new ArrayList<String>(count);
+            for (int j = 0; j < count; j++) {
+                names.add(in.readUTF());
+            }
+            model.put(key, names);
+        }
+        return model;
+    }
+
+    /**
+     * Starts the command on the daemon, in the directory and with the environment of the process builder.
+     *
+     * @param pb
+     * @return the running command
+     * @throws IOException if the command could not be started
+     */
+    Process start(ProcessBuilder pb) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(BuildDaemon.RUN);
+            out.writeUTF(null != pb.directory() ? pb.directory().getAbsolutePath() : "");
+            Map<String, String> environment = pb.environment();
+            out.writeInt(environment.size());
+            for (Map.Entry<String, String> entry : environment.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(pb.command().size());
+            for (String argument : pb.command()) {
+                out.writeUTF(argument);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int type = in.readByte();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (BuildDaemon.STARTED != type) {
+                throw new IOException(new String(data, CommandHelper.OUTPUT_CHARSET));
+            }
+            return new RemoteProcess(socket, in);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private byte[] request(String request, String... arguments) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(request);
+            for (String argument : arguments) {
+                out.writeUTF(argument);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int type = in.readByte();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (BuildDaemon.ERROR == type) {
+                throw new IOException(new String(data, CommandHelper.OUTPUT_CHARSET));
+            }
+            return data;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashing helpers.
+ *
+ * @author Brewin' Apps AS
+ */
+class Digests {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Digests() {
+    }
+
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * @param file
+     * @return the hex encoded SHA-1 of the file content
+     * @throws IOException
+     */
+    static String sha1(File file) throws IOException {
+        MessageDigest digest = newSha1();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    static void update(MessageDigest digest, File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(UTF_8));
+        // Separator, so that "ab" + "c" and "a" + "bc" differ
+        digest.update((byte) 0);
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,192 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes directory trees in parallel, one fork/join task per directory, or moves them aside
+ * to a trash directory and deletes them in the background.
+ * <p/>
+ * Symbolic links are deleted, never followed. Files deleted concurrently by another process are ignored.
+ *
+ * @author Brewin' Apps AS
+ */
+class DirectoryCleaner {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ios-cleaner-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final AtomicInteger TRASH_COUNT = new AtomicInteger();
+
+    /**
+     * Deletes the directory and everything under it.
+     *
+     * @param dir
+     * @return the number of files and directories deleted
+     * @throws IOException if something could not be deleted
+     */
+    static long delete(Path dir) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return 0;
+        }
+        try {
+            return POOL.invoke(new DeleteTask(dir));
+        } catch (UncheckedIOException e) {
+            // Fork/join may rethrow a copy of the exception, wrapping the original one
+            Throwable cause = e.getCause();
+            while (null != cause && !(cause instanceof IOException)) {
+                cause = cause.getCause();
+            }
+            throw null != cause ? (IOException) cause : new IOException(e);
+        }
+    }
+
+    /**
+     * Moves the directory to the trash directory and deletes it on a background thread, along with anything
+     * left in the trash by a previous build. If the directory cannot be moved atomically, e.g. because the
+     * trash is on another file system, it is deleted before returning.
+     *
+     * @param dir
+     * @param trashDir
+     * @return the deletion of the trash, already completed if the directory was deleted in place
+     * @throws IOException if the directory could not be moved nor deleted
+     */
+    static Future<Long> deleteInBackground(Path dir, final Path trashDir) throws IOException {
+        if (Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(trashDir);
+            Path trash = trashDir.resolve(dir.getFileName() + "-" + System.currentTimeMillis() + "-"
+                    + TRASH_COUNT.incrementAndGet());
+            try {
+                Files.move(dir, trash, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                delete(dir);
+            }
+        }
+        return emptyTrash(trashDir);
+    }
+
+    /**
+     * Deletes the content of the trash directory on a background thread.
+     *
+     * @param trashDir
+     * @return the deletion, giving the number of files and directories deleted
+     */
+    static Future<Long> emptyTrash(final Path trashDir) {
+        return BACKGROUND.submit(new Callable<Long>() {
+            public Long call() throws IOException {
+                long count = 0;
+                if (!Files.isDirectory(trashDir)) {
+                    return count;
+                }
+                DirectoryStream<Path> entries = Files.newDirectoryStream(trashDir);
+                try {
+                    for (Path entry : entries) {
+                        count += delete(entry);
+                    }
+                } finally {
+                    entries.close();
+                }
+                return count;
+            }
+        });
+    }
+
+    private static boolean deleteIfExists(Path path) throws IOException {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the files of a directory, forking a task per subdirectory, then the directory itself.
+     */
+    private static class DeleteTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 4701478655600375352L;
+
+        private final Path dir;
+
+        DeleteTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Long compute() {
+            try {
+                if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                    return deleteIfExists(dir) ? 1L : 0L;
+                }
+
+                long count = 0;
+                List<DeleteTask> subtasks = new ArrayList<DeleteTask>();
+                DirectoryStream<Path> entries;
+                try {
+                    entries = Files.newDirectoryStream(dir);
+                } catch (NoSuchFileException e) {
+                    return 0L;
+                }
+                try {
+                    for (Path entry : entries) {
+                        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            DeleteTask subtask = new DeleteTask(entry);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        } else if (deleteIfExists(entry)) {
+                            count++;
+                        }
+                    }
+                } finally {
+                    entries.close();
+                }
+                for (DeleteTask subtask : subtasks) {
+                    count += subtask.join();
+                }
+
+                if (deleteIfExists(dir)) {
+                    count++;
+                }
+                return count;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries an IOException out of a fork/join task.
+     */
+    private static class UncheckedIOException extends RuntimeException {
+        private static final long serialVersionUID = -1505033250233569123L;
+
+        UncheckedIOException(IOException cause) {
+            super(cause);
+        }
+
+    }
+}
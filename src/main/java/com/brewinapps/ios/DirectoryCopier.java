@@ -0,0 +1,117 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Copies directory trees, keeping symbolic links as links and the permissions and times of the files,
+ * as 'cp -pR' does. Used where the file system cannot clone the tree.
+ *
+ * @author Brewin' Apps AS
+ */
+class DirectoryCopier {
+
+    private DirectoryCopier() {
+    }
+
+    /**
+     * @param source
+     * @param target must not exist yet
+     * @return the command cloning the tree copy-on-write where the file system supports it: APFS on macOS,
+     *         Btrfs or XFS on Linux. Null on the other platforms.
+     */
+    static List<String> getCloneCommand(File source, File target) {
+        String os = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+        if (os.contains("mac")) {
+            return Arrays.asList("cp", "-c", "-R", "-p", source.getAbsolutePath(), target.getAbsolutePath());
+        } else if (os.contains("linux")) {
+            return Arrays.asList("cp", "-a", "--reflink=auto", source.getAbsolutePath(), target.getAbsolutePath());
+        }
+        return null;
+    }
+
+    /**
+     * Clones the tree where the file system supports it, copies it otherwise.
+     *
+     * @param source
+     * @param target must not exist yet
+     * @throws IOException
+     */
+    static void cloneOrCopy(Path source, Path target) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        List<String> clone = getCloneCommand(source.toFile(), target.toFile());
+        if (null != clone) {
+            Process process = new ProcessBuilder(clone).redirectErrorStream(true).start();
+            try {
+                InputStream output = process.getInputStream();
+                try {
+                    byte[] buffer = new byte[4096];
+                    while (output.read(buffer) >= 0) {
+                        // Only the exit code matters
+                    }
+                } finally {
+                    output.close();
+                }
+                if (0 == process.waitFor()) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while cloning " + source);
+            }
+            DirectoryCleaner.delete(target);
+        }
+        copy(source, target);
+    }
+
+    /**
+     * @param source
+     * @param target must not exist yet
+     * @return the number of files, links and directories copied
+     * @throws IOException
+     */
+    static long copy(final Path source, final Path target) throws IOException {
+        final long[] count = new long[1];
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.copy(dir, target.resolve(source.relativize(dir).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.COPY_ATTRIBUTES,
+                        LinkOption.NOFOLLOW_LINKS);
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (null != e) {
+                    throw e;
+                }
+                // Copying the files changed the modification time of the directory
+                Files.setLastModifiedTime(target.resolve(source.relativize(dir).toString()),
+                        Files.getLastModifiedTime(dir));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,105 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * What the distribution providers share: the artifacts, mapped once, and the uploader.
+ *
+ * @author Brewin' Apps AS
+ */
+public class DistributionContext {
+
+    private final SharedArtifact ipa;
+    private final SharedArtifact dsym;
+    private final HttpUploader uploader;
+    private final Log logger;
+
+    private DsymIdentity dsymIdentity;
+    private UploadLedger ledger;
+
+    /**
+     * @param ipa
+     * @param dsym the zipped dSYM, null if there is none
+     * @param uploader
+     * @param logger
+     */
+    public DistributionContext(SharedArtifact ipa, SharedArtifact dsym, HttpUploader uploader, Log logger) {
+        this.ipa = ipa;
+        this.dsym = dsym;
+        this.uploader = uploader;
+        this.logger = logger;
+    }
+
+    /**
+     * Enables the deduplication of the dSYM uploads.
+     *
+     * @param dsymIdentity
+     * @param ledger
+     */
+    void setUploadLedger(DsymIdentity dsymIdentity, UploadLedger ledger) {
+        this.dsymIdentity = dsymIdentity;
+        this.ledger = ledger;
+    }
+
+    /**
+     * @param destination
+     * @return true if this very dSYM was already uploaded to the destination, false if the ledger cannot be read
+     * @throws IOSException
+     */
+    public boolean isDsymUploaded(String destination) throws IOSException {
+        if (null == dsym || null == ledger) {
+            return false;
+        }
+        try {
+            if (ledger.contains(destination, dsymIdentity.getContentHash())) {
+                logger.info("The dSYM " + dsymIdentity.getUuids() + " was already uploaded to " + destination
+                        + ", skipping it");
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            logger.warn("Could not read the upload ledger, uploading the dSYM: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Records that the dSYM was uploaded to the destination. A ledger that cannot be updated does not fail
+     * the upload.
+     *
+     * @param destination
+     * @throws IOSException
+     */
+    public void recordDsymUpload(String destination) throws IOSException {
+        if (null == dsym || null == ledger) {
+            return;
+        }
+        try {
+            ledger.record(destination, dsymIdentity.getContentHash(),
+                    dsym.getFile().getName() + " " + dsymIdentity.getUuids());
+        } catch (IOException e) {
+            logger.warn("Could not record the dSYM upload in the ledger: " + e.getMessage());
+        }
+    }
+
+    public SharedArtifact getIpa() {
+        return ipa;
+    }
+
+    /**
+     * @return the zipped dSYM, or null
+     */
+    public SharedArtifact getDsym() {
+        return dsym;
+    }
+
+    public HttpUploader getUploader() {
+        return uploader;
+    }
+
+    public Log getLog() {
+        return logger;
+    }
+}
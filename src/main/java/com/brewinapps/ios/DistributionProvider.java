@@ -0,0 +1,28 @@
+package com.brewinapps.ios;
+
+/**
+ * A destination the deploy goal distributes the build to.
+ * Providers run concurrently, so implementations must not share mutable state.
+ *
+ * @author Brewin' Apps AS
+ */
+public interface DistributionProvider {
+
+    /**
+     * @return the name of the destination, for the log and the deploy summary
+     */
+    String getName();
+
+    /**
+     * Checks the configuration before anything is uploaded.
+     *
+     * @throws IOSException if the configuration is invalid
+     */
+    void validate() throws IOSException;
+
+    /**
+     * @param context the artifacts to distribute
+     * @throws IOSException if the distribution failed
+     */
+    void distribute(DistributionContext context) throws IOSException;
+}
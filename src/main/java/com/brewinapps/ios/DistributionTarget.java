@@ -0,0 +1,76 @@
+package com.brewinapps.ios;
+
+import java.util.Map;
+
+/**
+ * Configuration of a generic HTTP distribution endpoint.
+ *
+ * @author Brewin' Apps AS
+ */
+public class DistributionTarget {
+
+    /**
+     * Name of the target, for the log and the deploy summary
+     */
+    private String name;
+
+    /**
+     * URL of the endpoint. With PUT, a URL ending with '/' gets the artifact file name appended.
+     */
+    private String url;
+
+    /**
+     * PUT sends each artifact as the raw request body, POST sends them all as a multipart request
+     */
+    private String method = "PUT";
+
+    /**
+     * Comma separated artifacts to upload: ipa, dsym
+     */
+    private String artifacts = "ipa";
+
+    /**
+     * Additional request headers, e.g. for authentication
+     */
+    private Map<String, String> headers;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public String getArtifacts() {
+        return artifacts;
+    }
+
+    public void setArtifacts(String artifacts) {
+        this.artifacts = artifacts;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+}
@@ -0,0 +1,164 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Identifies the content of a zipped dSYM: the UUIDs of its DWARF binaries and a hash of its entries.
+ * The hash only depends on the names, sizes and CRCs of the entries, so it can be computed both
+ * while zipping and from the central directory of an existing zip.
+ *
+ * @author Brewin' Apps AS
+ */
+class DsymIdentity {
+
+    private static final String UUIDS = "uuids";
+    private static final String CONTENT_HASH = "contentHash";
+    private static final String ZIP_STAMP = "zipStamp";
+
+    private final List<String> uuids;
+    private final String contentHash;
+
+    DsymIdentity(List<String> uuids, String contentHash) {
+        this.uuids = uuids;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @param dsymDir the dSYM bundle
+     * @param entries the entries of its zip
+     * @return the identity of the zipped dSYM
+     * @throws IOException
+     */
+    static DsymIdentity compute(File dsymDir, List<ParallelZipArchiver.Entry> entries) throws IOException {
+        Map<String, String> checksums = new TreeMap<String, String>();
+        for (ParallelZipArchiver.Entry entry : entries) {
+            if (!entry.isDirectory()) {
+                checksums.put(entry.getName(), entry.getSize() + ":" + entry.getCrc());
+            }
+        }
+
+        List<String> uuids = new ArrayList<String>();
+        File[] dwarfFiles = new File(dsymDir, "Contents/Resources/DWARF").listFiles();
+        if (null != dwarfFiles) {
+            for (File dwarfFile : dwarfFiles) {
+                if (dwarfFile.isFile()) {
+                    uuids.addAll(MachOUuidReader.readUuids(dwarfFile));
+                }
+            }
+        }
+        Collections.sort(uuids);
+
+        return new DsymIdentity(uuids, hash(checksums));
+    }
+
+    /**
+     * Computes the identity from the central directory of the zip, without the UUIDs.
+     *
+     * @param dsymZip
+     * @return the identity of the zipped dSYM
+     * @throws IOException
+     */
+    static DsymIdentity compute(File dsymZip) throws IOException {
+        Map<String, String> checksums = new TreeMap<String, String>();
+        ZipFile zip = new ZipFile(dsymZip);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    checksums.put(entry.getName(), entry.getSize() + ":" + entry.getCrc());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return new DsymIdentity(Collections.<String>emptyList(), hash(checksums));
+    }
+
+    /**
+     * @param identityFile written by {@link #save}
+     * @param dsymZip
+     * @return the identity, or null if the file is missing or does not describe the current zip
+     * @throws IOException
+     */
+    static DsymIdentity load(File identityFile, File dsymZip) throws IOException {
+        if (!identityFile.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(identityFile);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        if (!getZipStamp(dsymZip).equals(properties.getProperty(ZIP_STAMP))) {
+            return null;
+        }
+
+        String uuids = properties.getProperty(UUIDS, "");
+        List<String> uuidList = new ArrayList<String>();
+        for (String uuid : StringUtils.split(uuids, ",")) {
+            uuidList.add(uuid);
+        }
+        return new DsymIdentity(uuidList, properties.getProperty(CONTENT_HASH));
+    }
+
+    /**
+     * @param identityFile
+     * @param dsymZip the zip this identity describes
+     * @throws IOException
+     */
+    void save(File identityFile, File dsymZip) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(UUIDS, StringUtils.join(uuids.iterator(), ","));
+        properties.setProperty(CONTENT_HASH, contentHash);
+        properties.setProperty(ZIP_STAMP, getZipStamp(dsymZip));
+
+        OutputStream output = new FileOutputStream(identityFile);
+        try {
+            properties.store(output, "dSYM identity");
+        } finally {
+            output.close();
+        }
+    }
+
+    List<String> getUuids() {
+        return uuids;
+    }
+
+    String getContentHash() {
+        return contentHash;
+    }
+
+    private static String getZipStamp(File dsymZip) {
+        return dsymZip.length() + ":" + dsymZip.lastModified();
+    }
+
+    private static String hash(Map<String, String> checksums) {
+        MessageDigest sha1 = Digests.newSha1();
+        for (Map.Entry<String, String> entry : checksums.entrySet()) {
+            Digests.update(sha1, entry.getKey());
+            Digests.update(sha1, entry.getValue());
+        }
+        return Digests.toHex(sha1.digest());
+    }
+}
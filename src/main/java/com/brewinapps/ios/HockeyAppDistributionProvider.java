@@ -0,0 +1,129 @@
+package com.brewinapps.ios;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.StringBody;
+
+/**
+ * Uploads the IPA and the dSYM to HockeyApp.
+ *
+ * @author Brewin' Apps AS
+ */
+public class HockeyAppDistributionProvider implements DistributionProvider {
+
+    static final String HOCKEYAPP_UPLOAD_URL = "https://rink.hockeyapp.net/api/2/apps/%s/app_versions";
+
+    private final Map<String, String> hockeyApp;
+
+    /**
+     * @param hockeyApp the HockeyApp configuration
+     */
+    public HockeyAppDistributionProvider(Map<String, String> hockeyApp) {
+        this.hockeyApp = hockeyApp;
+    }
+
+    public String getName() {
+        return "HockeyApp";
+    }
+
+    public void validate() throws IOSException {
+        if (hockeyApp.get("apiToken") == null) {
+            throw new IOSException("The 'hockeyAppToken' parameter is required to upload to Hockey App");
+        }
+        if (hockeyApp.get("appIdentifier") == null) {
+            throw new IOSException("The 'hockeyAppIdentifier' parameter is required to upload to Hockey App");
+        }
+    }
+
+    public void distribute(final DistributionContext context) throws IOSException {
+        final String destination = getDestination();
+        final boolean withDsym = null != context.getDsym() && !context.isDsymUploaded(destination);
+        context.getUploader().upload("build to HockeyApp", new HttpUploader.RequestFactory() {
+            public HttpUriRequest createRequest() throws IOSException {
+                HttpPost post = createHockeyAppHttpPost();
+                post.setEntity(createHockeyAppMultipartEntity(context, withDsym));
+                return post;
+            }
+        });
+        if (withDsym) {
+            context.recordDsymUpload(destination);
+        }
+    }
+
+    /**
+     * @return the key of the HockeyApp app in the upload ledger
+     */
+    protected String getDestination() {
+        return "hockeyapp:" + hockeyApp.get("appIdentifier");
+    }
+
+    protected HttpPost createHockeyAppHttpPost() {
+        String hockeyAppUrl = String.format(HOCKEYAPP_UPLOAD_URL, hockeyApp.get("appIdentifier"));
+        HttpPost post = new HttpPost(hockeyAppUrl);
+        post.addHeader("X-HockeyAppToken", hockeyApp.get("apiToken"));
+
+        return post;
+    }
+
+    protected MultipartEntity createHockeyAppMultipartEntity(DistributionContext context, boolean withDsym)
+            throws IOSException {
+        MultipartEntity entity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE);
+
+        entity.addPart("ipa", new ByteBufferBody(context.getIpa(), "application/zip"));
+        if (withDsym) {
+            entity.addPart("dsym", new ByteBufferBody(context.getDsym(), "application/zip"));
+        }
+
+        StringBody notesBody = createStringBody("notes");
+        if (null != notesBody) {
+            entity.addPart("notes", notesBody);
+        }
+
+        StringBody notesTypeBody = createStringBody("notesType");
+        if (null != notesTypeBody) {
+            entity.addPart("notes_type", notesTypeBody);
+        }
+
+        StringBody notifyBody = createStringBody("notify");
+        if (null != notifyBody) {
+            entity.addPart("notify", notifyBody);
+        }
+
+        StringBody statusBody = createStringBody("status");
+        if (null != statusBody) {
+            entity.addPart("status", statusBody);
+        }
+
+        StringBody mandatoryBody = createStringBody("mandatory");
+        if (null != mandatoryBody) {
+            entity.addPart("mandatory", mandatoryBody);
+        }
+
+        StringBody tagsBody = createStringBody("tags");
+        if (null != tagsBody) {
+            entity.addPart("tags", tagsBody);
+        }
+
+        return entity;
+    }
+
+    protected StringBody createStringBody(String paramName) throws IOSException {
+        StringBody body = null;
+        String paramValue = hockeyApp.get(paramName);
+        if (paramValue != null) {
+            try {
+                body = new StringBody(paramValue, "text/plain", Charset.forName("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IOSException(e);
+            }
+        }
+
+        return body;
+    }
+}
@@ -0,0 +1,125 @@
+package com.brewinapps.ios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+
+/**
+ * Uploads the artifacts to a generic HTTP endpoint, such as an artifact store,
+ * an OTA server or a crash symbol server.
+ *
+ * @author Brewin' Apps AS
+ */
+public class HttpDistributionProvider implements DistributionProvider {
+
+    static final String IPA = "ipa";
+    static final String DSYM = "dsym";
+
+    private final DistributionTarget target;
+
+    /**
+     * @param target
+     */
+    public HttpDistributionProvider(DistributionTarget target) {
+        this.target = target;
+    }
+
+    public String getName() {
+        return null != target.getName() ? target.getName() : target.getUrl();
+    }
+
+    public void validate() throws IOSException {
+        if (null == target.getUrl()) {
+            throw new IOSException("The 'url' parameter is required for the distribution target '" + getName() + "'");
+        }
+        if (!"PUT".equalsIgnoreCase(target.getMethod()) && !"POST".equalsIgnoreCase(target.getMethod())) {
+            throw new IOSException("Unsupported method '" + target.getMethod() + "' for the distribution target '"
+                    + getName() + "', use PUT or POST");
+        }
+        for (String artifact : getArtifacts()) {
+            if (!IPA.equals(artifact) && !DSYM.equals(artifact)) {
+                throw new IOSException("Unknown artifact '" + artifact + "' for the distribution target '"
+                        + getName() + "', use ipa or dsym");
+            }
+        }
+    }
+
+    public void distribute(DistributionContext context) throws IOSException {
+        final String destination = "http:" + target.getUrl();
+        final List<String> names = new ArrayList<String>();
+        final List<SharedArtifact> artifacts = new ArrayList<SharedArtifact>();
+        boolean withDsym = false;
+        for (String artifact : getArtifacts()) {
+            SharedArtifact shared = IPA.equals(artifact) ? context.getIpa() : context.getDsym();
+            if (null == shared) {
+                throw new IOSException("No " + artifact + " to upload to '" + getName() + "'");
+            }
+            if (DSYM.equals(artifact)) {
+                if (context.isDsymUploaded(destination)) {
+                    continue;
+                }
+                withDsym = true;
+            }
+            names.add(artifact);
+            artifacts.add(shared);
+        }
+        if (artifacts.isEmpty()) {
+            return;
+        }
+
+        if ("POST".equalsIgnoreCase(target.getMethod())) {
+            context.getUploader().upload("build to " + getName(), new HttpUploader.RequestFactory() {
+                public HttpUriRequest createRequest() {
+                    MultipartEntity entity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE);
+                    for (int i = 0; i < artifacts.size(); i++) {
+                        entity.addPart(names.get(i), new ByteBufferBody(artifacts.get(i), "application/zip"));
+                    }
+                    return prepareRequest(new HttpPost(target.getUrl()), entity);
+                }
+            });
+        } else {
+            for (final SharedArtifact artifact : artifacts) {
+                final String url = target.getUrl().endsWith("/")
+                        ? target.getUrl() + artifact.getFile().getName() : target.getUrl();
+                context.getUploader().upload(artifact.getFile().getName() + " to " + getName(),
+                        new HttpUploader.RequestFactory() {
+                            public HttpUriRequest createRequest() {
+                                return prepareRequest(new HttpPut(url),
+                                        new ByteBufferEntity(artifact, "application/zip"));
+                            }
+                        });
+            }
+        }
+        if (withDsym) {
+            context.recordDsymUpload(destination);
+        }
+    }
+
+    private HttpUriRequest prepareRequest(HttpEntityEnclosingRequestBase request, HttpEntity entity) {
+        request.setEntity(entity);
+        if (null != target.getHeaders()) {
+            for (Map.Entry<String, String> header : target.getHeaders().entrySet()) {
+                request.addHeader(header.getKey(), header.getValue());
+            }
+        }
+        return request;
+    }
+
+    private List<String> getArtifacts() {
+        List<String> artifacts = new ArrayList<String>();
+        for (String artifact : target.getArtifacts().split(",")) {
+            if (artifact.trim().length() > 0) {
+                artifacts.add(artifact.trim().toLowerCase());
+            }
+        }
+        return artifacts;
+    }
+}
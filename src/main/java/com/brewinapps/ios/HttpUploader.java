@@ -0,0 +1,165 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ParseException;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.util.EntityUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Sends upload requests, logging their progress and retrying them with an exponential backoff.
+ *
+ * @author Brewin' Apps AS
+ */
+public class HttpUploader {
+
+    /**
+     * Creates the request of each attempt.
+     */
+    public interface RequestFactory {
+        HttpUriRequest createRequest() throws IOSException;
+    }
+
+    private final int retries;
+    private final int retryDelay;
+    private final Log logger;
+
+    /**
+     * @param retries number of times a failed upload is retried
+     * @param retryDelay delay, in seconds, before the first retry
+     * @param logger
+     */
+    public HttpUploader(int retries, int retryDelay, Log logger) {
+        this.retries = retries;
+        this.retryDelay = retryDelay;
+        this.logger = logger;
+    }
+
+    /**
+     * @param name what is uploaded, for the log
+     * @param factory
+     * @return the body of the response
+     * @throws IOSException if the upload was rejected or failed on every attempt
+     */
+    public String upload(String name, RequestFactory factory) throws IOSException {
+        Span span = Tracer.get().startSpan("upload " + name);
+        try {
+            return upload(name, factory, span);
+        } catch (IOSException e) {
+            span.setError(e.getMessage());
+            throw e;
+        } catch (RuntimeException e) {
+            span.setError(e.toString());
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private String upload(String name, RequestFactory factory, Span span) throws IOSException {
+        for (int attempt = 1; ; attempt++) {
+            span.setAttribute("attempts", attempt);
+            String failure;
+            try {
+                Response response = send(name, factory.createRequest(), span);
+                if (response.isSuccessful()) {
+                    return response.body;
+                }
+                if (!response.isRetryable()) {
+                    throw new IOSException("The upload of " + name + " was rejected: " + response.statusLine);
+                }
+                failure = response.statusLine.toString();
+            } catch (IOException e) {
+                failure = e.toString();
+            }
+
+            if (attempt > retries) {
+                throw new IOSException("The upload of " + name + " failed after " + attempt + " attempts: " + failure);
+            }
+            long delay = retryDelay * 1000L << (attempt - 1);
+            logger.warn("Upload attempt " + attempt + " of " + name + " failed (" + failure + "), retrying in "
+                    + delay / 1000 + " s");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOSException(e);
+            }
+        }
+    }
+
+    private Response send(String name, HttpUriRequest request, Span span) throws IOException, IOSException {
+        ProgressHttpEntity progress = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+            progress = new ProgressHttpEntity(enclosingRequest.getEntity(), name, logger);
+            enclosingRequest.setEntity(progress);
+        }
+
+        HttpClient client = createHttpClient();
+        try {
+            HttpResponse response = client.execute(request);
+            StatusLine statusLine = response.getStatusLine();
+            logger.info(name + ": " + statusLine);
+            // Without the query, which may hold credentials
+            span.setAttribute("http.url", request.getURI().getScheme() + "://" + request.getURI().getHost()
+                    + request.getURI().getRawPath());
+            span.setAttribute("http.status_code", statusLine.getStatusCode());
+            if (null != progress) {
+                span.setAttribute("http.request.bytes", progress.getBytesSent());
+            }
+
+            String body = null;
+            HttpEntity responseEntity = response.getEntity();
+            if (responseEntity != null) {
+                try {
+                    body = EntityUtils.toString(responseEntity);
+                } catch (ParseException e) {
+                    throw new IOSException(e);
+                }
+                if (body.length() > 0) {
+                    logger.info(body);
+                }
+            }
+            return new Response(statusLine, body);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    protected HttpClient createHttpClient() {
+        HttpClient client = new DefaultHttpClient();
+        client.getParams().setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_1);
+
+        return client;
+    }
+
+    private static class Response {
+        final StatusLine statusLine;
+        final String body;
+
+        Response(StatusLine statusLine, String body) {
+            this.statusLine = statusLine;
+            this.body = body;
+        }
+
+        boolean isSuccessful() {
+            int status = statusLine.getStatusCode();
+            return status >= 200 && status < 300;
+        }
+
+        boolean isRetryable() {
+            int status = statusLine.getStatusCode();
+            return status >= 500 || status == 408 || status == 429;
+        }
+    }
+}
@@ -3,8 +3,15 @@ package com.brewinapps.ios;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base class with shared configuration.
@@ -112,17 +119,189 @@ public abstract class IOSAbstractMojo extends AbstractMojo {
      */
     protected boolean useXctool;
 
-    protected String executeCommand(ProcessBuilder pb) throws IOSException {
-        return CommandHelper.performCommand(pb, getLog());
+    /**
+     * Maximum run time, in seconds, of each command run by the goal. 0 means no limit.
+     *
+     * @parameter property="ios.commandTimeout"
+     *            default-value="0"
+     */
+    protected int commandTimeout;
+
+    /**
+     * Maximum time, in seconds, a command may run without producing any output
+     * before it is killed along with its child processes. 0 means no limit.
+     *
+     * @parameter property="ios.commandIdleTimeout"
+     *            default-value="0"
+     */
+    protected int commandIdleTimeout;
+
+    /**
+     * Maximum run time, in seconds, of the commands of a given tool, e.g. pod=600.
+     * Overrides commandTimeout for that tool.
+     *
+     * @parameter
+     */
+    protected Map<String, String> commandTimeouts;
+
+    /**
+     * Maximum number of commands of a given tool run at the same time by all the modules of the build,
+     * e.g. xcodebuild=2. 0 means no limit. Defaults to 2 xcodebuild (or xctool) and 1 pod.
+     *
+     * @parameter
+     */
+    protected Map<String, String> commandPermits;
+
+    /**
+     * If the command permits should also be shared with the other Maven processes of the host
+     *
+     * @parameter property="ios.hostCommandPermits"
+     *            default-value="false"
+     */
+    protected boolean hostCommandPermits;
+
+    /**
+     * Where the command permits shared by the Maven processes of the host are locked
+     *
+     * @parameter property="ios.commandLockDir"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/locks"
+     */
+    protected File commandLockDir;
+
+    /**
+     * If the versions of the Xcode tools should be cached on disk across builds
+     *
+     * @parameter property="ios.toolCache"
+     *            default-value="true"
+     */
+    protected boolean toolCache;
+
+    /**
+     * Where the versions of the Xcode tools are cached
+     *
+     * @parameter property="ios.toolCacheFile"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/tools.properties"
+     */
+    protected File toolCacheFile;
+
+    /**
+     * If the durations and artifact sizes of the build should be recorded in the build statistics
+     *
+     * @parameter property="ios.buildStats"
+     *            default-value="true"
+     */
+    protected boolean buildStats;
+
+    /**
+     * Where the build statistics are recorded
+     *
+     * @parameter property="ios.buildStatsFile"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/build-stats.db"
+     */
+    protected File buildStatsFile;
+
+    /**
+     * If the scheme, target and configuration should be checked against the Xcode project before building
+     *
+     * @parameter property="ios.validateProject"
+     *            default-value="true"
+     */
+    protected boolean validateProject;
+
+    /**
+     * If the commands should be run by the build daemon of the host, started on first use, which keeps
+     * the tool versions and the parsed Xcode projects warm across builds
+     *
+     * @parameter property="ios.useDaemon"
+     *            default-value="false"
+     */
+    protected boolean useDaemon;
+
+    /**
+     * Where the build daemon writes its port, token and log
+     *
+     * @parameter property="ios.daemonDir"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/daemon"
+     */
+    protected File daemonDir;
+
+    /**
+     * Minutes the build daemon waits for requests before exiting
+     *
+     * @parameter property="ios.daemonIdleTimeout"
+     *            default-value="180"
+     */
+    protected int daemonIdleTimeout;
+
+    /**
+     * File the spans of the goals, commands and uploads are appended to. Tracing is disabled if not set.
+     *
+     * @parameter property="ios.traceFile"
+     */
+    protected File traceFile;
+
+    /**
+     * Format of the trace file: 'chrome' (Chrome trace events) or 'otlp' (OTLP/JSON lines)
+     *
+     * @parameter property="ios.traceFormat"
+     *            default-value="chrome"
+     */
+    protected String traceFormat;
+
+    /**
+     * Number of threads compressing or checking the archives. Defaults to the number of processors.
+     *
+     * @parameter property="ios.zipThreads"
+     */
+    protected Integer zipThreads;
+
+    /**
+     * Limits applied to the commands of the goal.
+     */
+    protected CommandOptions commandOptions;
+
+    /**
+     * The build daemon, null if the goal runs its commands itself.
+     */
+    protected DaemonClient daemon;
+
+    protected void executeCommand(ProcessBuilder pb, StreamConsumer... consumers) throws IOSException {
+        CommandHelper.performCommand(pb, getLog(), commandOptions, consumers);
+    }
+
+    protected CommandExecution startCommand(ProcessBuilder pb) throws IOSException {
+        return CommandHelper.startCommand(pb, getLog(), commandOptions);
+    }
+
+    protected String executeCommandForOutput(ProcessBuilder pb) throws IOSException {
+        return CommandHelper.performCommandForOutput(pb, getLog(), commandOptions).trim();
     }
 
     protected void initialize() {
+        if (toolCache) {
+            ToolRegistry.getInstance().setCacheFile(toolCacheFile);
+        }
         loadDefaults();
+        commandOptions = createCommandOptions();
+        configureCommandScheduler();
+        if (useDaemon) {
+            try {
+                daemon = DaemonClient.connect(daemonDir, daemonIdleTimeout, getLog());
+                commandOptions = commandOptions.withDaemon(daemon);
+            } catch (IOException e) {
+                getLog().warn("Failed to connect to the build daemon, running the commands locally: " + e.getMessage());
+            }
+        }
+        try {
+            Tracer.configure(traceFile, traceFormat);
+        } catch (IOSException e) {
+            getLog().warn(e.getMessage() + ", tracing is disabled");
+        }
 
         baseDir = project.getBasedir().toString();
         targetDir = new File(project.getBuild().getDirectory());
         workDir = new File(baseDir + File.separator + sourceDir);
-        appDir = targetDir + File.separator + buildConfiguration + "-" + sdk + File.separator;
+        appDir = getAppDir(targetDir, buildConfiguration, sdk);
 
         getLog().debug("Using '" + getBuildCommand() + "' command for building");
     }
@@ -142,28 +321,172 @@ public abstract class IOSAbstractMojo extends AbstractMojo {
         }
     }
 
-    private String getXctoolPath() {
-        ProcessBuilder pb = new ProcessBuilder("which", "xctool");
-        String xctoolPath;
-        try {
-            xctoolPath = CommandHelper.performCommand(pb, getLog());
-        } catch (IOSException e) {
-            return null;
+    private CommandOptions createCommandOptions() {
+        CommandOptions options = CommandOptions.DEFAULT
+                .withTimeout(commandTimeout, TimeUnit.SECONDS)
+                .withIdleTimeout(commandIdleTimeout, TimeUnit.SECONDS);
+
+        if (null != commandTimeouts) {
+            for (Map.Entry<String, String> entry : commandTimeouts.entrySet()) {
+                if (null != entry.getValue()) {
+                    options = options.withToolTimeout(entry.getKey(), Long.parseLong(entry.getValue().trim()),
+                            TimeUnit.SECONDS);
+                }
+            }
         }
 
-        return xctoolPath;
+        return options;
+    }
+
+    private void configureCommandScheduler() {
+        Map<String, Integer> permits = new HashMap<String, Integer>();
+        if (null != commandPermits) {
+            for (Map.Entry<String, String> entry : commandPermits.entrySet()) {
+                if (null != entry.getValue()) {
+                    permits.put(CommandScheduler.getToolClass(entry.getKey()), Integer.parseInt(entry.getValue().trim()));
+                }
+            }
+        }
+        CommandScheduler.getInstance().configure(permits, hostCommandPermits ? commandLockDir : null);
     }
 
     private boolean xctoolExists() {
-        boolean exists = false;
-        String xctoolPath = getXctoolPath();
-        if (xctoolPath != null) {
-            getLog().debug("xctool found at path '" + xctoolPath + "'");
-            File xctoolFile = new File(xctoolPath);
-            exists = xctoolFile.canExecute();
+        File xctoolFile = ToolRegistry.getInstance().findTool(ToolRegistry.XCTOOL);
+        if (xctoolFile != null) {
+            getLog().debug("xctool found at path '" + xctoolFile + "'");
         }
 
-        return exists;
+        return xctoolFile != null;
+    }
+
+    /**
+     * @return the version of the build command, queried once per JVM
+     * @throws IOSException
+     */
+    protected String getBuildToolVersion() throws IOSException {
+        if (null != daemon) {
+            try {
+                return daemon.getVersion(getBuildCommand());
+            } catch (IOException e) {
+                getLog().debug("The build daemon failed to query the version: " + e.getMessage());
+            }
+        }
+        return ToolRegistry.getInstance().getVersion(getBuildCommand(), getLog());
+    }
+
+    /**
+     * @param symRoot
+     * @param configuration
+     * @param sdk
+     * @return the directory xcodebuild builds the .app in
+     */
+    protected String getAppDir(File symRoot, String configuration, String sdk) {
+        return symRoot + File.separator + configuration + "-" + sdk + File.separator;
+    }
+
+    /**
+     * Checks that the scheme, or else the target, and the configuration exist in the workspace or project,
+     * so that a typo fails the build before xcodebuild starts. Schemes are only checked if the project
+     * has saved schemes, as xcodebuild creates the missing ones.
+     *
+     * @param scheme
+     * @param configuration
+     * @throws IOSException if one of them does not exist
+     */
+    protected void validateXcodeModel(String scheme, String configuration) throws IOSException {
+        if (!validateProject) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, List<String>> model;
+        try {
+            File container;
+            if (null != workspaceName) {
+                String name = workspaceName.endsWith(".xcworkspace") ? workspaceName : workspaceName + ".xcworkspace";
+                container = new File(workDir, name);
+                if (!container.isDirectory()) {
+                    throw new IOSException("Could not find the workspace at '" + container + "'");
+                }
+            } else {
+                container = XcodeProject.findProject(workDir, projectName);
+            }
+            model = null != daemon ? daemon.describeModel(container) : XcodeModelCache.describe(container);
+        } catch (IOException e) {
+            getLog().warn("Could not read the Xcode project, it is not validated: " + e.getMessage());
+            return;
+        }
+
+        List<String> schemes = model.get(XcodeModelCache.SCHEMES);
+        List<String> targets = model.get(XcodeModelCache.TARGETS);
+        if (null != scheme) {
+            // xcodebuild autocreates a scheme per target for the projects without saved schemes
+            if (!schemes.isEmpty() && !schemes.contains(scheme) && !targets.contains(scheme)) {
+                throw new IOSException("Unknown scheme '" + scheme + "', the schemes are " + schemes
+                        + " and the targets are " + targets);
+            }
+        } else if (null != target) {
+            if (!targets.contains(target)) {
+                throw new IOSException("Unknown target '" + target + "', the targets are " + targets);
+            }
+        }
+
+        if (null != configuration) {
+            List<String> configurations = model.get(XcodeModelCache.CONFIGURATIONS);
+            if (!configurations.isEmpty() && !configurations.contains(configuration)) {
+                throw new IOSException("Unknown configuration '" + configuration + "', the configurations are "
+                        + configurations);
+            }
+        }
+        getLog().debug("Validated the Xcode project in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Starts the span of the goal, parent of the spans of its commands and uploads.
+     *
+     * @param goal
+     * @return the active span, to end once the goal completed
+     */
+    protected Span startGoalSpan(String goal) {
+        Span span = Tracer.get().startSpan("ios:" + goal);
+        if (span.isRecording()) {
+            span.setAttribute("project", project.getGroupId() + ":" + project.getArtifactId());
+            span.setAttribute("scheme", scheme);
+            span.setAttribute("configuration", buildConfiguration);
+            span.setAttribute("sdk", sdk);
+        }
+        return span.activate();
+    }
+
+    /**
+     * @param scheme
+     * @param configuration
+     * @return the key of the build statistics of the project for the scheme and configuration
+     */
+    protected String getStatsKey(String scheme, String configuration) {
+        String name = null != scheme ? scheme : (null != target ? target : appName);
+        return project.getGroupId() + ":" + project.getArtifactId() + ":" + name + ":" + configuration;
+    }
+
+    /**
+     * Records a metric of the current build in the build statistics. Failures are only logged.
+     *
+     * @param metric its name tells its unit, see {@link BuildStatsStore.Unit}
+     * @param value a duration in milliseconds, a size in bytes or a flag, 0 or 1
+     */
+    protected void recordMetric(String metric, long value) {
+        recordMetric(getStatsKey(scheme, buildConfiguration), metric, value);
+    }
+
+    protected void recordMetric(String key, String metric, long value) {
+        if (!buildStats || null == buildStatsFile) {
+            return;
+        }
+        try {
+            BuildStatsStore.forFile(buildStatsFile).append(key, metric, value);
+        } catch (IOException e) {
+            getLog().warn("Failed to record the build statistics: " + e.getMessage());
+        }
     }
 
     protected String getBuildCommand() {
@@ -180,4 +503,43 @@ public abstract class IOSAbstractMojo extends AbstractMojo {
     protected String getArtifactPath(String extension) {
         return appDir + File.separator + getArtifactFilename(extension);
     }
+
+    protected int getZipThreads() {
+        return null != zipThreads ? zipThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Zips a directory, compressing on all the zip threads.
+     *
+     * @param dir
+     * @param name name of the directory in the archive
+     * @param zipFile
+     * @param level compression level
+     * @return the entries of the archive
+     * @throws IOSException
+     */
+    protected List<ParallelZipArchiver.Entry> archive(File dir, String name, File zipFile, int level) throws IOSException {
+        getLog().info("Creating " + zipFile.getName());
+        long start = System.currentTimeMillis();
+
+        int threads = getZipThreads();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ParallelZipArchiver archiver = new ParallelZipArchiver(zipFile, level, pool, threads);
+            try {
+                archiver.addTree(dir.toPath(), name);
+            } finally {
+                archiver.close();
+            }
+            getLog().info(String.format("Created %s (%d entries, %.1f MB) in %.1f s", zipFile.getName(),
+                    archiver.getEntries().size(), zipFile.length() / (1024.0 * 1024.0),
+                    (System.currentTimeMillis() - start) / 1000.0));
+            return archiver.getEntries();
+        } catch (IOException e) {
+            zipFile.delete();
+            throw new IOSException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,274 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+
+/**
+ * Builds several scheme/sdk/configuration variants concurrently, each in its own build directory.
+ *
+ * @author Brewin' Apps AS
+ * @goal build-matrix
+ * @phase compile
+ */
+public class IOSBuildMatrixMojo extends IOSBuildMojo {
+
+    static final String MATRIX_DIR = "matrix";
+
+    /**
+     * What a variant name may hold, as it names a directory under target/matrix.
+     */
+    private static final Pattern VARIANT_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    /**
+     * The variants to build
+     *
+     * @parameter
+     * @required
+     */
+    private List<BuildVariant> variants;
+
+    /**
+     * Maximum number of variants built at the same time
+     *
+     * @parameter property="ios.matrixParallelism"
+     *            default-value="2"
+     */
+    private int matrixParallelism;
+
+
+    /**
+     *
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        initialize();
+
+        Span span = startGoalSpan("build-matrix");
+        try {
+            validateParameters();
+            prepare();
+            buildMatrix();
+        } catch (IOSException e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (Exception e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
+        }
+    }
+
+    @Override
+    protected void validateParameters() throws IOSException {
+        if (!workDir.exists()) {
+            throw new IOSException("Invalid sourceDir specified: " + workDir.getAbsolutePath());
+        }
+        if (null == variants || variants.isEmpty()) {
+            throw new IOSException("At least one build variant is required");
+        }
+
+        Set<String> names = new LinkedHashSet<String>();
+        for (BuildVariant variant : variants) {
+            String name = variant.getName();
+            if (null != name && (!VARIANT_NAME.matcher(name).matches() || name.matches("\\.+"))) {
+                throw new IOSException("Invalid build variant name '" + name
+                        + "', use only letters, digits, '.', '_' and '-'");
+            }
+            if (workspaceName != null && getScheme(variant) == null) {
+                throw new IOSException("The 'scheme' parameter is required when building a workspace");
+            }
+            if (!names.add(getVariantName(variant))) {
+                throw new IOSException("Duplicate build variant '" + getVariantName(variant) + "'");
+            }
+            validateXcodeModel(getScheme(variant),
+                    null != variant.getConfiguration() ? variant.getConfiguration() : buildConfiguration);
+        }
+
+        String toolClass = CommandScheduler.getToolClass(getBuildCommand());
+        int permits = CommandScheduler.getInstance().getPermits(toolClass);
+        if (permits > 0 && Math.min(matrixParallelism, variants.size()) > permits) {
+            getLog().warn("matrixParallelism is " + matrixParallelism + " but only " + permits + " " + toolClass
+                    + " commands run at the same time, raise <commandPermits><" + toolClass + "> to build more "
+                    + "variants at once");
+        }
+    }
+
+    protected void buildMatrix() throws IOSException {
+        List<VariantBuild> builds = new ArrayList<VariantBuild>();
+        for (BuildVariant variant : variants) {
+            File symRoot = new File(targetDir, MATRIX_DIR + File.separator + getVariantName(variant));
+            String variantSdk = null != variant.getSdk() ? variant.getSdk() : sdk;
+            String configuration = null != variant.getConfiguration() ? variant.getConfiguration() : buildConfiguration;
+
+            Map<String, String> variantSettings = new LinkedHashMap<String, String>();
+            if (null != variant.getBuildSettings()) {
+                variantSettings.putAll(variant.getBuildSettings());
+            }
+            if (!buildCache) {
+                // Otherwise the variants share the intermediates of the derived data of the project
+                variantSettings.put("OBJROOT", new File(symRoot, BuildCache.INTERMEDIATES_DIR).getAbsolutePath());
+            }
+
+            List<String> parameters = createXcodebuildParameters(getScheme(variant), variantSdk, configuration,
+                    variantSettings, symRoot);
+            if (buildReport) {
+                addBuildReportParameters(parameters);
+            }
+            builds.add(new VariantBuild(getVariantName(variant), parameters,
+                    getAppDir(symRoot, configuration, variantSdk), getStatsKey(getScheme(variant), configuration),
+                    getScheme(variant), configuration, variantSdk, variant.getBuildSettings()));
+        }
+
+        getLog().info("Building " + builds.size() + " variants, " + matrixParallelism + " at a time");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, matrixParallelism));
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        try {
+            for (VariantBuild build : builds) {
+                results.add(executor.submit(build));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    // Reported in the summary
+                    builds.get(i).failed(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOSException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        reportSummary(builds);
+    }
+
+    private void reportSummary(List<VariantBuild> builds) throws IOSException {
+        int failures = 0;
+        getLog().info("Build matrix summary:");
+        for (VariantBuild build : builds) {
+            String status;
+            if (null == build.failure) {
+                status = "SUCCESS";
+            } else {
+                status = "FAILURE";
+                failures++;
+            }
+            getLog().info(String.format("  %-40s %-8s %8.1f s  %s", build.name, status,
+                    build.durationMillis / 1000.0, build.appDir));
+        }
+
+        if (failures > 0) {
+            for (VariantBuild build : builds) {
+                if (null != build.failure) {
+                    getLog().error("Variant '" + build.name + "' failed: " + (build.failure instanceof IOSException
+                            ? build.failure.getMessage() : build.failure.toString()));
+                }
+            }
+            throw new IOSException(failures + " of " + builds.size() + " build variants failed");
+        }
+    }
+
+    private String getScheme(BuildVariant variant) {
+        return null != variant.getScheme() ? variant.getScheme() : scheme;
+    }
+
+    private String getVariantName(BuildVariant variant) {
+        if (null != variant.getName()) {
+            return variant.getName();
+        }
+
+        StringBuilder name = new StringBuilder();
+        String variantScheme = getScheme(variant);
+        if (null != variantScheme) {
+            name.append(variantScheme).append('-');
+        }
+        name.append(null != variant.getConfiguration() ? variant.getConfiguration() : buildConfiguration);
+        name.append('-').append(null != variant.getSdk() ? variant.getSdk() : sdk);
+
+        return name.toString().replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private class VariantBuild implements Callable<Void> {
+        private final String name;
+        private final List<String> parameters;
+        private final String appDir;
+        private final String statsKey;
+        private final String scheme;
+        private final String configuration;
+        private final String sdk;
+        private final Map<String, String> buildSettings;
+        private volatile long durationMillis;
+        private volatile Throwable failure;
+
+        VariantBuild(String name, List<String> parameters, String appDir, String statsKey,
+                     String scheme, String configuration, String sdk, Map<String, String> buildSettings) {
+            this.name = name;
+            this.parameters = parameters;
+            this.appDir = appDir;
+            this.statsKey = statsKey;
+            this.scheme = scheme;
+            this.configuration = configuration;
+            this.sdk = sdk;
+            this.buildSettings = buildSettings;
+        }
+
+        /**
+         * Records an unexpected error, the expected ones are recorded by the build itself.
+         */
+        void failed(Throwable cause) {
+            if (null == failure) {
+                failure = cause;
+            }
+        }
+
+        public Void call() throws IOSException {
+            long start = System.currentTimeMillis();
+            Span span = Tracer.get().startSpan("variant " + name).activate();
+            BuildCache.Lease cacheLease = openBuildCache(scheme, configuration, sdk, buildSettings, statsKey);
+            try {
+                ProcessBuilder pb = new ProcessBuilder(parameters);
+                pb.directory(workDir);
+                if (buildReport) {
+                    XcodebuildLogParser parser = new XcodebuildLogParser();
+                    try {
+                        executeCommand(pb, parser);
+                    } finally {
+                        writeBuildReport(parser, new File(targetDir, "ios-build-" + name + ".timing.json"));
+                    }
+                } else {
+                    executeCommand(pb);
+                }
+                recordMetric(statsKey, "xcodebuild", System.currentTimeMillis() - start);
+            } catch (IOSException e) {
+                failure = e;
+                span.setError(e.getMessage());
+                throw e;
+            } finally {
+                closeBuildCache(cacheLease);
+                durationMillis = System.currentTimeMillis() - start;
+                span.end();
+            }
+            return null;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.brewinapps.ios;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -16,6 +22,8 @@ import org.apache.maven.plugin.MojoFailureException;
  */
 public class IOSBuildMojo extends IOSAbstractMojo {
 
+    private static final Pattern XCODE_VERSION = Pattern.compile("^Xcode (\\d+)", Pattern.MULTILINE);
+
     /**
      * If the install/update of the pods should be skipped (assuming the project uses CocoaPods)
      *
@@ -24,6 +32,75 @@ public class IOSBuildMojo extends IOSAbstractMojo {
      */
     private boolean skipPodsUpdate;
 
+    /**
+     * The CocoaPods command run when the pods are not cached: 'install' installs the versions
+     * locked in the Podfile.lock, 'update' updates the pods to their latest allowed versions
+     *
+     * @parameter property="ios.podsCommand"
+     *            default-value="install"
+     */
+    private String podsCommand;
+
+    /**
+     * If the pods should be restored from the local pods cache when the Podfile and Podfile.lock
+     * match a previous installation
+     *
+     * @parameter property="ios.podsCache"
+     *            default-value="true"
+     */
+    private boolean podsCache;
+
+    /**
+     * Directory of the local pods cache
+     *
+     * @parameter property="ios.podsCacheDir"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/pods-cache"
+     */
+    private File podsCacheDir;
+
+    /**
+     * If the build should be skipped when the sources, the Podfile.lock, the build parameters
+     * and the build tool are unchanged since the last successful build
+     *
+     * @parameter property="ios.incrementalBuild"
+     *            default-value="true"
+     */
+    private boolean incrementalBuild;
+
+    /**
+     * If a build-time breakdown of xcodebuild should be written to the target directory
+     *
+     * @parameter property="ios.buildReport"
+     *            default-value="true"
+     */
+    protected boolean buildReport;
+
+    /**
+     * If the intermediates, precompiled headers and module caches should be kept in the managed build cache,
+     * outside of the target directory, so that they survive a clean
+     *
+     * @parameter property="ios.buildCache"
+     *            default-value="false"
+     */
+    protected boolean buildCache;
+
+    /**
+     * Directory of the managed build cache, shared by all the projects
+     *
+     * @parameter property="ios.buildCacheDir"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/build-cache"
+     */
+    protected File buildCacheDir;
+
+    /**
+     * Maximum size of the managed build cache, in megabytes. The least recently used entries are evicted
+     * once it is exceeded.
+     *
+     * @parameter property="ios.buildCacheMaxSize"
+     *            default-value="10240"
+     */
+    protected long buildCacheMaxSize;
+
     /**
      * iOS code sign identity
      *
@@ -52,16 +129,20 @@ public class IOSBuildMojo extends IOSAbstractMojo {
     public void execute() throws MojoExecutionException, MojoFailureException {
         initialize();
 
+        Span span = startGoalSpan("build");
         try {
             validateParameters();
-            unlockKeychain();
             build();
         } catch (IOSException e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoExecutionException(e.getMessage(), e);
         } catch (Exception e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
         }
     }
 
@@ -84,29 +165,148 @@ public class IOSBuildMojo extends IOSAbstractMojo {
         if (!workDir.exists()) {
             throw new IOSException("Invalid sourceDir specified: " + workDir.getAbsolutePath());
         }
+
+        validateXcodeModel(scheme, buildConfiguration);
     }
 
     protected void build() throws IOSException {
+        BuildFingerprint fingerprint = null;
+        if (incrementalBuild) {
+            fingerprint = computeFingerprint();
+            if (fingerprint.matchesPrevious() && new File(appDir + appName + ".app").exists()) {
+                getLog().info("Nothing changed since the last build of " + appName + ", skipping the build");
+                return;
+            }
+        }
+
+        if (prepare() && null != fingerprint) {
+            // CocoaPods may have updated the Podfile.lock
+            fingerprint = computeFingerprint();
+        }
+
+        if (null != fingerprint) {
+            fingerprint.invalidate();
+        }
+        BuildCache.Lease cacheLease = openBuildCache(scheme, buildConfiguration, sdk, null,
+                getStatsKey(scheme, buildConfiguration));
+        long start = System.currentTimeMillis();
+        try {
+            xcodebuild();
+        } finally {
+            closeBuildCache(cacheLease);
+        }
+        recordMetric("xcodebuild", System.currentTimeMillis() - start);
+        if (null != fingerprint) {
+            saveFingerprint(fingerprint);
+        }
+    }
+
+    /**
+     * Installs the pods and unlocks the keychain.
+     *
+     * @return true if a CocoaPods command was run
+     * @throws IOSException
+     */
+    protected boolean prepare() throws IOSException {
+        // The keychain is unlocked while CocoaPods is busy
+        long start = System.currentTimeMillis();
+        CommandExecution pods = null;
         if ((!skipPodsUpdate || !hasPodfileLock()) && hasPodfile()) {
-            updatePods();
+            pods = updatePods();
+        }
+        boolean unlocked = false;
+        try {
+            unlockKeychain();
+            unlocked = true;
+        } finally {
+            if (!unlocked && null != pods) {
+                pods.abandon();
+            }
+        }
+        if (null != pods) {
+            pods.waitFor();
+            recordMetric("pods", System.currentTimeMillis() - start);
+            cachePods();
+            return true;
+        }
+        return false;
+    }
+
+    protected BuildFingerprint computeFingerprint() throws IOSException {
+        try {
+            BuildFingerprint fingerprint = new BuildFingerprint(getFingerprintFile());
+            fingerprint.compute(workDir, targetDir, new File(workDir, "Podfile.lock"),
+                    createXcodebuildParameters(), getBuildToolVersion());
+            getLog().debug("Hashed " + fingerprint.getHashedFileCount() + " changed source files");
+
+            return fingerprint;
+        } catch (IOException e) {
+            throw new IOSException(e);
         }
+    }
 
-        xcodebuild();
+    protected void saveFingerprint(BuildFingerprint fingerprint) {
+        try {
+            fingerprint.save();
+        } catch (IOException e) {
+            getLog().warn("Failed to save the build fingerprint: " + e.getMessage());
+        }
     }
 
-    protected void updatePods() throws IOSException {
-        List<String> podParams = new ArrayList<String>();
-        podParams.add("pod");
+    protected File getFingerprintFile() {
+        return new File(targetDir, "ios-build-" + buildConfiguration + "-" + sdk + ".fingerprint");
+    }
 
-        if (hasPodfileLock()) {
-            podParams.add("update");
-        } else {
-            podParams.add("install");
+    /**
+     * @return the running CocoaPods command, or null if the pods were restored from the cache
+     * @throws IOSException
+     */
+    protected CommandExecution updatePods() throws IOSException {
+        boolean update = "update".equals(podsCommand) && hasPodfileLock();
+        if (!update && restorePods()) {
+            return null;
         }
 
+        List<String> podParams = new ArrayList<String>();
+        podParams.add("pod");
+        podParams.add(update ? "update" : "install");
+
         ProcessBuilder pb = new ProcessBuilder(podParams);
         pb.directory(workDir);
-        executeCommand(pb);
+        return startCommand(pb);
+    }
+
+    protected boolean restorePods() throws IOSException {
+        if (!podsCache) {
+            return false;
+        }
+
+        try {
+            PodsCache cache = new PodsCache(podsCacheDir);
+            String key = cache.computeKey(new File(workDir, "Podfile"), new File(workDir, "Podfile.lock"));
+            if (cache.restore(key, new File(workDir, "Pods"))) {
+                getLog().info("Restored pods " + key + " from " + podsCacheDir);
+                return true;
+            }
+            getLog().debug("No cached pods for the current Podfile.lock");
+        } catch (IOException e) {
+            getLog().warn("Failed to restore the pods from the cache: " + e.getMessage());
+        }
+        return false;
+    }
+
+    protected void cachePods() {
+        if (!podsCache) {
+            return;
+        }
+
+        try {
+            PodsCache cache = new PodsCache(podsCacheDir);
+            String key = cache.computeKey(new File(workDir, "Podfile"), new File(workDir, "Podfile.lock"));
+            cache.store(key, new File(workDir, "Pods"));
+        } catch (IOException e) {
+            getLog().warn("Failed to store the pods in the cache: " + e.getMessage());
+        }
     }
 
     protected void unlockKeychain() throws IOSException {
@@ -132,10 +332,169 @@ public class IOSBuildMojo extends IOSAbstractMojo {
 
         ProcessBuilder pb = new ProcessBuilder(parameters);
         pb.directory(workDir);
-        executeCommand(pb);
+        if (!buildReport) {
+            executeCommand(pb);
+            return;
+        }
+
+        addBuildReportParameters(parameters);
+        XcodebuildLogParser parser = new XcodebuildLogParser();
+        try {
+            executeCommand(pb, parser);
+        } finally {
+            writeBuildReport(parser, new File(targetDir, "ios-build-" + buildConfiguration + "-" + sdk + ".timing.json"));
+        }
+    }
+
+    /**
+     * Asks xcodebuild for the timing summary of its tasks, which it prints since Xcode 10.
+     *
+     * @param parameters the xcodebuild parameters
+     */
+    protected void addBuildReportParameters(List<String> parameters) {
+        if (!"xcodebuild".equals(getBuildCommand())) {
+            return;
+        }
+        try {
+            Matcher version = XCODE_VERSION.matcher(getBuildToolVersion());
+            if (version.find() && Integer.parseInt(version.group(1)) >= 10) {
+                parameters.add("-showBuildTimingSummary");
+            }
+        } catch (IOSException e) {
+            getLog().debug("Unknown Xcode version, the build report is approximate: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the build-time breakdown. A report that cannot be written does not fail the build.
+     *
+     * @param parser
+     * @param reportFile
+     */
+    protected void writeBuildReport(XcodebuildLogParser parser, File reportFile) {
+        parser.finish();
+        try {
+            parser.writeReport(reportFile);
+        } catch (IOException e) {
+            getLog().warn("Failed to write the build report: " + e.getMessage());
+            return;
+        }
+
+        StringBuilder phases = new StringBuilder();
+        for (XcodebuildLogParser.Aggregate phase : parser.getPhases()) {
+            if (phases.length() > 0) {
+                phases.append(", ");
+            }
+            phases.append(String.format("%s %.1f s", phase.getName(), phase.getDurationMillis() / 1000.0));
+        }
+        if (phases.length() > 0) {
+            getLog().info("Build time by phase" + (parser.isTimingSummary() ? "" : " (approximate)") + ": " + phases);
+        }
+        getLog().info("Build report written to " + reportFile);
+    }
+
+    protected BuildCache getBuildCache() {
+        return new BuildCache(buildCacheDir, buildCacheMaxSize * 1024 * 1024);
+    }
+
+    /**
+     * @param scheme
+     * @param configuration
+     * @param sdk
+     * @param extraBuildSettings build settings overriding the configured ones, may be null
+     * @return the key of the build cache entry, one per project, branch, configuration, sdk and build settings
+     */
+    protected String getBuildCacheKey(String scheme, String configuration, String sdk,
+                                      Map<String, String> extraBuildSettings) {
+        String name = null != scheme ? scheme : (null != target ? target : appName);
+        String projectId = project.getGroupId() + ":" + project.getArtifactId() + ":" + name + "@"
+                + project.getBasedir().getAbsolutePath();
+        if (null != extraBuildSettings && !extraBuildSettings.isEmpty()) {
+            // Variants differing only by their build settings must not share intermediates
+            projectId += new TreeMap<String, String>(extraBuildSettings).toString();
+        }
+        return BuildCache.computeKey(project.getArtifactId() + "-" + name, projectId,
+                BuildCache.readBranch(workDir), configuration, sdk);
+    }
+
+    /**
+     * Leases the build cache entry and reports whether it is a hit.
+     * A cache that cannot be opened does not fail the build.
+     *
+     * @param scheme
+     * @param configuration
+     * @param sdk
+     * @param extraBuildSettings build settings overriding the configured ones, may be null
+     * @param statsKey key of the build metrics, null to lease the entry without counting a hit or miss
+     * @return the lease of the entry, or null if the build cache is disabled or could not be opened
+     */
+    protected BuildCache.Lease openBuildCache(String scheme, String configuration, String sdk,
+                                              Map<String, String> extraBuildSettings, String statsKey) {
+        if (!buildCache) {
+            return null;
+        }
+
+        String key = getBuildCacheKey(scheme, configuration, sdk, extraBuildSettings);
+        try {
+            BuildCache cache = getBuildCache();
+            if (null == statsKey) {
+                return cache.lease(key);
+            }
+            BuildCache.Lease lease = cache.open(key);
+            Properties stats = cache.loadStats();
+            getLog().info("Build cache " + (lease.hit ? "hit" : "miss") + " for " + key + " ("
+                    + stats.getProperty("hits", "0") + " hits, " + stats.getProperty("misses", "0")
+                    + " misses overall)");
+            recordMetric(statsKey, "buildCacheHit", lease.hit ? 1 : 0);
+            return lease;
+        } catch (IOException e) {
+            getLog().warn("Failed to open the build cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the lease, records the size of the build cache entry and evicts the least recently used entries.
+     *
+     * @param lease the lease returned by {@link #openBuildCache}, may be null
+     */
+    protected void closeBuildCache(BuildCache.Lease lease) {
+        if (null == lease) {
+            return;
+        }
+
+        try {
+            BuildCache cache = getBuildCache();
+            for (File evicted : cache.close(lease)) {
+                getLog().info("Evicted " + evicted.getName() + " from the build cache");
+            }
+
+            long total = 0;
+            List<BuildCache.CachedEntry> entries = cache.listEntries();
+            for (BuildCache.CachedEntry entry : entries) {
+                total += entry.size;
+            }
+            getLog().info("Build cache holds " + entries.size() + " entries, "
+                    + ProgressHttpEntity.formatSize(total) + " in " + buildCacheDir);
+        } catch (IOException e) {
+            getLog().warn("Failed to update the build cache: " + e.getMessage());
+        }
     }
 
     protected List<String> createXcodebuildParameters() {
+        return createXcodebuildParameters(scheme, sdk, buildConfiguration, null, targetDir);
+    }
+
+    /**
+     * @param scheme
+     * @param sdk
+     * @param configuration
+     * @param extraBuildSettings build settings overriding the configured ones, may be null
+     * @param symRoot where the products are built
+     * @return the xcodebuild parameters
+     */
+    protected List<String> createXcodebuildParameters(String scheme, String sdk, String configuration,
+                                                      Map<String, String> extraBuildSettings, File symRoot) {
         List<String> parameters = new ArrayList<String>();
         parameters.add(getBuildCommand());
 
@@ -169,20 +528,34 @@ public class IOSBuildMojo extends IOSAbstractMojo {
         parameters.add(sdk);
 
         parameters.add("-configuration");
-        parameters.add(buildConfiguration);
+        parameters.add(configuration);
 
+        Map<String, String> settings = new LinkedHashMap<String, String>();
         if (null != buildSettings) {
-            for (Map.Entry<String, String> entry : buildSettings.entrySet()) {
-                if (null != entry.getValue()) {
-                    parameters.add(entry.getKey() + "=" + entry.getValue());
-                }
+            settings.putAll(buildSettings);
+        }
+        if (null != extraBuildSettings) {
+            settings.putAll(extraBuildSettings);
+        }
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            if (null != entry.getValue()) {
+                parameters.add(entry.getKey() + "=" + entry.getValue());
             }
         }
         if (codeSignIdentity != null && codeSignIdentity.length() > 0) {
             parameters.add("CODE_SIGN_IDENTITY=" + codeSignIdentity);
         }
-        parameters.add("SYMROOT=" + targetDir.getAbsolutePath());
-        parameters.add("SHARED_PRECOMPS_DIR=" + project.getBuild().getDirectory() + File.separator + DEFAULT_SHARED_PRECOMPS_DIR);
+        parameters.add("SYMROOT=" + symRoot.getAbsolutePath());
+        if (buildCache) {
+            // The products stay in the target directory, a clean does not touch the cache
+            File entryDir = getBuildCache().getEntryDir(getBuildCacheKey(scheme, configuration, sdk,
+                    extraBuildSettings));
+            parameters.add("OBJROOT=" + new File(entryDir, BuildCache.INTERMEDIATES_DIR).getAbsolutePath());
+            parameters.add("SHARED_PRECOMPS_DIR=" + new File(entryDir, BuildCache.PRECOMPS_DIR).getAbsolutePath());
+            parameters.add("MODULE_CACHE_DIR=" + new File(entryDir, BuildCache.MODULE_CACHE_DIR).getAbsolutePath());
+        } else {
+            parameters.add("SHARED_PRECOMPS_DIR=" + symRoot.getAbsolutePath() + File.separator + DEFAULT_SHARED_PRECOMPS_DIR);
+        }
 
         return parameters;
     }
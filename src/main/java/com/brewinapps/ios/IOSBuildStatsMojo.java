@@ -0,0 +1,129 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+
+/**
+ * Compares the metrics of the latest build with the previous builds of the project, scheme and configuration.
+ *
+ * @author Brewin' Apps AS
+ * @goal build-stats
+ */
+public class IOSBuildStatsMojo extends IOSAbstractMojo {
+
+    /**
+     * Minimum number of previous values of a metric before it is checked for regressions.
+     */
+    static final int MIN_HISTORY = 3;
+
+    /**
+     * Number of previous builds the latest build is compared with
+     *
+     * @parameter property="ios.statsWindow"
+     *            default-value="20"
+     */
+    private int statsWindow;
+
+    /**
+     * How much worse than the median of the previous builds, in percent, a metric of the latest build can be
+     *
+     * @parameter property="ios.regressionThreshold"
+     *            default-value="30"
+     */
+    private int regressionThreshold;
+
+    /**
+     * If the goal should fail when a metric regressed, instead of only warning
+     *
+     * @parameter property="ios.failOnRegression"
+     *            default-value="false"
+     */
+    private boolean failOnRegression;
+
+    /**
+     *
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        Span span = Span.NOOP;
+        try {
+            initialize();
+            span = startGoalSpan("build-stats");
+
+            reportStats();
+        } catch (IOSException e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (Exception e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
+        }
+    }
+
+    protected void reportStats() throws IOSException {
+        String key = getStatsKey(scheme, buildConfiguration);
+        Map<String, BuildStatsStore.MetricHistory> histories;
+        try {
+            histories = BuildStatsStore.forFile(buildStatsFile).query(key, statsWindow);
+        } catch (IOException e) {
+            throw new IOSException(e);
+        }
+        if (histories.isEmpty()) {
+            getLog().info("No build statistics recorded for " + key);
+            return;
+        }
+
+        int regressions = 0;
+        getLog().info("Build statistics for " + key + " (latest build against the previous " + statsWindow + "):");
+        getLog().info(String.format("  %-32s %12s %12s %12s %8s", "Metric", "Latest", "Median", "90th", "Change"));
+        List<BuildStatsStore.MetricHistory> flags = new ArrayList<BuildStatsStore.MetricHistory>();
+        for (BuildStatsStore.MetricHistory history : histories.values()) {
+            if (BuildStatsStore.Unit.FLAG == history.getUnit()) {
+                // A median of zeros and ones says nothing, so flags are reported as a rate instead
+                flags.add(history);
+                continue;
+            }
+            long median = history.getPercentile(50);
+            long p90 = history.getPercentile(90);
+            double change = median > 0 ? (history.getLatest() - median) * 100.0 / median : 0;
+
+            String status = "";
+            if (history.getPreviousCount() >= MIN_HISTORY && change > regressionThreshold) {
+                status = " REGRESSION";
+                regressions++;
+            }
+            getLog().info(String.format("  %-32s %12s %12s %12s %+7.1f%%%s", history.getMetric(),
+                    format(history.getUnit(), history.getLatest()), format(history.getUnit(), median),
+                    format(history.getUnit(), p90), change, status));
+        }
+        for (BuildStatsStore.MetricHistory history : flags) {
+            getLog().info(String.format("  %-32s %12s %s of the previous %d builds", history.getMetric(),
+                    0 != history.getLatest() ? "yes" : "no", history.getPreviousSum(), history.getPreviousCount()));
+        }
+
+        if (regressions > 0) {
+            String message = regressions + " build metrics are more than " + regressionThreshold
+                    + "% worse than the median of the previous builds";
+            if (failOnRegression) {
+                throw new IOSException(message);
+            }
+            getLog().warn(message);
+        }
+    }
+
+    private static String format(BuildStatsStore.Unit unit, long value) {
+        if (BuildStatsStore.Unit.BYTES == unit) {
+            return ProgressHttpEntity.formatSize(value);
+        }
+        return String.format("%.1f s", value / 1000.0);
+    }
+}
@@ -2,10 +2,10 @@ package com.brewinapps.ios;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.codehaus.plexus.util.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,33 +16,63 @@ import java.util.List;
  * @phase clean
  */
 public class IOSCleanMojo extends IOSAbstractMojo {
+
+    static final String TRASH_DIR = ".ios-trash";
+
     /**
-     * If the Pods folder and Podfile.lock file should be deleted during the clean
+     * If the Pods folder should be deleted during the clean. The Podfile.lock is kept: the pods are
+     * installed, or restored from the pods cache, from it.
      *
      * @parameter property="ios.cleanPods"
      *            default-value="true"
      */
     private boolean cleanPods;
 
+    /**
+     * If the products should be cleaned by xcodebuild, rather than deleted directly
+     *
+     * @parameter property="ios.cleanWithXcodebuild"
+     *            default-value="false"
+     */
+    private boolean cleanWithXcodebuild;
+
+    /**
+     * If the deleted directories should be moved aside and deleted in the background, so that the clean
+     * returns at once
+     *
+     * @parameter property="ios.backgroundClean"
+     *            default-value="true"
+     */
+    private boolean backgroundClean;
+
     /**
      *
      */
     public void execute() throws MojoExecutionException, MojoFailureException {
         initialize();
 
+        Span span = startGoalSpan("clean");
         try {
             clean();
         } catch (IOSException e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoExecutionException(e.getMessage(), e);
         } catch (Exception e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
         }
     }
 
     void clean() throws IOSException, IOException {
-        xcodebuildClean();
+        if (cleanWithXcodebuild) {
+            xcodebuildClean();
+        } else {
+            cleanProducts();
+        }
 
         if (cleanPods) {
             getLog().info("Cleaning CocoaPods files");
@@ -52,25 +82,56 @@ public class IOSCleanMojo extends IOSAbstractMojo {
         }
     }
 
-    void cleanPods() {
-        File podfileLock = new File(workDir + File.separator + "Podfile.lock");
-        File podsFolder = new File(workDir + File.separator + "Pods");
-
-        String podfileLockPath = podfileLock.getAbsolutePath();
-        String podsFolderPath = podsFolder.getAbsolutePath();
+    /**
+     * Deletes the products and intermediates xcodebuild clean would, without forking it.
+     * The managed build cache is left alone.
+     */
+    void cleanProducts() throws IOException {
+        List<File> dirs = new ArrayList<File>();
+        dirs.add(new File(appDir));
+        dirs.add(new File(targetDir, IOSBuildMatrixMojo.MATRIX_DIR));
+        File[] intermediates = targetDir.listFiles();
+        if (null != intermediates) {
+            for (File dir : intermediates) {
+                if (dir.isDirectory() && dir.getName().endsWith(".build")) {
+                    dirs.add(dir);
+                }
+            }
+        }
 
-        if (podfileLock.exists()) {
-            if (podfileLock.delete()) {
-                getLog().info("Successfully deleted file " + podfileLockPath);
-            } else {
-                getLog().warn("Failed to delete file " + podfileLockPath);
+        for (File dir : dirs) {
+            if (dir.exists()) {
+                getLog().info("Deleting " + dir);
+                deleteDirectory(dir);
             }
+        }
+    }
+
+    private void deleteDirectory(File dir) throws IOException {
+        if (backgroundClean) {
+            DirectoryCleaner.deleteInBackground(dir.toPath(), getTrashDir());
         } else {
-            getLog().debug("Skipping deletion of " + podfileLockPath);
+            long start = System.currentTimeMillis();
+            long count = DirectoryCleaner.delete(dir.toPath());
+            getLog().debug("Deleted " + count + " files in " + (System.currentTimeMillis() - start) + " ms");
         }
+    }
+
+    /**
+     * In the target directory, which is on the same file system as the sources and ignored by the
+     * incremental build.
+     */
+    private Path getTrashDir() {
+        return new File(targetDir, TRASH_DIR).toPath();
+    }
+
+    void cleanPods() {
+        File podsFolder = new File(workDir + File.separator + "Pods");
+        String podsFolderPath = podsFolder.getAbsolutePath();
+
         if (podsFolder.exists()) {
             try {
-                FileUtils.deleteDirectory(podsFolder);
+                deleteDirectory(podsFolder);
                 getLog().info("Successfully deleted directory " + podsFolderPath);
             } catch (IOException e) {
                 getLog().warn("Failed to delete directory " + podsFolderPath, e);
@@ -0,0 +1,17 @@
+package com.brewinapps.ios;
+
+/**
+ * Thrown when a command was killed because it ran for too long or stopped producing output.
+ *
+ * @author Brewin' Apps AS
+ */
+public class IOSCommandTimeoutException extends IOSException {
+    private static final long serialVersionUID = 6120398410234811637L;
+
+    /**
+     * @param msg
+     */
+    public IOSCommandTimeoutException(String msg) {
+        super(msg);
+    }
+}
@@ -2,24 +2,15 @@ package com.brewinapps.ios;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpVersion;
-import org.apache.http.ParseException;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.mime.HttpMultipartMode;
-import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.FileBody;
-import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.CoreProtocolPNames;
-import org.apache.http.util.EntityUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
@@ -38,152 +29,201 @@ public class IOSDeployMojo extends IOSAbstractMojo {
      */
     private Map<String, String> hockeyApp;
 
-    static final String HOCKEYAPP_UPLOAD_URL = "https://rink.hockeyapp.net/api/2/apps/%s/app_versions";
+    /**
+     * Additional HTTP endpoints the build is distributed to
+     *
+     * @parameter
+     */
+    private List<DistributionTarget> distributionTargets;
+
+    /**
+     * Maximum number of destinations the build is uploaded to at the same time
+     *
+     * @parameter property="ios.deployParallelism"
+     *            default-value="4"
+     */
+    private int deployParallelism;
+
+    /**
+     * Number of times a failed upload is retried
+     *
+     * @parameter property="ios.uploadRetries"
+     *            default-value="3"
+     */
+    private int uploadRetries;
+
+    /**
+     * Delay, in seconds, before the first retry of a failed upload. The delay doubles on every retry.
+     *
+     * @parameter property="ios.uploadRetryDelay"
+     *            default-value="10"
+     */
+    private int uploadRetryDelay;
+
+    /**
+     * If dSYM files already uploaded to a destination, according to the upload ledger, should be skipped
+     *
+     * @parameter property="ios.skipUploadedDsyms"
+     *            default-value="true"
+     */
+    private boolean skipUploadedDsyms;
+
+    /**
+     * Ledger of the dSYM files uploaded from this host, shared by all the builds
+     *
+     * @parameter property="ios.uploadLedgerFile"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/uploads.properties"
+     */
+    private File uploadLedgerFile;
+
+    /**
+     * The destinations of the build.
+     */
+    protected List<DistributionProvider> providers;
 
     /**
      *
      */
     public void execute() throws MojoExecutionException, MojoFailureException {
+        Span span = Span.NOOP;
         try {
             initialize();
+            span = startGoalSpan("deploy");
             validateParameters();
 
             deploy();
         } catch (IOSException e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoExecutionException(e.getMessage(), e);
         } catch (Exception e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
         }
     }
 
-    protected void deploy() throws IOSException {
-        getLog().info("Deploying to HockeyApp...");
-
-        try {
-            uploadToHockeyApp();
-
-        } catch (Exception e) {
-            throw new IOSException("An error occurred while deploying build to HockeyApp: " + e.getMessage());
-        }
-    }
-
-    protected void validateParameters() throws IOSException {
-        if (hockeyApp.get("apiToken") == null) {
-            throw new IOSException("The 'hockeyAppToken' parameter is required to upload to Hockey App");
+    protected List<DistributionProvider> createProviders() {
+        List<DistributionProvider> providers = new ArrayList<DistributionProvider>();
+        if (null != hockeyApp) {
+            providers.add(new HockeyAppDistributionProvider(hockeyApp));
         }
-        if (hockeyApp.get("appIdentifier") == null) {
-            throw new IOSException("The 'hockeyAppIdentifier' parameter is required to upload to Hockey App");
+        if (null != distributionTargets) {
+            for (DistributionTarget target : distributionTargets) {
+                providers.add(new HttpDistributionProvider(target));
+            }
         }
 
-        final String ipaPath = appDir + project.getBuild().getFinalName() + ".ipa";
-        if (!(new File(ipaPath)).exists()) {
-            throw new IOSException("Could not find ipa file at '" + ipaPath + "'. You must compile the artifact before deploying.");
-        }
+        return providers;
     }
 
-    protected void uploadToHockeyApp() throws IOSException {
-        HttpClient client = createHttpClient();
-        HttpPost post = createHockeyAppHttpPost();
-        MultipartEntity entity = createHockeyAppMultipartEntity();
-
-        post.setEntity(entity);
-
-        // Run the request
-        HttpResponse response;
+    protected void deploy() throws IOSException {
+        SharedArtifact ipa;
+        SharedArtifact dsym = null;
+        DsymIdentity dsymIdentity = null;
         try {
-            response = client.execute(post);
-        } catch (ClientProtocolException e) {
-            throw new IOSException(e);
+            ipa = SharedArtifact.open(new File(getArtifactPath("ipa")));
+            File dsymZipFile = new File(getArtifactPath("dSYM.zip"));
+            if (dsymZipFile.exists()) {
+                dsym = SharedArtifact.open(dsymZipFile);
+            }
         } catch (IOException e) {
             throw new IOSException(e);
         }
-
-        HttpEntity responseEntity = response.getEntity();
-
-        getLog().info(response.getStatusLine().toString());
-        if (responseEntity != null) {
+        if (null != dsym && skipUploadedDsyms) {
             try {
-                getLog().info(EntityUtils.toString(responseEntity));
-            } catch (ParseException e) {
-                throw new IOSException(e);
+                dsymIdentity = getDsymIdentity(dsym.getFile());
             } catch (IOException e) {
-                throw new IOSException(e);
+                getLog().warn("Could not identify the dSYM, it is uploaded without checking the upload ledger: "
+                        + e.getMessage());
             }
         }
-
-        client.getConnectionManager().shutdown();
-    }
-
-    protected HttpClient createHttpClient() {
-        HttpClient client = new DefaultHttpClient();
-        client.getParams().setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_1);
-
-        return client;
-    }
-
-    protected HttpPost createHockeyAppHttpPost() {
-        String hockeyAppUrl = String.format(HOCKEYAPP_UPLOAD_URL, hockeyApp.get("appIdentifier"));
-        HttpPost post = new HttpPost(hockeyAppUrl);
-        post.addHeader("X-HockeyAppToken", hockeyApp.get("apiToken"));
-
-        return post;
-    }
-
-    protected MultipartEntity createHockeyAppMultipartEntity() throws IOSException {
-        MultipartEntity entity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE);
-
-        File ipaFile = new File(getArtifactPath("ipa"));
-        File dsymZipFile = new File(getArtifactPath("dSYM.zip"));
-
-        entity.addPart("ipa", new FileBody(ipaFile, "application/zip"));
-        entity.addPart("dsym", new FileBody(dsymZipFile, "application/zip"));
-
-        StringBody notesBody = createStringBody("notes");
-        if (null != notesBody) {
-            entity.addPart("notes", notesBody);
+        final DistributionContext context = new DistributionContext(ipa, dsym,
+                new HttpUploader(uploadRetries, uploadRetryDelay, getLog()), getLog());
+        if (null != dsymIdentity) {
+            context.setUploadLedger(dsymIdentity, new UploadLedger(uploadLedgerFile));
         }
 
-        StringBody notesTypeBody = createStringBody("notesType");
-        if (null != notesTypeBody) {
-            entity.addPart("notes_type", notesTypeBody);
-        }
+        getLog().info("Deploying to " + providers.size() + " destinations...");
+        long start = System.currentTimeMillis();
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(deployParallelism, providers.size())));
+        try {
+            for (final DistributionProvider provider : providers) {
+                results.add(executor.submit(new Callable<Long>() {
+                    public Long call() throws IOSException {
+                        long start = System.currentTimeMillis();
+                        Span span = Tracer.get().startSpan("distribute " + provider.getName()).activate();
+                        try {
+                            provider.distribute(context);
+                        } catch (IOSException e) {
+                            span.setError(e.getMessage());
+                            throw e;
+                        } finally {
+                            span.end();
+                        }
+                        long duration = System.currentTimeMillis() - start;
+                        recordMetric("upload." + provider.getName(), duration);
+                        return duration;
+                    }
+                }));
+            }
 
-        StringBody notifyBody = createStringBody("notify");
-        if (null != notifyBody) {
-            entity.addPart("notify", notifyBody);
+            reportSummary(results);
+            recordMetric("upload", System.currentTimeMillis() - start);
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        StringBody statusBody = createStringBody("status");
-        if (null != statusBody) {
-            entity.addPart("status", statusBody);
+    /**
+     * Reads the identity written by the package goal, or computes it from the zip if it is missing or stale.
+     */
+    private DsymIdentity getDsymIdentity(File dsymZipFile) throws IOException {
+        DsymIdentity identity = DsymIdentity.load(new File(getArtifactPath("dSYM.properties")), dsymZipFile);
+        if (null == identity) {
+            identity = DsymIdentity.compute(dsymZipFile);
         }
+        return identity;
+    }
 
-        StringBody mandatoryBody = createStringBody("mandatory");
-        if (null != mandatoryBody) {
-            entity.addPart("mandatory", mandatoryBody);
+    private void reportSummary(List<Future<Long>> results) throws IOSException {
+        int failures = 0;
+        getLog().info("Deploy summary:");
+        for (int i = 0; i < providers.size(); i++) {
+            String name = providers.get(i).getName();
+            try {
+                long duration = results.get(i).get();
+                getLog().info(String.format("  %-40s SUCCESS %8.1f s", name, duration / 1000.0));
+            } catch (ExecutionException e) {
+                failures++;
+                getLog().info(String.format("  %-40s FAILURE  %s", name, e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOSException(e);
+            }
         }
 
-        StringBody tagsBody = createStringBody("tags");
-        if (null != tagsBody) {
-            entity.addPart("tags", tagsBody);
+        if (failures > 0) {
+            throw new IOSException("An error occurred while deploying build to " + failures + " of "
+                    + providers.size() + " destinations");
         }
-
-        return entity;
     }
 
-    protected StringBody createStringBody(String paramName) throws IOSException {
-        StringBody body = null;
-        String paramValue = hockeyApp.get(paramName);
-        if (paramValue != null) {
-            try {
-                body = new StringBody(paramValue, "text/plain", Charset.forName("UTF-8"));
-            } catch (UnsupportedEncodingException e) {
-                throw new IOSException(e);
-            }
+    protected void validateParameters() throws IOSException {
+        providers = createProviders();
+        if (providers.isEmpty()) {
+            throw new IOSException("The 'hockeyApp' or 'distributionTargets' parameter is required to deploy");
+        }
+        for (DistributionProvider provider : providers) {
+            provider.validate();
         }
 
-        return body;
+        final String ipaPath = getArtifactPath("ipa");
+        if (!(new File(ipaPath)).exists()) {
+            throw new IOSException("Could not find ipa file at '" + ipaPath + "'. You must compile the artifact before deploying.");
+        }
     }
 }
@@ -1,6 +1,7 @@
 package com.brewinapps.ios;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,6 +15,9 @@ import org.apache.maven.plugin.MojoFailureException;
  * @phase package
  */
 public class IOSPackageMojo extends IOSAbstractMojo {
+
+    static final String PACKAGE_DIR = "package";
+
     /**
      * iOS code sign identity
      *
@@ -21,41 +25,153 @@ public class IOSPackageMojo extends IOSAbstractMojo {
      */
     private String codeSignIdentity;
 
+    /**
+     * Compression level of the dSYM zip, from 0 (stored, no compression) to 9
+     *
+     * @parameter property="ios.dsymCompressionLevel"
+     *            default-value="6"
+     */
+    private int dsymCompressionLevel;
+
+    /**
+     * Compression level of the IPA, from 0 (stored, no compression) to 9
+     *
+     * @parameter property="ios.ipaCompressionLevel"
+     *            default-value="6"
+     */
+    private int ipaCompressionLevel;
+
+    /**
+     * If the IPA should be packaged with 'xcrun PackageApplication' instead of the built-in packager.
+     * PackageApplication is deprecated and missing from recent versions of Xcode.
+     *
+     * @parameter property="ios.packageWithXcrun"
+     *            default-value="false"
+     */
+    private boolean packageWithXcrun;
+
     /**
      *
      */
     public void execute() throws MojoExecutionException, MojoFailureException {
+        Span span = Span.NOOP;
         try {
             initialize();
-            xcrun();
-            packageDsym();
+            span = startGoalSpan("package");
+
+            long start = System.currentTimeMillis();
+            if (packageWithXcrun) {
+                // The dSYM is zipped while the IPA is being packaged
+                CommandExecution ipa = xcrun();
+                boolean zipped = false;
+                try {
+                    packageDsym();
+                    zipped = true;
+                } finally {
+                    if (!zipped) {
+                        ipa.abandon();
+                    }
+                }
+                ipa.waitFor();
+                recordMetric("xcrun", System.currentTimeMillis() - start);
+            } else {
+                packageIpa();
+                recordMetric("packageIpa", System.currentTimeMillis() - start);
+                packageDsym();
+            }
 
-            project.getArtifact().setFile(new File(getArtifactPath("ipa")));
+            File ipa = new File(getArtifactPath("ipa"));
+            recordMetric("ipaSize", ipa.length());
+            project.getArtifact().setFile(ipa);
         } catch (IOSException e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoExecutionException(e.getMessage(), e);
         } catch (Exception e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
         }
     }
 
-    protected void packageDsym() throws IOSException {
+    /**
+     * Zips the .app into the Payload directory of the IPA, straight from the build directory. An app to re-sign
+     * is signed in a staging copy, so that the built app keeps its signature for the incremental builds and the
+     * other goals.
+     *
+     * @throws IOSException
+     */
+    protected void packageIpa() throws IOSException {
+        File app = new File(appDir, appName + ".app");
+        if (!app.isDirectory()) {
+            throw new IOSException("Could not find the app at '" + app + "'");
+        }
+
+        if (codeSignIdentity == null || codeSignIdentity.length() == 0) {
+            archive(app, "Payload/" + app.getName(), new File(getArtifactPath("ipa")), ipaCompressionLevel);
+            return;
+        }
+
+        File stagingDir = new File(targetDir, PACKAGE_DIR);
+        File stagedApp = new File(stagingDir, app.getName());
+        try {
+            DirectoryCleaner.delete(stagingDir.toPath());
+            DirectoryCopier.cloneOrCopy(app.toPath(), stagedApp.toPath());
+            codesign(stagedApp);
+            archive(stagedApp, "Payload/" + app.getName(), new File(getArtifactPath("ipa")), ipaCompressionLevel);
+            DirectoryCleaner.delete(stagingDir.toPath());
+        } catch (IOException e) {
+            throw new IOSException("Failed to stage '" + app + "' for signing: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-signs the app with the code sign identity, as PackageApplication --sign did.
+     *
+     * @param app
+     * @throws IOSException
+     */
+    protected void codesign(File app) throws IOSException {
         ProcessBuilder pb = new ProcessBuilder(
-                "zip",
-                "-r",
-                getArtifactFilename("dSYM.zip"),
-                appName + ".app.dSYM");
-        pb.directory(new File(appDir));
+                "codesign",
+                "--force",
+                "--preserve-metadata=identifier,entitlements",
+                "--sign",
+                codeSignIdentity,
+                app.getAbsolutePath());
         executeCommand(pb);
     }
 
-    protected void xcrun() throws IOSException {
+    protected void packageDsym() throws IOSException {
+        File dsymDir = new File(appDir, appName + ".app.dSYM");
+        if (!dsymDir.isDirectory()) {
+            throw new IOSException("Could not find the dSYM at '" + dsymDir + "'");
+        }
+
+        long start = System.currentTimeMillis();
+        File dsymZip = new File(getArtifactPath("dSYM.zip"));
+        List<ParallelZipArchiver.Entry> entries = archive(dsymDir, dsymDir.getName(), dsymZip, dsymCompressionLevel);
+        recordMetric("packageDsym", System.currentTimeMillis() - start);
+        recordMetric("dsymSize", dsymZip.length());
+
+        // Lets the deploy goal recognize symbols it already uploaded, an optimization that does not fail the build
+        try {
+            DsymIdentity identity = DsymIdentity.compute(dsymDir, entries);
+            identity.save(new File(getArtifactPath("dSYM.properties")), dsymZip);
+            getLog().info("dSYM UUIDs: " + identity.getUuids());
+        } catch (IOException e) {
+            getLog().warn("Could not identify the dSYM, its uploads will not be deduplicated: " + e.getMessage());
+        }
+    }
+
+    protected CommandExecution xcrun() throws IOSException {
         List<String> parameters = createXcrunParameters();
 
         ProcessBuilder pb = new ProcessBuilder(parameters);
         pb.directory(new File(appDir));
-        executeCommand(pb);
+        return startCommand(pb);
     }
 
     protected List<String> createXcrunParameters() {
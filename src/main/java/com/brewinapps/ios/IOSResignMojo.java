@@ -0,0 +1,381 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProjectHelper;
+
+
+/**
+ * Signs the built app once per signing variant, concurrently, and packages each variant as an IPA
+ * classified with its name. Every variant is signed in its own staging copy of the app, cloned
+ * copy-on-write where the file system supports it, so the app is built only once.
+ *
+ * @author Brewin' Apps AS
+ * @goal resign
+ * @phase package
+ */
+public class IOSResignMojo extends IOSAbstractMojo {
+
+    static final String RESIGN_DIR = "resign";
+
+    private static final String PROFILE_NAME = "embedded.mobileprovision";
+    private static final List<String> PRESERVE_METADATA = Arrays.asList("--preserve-metadata=identifier,entitlements");
+
+    /**
+     * The variants to sign
+     *
+     * @parameter
+     * @required
+     */
+    private List<SigningVariant> signingVariants;
+
+    /**
+     * Maximum number of variants signed and packaged at the same time
+     *
+     * @parameter property="ios.resignParallelism"
+     *            default-value="2"
+     */
+    private int resignParallelism;
+
+    /**
+     * Compression level of the IPAs, from 0 (stored, no compression) to 9
+     *
+     * @parameter property="ios.ipaCompressionLevel"
+     *            default-value="6"
+     */
+    private int ipaCompressionLevel;
+
+    /**
+     * If the signed IPAs should be attached to the project, to be installed and deployed with it
+     *
+     * @parameter property="ios.attachSignedIpas"
+     *            default-value="true"
+     */
+    private boolean attachSignedIpas;
+
+    /**
+     * @component
+     */
+    private MavenProjectHelper projectHelper;
+
+    private String bundleIdentifier;
+
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        Span span = Span.NOOP;
+        try {
+            initialize();
+            span = startGoalSpan("resign");
+            validateParameters();
+            resign();
+        } catch (IOSException e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (Exception e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Checks the variants and their profiles before anything is copied or signed.
+     *
+     * @throws IOSException
+     */
+    protected void validateParameters() throws IOSException {
+        File app = getApp();
+        if (!app.isDirectory()) {
+            throw new IOSException("Could not find the app at '" + app + "'. You must build it before re-signing it.");
+        }
+        if (null == signingVariants || signingVariants.isEmpty()) {
+            throw new IOSException("At least one signing variant is required");
+        }
+        try {
+            Object identifier = PropertyList.get(new File(app, "Info.plist"), ":CFBundleIdentifier");
+            bundleIdentifier = null != identifier ? identifier.toString() : null;
+        } catch (IOException e) {
+            throw new IOSException("Invalid Info.plist in '" + app + "': " + e.getMessage());
+        }
+
+        Set<String> names = new LinkedHashSet<String>();
+        for (SigningVariant variant : signingVariants) {
+            String name = variant.getName();
+            if (null == name || !name.matches("[A-Za-z0-9._-]+")) {
+                throw new IOSException("Every signing variant needs a name made of letters, digits, '.', '_' and '-'");
+            }
+            if (!names.add(name)) {
+                throw new IOSException("Duplicate signing variant '" + name + "'");
+            }
+            if (null == variant.getCodeSignIdentity() || variant.getCodeSignIdentity().length() == 0) {
+                throw new IOSException("The signing variant '" + name + "' has no codeSignIdentity");
+            }
+            if (null != variant.getEntitlements() && !variant.getEntitlements().isFile()) {
+                throw new IOSException("Could not find the entitlements of '" + name + "' at '" + variant.getEntitlements() + "'");
+            }
+            if (null != variant.getProvisioningProfile()) {
+                validateProfile(name, readProfile(variant));
+            }
+        }
+    }
+
+    private void validateProfile(String name, ProvisioningProfile profile) throws IOSException {
+        Date expiration = profile.getExpirationDate();
+        if (null != expiration && expiration.before(new Date())) {
+            throw new IOSException("The provisioning profile '" + profile.getName() + "' of '" + name
+                    + "' expired on " + expiration);
+        }
+        if (null != bundleIdentifier && !profile.matches(bundleIdentifier)) {
+            throw new IOSException("The provisioning profile '" + profile.getName() + "' of '" + name
+                    + "' does not cover the bundle identifier '" + bundleIdentifier + "'");
+        }
+    }
+
+    protected void resign() throws IOSException {
+        long start = System.currentTimeMillis();
+        List<VariantSigning> signings = new ArrayList<VariantSigning>();
+        for (SigningVariant variant : signingVariants) {
+            signings.add(new VariantSigning(variant));
+        }
+
+        getLog().info("Signing " + signings.size() + " variants, " + resignParallelism + " at a time");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, resignParallelism));
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        try {
+            for (VariantSigning signing : signings) {
+                results.add(executor.submit(signing));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    // Reported in the summary
+                    signings.get(i).failed(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOSException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        reportSummary(signings);
+        recordMetric("resign", System.currentTimeMillis() - start);
+
+        if (attachSignedIpas) {
+            for (VariantSigning signing : signings) {
+                projectHelper.attachArtifact(project, "ipa", signing.variant.getName(), signing.ipa);
+            }
+        }
+    }
+
+    private void reportSummary(List<VariantSigning> signings) throws IOSException {
+        int failures = 0;
+        getLog().info("Signing summary:");
+        for (VariantSigning signing : signings) {
+            String status;
+            if (null == signing.failure) {
+                status = "SUCCESS";
+            } else {
+                status = "FAILURE";
+                failures++;
+            }
+            getLog().info(String.format("  %-40s %-8s %8.1f s  %s", signing.variant.getName(), status,
+                    signing.durationMillis / 1000.0, signing.ipa));
+        }
+
+        if (failures > 0) {
+            for (VariantSigning signing : signings) {
+                if (null != signing.failure) {
+                    getLog().error("Variant '" + signing.variant.getName() + "' failed: "
+                            + (signing.failure instanceof IOSException
+                            ? signing.failure.getMessage() : signing.failure.toString()));
+                }
+            }
+            throw new IOSException(failures + " of " + signings.size() + " signing variants failed");
+        }
+    }
+
+    protected File getApp() {
+        return new File(appDir, appName + ".app");
+    }
+
+    /**
+     * Copies the app to the staging directory, cloning its files where the file system supports it:
+     * APFS on macOS, Btrfs or XFS on Linux. Other file systems get a plain copy.
+     *
+     * @param app
+     * @param stagedApp
+     * @throws IOSException
+     */
+    protected void stage(File app, File stagedApp) throws IOSException {
+        List<String> clone = DirectoryCopier.getCloneCommand(app, stagedApp);
+
+        try {
+            if (null != clone) {
+                try {
+                    executeCommand(new ProcessBuilder(clone));
+                    return;
+                } catch (IOSException e) {
+                    getLog().debug("Could not clone '" + app + "', copying it: " + e.getMessage());
+                    DirectoryCleaner.delete(stagedApp.toPath());
+                }
+            }
+            DirectoryCopier.copy(app.toPath(), stagedApp.toPath());
+        } catch (IOException e) {
+            throw new IOSException("Failed to copy '" + app + "' to '" + stagedApp + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the entitlements of the profile, with its wildcard application identifier resolved to the bundle
+     */
+    protected Map<Object, Object> getProfileEntitlements(ProvisioningProfile profile) {
+        Map<Object, Object> entitlements = new LinkedHashMap<Object, Object>(profile.getEntitlements());
+        Object applicationIdentifier = entitlements.get(ProvisioningProfile.APPLICATION_IDENTIFIER);
+        if (applicationIdentifier instanceof String && ((String) applicationIdentifier).endsWith("*")
+                && null != bundleIdentifier) {
+            String prefix = (String) applicationIdentifier;
+            int dot = prefix.indexOf('.');
+            entitlements.put(ProvisioningProfile.APPLICATION_IDENTIFIER,
+                    (dot >= 0 ? prefix.substring(0, dot + 1) : "") + bundleIdentifier);
+        }
+        return entitlements;
+    }
+
+    /**
+     * Signs the nested code first, as codesign --deep is not meant for signing: frameworks, libraries,
+     * then the app extensions, which keep their own entitlements.
+     */
+    protected void signNestedCode(File stagedApp, String identity) throws IOSException {
+        File[] frameworks = new File(stagedApp, "Frameworks").listFiles();
+        if (null != frameworks) {
+            Arrays.sort(frameworks);
+            for (File framework : frameworks) {
+                if (framework.getName().endsWith(".framework") || framework.getName().endsWith(".dylib")) {
+                    codesign(identity, framework, Collections.<String>emptyList());
+                }
+            }
+        }
+
+        File[] extensions = new File(stagedApp, "PlugIns").listFiles();
+        if (null != extensions) {
+            Arrays.sort(extensions);
+            for (File extension : extensions) {
+                if (extension.getName().endsWith(".appex")) {
+                    codesign(identity, extension, PRESERVE_METADATA);
+                }
+            }
+        }
+    }
+
+    protected void codesign(String identity, File code, List<String> options) throws IOSException {
+        List<String> parameters = new ArrayList<String>();
+        parameters.add("codesign");
+        parameters.add("--force");
+        parameters.add("--sign");
+        parameters.add(identity);
+        parameters.addAll(options);
+        parameters.add(code.getAbsolutePath());
+        executeCommand(new ProcessBuilder(parameters));
+    }
+
+    private ProvisioningProfile readProfile(SigningVariant variant) throws IOSException {
+        try {
+            return ProvisioningProfile.read(variant.getProvisioningProfile());
+        } catch (IOException e) {
+            throw new IOSException("Invalid provisioning profile for '" + variant.getName() + "': " + e.getMessage());
+        }
+    }
+
+    private class VariantSigning implements Callable<Void> {
+        private final SigningVariant variant;
+        private final File ipa;
+        private volatile long durationMillis;
+        private volatile Throwable failure;
+
+        VariantSigning(SigningVariant variant) {
+            this.variant = variant;
+            this.ipa = new File(appDir, project.getBuild().getFinalName() + "-" + variant.getName() + ".ipa");
+        }
+
+        /**
+         * Records an unexpected error, the expected ones are recorded by the signing itself.
+         */
+        void failed(Throwable cause) {
+            if (null == failure) {
+                failure = cause;
+            }
+        }
+
+        public Void call() throws IOSException {
+            long start = System.currentTimeMillis();
+            Span span = Tracer.get().startSpan("variant " + variant.getName()).activate();
+            try {
+                File stagingDir = new File(targetDir, RESIGN_DIR + File.separator + variant.getName());
+                DirectoryCleaner.delete(stagingDir.toPath());
+                File stagedApp = new File(stagingDir, "Payload" + File.separator + appName + ".app");
+                stagedApp.getParentFile().mkdirs();
+                stage(getApp(), stagedApp);
+
+                List<String> entitlementsOptions = PRESERVE_METADATA;
+                if (null != variant.getProvisioningProfile()) {
+                    ProvisioningProfile profile = readProfile(variant);
+                    Files.copy(profile.getFile().toPath(), new File(stagedApp, PROFILE_NAME).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    if (null == variant.getEntitlements()) {
+                        File entitlements = new File(stagingDir, variant.getName() + ".entitlements");
+                        PropertyList.write(getProfileEntitlements(profile), PropertyList.Format.XML, entitlements);
+                        entitlementsOptions = Arrays.asList("--entitlements", entitlements.getAbsolutePath());
+                    }
+                }
+                if (null != variant.getEntitlements()) {
+                    entitlementsOptions = Arrays.asList("--entitlements", variant.getEntitlements().getAbsolutePath());
+                }
+
+                signNestedCode(stagedApp, variant.getCodeSignIdentity());
+                codesign(variant.getCodeSignIdentity(), stagedApp, entitlementsOptions);
+                archive(stagedApp, "Payload/" + stagedApp.getName(), ipa, ipaCompressionLevel);
+
+                DirectoryCleaner.delete(stagingDir.toPath());
+            } catch (IOException e) {
+                IOSException error = new IOSException(e.getMessage());
+                failure = error;
+                span.setError(e.getMessage());
+                throw error;
+            } catch (IOSException e) {
+                failure = e;
+                span.setError(e.getMessage());
+                throw e;
+            } finally {
+                durationMillis = System.currentTimeMillis() - start;
+                span.end();
+            }
+            return null;
+        }
+    }
+}
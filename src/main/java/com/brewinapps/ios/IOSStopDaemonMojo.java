@@ -0,0 +1,39 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+
+/**
+ * Stops the build daemon of the host, once its running commands completed.
+ *
+ * @author Brewin' Apps AS
+ * @goal stop-daemon
+ * @requiresProject false
+ */
+public class IOSStopDaemonMojo extends AbstractMojo {
+
+    /**
+     * Where the build daemon writes its port, token and log
+     *
+     * @parameter property="ios.daemonDir"
+     *            default-value="${user.home}/.m2/ios-maven-plugin/daemon"
+     */
+    private File daemonDir;
+
+    /**
+     *
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        DaemonClient client = DaemonClient.find(daemonDir);
+        if (null == client) {
+            getLog().info("No build daemon is running");
+            return;
+        }
+        client.stop();
+        getLog().info("Stopped the build daemon");
+    }
+}
@@ -0,0 +1,437 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+
+/**
+ * Builds the tests of the scheme once, then runs them in shards of about the same duration,
+ * each on its own simulator, and merges the results in a JUnit XML report.
+ *
+ * @author Brewin' Apps AS
+ * @goal test
+ * @phase test
+ */
+public class IOSTestMojo extends IOSBuildMojo {
+
+    static final String TEST_DIR = "test";
+
+    /**
+     * Number of runs of each test class the expected durations are computed from.
+     */
+    static final int HISTORY_WINDOW = 10;
+
+    /**
+     * If the tests should be skipped
+     *
+     * @parameter property="skipTests"
+     *            default-value="false"
+     */
+    private boolean skipTests;
+
+    /**
+     * If the build should succeed even if tests fail
+     *
+     * @parameter property="maven.test.failure.ignore"
+     *            default-value="false"
+     */
+    private boolean testFailureIgnore;
+
+    /**
+     * SDK the tests are built for
+     *
+     * @parameter property="ios.testSdk"
+     *            default-value="iphonesimulator"
+     */
+    private String testSdk;
+
+    /**
+     * xcodebuild destination the tests run on, when testDestinations is not set
+     *
+     * @parameter property="ios.testDestination"
+     *            default-value="platform=iOS Simulator,name=iPhone 8"
+     */
+    private String testDestination;
+
+    /**
+     * xcodebuild destinations the shards run on, one shard at a time on each. Use distinct simulators.
+     *
+     * @parameter
+     */
+    private List<String> testDestinations;
+
+    /**
+     * Number of shards the test classes are split in. 0 means one per destination.
+     *
+     * @parameter property="ios.testShards"
+     *            default-value="0"
+     */
+    private int testShards;
+
+    /**
+     * Where the JUnit XML report is written
+     *
+     * @parameter property="ios.testReportsDir"
+     *            default-value="${project.build.directory}/ios-test-reports"
+     */
+    private File testReportsDir;
+
+
+    /**
+     *
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skipTests) {
+            getLog().info("Tests are skipped");
+            return;
+        }
+        initialize();
+
+        Span span = startGoalSpan("test");
+        try {
+            validateParameters();
+            test();
+        } catch (IOSException e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (Exception e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * xctool cannot run tests without building them.
+     */
+    @Override
+    protected String getBuildCommand() {
+        return "xcodebuild";
+    }
+
+    @Override
+    protected void validateParameters() throws IOSException {
+        if (null == scheme) {
+            throw new IOSException("The 'scheme' parameter is required to run the tests");
+        }
+        if (!workDir.exists()) {
+            throw new IOSException("Invalid sourceDir specified: " + workDir.getAbsolutePath());
+        }
+        validateXcodeModel(scheme, buildConfiguration);
+    }
+
+    protected void test() throws IOSException {
+        List<String> destinations = null != testDestinations && !testDestinations.isEmpty()
+                ? testDestinations : Collections.singletonList(testDestination);
+        File symRoot = new File(targetDir, TEST_DIR);
+
+        buildForTesting(symRoot, destinations.get(0));
+
+        String statsKey = getStatsKey(scheme, buildConfiguration) + ":tests";
+        List<String> tests = findTests();
+        List<TestShardPlanner.Shard> shards;
+        if (null == tests) {
+            shards = Collections.emptyList();
+        } else {
+            shards = TestShardPlanner.plan(tests, getExpectedDurations(statsKey),
+                    testShards > 0 ? testShards : destinations.size());
+        }
+
+        List<XcodebuildTestParser.TestResult> results = new ArrayList<XcodebuildTestParser.TestResult>();
+        if (shards.isEmpty()) {
+            getLog().info("Running all the tests of " + scheme + " in one shard");
+            results.addAll(runShard(null, null, symRoot, destinations.get(0)));
+        } else {
+            getLog().info("Running " + tests.size() + " test classes in " + shards.size()
+                    + " shards, then the remainder, on " + Math.min(shards.size(), destinations.size()) + " destinations");
+            results.addAll(runShards(shards, tests, symRoot, destinations));
+        }
+
+        recordDurations(statsKey, tests, results);
+        writeReport(results);
+        reportSummary(results);
+    }
+
+    protected void buildForTesting(File symRoot, String destination) throws IOSException {
+        List<String> parameters = createXcodebuildParameters(scheme, testSdk, buildConfiguration, null, symRoot);
+        parameters.add("-destination");
+        parameters.add(destination);
+        parameters.add("build-for-testing");
+
+        ProcessBuilder pb = new ProcessBuilder(parameters);
+        pb.directory(workDir);
+        BuildCache.Lease cacheLease = openBuildCache(scheme, buildConfiguration, testSdk, null,
+                getStatsKey(scheme, buildConfiguration));
+        long start = System.currentTimeMillis();
+        try {
+            executeCommand(pb);
+        } finally {
+            closeBuildCache(cacheLease);
+        }
+        recordMetric("buildForTesting", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return the test classes as Target/Class, or null if they could not all be attributed to a test target
+     */
+    protected List<String> findTests() {
+        List<String> testTargets = getTestTargets();
+        if (testTargets.isEmpty()) {
+            getLog().info("The test targets of " + scheme + " are unknown, the tests are not sharded");
+            return null;
+        }
+
+        try {
+            TestClassFinder finder = new TestClassFinder();
+            finder.scan(workDir.toPath().toAbsolutePath().normalize(),
+                    targetDir.toPath().toAbsolutePath().normalize());
+            List<String> tests = finder.getTestIdentifiers(workDir.toPath().toAbsolutePath().normalize(), testTargets);
+            if (null == tests) {
+                getLog().info("Some test classes are not in a directory named after their test target,"
+                        + " the tests are not sharded");
+            }
+            return tests;
+        } catch (IOException e) {
+            getLog().warn("Failed to find the test classes, the tests are not sharded: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private List<String> getTestTargets() {
+        try {
+            XcodeScheme xcodeScheme;
+            if (null != workspaceName) {
+                String name = workspaceName.endsWith(".xcworkspace") ? workspaceName : workspaceName + ".xcworkspace";
+                xcodeScheme = XcodeModelCache.getWorkspace(new File(workDir, name)).getScheme(scheme);
+            } else {
+                xcodeScheme = XcodeModelCache.getProject(XcodeProject.findProject(workDir, projectName)).getScheme(scheme);
+            }
+            return null != xcodeScheme ? xcodeScheme.getTestTargets() : Collections.<String>emptyList();
+        } catch (IOException e) {
+            getLog().debug("Could not read the scheme: " + e.getMessage());
+            return Collections.emptyList();
+        } catch (IOSException e) {
+            getLog().debug("Could not find the project: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private Map<String, Long> getExpectedDurations(String statsKey) {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        if (!buildStats || null == buildStatsFile) {
+            return durations;
+        }
+        try {
+            Map<String, BuildStatsStore.MetricHistory> histories = BuildStatsStore.forFile(buildStatsFile)
+                    .query(statsKey, HISTORY_WINDOW);
+            for (Map.Entry<String, BuildStatsStore.MetricHistory> entry : histories.entrySet()) {
+                durations.put(entry.getKey(), entry.getValue().getPercentile(50));
+            }
+        } catch (IOException e) {
+            getLog().warn("Failed to read the test durations: " + e.getMessage());
+        }
+        return durations;
+    }
+
+    /**
+     * Runs the shards, each on the first free destination, then the remainder: the tests the scan of the
+     * sources did not find, e.g. those inherited from a class of another target.
+     */
+    private List<XcodebuildTestParser.TestResult> runShards(List<TestShardPlanner.Shard> shards,
+                                                           final List<String> tests, final File symRoot,
+                                                           List<String> destinations) throws IOSException {
+        int workers = Math.min(shards.size(), destinations.size());
+        final BlockingQueue<String> freeDestinations = new ArrayBlockingQueue<String>(workers);
+        freeDestinations.addAll(destinations.subList(0, workers));
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<List<XcodebuildTestParser.TestResult>>> futures =
+                new ArrayList<Future<List<XcodebuildTestParser.TestResult>>>();
+        try {
+            for (final TestShardPlanner.Shard shard : shards) {
+                futures.add(executor.submit(new Callable<List<XcodebuildTestParser.TestResult>>() {
+                    public List<XcodebuildTestParser.TestResult> call() throws Exception {
+                        String destination = freeDestinations.take();
+                        Span span = Tracer.get().startSpan("shard " + shard.index).activate();
+                        try {
+                            return runShard(shard, null, symRoot, destination);
+                        } finally {
+                            span.end();
+                            freeDestinations.add(destination);
+                        }
+                    }
+                }));
+            }
+            futures.add(executor.submit(new Callable<List<XcodebuildTestParser.TestResult>>() {
+                public List<XcodebuildTestParser.TestResult> call() throws Exception {
+                    String destination = freeDestinations.take();
+                    Span span = Tracer.get().startSpan("remainder shard").activate();
+                    try {
+                        return runShard(null, tests, symRoot, destination);
+                    } finally {
+                        span.end();
+                        freeDestinations.add(destination);
+                    }
+                }
+            }));
+
+            List<XcodebuildTestParser.TestResult> results = new ArrayList<XcodebuildTestParser.TestResult>();
+            for (Future<List<XcodebuildTestParser.TestResult>> future : futures) {
+                results.addAll(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOSException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOSException) {
+                throw (IOSException) e.getCause();
+            }
+            throw new IOSException("A test shard failed: " + e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the test classes of the shard, or all the tests but the skipped ones if it is null. When a shard
+     * fails, e.g. because the simulator crashed, its classes that reported no results get an error result,
+     * as does a shard without any failed test, so that they are not mistaken for a success.
+     */
+    private List<XcodebuildTestParser.TestResult> runShard(TestShardPlanner.Shard shard, List<String> skipped,
+                                                          File symRoot, String destination) throws IOSException {
+        List<String> parameters = createXcodebuildParameters(scheme, testSdk, buildConfiguration, null, symRoot);
+        parameters.add("-destination");
+        parameters.add(destination);
+        if (null != shard) {
+            for (String test : shard.tests) {
+                parameters.add("-only-testing:" + test);
+            }
+        } else if (null != skipped) {
+            for (String test : skipped) {
+                parameters.add("-skip-testing:" + test);
+            }
+        }
+        parameters.add("test-without-building");
+
+        ProcessBuilder pb = new ProcessBuilder(parameters);
+        pb.directory(workDir);
+        XcodebuildTestParser parser = new XcodebuildTestParser();
+        List<XcodebuildTestParser.TestResult> results = new ArrayList<XcodebuildTestParser.TestResult>();
+        // The tests run from the intermediates, which must not be evicted meanwhile
+        BuildCache.Lease cacheLease = openBuildCache(scheme, buildConfiguration, testSdk, null, null);
+        try {
+            executeCommand(pb, parser);
+            results.addAll(parser.getResults());
+        } catch (IOSException e) {
+            results.addAll(parser.getResults());
+            boolean failedTests = false;
+            Set<String> reported = new HashSet<String>();
+            for (XcodebuildTestParser.TestResult result : results) {
+                failedTests |= XcodebuildTestParser.TestResult.Status.FAILED == result.getStatus();
+                reported.add(result.getClassName());
+            }
+            if (null != shard) {
+                for (String test : shard.tests) {
+                    String className = test.substring(test.indexOf('/') + 1);
+                    if (!reported.contains(className)) {
+                        failedTests = true;
+                        results.add(new XcodebuildTestParser.TestResult(className, "(not run)", 0,
+                                XcodebuildTestParser.TestResult.Status.ERROR,
+                                "No results were reported before shard " + shard.index + " failed: " + e.getMessage()));
+                    }
+                }
+            }
+            if (!failedTests) {
+                String name = null != shard ? "shard " + shard.index : (null != skipped ? "remainder" : "tests");
+                results.add(new XcodebuildTestParser.TestResult(scheme, name, 0,
+                        XcodebuildTestParser.TestResult.Status.ERROR, e.getMessage()));
+            }
+        } finally {
+            closeBuildCache(cacheLease);
+        }
+        return results;
+    }
+
+    private void recordDurations(String statsKey, List<String> tests, List<XcodebuildTestParser.TestResult> results) {
+        if (null == tests) {
+            return;
+        }
+        Map<String, Long> durations = new HashMap<String, Long>();
+        for (XcodebuildTestParser.TestResult result : results) {
+            Long duration = durations.get(result.getClassName());
+            durations.put(result.getClassName(), (null != duration ? duration : 0) + result.getDurationMillis());
+        }
+        Set<String> recorded = new HashSet<String>();
+        for (String test : tests) {
+            String className = test.substring(test.indexOf('/') + 1);
+            Long duration = durations.get(className);
+            if (null != duration && recorded.add(test)) {
+                recordMetric(statsKey, test, duration);
+            }
+        }
+    }
+
+    private void writeReport(List<XcodebuildTestParser.TestResult> results) {
+        File reportFile = new File(testReportsDir, "TEST-" + scheme.replaceAll("[^A-Za-z0-9._-]", "_") + ".xml");
+        try {
+            JUnitReportWriter.write(reportFile, scheme, results);
+            getLog().info("Test report written to " + reportFile);
+        } catch (IOException e) {
+            getLog().warn("Failed to write the test report: " + e.getMessage());
+        }
+    }
+
+    private void reportSummary(List<XcodebuildTestParser.TestResult> results) throws IOSException {
+        int failures = 0;
+        int skipped = 0;
+        for (XcodebuildTestParser.TestResult result : results) {
+            switch (result.getStatus()) {
+                case FAILED:
+                case ERROR:
+                    failures++;
+                    getLog().error(result.getClassName() + "." + result.getName() + ": " + result.getMessage());
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        getLog().info("Tests run: " + results.size() + ", Failures: " + failures + ", Skipped: " + skipped);
+
+        if (failures > 0) {
+            String message = failures + " of " + results.size() + " tests failed";
+            if (testFailureIgnore) {
+                getLog().warn(message);
+            } else {
+                throw new IOSException(message);
+            }
+        }
+        if (results.isEmpty()) {
+            getLog().warn("No tests were run");
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package com.brewinapps.ios;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
@@ -10,6 +16,13 @@ import org.apache.maven.plugin.MojoFailureException;
  */
 public class IOSUpdateVersion extends IOSAbstractMojo {
 
+    /**
+     * Records the applied versions in the target directory, for the verify goal.
+     */
+    static final String VERSION_FILE = "ios-version.properties";
+    static final String VERSION_PROPERTY = "version";
+    static final String BUILD_NUMBER_PROPERTY = "buildNumber";
+
     /**
      * iOS version
      *
@@ -33,18 +46,33 @@ public class IOSUpdateVersion extends IOSAbstractMojo {
      */
     private boolean incrementBuildNumber;
 
+    /**
+     * If the versions should be updated by agvtool instead of being written straight to the project
+     * and Info.plist files
+     *
+     * @parameter property="ios.useAgvtool"
+     *            default-value="false"
+     */
+    private boolean useAgvtool;
+
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
+        Span span = Span.NOOP;
         try {
             initialize();
+            span = startGoalSpan("update-version");
             updateVersion();
         } catch (IOSException e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoExecutionException(e.getMessage(), e);
         } catch (Exception e) {
+            span.setError(e.getMessage());
             getLog().error(e.getMessage());
             throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
         }
     }
 
@@ -60,13 +88,55 @@ public class IOSUpdateVersion extends IOSAbstractMojo {
     }
 
     protected void updateVersion() throws IOSException {
-        updateMarketingVersion();
-        updateBuildNumber();
+        String currentBuildNumber;
+        if (useAgvtool) {
+            updateMarketingVersion();
+            updateBuildNumber();
+            currentBuildNumber = getCurrentBuildNumber();
+        } else {
+            currentBuildNumber = updateProjectFiles();
+        }
 
-        String currentBuildNumber = getCurrentBuildNumber();
+        writeVersionFile(currentBuildNumber);
         getLog().info("Updated iOS version to " + version + " (" + currentBuildNumber + ")");
     }
 
+    protected void writeVersionFile(String currentBuildNumber) throws IOSException {
+        Properties properties = new Properties();
+        properties.setProperty(VERSION_PROPERTY, version);
+        if (null != currentBuildNumber) {
+            properties.setProperty(BUILD_NUMBER_PROPERTY, currentBuildNumber.trim());
+        }
+
+        File versionFile = new File(targetDir, VERSION_FILE);
+        try {
+            targetDir.mkdirs();
+            OutputStream output = new FileOutputStream(versionFile);
+            try {
+                properties.store(output, null);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            throw new IOSException("Failed to write " + versionFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the version and the build number to the project and Info.plist files in one pass.
+     *
+     * @return the resulting build number
+     * @throws IOSException
+     */
+    protected String updateProjectFiles() throws IOSException {
+        File projectDir = XcodeProject.findProject(workDir, projectName);
+        try {
+            return new XcodeVersionUpdater(projectDir, getLog()).update(version, buildNumber, incrementBuildNumber);
+        } catch (IOException e) {
+            throw new IOSException("Failed to update the version of '" + projectDir.getName() + "': " + e.getMessage());
+        }
+    }
+
     protected void updateMarketingVersion() throws IOSException {
         ProcessBuilder pb = new ProcessBuilder(
                 "agvtool",
@@ -102,6 +172,6 @@ public class IOSUpdateVersion extends IOSAbstractMojo {
                 "-terse");
         pb.directory(workDir);
 
-        return executeCommand(pb);
+        return executeCommandForOutput(pb);
     }
 }
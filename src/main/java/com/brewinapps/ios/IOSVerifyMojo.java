@@ -0,0 +1,142 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+
+/**
+ * Verifies the packaged IPA and dSYM before they are deployed.
+ *
+ * @author Brewin' Apps AS
+ * @goal verify
+ * @phase verify
+ */
+public class IOSVerifyMojo extends IOSAbstractMojo {
+
+    /**
+     * If the verification should be skipped
+     *
+     * @parameter property="ios.skipVerify"
+     *            default-value="false"
+     */
+    private boolean skipVerify;
+
+    /**
+     * If every file of the archives should be inflated to check its CRC, instead of only their structure
+     *
+     * @parameter property="ios.verifyContent"
+     *            default-value="false"
+     */
+    private boolean verifyContent;
+
+    /**
+     * If the bundle version of the IPA should match the one applied by the update-version goal, when it ran
+     *
+     * @parameter property="ios.verifyVersion"
+     *            default-value="true"
+     */
+    private boolean verifyVersion;
+
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skipVerify) {
+            getLog().info("Skipping the verification");
+            return;
+        }
+
+        Span span = Span.NOOP;
+        try {
+            initialize();
+            span = startGoalSpan("verify");
+            verify();
+        } catch (IOSException e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (Exception e) {
+            span.setError(e.getMessage());
+            getLog().error(e.getMessage());
+            throw new MojoFailureException(e.getMessage());
+        } finally {
+            span.end();
+        }
+    }
+
+    protected void verify() throws IOSException {
+        long start = System.currentTimeMillis();
+        File ipaFile = new File(getArtifactPath("ipa"));
+        if (!ipaFile.exists()) {
+            throw new IOSException("Could not find ipa file at '" + ipaFile + "'. You must package the artifact before verifying it.");
+        }
+        File dsymFile = new File(getArtifactPath("dSYM.zip"));
+
+        ExecutorService executor = null;
+        if (verifyContent) {
+            executor = Executors.newFixedThreadPool(getZipThreads());
+        }
+        try {
+            ArtifactVerifier verifier = new ArtifactVerifier(executor);
+            Map<String, String> info = verifier.verifyIpa(ipaFile, appName);
+            if (dsymFile.exists()) {
+                verifier.verifyDsym(dsymFile);
+            }
+            if (verifyVersion) {
+                verifyVersion(info);
+            }
+
+            getLog().info("Verified " + ipaFile.getName() + (dsymFile.exists() ? " and " + dsymFile.getName() : "")
+                    + ": " + info.get(ArtifactVerifier.BUNDLE_IDENTIFIER) + " "
+                    + info.get(ArtifactVerifier.BUNDLE_SHORT_VERSION)
+                    + " (" + info.get(ArtifactVerifier.BUNDLE_VERSION) + ")");
+        } finally {
+            if (null != executor) {
+                executor.shutdownNow();
+            }
+        }
+        recordMetric("verify", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Compares the bundle versions to the ones recorded by the update-version goal.
+     */
+    protected void verifyVersion(Map<String, String> info) throws IOSException {
+        File versionFile = new File(targetDir, IOSUpdateVersion.VERSION_FILE);
+        if (!versionFile.exists()) {
+            return;
+        }
+
+        Properties versions = new Properties();
+        try {
+            InputStream input = new FileInputStream(versionFile);
+            try {
+                versions.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new IOSException("Failed to read " + versionFile + ": " + e.getMessage());
+        }
+
+        checkVersion(ArtifactVerifier.BUNDLE_SHORT_VERSION, versions.getProperty(IOSUpdateVersion.VERSION_PROPERTY),
+                info.get(ArtifactVerifier.BUNDLE_SHORT_VERSION));
+        checkVersion(ArtifactVerifier.BUNDLE_VERSION, versions.getProperty(IOSUpdateVersion.BUILD_NUMBER_PROPERTY),
+                info.get(ArtifactVerifier.BUNDLE_VERSION));
+    }
+
+    private void checkVersion(String key, String expected, String actual) throws IOSException {
+        if (null != expected && !expected.equals(actual)) {
+            throw new IOSException("The " + key + " of the IPA is '" + actual + "' but update-version set it to '"
+                    + expected + "'");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes test results as a JUnit XML report, in the format of the Surefire reports.
+ *
+ * @author Brewin' Apps AS
+ */
+class JUnitReportWriter {
+
+    private JUnitReportWriter() {
+    }
+
+    /**
+     * @param reportFile
+     * @param suiteName
+     * @param results the results of all the shards
+     * @throws IOException
+     */
+    static void write(File reportFile, String suiteName, List<XcodebuildTestParser.TestResult> results)
+            throws IOException {
+        int failures = 0;
+        int errors = 0;
+        int skipped = 0;
+        long durationMillis = 0;
+        for (XcodebuildTestParser.TestResult result : results) {
+            switch (result.getStatus()) {
+                case FAILED:
+                    failures++;
+                    break;
+                case ERROR:
+                    errors++;
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+                default:
+                    break;
+            }
+            durationMillis += result.getDurationMillis();
+        }
+
+        reportFile.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(reportFile);
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("testsuite");
+            xml.writeAttribute("name", suiteName);
+            xml.writeAttribute("tests", Integer.toString(results.size()));
+            xml.writeAttribute("failures", Integer.toString(failures));
+            xml.writeAttribute("errors", Integer.toString(errors));
+            xml.writeAttribute("skipped", Integer.toString(skipped));
+            xml.writeAttribute("time", formatSeconds(durationMillis));
+            xml.writeCharacters("\n");
+
+            for (XcodebuildTestParser.TestResult result : results) {
+                xml.writeCharacters("  ");
+                xml.writeStartElement("testcase");
+                xml.writeAttribute("classname", result.getClassName());
+                xml.writeAttribute("name", result.getName());
+                xml.writeAttribute("time", formatSeconds(result.getDurationMillis()));
+                if (XcodebuildTestParser.TestResult.Status.FAILED == result.getStatus()
+                        || XcodebuildTestParser.TestResult.Status.ERROR == result.getStatus()) {
+                    boolean failure = XcodebuildTestParser.TestResult.Status.FAILED == result.getStatus();
+                    String message = String.valueOf(result.getMessage());
+                    int newline = message.indexOf('\n');
+                    xml.writeStartElement(failure ? "failure" : "error");
+                    xml.writeAttribute("message", newline >= 0 ? message.substring(0, newline) : message);
+                    xml.writeCharacters(message);
+                    xml.writeEndElement();
+                } else if (XcodebuildTestParser.TestResult.Status.SKIPPED == result.getStatus()) {
+                    xml.writeEmptyElement("skipped");
+                }
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+            }
+
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String formatSeconds(long millis) {
+        return String.format(Locale.US, "%.3f", millis / 1000.0);
+    }
+}
@@ -0,0 +1,25 @@
+package com.brewinapps.ios;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Forwards command output lines to the Maven log at debug level.
+ *
+ * @author Brewin' Apps AS
+ */
+public class LogStreamConsumer implements StreamConsumer {
+
+    private final Log logger;
+
+    /**
+     * @param logger
+     */
+    public LogStreamConsumer(Log logger) {
+        this.logger = logger;
+    }
+
+    public void consumeLine(String line) {
+        logger.debug(line);
+    }
+}
@@ -0,0 +1,100 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the LC_UUID load commands of a Mach-O file, thin or universal.
+ * These UUIDs identify the symbols of a dSYM, the same way dwarfdump --uuid does.
+ *
+ * @author Brewin' Apps AS
+ */
+class MachOUuidReader {
+
+    private static final int FAT_MAGIC = 0xcafebabe;
+    private static final int MH_MAGIC = 0xfeedface;
+    private static final int MH_MAGIC_64 = 0xfeedfacf;
+    private static final int LC_UUID = 0x1b;
+
+    private MachOUuidReader() {
+    }
+
+    /**
+     * @param file
+     * @return the UUIDs of the architectures of the file, empty if it is not a Mach-O file
+     * @throws IOException
+     */
+    static List<String> readUuids(File file) throws IOException {
+        List<String> uuids = new ArrayList<String>();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() < 8) {
+                return uuids;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), Integer.MAX_VALUE));
+
+            // The fat header is always big endian
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt(0) == FAT_MAGIC) {
+                int count = buffer.getInt(4);
+                for (int i = 0; i < count; i++) {
+                    int offset = buffer.getInt(8 + i * 20 + 8);
+                    readUuid(buffer, offset, uuids);
+                }
+            } else {
+                readUuid(buffer, 0, uuids);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(file + " is not a valid Mach-O file");
+        } finally {
+            input.close();
+        }
+        return uuids;
+    }
+
+    private static void readUuid(ByteBuffer buffer, int offset, List<String> uuids) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int magic = header.getInt(offset);
+        if (magic != MH_MAGIC && magic != MH_MAGIC_64) {
+            header.order(ByteOrder.BIG_ENDIAN);
+            magic = header.getInt(offset);
+            if (magic != MH_MAGIC && magic != MH_MAGIC_64) {
+                return;
+            }
+        }
+
+        int commandCount = header.getInt(offset + 16);
+        int position = offset + (magic == MH_MAGIC_64 ? 32 : 28);
+        for (int i = 0; i < commandCount; i++) {
+            int command = header.getInt(position);
+            int size = header.getInt(position + 4);
+            if (command == LC_UUID) {
+                byte[] uuid = new byte[16];
+                for (int j = 0; j < uuid.length; j++) {
+                    uuid[j] = header.get(position + 8 + j);
+                }
+                uuids.add(formatUuid(uuid));
+                return;
+            }
+            if (size <= 0) {
+                return;
+            }
+            position += size;
+        }
+    }
+
+    private static String formatUuid(byte[] uuid) {
+        String hex = Digests.toHex(uuid).toUpperCase();
+        return hex.substring(0, 8) + "-" + hex.substring(8, 12) + "-" + hex.substring(12, 16) + "-"
+                + hex.substring(16, 20) + "-" + hex.substring(20);
+    }
+}
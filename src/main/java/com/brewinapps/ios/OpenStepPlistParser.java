@@ -0,0 +1,270 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the OpenStep (old-style ASCII) property lists Xcode writes its project.pbxproj files in.
+ * Dictionaries become maps, arrays lists, strings strings and data byte arrays.
+ *
+ * @author Brewin' Apps AS
+ */
+class OpenStepPlistParser {
+
+    private final char[] text;
+    private int position;
+
+    private OpenStepPlistParser(char[] text) {
+        this.text = text;
+    }
+
+    /**
+     * @param file
+     * @return the root object of the property list
+     * @throws IOException if the file is not a valid property list
+     */
+    static Object parse(File file) throws IOException {
+        return parse(new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+    }
+
+    /**
+     * @param text
+     * @return the root object of the property list
+     * @throws IOException if the text is not a valid property list
+     */
+    static Object parse(String text) throws IOException {
+        OpenStepPlistParser parser = new OpenStepPlistParser(text.toCharArray());
+        Object root = parser.parseValue();
+        parser.skipWhitespace();
+        if (parser.position < parser.text.length) {
+            throw parser.error("Unexpected content after the root object");
+        }
+        return root;
+    }
+
+    private Object parseValue() throws IOException {
+        skipWhitespace();
+        if (position >= text.length) {
+            throw error("Unexpected end of the property list");
+        }
+
+        char c = text[position];
+        if (c == '{') {
+            return parseDictionary();
+        }
+        if (c == '(') {
+            return parseArray();
+        }
+        if (c == '<') {
+            return parseData();
+        }
+        if (c == '"' || c == '\'') {
+            return parseQuotedString(c);
+        }
+        return parseUnquotedString();
+    }
+
+    private Map<String, Object> parseDictionary() throws IOException {
+        Map<String, Object> dictionary = new LinkedHashMap<String, Object>();
+        position++;
+        while (true) {
+            skipWhitespace();
+            if (position < text.length && text[position] == '}') {
+                position++;
+                return dictionary;
+            }
+
+            Object key = parseValue();
+            if (!(key instanceof String)) {
+                throw error("Dictionary keys must be strings");
+            }
+            expect('=');
+            dictionary.put((String) key, parseValue());
+            expect(';');
+        }
+    }
+
+    private List<Object> parseArray() throws IOException {
+        List<Object> array = new ArrayList<Object>();
+        position++;
+        while (true) {
+            skipWhitespace();
+            if (position < text.length && text[position] == ')') {
+                position++;
+                return array;
+            }
+
+            array.add(parseValue());
+            skipWhitespace();
+            if (position < text.length && text[position] == ',') {
+                position++;
+            } else if (position >= text.length || text[position] != ')') {
+                throw error("Expected ',' or ')'");
+            }
+        }
+    }
+
+    private byte[] parseData() throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        position++;
+        int high = -1;
+        while (position < text.length && text[position] != '>') {
+            char c = text[position++];
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw error("Invalid character in data");
+            }
+            if (high < 0) {
+                high = digit;
+            } else {
+                data.write(high << 4 | digit);
+                high = -1;
+            }
+        }
+        if (position >= text.length || high >= 0) {
+            throw error("Unterminated data");
+        }
+        position++;
+        return data.toByteArray();
+    }
+
+    private String parseQuotedString(char quote) throws IOException {
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (position < text.length) {
+            char c = text[position++];
+            if (c == quote) {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length) {
+                break;
+            }
+
+            char escaped = text[position++];
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'a':
+                    value.append('\007');
+                    break;
+                case 'v':
+                    value.append('\013');
+                    break;
+                case 'U':
+                    value.append((char) parseDigits(16, 4));
+                    break;
+                default:
+                    if (escaped >= '0' && escaped <= '7') {
+                        position--;
+                        value.append((char) parseDigits(8, 3));
+                    } else {
+                        value.append(escaped);
+                    }
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private int parseDigits(int radix, int maxDigits) throws IOException {
+        int value = 0;
+        int digits = 0;
+        while (digits < maxDigits && position < text.length && Character.digit(text[position], radix) >= 0) {
+            value = value * radix + Character.digit(text[position++], radix);
+            digits++;
+        }
+        if (digits == 0) {
+            throw error("Invalid escape sequence");
+        }
+        return value;
+    }
+
+    private String parseUnquotedString() throws IOException {
+        int start = position;
+        while (position < text.length && isUnquotedChar(text[position])) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Unexpected character '" + text[position] + "'");
+        }
+        return new String(text, start, position - start);
+    }
+
+    private static boolean isUnquotedChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '+' || c == '/' || c == ':'
+                || c == '.' || c == '-';
+    }
+
+    private void expect(char expected) throws IOException {
+        skipWhitespace();
+        if (position >= text.length || text[position] != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (position < text.length) {
+            char c = text[position];
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (c == '/' && position + 1 < text.length && text[position + 1] == '/') {
+                while (position < text.length && text[position] != '\n') {
+                    position++;
+                }
+            } else if (c == '/' && position + 1 < text.length && text[position + 1] == '*') {
+                int end = indexOf("*/", position + 2);
+                if (end < 0) {
+                    throw error("Unterminated comment");
+                }
+                position = end + 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int indexOf(String token, int from) {
+        for (int i = from; i + token.length() <= text.length; i++) {
+            if (text[i] == token.charAt(0) && new String(text, i, token.length()).equals(token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private IOException error(String message) {
+        int line = 1;
+        for (int i = 0; i < position && i < text.length; i++) {
+            if (text[i] == '\n') {
+                line++;
+            }
+        }
+        return new IOException(message + " at line " + line);
+    }
+}
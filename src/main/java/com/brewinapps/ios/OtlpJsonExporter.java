@@ -0,0 +1,91 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * Writes each span as a line of OTLP/JSON, the format of the OpenTelemetry file exporter,
+ * which collectors can ingest with their file receiver.
+ *
+ * @author Brewin' Apps AS
+ */
+class OtlpJsonExporter implements SpanExporter {
+
+    private static final String SERVICE_NAME = "ios-maven-plugin";
+    private static final int SPAN_KIND_INTERNAL = 1;
+    private static final int STATUS_OK = 1;
+    private static final int STATUS_ERROR = 2;
+
+    private final File traceFile;
+
+    OtlpJsonExporter(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    public void export(String traceId, Span span) throws IOException {
+        long startNanos = span.getStartMillis() * 1000000L;
+
+        StringWriter line = new StringWriter(512);
+        JsonWriter json = new JsonWriter(line);
+        json.beginObject();
+        json.name("resourceSpans").beginArray().beginObject();
+        json.name("resource").beginObject();
+        json.name("attributes").beginArray();
+        writeAttribute(json, "service.name", SERVICE_NAME);
+        json.endArray();
+        json.endObject();
+
+        json.name("scopeSpans").beginArray().beginObject();
+        json.name("scope").beginObject().name("name").value(SERVICE_NAME).endObject();
+        json.name("spans").beginArray().beginObject();
+        json.name("traceId").value(traceId);
+        json.name("spanId").value(span.getSpanId());
+        if (null != span.getParentSpanId()) {
+            json.name("parentSpanId").value(span.getParentSpanId());
+        }
+        json.name("name").value(span.getName());
+        json.name("kind").value(SPAN_KIND_INTERNAL);
+        // 64 bit integers are strings in OTLP/JSON
+        json.name("startTimeUnixNano").value(Long.toString(startNanos));
+        json.name("endTimeUnixNano").value(Long.toString(startNanos + span.getDurationNanos()));
+        json.name("attributes").beginArray();
+        writeAttribute(json, "thread.id", span.getThreadId());
+        for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+            writeAttribute(json, attribute.getKey(), attribute.getValue());
+        }
+        json.endArray();
+        json.name("status").beginObject();
+        if (null != span.getError()) {
+            json.name("code").value(STATUS_ERROR);
+            json.name("message").value(span.getError());
+        } else {
+            json.name("code").value(STATUS_OK);
+        }
+        json.endObject();
+        json.endObject().endArray();
+        json.endObject().endArray();
+        json.endObject().endArray();
+        json.endObject();
+
+        TraceFiles.append(traceFile, null, line + "\n");
+    }
+
+    private static void writeAttribute(JsonWriter json, String key, Object value) throws IOException {
+        json.beginObject();
+        json.name("key").value(key);
+        json.name("value").beginObject();
+        if (value instanceof Boolean) {
+            json.name("boolValue").value((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            json.name("intValue").value(value.toString());
+        } else if (value instanceof Number) {
+            json.name("doubleValue").value(((Number) value).doubleValue());
+        } else {
+            json.name("stringValue").value(String.valueOf(value));
+        }
+        json.endObject();
+        json.endObject();
+    }
+}
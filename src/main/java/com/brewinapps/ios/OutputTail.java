@@ -0,0 +1,78 @@
+package com.brewinapps.ios;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Keeps the last characters of a command output in a fixed size ring buffer,
+ * so a failing command can be reported without holding its whole output in memory.
+ *
+ * @author Brewin' Apps AS
+ */
+public class OutputTail implements StreamConsumer {
+
+    private final char[] buffer;
+    private int position;
+    private boolean wrapped;
+
+    /**
+     * @param capacity maximum number of characters kept
+     */
+    public OutputTail(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        buffer = new char[capacity];
+    }
+
+    public synchronized void consumeLine(String line) {
+        append(line);
+        append("\n");
+    }
+
+    private void append(String s) {
+        int length = s.length();
+        int offset = 0;
+        if (length > buffer.length) {
+            offset = length - buffer.length;
+            length = buffer.length;
+        }
+        while (length > 0) {
+            int count = Math.min(length, buffer.length - position);
+            s.getChars(offset, offset + count, buffer, position);
+            offset += count;
+            length -= count;
+            position += count;
+            if (position == buffer.length) {
+                position = 0;
+                wrapped = true;
+            }
+        }
+    }
+
+    /**
+     * @return true if older output had to be discarded
+     */
+    public synchronized boolean isTruncated() {
+        return wrapped;
+    }
+
+    /**
+     * @return the retained output, oldest first
+     */
+    @Override
+    public synchronized String toString() {
+        if (!wrapped) {
+            return new String(buffer, 0, position);
+        }
+        StringBuilder sb = new StringBuilder(buffer.length);
+        sb.append(buffer, position, buffer.length - position);
+        sb.append(buffer, 0, position);
+
+        // Drop the partial line left at the start of the buffer
+        int firstLineEnd = sb.indexOf("\n");
+        if (firstLineEnd >= 0 && firstLineEnd < sb.length() - 1) {
+            sb.delete(0, firstLineEnd + 1);
+        }
+        return sb.toString();
+    }
+}
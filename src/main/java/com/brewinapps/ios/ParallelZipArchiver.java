@@ -0,0 +1,578 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes zip archives, compressing the entries in parallel.
+ * <p/>
+ * Files are split in chunks that are deflated independently on the executor, each chunk primed with
+ * the last 32 KB of the previous one, then appended in order by a single writer. Large files, such as
+ * the DWARF binary of a dSYM, are thereby compressed on all cores, like pigz does. Unix permissions and
+ * symbolic links are kept, the way Info-ZIP stores them.
+ *
+ * @author Brewin' Apps AS
+ */
+class ParallelZipArchiver implements Closeable {
+
+    /**
+     * Compression level storing the entries without compressing them.
+     */
+    static final int STORE = 0;
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int VERSION_MADE_BY = (3 << 8) | 30;
+    private static final int VERSION_NEEDED = 20;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long MAX_32BIT = 0xffffffffL;
+    private static final int MAX_ENTRIES = 0xffff;
+
+    private static final int FILE_TYPE = 0100000;
+    private static final int DIRECTORY_TYPE = 0040000;
+    private static final int SYMLINK_TYPE = 0120000;
+
+    private final File zipFile;
+    private final int level;
+    private final ExecutorService executor;
+    private final int window;
+    private final FileChannel out;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * @param zipFile the archive to create, replaced if it exists
+     * @param level compression level, from {@link #STORE} to 9
+     * @param executor compresses the chunks
+     * @param parallelism number of threads of the executor
+     * @throws IOException
+     */
+    ParallelZipArchiver(File zipFile, int level, ExecutorService executor, int parallelism) throws IOException {
+        if (level < STORE || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.zipFile = zipFile;
+        this.level = level;
+        this.executor = executor;
+        // Enough chunks in flight to keep every thread busy while the writer catches up
+        this.window = Math.max(2, parallelism * 3);
+
+        RandomAccessFile file = new RandomAccessFile(zipFile, "rw");
+        file.setLength(0);
+        this.out = file.getChannel();
+    }
+
+    /**
+     * Adds a directory and its whole content.
+     *
+     * @param dir
+     * @param name name of the directory in the archive, e.g. 'Payload/Acme.app'
+     * @throws IOException
+     */
+    void addTree(final Path dir, final String name) throws IOException {
+        final List<Entry> added = new ArrayList<Entry>();
+
+        // Parent directories of the tree in the archive, e.g. 'Payload/'
+        BasicFileAttributes dirAttributes = Files.readAttributes(dir, BasicFileAttributes.class);
+        for (int i = name.indexOf('/'); i > 0; i = name.indexOf('/', i + 1)) {
+            added.add(new Entry(dir, name.substring(0, i + 1), DIRECTORY_TYPE, dirAttributes));
+        }
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                added.add(new Entry(path, getName(path) + "/", DIRECTORY_TYPE, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isSymbolicLink()) {
+                    added.add(new Entry(path, getName(path), SYMLINK_TYPE, attrs));
+                } else if (attrs.isRegularFile()) {
+                    added.add(new Entry(path, getName(path), FILE_TYPE, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String getName(Path path) {
+                String relative = dir.relativize(path).toString().replace(File.separatorChar, '/');
+                return relative.length() == 0 ? name : name + "/" + relative;
+            }
+        });
+
+        write(added);
+    }
+
+    /**
+     * @return the entries written so far
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            if (entries.size() > MAX_ENTRIES) {
+                throw new IOException("Too many entries for a zip archive without ZIP64 support: " + entries.size());
+            }
+
+            long centralDirectoryOffset = out.position();
+            for (Entry entry : entries) {
+                writeCentralHeader(entry);
+            }
+            long centralDirectorySize = out.position() - centralDirectoryOffset;
+            checkLimit(out.position(), zipFile.getName());
+
+            ByteBuffer end = newBuffer(22);
+            end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) entries.size());
+            end.putShort((short) entries.size());
+            end.putInt((int) centralDirectorySize);
+            end.putInt((int) centralDirectoryOffset);
+            end.putShort((short) 0);
+            writeFully(end);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write(List<Entry> added) throws IOException {
+        Iterator<Chunk> chunks = createChunks(added).iterator();
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        Deque<Chunk> pendingChunks = new ArrayDeque<Chunk>();
+
+        try {
+            while (chunks.hasNext() || !pending.isEmpty()) {
+                while (chunks.hasNext() && pending.size() < window) {
+                    Chunk chunk = chunks.next();
+                    pending.add(executor.submit(chunk));
+                    pendingChunks.add(chunk);
+                }
+
+                Chunk chunk = pendingChunks.poll();
+                byte[] data = pending.poll().get();
+                writeChunk(chunk, data);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + zipFile.getName());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to compress " + zipFile.getName() + ": " + cause.getMessage(), cause);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private List<Chunk> createChunks(List<Entry> added) {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (Entry entry : added) {
+            if (entry.type == FILE_TYPE && entry.size > CHUNK_SIZE) {
+                long count = (entry.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                for (long i = 0; i < count; i++) {
+                    long offset = i * CHUNK_SIZE;
+                    chunks.add(new Chunk(entry, offset, (int) Math.min(CHUNK_SIZE, entry.size - offset), i == count - 1));
+                }
+            } else {
+                chunks.add(new Chunk(entry, 0, (int) entry.size, true));
+            }
+        }
+        return chunks;
+    }
+
+    private void writeChunk(Chunk chunk, byte[] data) throws IOException {
+        Entry entry = chunk.entry;
+        if (chunk.offset == 0) {
+            entry.headerOffset = out.position();
+            checkLimit(entry.headerOffset, entry.name);
+            writeLocalHeader(entry);
+        }
+
+        writeFully(ByteBuffer.wrap(data));
+        entry.compressedSize += data.length;
+        entry.crc = crc32Combine(entry.crc, chunk.crc, chunk.length);
+
+        if (chunk.last) {
+            if (entry.size != entry.uncompressedSize()) {
+                throw new IOException(entry.path + " changed while it was being archived");
+            }
+            checkLimit(entry.compressedSize, entry.name);
+            checkLimit(entry.size, entry.name);
+
+            // Sizes and CRC are only known now, the local header is patched in place
+            ByteBuffer patch = newBuffer(12);
+            patch.putInt((int) entry.crc);
+            patch.putInt((int) entry.compressedSize);
+            patch.putInt((int) entry.size);
+            patch.flip();
+            long position = entry.headerOffset + 14;
+            while (patch.hasRemaining()) {
+                position += out.write(patch, position);
+            }
+            entries.add(entry);
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        ByteBuffer header = newBuffer(30 + entry.nameBytes.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION_NEEDED);
+        header.putShort((short) entry.getFlags());
+        header.putShort((short) entry.getMethod());
+        header.putInt(entry.dosTime);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) 0);
+        header.put(entry.nameBytes);
+        writeFully(header);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        ByteBuffer header = newBuffer(46 + entry.nameBytes.length);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION_MADE_BY);
+        header.putShort((short) VERSION_NEEDED);
+        header.putShort((short) entry.getFlags());
+        header.putShort((short) entry.getMethod());
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        // Unix mode in the high word, MS-DOS directory attribute in the low one
+        header.putInt((entry.mode << 16) | (entry.type == DIRECTORY_TYPE ? 0x10 : 0));
+        header.putInt((int) entry.headerOffset);
+        header.put(entry.nameBytes);
+        writeFully(header);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        if (buffer.position() > 0) {
+            buffer.flip();
+        }
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void checkLimit(long value, String name) throws IOException {
+        if (value > MAX_32BIT) {
+            throw new IOException(name + " is too large for a zip archive without ZIP64 support");
+        }
+    }
+
+    /**
+     * Combines the CRC-32 of two consecutive blocks, as zlib's crc32_combine does.
+     *
+     * @param crc1 CRC-32 of the first block
+     * @param crc2 CRC-32 of the second block
+     * @param length2 length of the second block
+     * @return the CRC-32 of both blocks
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for one zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Operators for two and four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // Applies length2 zero bytes to crc1
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        int i = 0;
+        while (vector != 0) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+            vector >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    private static int toDosTime(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static int getPermissions(Path path, int type) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+            int mode = 0;
+            for (PosixFilePermission permission : permissions) {
+                mode |= 1 << (8 - permission.ordinal());
+            }
+            return mode;
+        } catch (UnsupportedOperationException e) {
+            return type == FILE_TYPE ? 0644 : 0755;
+        } catch (IOException e) {
+            return type == FILE_TYPE ? 0644 : 0755;
+        }
+    }
+
+    /**
+     * An entry of the archive.
+     */
+    class Entry {
+        final Path path;
+        final String name;
+        final byte[] nameBytes;
+        final int type;
+        final int mode;
+        final int dosTime;
+        final long size;
+
+        long headerOffset;
+        long compressedSize;
+        long crc;
+        private long consumed;
+
+        Entry(Path path, String name, int type, BasicFileAttributes attrs) throws IOException {
+            this.path = path;
+            this.name = name;
+            this.nameBytes = name.getBytes(UTF_8);
+            this.type = type;
+            this.mode = type | getPermissions(path, type);
+            this.dosTime = toDosTime(attrs.lastModifiedTime().toMillis());
+            if (type == SYMLINK_TYPE) {
+                this.size = getLinkTarget().length;
+            } else if (type == FILE_TYPE) {
+                this.size = attrs.size();
+            } else {
+                this.size = 0;
+            }
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getCrc() {
+            return crc;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        boolean isDirectory() {
+            return type == DIRECTORY_TYPE;
+        }
+
+        int getMethod() {
+            return type == FILE_TYPE && level != STORE ? METHOD_DEFLATED : METHOD_STORED;
+        }
+
+        int getFlags() {
+            for (byte b : nameBytes) {
+                if (b < 0) {
+                    return UTF8_FLAG;
+                }
+            }
+            return 0;
+        }
+
+        byte[] getLinkTarget() throws IOException {
+            return Files.readSymbolicLink(path).toString().getBytes(UTF_8);
+        }
+
+        long uncompressedSize() {
+            return consumed;
+        }
+    }
+
+    /**
+     * A part of an entry, compressed independently.
+     */
+    private class Chunk implements Callable<byte[]> {
+        final Entry entry;
+        final long offset;
+        final int length;
+        final boolean last;
+        long crc;
+
+        Chunk(Entry entry, long offset, int length, boolean last) {
+            this.entry = entry;
+            this.offset = offset;
+            this.length = length;
+            this.last = last;
+        }
+
+        public byte[] call() throws IOException {
+            byte[] input;
+            if (entry.type == SYMLINK_TYPE) {
+                input = entry.getLinkTarget();
+            } else if (entry.type == FILE_TYPE) {
+                input = read(offset, length);
+            } else {
+                input = new byte[0];
+            }
+
+            CRC32 checksum = new CRC32();
+            checksum.update(input);
+            crc = checksum.getValue();
+            synchronized (entry) {
+                entry.consumed += input.length;
+            }
+
+            if (entry.getMethod() == METHOD_STORED) {
+                return input;
+            }
+            return deflate(input);
+        }
+
+        private byte[] deflate(byte[] input) throws IOException {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (offset > 0) {
+                    int dictionaryLength = (int) Math.min(DICTIONARY_SIZE, offset);
+                    deflater.setDictionary(read(offset - dictionaryLength, dictionaryLength));
+                }
+                deflater.setInput(input);
+
+                ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int count = deflater.deflate(buffer);
+                        output.write(buffer, 0, count);
+                    }
+                } else {
+                    // Byte aligned and not final, so that the next chunk can be appended
+                    int count;
+                    do {
+                        count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        output.write(buffer, 0, count);
+                    } while (count == buffer.length);
+                }
+                return output.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private byte[] read(long position, int count) throws IOException {
+            byte[] bytes = new byte[count];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.READ);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException(entry.path + " changed while it was being archived");
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+            return bytes;
+        }
+    }
+}
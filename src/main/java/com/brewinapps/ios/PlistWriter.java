@@ -0,0 +1,191 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes property lists in the XML format of Xcode, or in the OpenStep format. The objects are the ones
+ * of {@link BinaryPlistReader#readObject(long)}.
+ *
+ * @author Brewin' Apps AS
+ */
+class PlistWriter {
+
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+            + "<plist version=\"1.0\">\n";
+
+    private static final Pattern UNQUOTED = Pattern.compile("[A-Za-z0-9_$+/:.-]+");
+
+    private final Writer out;
+
+    private PlistWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param root
+     * @param out
+     * @throws IOException
+     */
+    static void writeXml(Object root, Writer out) throws IOException {
+        out.write(XML_HEADER);
+        new PlistWriter(out).writeXmlValue(root, 0);
+        out.write("</plist>\n");
+    }
+
+    /**
+     * Values without an OpenStep type are written as strings: booleans as YES and NO, numbers and dates as text.
+     *
+     * @param root
+     * @param out
+     * @throws IOException
+     */
+    static void writeOpenStep(Object root, Writer out) throws IOException {
+        out.write("// !$*UTF8*$!\n");
+        new PlistWriter(out).writeOpenStepValue(root, 0);
+        out.write('\n');
+    }
+
+    private void writeXmlValue(Object value, int depth) throws IOException {
+        indent(depth);
+        if (value instanceof Map) {
+            Map<?, ?> dictionary = (Map<?, ?>) value;
+            if (dictionary.isEmpty()) {
+                out.write("<dict/>\n");
+                return;
+            }
+            out.write("<dict>\n");
+            for (Map.Entry<?, ?> entry : dictionary.entrySet()) {
+                indent(depth + 1);
+                out.write("<key>");
+                out.write(escapeXml(String.valueOf(entry.getKey())));
+                out.write("</key>\n");
+                writeXmlValue(entry.getValue(), depth + 1);
+            }
+            indent(depth);
+            out.write("</dict>\n");
+        } else if (value instanceof Collection) {
+            Collection<?> array = (Collection<?>) value;
+            if (array.isEmpty()) {
+                out.write("<array/>\n");
+                return;
+            }
+            out.write("<array>\n");
+            for (Object element : array) {
+                writeXmlValue(element, depth + 1);
+            }
+            indent(depth);
+            out.write("</array>\n");
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? "<true/>\n" : "<false/>\n");
+        } else if (value instanceof Double || value instanceof Float) {
+            writeXmlElement("real", value.toString());
+        } else if (value instanceof Number) {
+            writeXmlElement("integer", value.toString());
+        } else if (value instanceof Date) {
+            writeXmlElement("date", XmlPlistParser.formatDate((Date) value));
+        } else if (value instanceof byte[]) {
+            writeXmlElement("data", XmlPlistParser.encodeBase64((byte[]) value));
+        } else if (null != value) {
+            writeXmlElement("string", escapeXml(value.toString()));
+        } else {
+            throw new IOException("Property lists cannot hold null values");
+        }
+    }
+
+    private void writeXmlElement(String name, String text) throws IOException {
+        out.write('<');
+        out.write(name);
+        out.write('>');
+        out.write(text);
+        out.write("</");
+        out.write(name);
+        out.write(">\n");
+    }
+
+    private void writeOpenStepValue(Object value, int depth) throws IOException {
+        if (value instanceof Map) {
+            out.write("{\n");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                indent(depth + 1);
+                out.write(quote(String.valueOf(entry.getKey())));
+                out.write(" = ");
+                writeOpenStepValue(entry.getValue(), depth + 1);
+                out.write(";\n");
+            }
+            indent(depth);
+            out.write('}');
+        } else if (value instanceof Collection) {
+            out.write("(\n");
+            for (Object element : (Collection<?>) value) {
+                indent(depth + 1);
+                writeOpenStepValue(element, depth + 1);
+                out.write(",\n");
+            }
+            indent(depth);
+            out.write(')');
+        } else if (value instanceof byte[]) {
+            out.write('<');
+            for (byte b : (byte[]) value) {
+                out.write(Character.forDigit(b >> 4 & 0xf, 16));
+                out.write(Character.forDigit(b & 0xf, 16));
+            }
+            out.write('>');
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? "YES" : "NO");
+        } else if (value instanceof Date) {
+            out.write(quote(XmlPlistParser.formatDate((Date) value)));
+        } else if (null != value) {
+            out.write(quote(value.toString()));
+        } else {
+            throw new IOException("Property lists cannot hold null values");
+        }
+    }
+
+    private void indent(int depth) throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.write('\t');
+        }
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * @return the string as written in OpenStep property lists, quoted only when needed. Slashes are
+     *         allowed unquoted, but not where they would start a comment.
+     */
+    static String quote(String value) {
+        if (UNQUOTED.matcher(value).matches() && !value.contains("//") && !value.contains("/*")) {
+            return value;
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    quoted.append('\\').append(c);
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                default:
+                    quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Local cache of CocoaPods installations, keyed on the content of the Podfile and Podfile.lock.
+ * Restored installations are cloned from the cache where the file system supports it, copied otherwise.
+ * They are never hard linked, as 'pod install' and the build would then modify the cached files in place.
+ *
+ * @author Brewin' Apps AS
+ */
+class PodsCache {
+
+    private final File cacheDir;
+
+    /**
+     * @param cacheDir
+     */
+    PodsCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @param podfile
+     * @param podfileLock
+     * @return the cache key, or null if the Podfile.lock does not exist yet
+     * @throws IOException
+     */
+    String computeKey(File podfile, File podfileLock) throws IOException {
+        if (!podfile.exists() || !podfileLock.exists()) {
+            return null;
+        }
+
+        MessageDigest sha1 = Digests.newSha1();
+        Digests.update(sha1, Digests.sha1(podfile));
+        Digests.update(sha1, Digests.sha1(podfileLock));
+        return Digests.toHex(sha1.digest());
+    }
+
+    /**
+     * @param key
+     * @return true if pods are cached under this key
+     */
+    boolean contains(String key) {
+        return null != key && getEntry(key).isDirectory();
+    }
+
+    /**
+     * Replaces the pods directory with the cached one.
+     *
+     * @param key
+     * @param podsDir
+     * @return true if the cache had pods for this key
+     * @throws IOException
+     */
+    boolean restore(String key, File podsDir) throws IOException {
+        if (!contains(key)) {
+            return false;
+        }
+
+        if (podsDir.exists()) {
+            FileUtils.deleteDirectory(podsDir);
+        }
+        DirectoryCopier.cloneOrCopy(getEntry(key).toPath(), podsDir.toPath());
+        return true;
+    }
+
+    /**
+     * Caches the pods directory under the key, unless it is already cached.
+     *
+     * @param key
+     * @param podsDir
+     * @throws IOException
+     */
+    void store(String key, File podsDir) throws IOException {
+        if (null == key || contains(key) || !podsDir.isDirectory()) {
+            return;
+        }
+
+        // Copied aside first, so that a concurrent build never sees a partial entry
+        cacheDir.mkdirs();
+        File staging = new File(cacheDir, key + ".tmp-" + System.nanoTime());
+        try {
+            DirectoryCopier.cloneOrCopy(podsDir.toPath(), staging.toPath());
+            Files.move(staging.toPath(), getEntry(key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!contains(key)) {
+                throw e;
+            }
+            // Stored by another build in the meantime
+        } finally {
+            if (staging.exists()) {
+                FileUtils.deleteDirectory(staging);
+            }
+        }
+    }
+
+    private File getEntry(String key) {
+        return new File(cacheDir, key);
+    }
+}
@@ -0,0 +1,100 @@
+package com.brewinapps.ios;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Kills a process along with all its descendants. xcodebuild, xctool and pod spawn
+ * children (clang, ibtool, git...) that would otherwise survive {@link Process#destroy()}.
+ *
+ * @author Brewin' Apps AS
+ */
+class ProcessTreeKiller {
+
+    private ProcessTreeKiller() {
+    }
+
+    /**
+     * @param process
+     */
+    static void kill(Process process) {
+        Integer pid = getPid(process);
+        if (null != pid) {
+            List<String> pids = new ArrayList<String>();
+            pids.add(pid.toString());
+            collectDescendants(pid.toString(), pids);
+
+            List<String> command = new ArrayList<String>();
+            command.add("kill");
+            command.add("-KILL");
+            command.addAll(pids);
+            run(command);
+        }
+        process.destroy();
+    }
+
+    /**
+     * @return the pid of the process, or null if the JVM does not expose it
+     */
+    static Integer getPid(Process process) {
+        try {
+            // Java 9 and later
+            Method pidMethod = Process.class.getMethod("pid");
+            return ((Number) pidMethod.invoke(process)).intValue();
+        } catch (NoSuchMethodException e) {
+            // Fall back on the UNIXProcess field
+        } catch (Exception e) {
+            return null;
+        }
+
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return pidField.getInt(process);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void collectDescendants(String pid, List<String> pids) {
+        for (String child : run(Arrays.asList("pgrep", "-P", pid))) {
+            if (!pids.contains(child)) {
+                pids.add(child);
+                collectDescendants(child, pids);
+            }
+        }
+    }
+
+    private static List<String> run(List<String> command) {
+        List<String> lines = new ArrayList<String>();
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            Process p = pb.start();
+            BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() > 0) {
+                        lines.add(line);
+                    }
+                }
+            } finally {
+                input.close();
+            }
+            p.waitFor();
+        } catch (IOException e) {
+            // Best effort, the process itself is still destroyed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return lines;
+    }
+}
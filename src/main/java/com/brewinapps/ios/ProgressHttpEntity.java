@@ -0,0 +1,109 @@
+package com.brewinapps.ios;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Logs the progress, throughput and estimated remaining time of an upload.
+ *
+ * @author Brewin' Apps AS
+ */
+public class ProgressHttpEntity extends HttpEntityWrapper {
+
+    static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    private final String name;
+    private final Log logger;
+    private long bytesSent;
+    private long durationMillis;
+
+    /**
+     * @param entity
+     * @param name what is uploaded, for the log
+     * @param logger
+     */
+    public ProgressHttpEntity(HttpEntity entity, String name, Log logger) {
+        super(entity);
+        this.name = name;
+        this.logger = logger;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        bytesSent = 0;
+        final long total = getContentLength();
+        final long start = System.currentTimeMillis();
+
+        wrappedEntity.writeTo(new FilterOutputStream(out) {
+            private long lastReport = start;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count(1);
+            }
+
+            private void count(int len) {
+                bytesSent += len;
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                    lastReport = now;
+                    logger.info(formatProgress(bytesSent, total, now - start));
+                }
+            }
+        });
+        durationMillis = System.currentTimeMillis() - start;
+        logger.info(String.format("Sent %s in %.1f s (%s/s)", formatSize(bytesSent),
+                durationMillis / 1000.0, formatSize(getBytesPerSecond(bytesSent, durationMillis))));
+    }
+
+    /**
+     * @return the bytes sent by the last attempt
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return the time spent sending the entity by the last attempt
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    String formatProgress(long sent, long total, long elapsedMillis) {
+        long rate = getBytesPerSecond(sent, elapsedMillis);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Uploading ").append(name).append(": ").append(formatSize(sent));
+        if (total > 0) {
+            sb.append(" of ").append(formatSize(total)).append(" (").append(sent * 100 / total).append("%)");
+        }
+        sb.append(", ").append(formatSize(rate)).append("/s");
+        if (total > 0 && rate > 0) {
+            sb.append(", ").append((total - sent) / rate).append(" s remaining");
+        }
+        return sb.toString();
+    }
+
+    static long getBytesPerSecond(long bytes, long millis) {
+        return millis > 0 ? bytes * 1000 / millis : 0;
+    }
+
+    static String formatSize(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,215 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes property lists in the XML, binary and OpenStep formats, without forking plutil or
+ * agvtool. Dictionaries are maps, arrays lists, integers longs, reals doubles, and data byte arrays.
+ * <p>
+ * Values are addressed by key paths in the PlistBuddy syntax, e.g. {@code :CFBundleIcons:CFBundlePrimaryIcon}
+ * or {@code :UIRequiredDeviceCapabilities:0}. Binary files are mapped and only the objects on the path
+ * are decoded.
+ *
+ * @author Brewin' Apps AS
+ */
+final class PropertyList {
+
+    enum Format {
+        XML, BINARY, OPENSTEP
+    }
+
+    private PropertyList() {
+    }
+
+    /**
+     * @param content
+     * @return the format of the property list, by its first characters
+     */
+    static Format detect(byte[] content) {
+        if (BinaryPlistReader.isBinary(content)) {
+            return Format.BINARY;
+        }
+        int start = 0;
+        if (content.length >= 3 && (content[0] & 0xff) == 0xef && (content[1] & 0xff) == 0xbb
+                && (content[2] & 0xff) == 0xbf) {
+            start = 3;
+        }
+        while (start < content.length && Character.isWhitespace(content[start])) {
+            start++;
+        }
+        return start < content.length && content[start] == '<' && start + 1 < content.length
+                && (content[start + 1] == '?' || content[start + 1] == '!' || content[start + 1] == 'p')
+                ? Format.XML : Format.OPENSTEP;
+    }
+
+    /**
+     * @param file
+     * @return the root object of the property list
+     * @throws IOException if the file is not a valid property list
+     */
+    static Object read(File file) throws IOException {
+        return parse(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * @param content
+     * @return the root object of the property list
+     * @throws IOException if the content is not a valid property list
+     */
+    static Object parse(byte[] content) throws IOException {
+        switch (detect(content)) {
+            case BINARY:
+                BinaryPlistReader reader = new BinaryPlistReader(ByteBuffer.wrap(content));
+                return reader.readObject(reader.getTopObject());
+            case XML:
+                return XmlPlistParser.parse(content);
+            default:
+                return OpenStepPlistParser.parse(new String(content, "UTF-8"));
+        }
+    }
+
+    /**
+     * Reads a single value. Binary files are mapped and decoded along the path only.
+     *
+     * @param file
+     * @param keyPath
+     * @return the value, or null if it is missing
+     * @throws IOException if the file is not a valid property list
+     */
+    static Object get(File file, String keyPath) throws IOException {
+        SharedArtifact mapped = SharedArtifact.map(file);
+        ByteBuffer buffer = mapped.newBuffer();
+        byte[] magic = new byte[Math.min(BinaryPlistReader.MAGIC.length(), buffer.remaining())];
+        buffer.duplicate().get(magic);
+        if (BinaryPlistReader.isBinary(magic)) {
+            return new BinaryPlistReader(buffer).get(parseKeyPath(keyPath));
+        }
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return get(parse(content), keyPath);
+    }
+
+    /**
+     * @param root
+     * @param keyPath
+     * @return the value, or null if it is missing
+     * @throws IOException if the path goes through a value that is not a dictionary or an array
+     */
+    static Object get(Object root, String keyPath) throws IOException {
+        Object value = root;
+        for (String key : parseKeyPath(keyPath)) {
+            if (value instanceof Map) {
+                value = ((Map<?, ?>) value).get(key);
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                int index = parseIndex(key);
+                value = index >= 0 && index < list.size() ? list.get(index) : null;
+            } else {
+                throw new IOException("Cannot look up '" + key + "' in '" + keyPath + "', its parent is not a dictionary or an array");
+            }
+            if (null == value) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param keyPath the keys separated by colons, optionally starting with one
+     * @return the keys, none for the root
+     */
+    static String[] parseKeyPath(String keyPath) {
+        List<String> keys = new ArrayList<String>();
+        int start = keyPath.startsWith(":") ? 1 : 0;
+        while (start < keyPath.length()) {
+            int end = keyPath.indexOf(':', start);
+            if (end < 0) {
+                end = keyPath.length();
+            }
+            keys.add(keyPath.substring(start, end));
+            start = end + 1;
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    private static int parseIndex(String key) throws IOException {
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            throw new IOException("'" + key + "' is not an array index");
+        }
+    }
+
+    /**
+     * @param root
+     * @param format
+     * @return the property list
+     * @throws IOException if an object cannot be written to a property list
+     */
+    static byte[] toBytes(Object root, Format format) throws IOException {
+        if (Format.BINARY == format) {
+            return BinaryPlistWriter.write(root);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        if (Format.XML == format) {
+            PlistWriter.writeXml(root, writer);
+        } else {
+            PlistWriter.writeOpenStep(root, writer);
+        }
+        writer.close();
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes the property list to a temporary file first, so that a failure leaves the file untouched.
+     *
+     * @param root
+     * @param format
+     * @param file
+     * @throws IOException
+     */
+    static void write(Object root, Format format, File file) throws IOException {
+        byte[] content = toBytes(root, format);
+        Path target = file.toPath();
+        Path temp = createTempFile(target);
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates the file that replaces the target once written, next to it. It gets the permissions of the target,
+     * or the default ones of a new file, instead of the owner-only permissions of {@link Files#createTempFile}.
+     *
+     * @param target
+     * @return the empty temporary file
+     * @throws IOException
+     */
+    static Path createTempFile(Path target) throws IOException {
+        Path temp = target.toAbsolutePath().resolveSibling("." + target.getFileName() + ".tmp-" + System.nanoTime());
+        Files.createFile(temp);
+        if (Files.exists(target)) {
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system
+            }
+        }
+        return temp;
+    }
+}
@@ -0,0 +1,105 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A provisioning profile. Its property list is signed but not encrypted, so it is read straight from the
+ * CMS envelope instead of forking 'security cms -D'.
+ *
+ * @author Brewin' Apps AS
+ */
+class ProvisioningProfile {
+
+    static final String APPLICATION_IDENTIFIER = "application-identifier";
+
+    private static final byte[] PLIST_START = "<?xml".getBytes(Charset.forName("US-ASCII"));
+    private static final byte[] PLIST_END = "</plist>".getBytes(Charset.forName("US-ASCII"));
+
+    private final File file;
+    private final Map<?, ?> plist;
+
+    private ProvisioningProfile(File file, Map<?, ?> plist) {
+        this.file = file;
+        this.plist = plist;
+    }
+
+    /**
+     * @param file a .mobileprovision file
+     * @return the profile
+     * @throws IOException if it holds no property list
+     */
+    static ProvisioningProfile read(File file) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        int start = indexOf(content, PLIST_START, 0);
+        int end = start < 0 ? -1 : indexOf(content, PLIST_END, start);
+        if (end < 0) {
+            throw new IOException(file.getName() + " is not a provisioning profile");
+        }
+
+        Object plist = PropertyList.parse(Arrays.copyOfRange(content, start, end + PLIST_END.length));
+        if (!(plist instanceof Map)) {
+            throw new IOException(file.getName() + " is not a provisioning profile");
+        }
+        return new ProvisioningProfile(file, (Map<?, ?>) plist);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    String getName() {
+        Object name = plist.get("Name");
+        return null != name ? name.toString() : file.getName();
+    }
+
+    Date getExpirationDate() {
+        Object date = plist.get("ExpirationDate");
+        return date instanceof Date ? (Date) date : null;
+    }
+
+    /**
+     * @return the entitlements granted by the profile
+     */
+    Map<?, ?> getEntitlements() {
+        Object entitlements = plist.get("Entitlements");
+        return entitlements instanceof Map ? (Map<?, ?>) entitlements : Collections.emptyMap();
+    }
+
+    /**
+     * @param bundleIdentifier
+     * @return if the application identifier of the profile, which may end with a wildcard, covers the bundle
+     */
+    boolean matches(String bundleIdentifier) {
+        Object applicationIdentifier = getEntitlements().get(APPLICATION_IDENTIFIER);
+        if (!(applicationIdentifier instanceof String)) {
+            return true;
+        }
+        String pattern = (String) applicationIdentifier;
+        int dot = pattern.indexOf('.');
+        pattern = dot >= 0 ? pattern.substring(dot + 1) : pattern;
+        if (pattern.endsWith("*")) {
+            return bundleIdentifier.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return pattern.equals(bundleIdentifier);
+    }
+
+    private static int indexOf(byte[] content, byte[] token, int from) {
+        for (int i = from; i <= content.length - token.length; i++) {
+            int j = 0;
+            while (j < token.length && content[i + j] == token[j]) {
+                j++;
+            }
+            if (j == token.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+package com.brewinapps.ios;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A command run by the {@link BuildDaemon}, seen as a local process: its output streams are fed by the
+ * frames received from the daemon, and destroying it cancels the command on the daemon side.
+ *
+ * @author Brewin' Apps AS
+ */
+class RemoteProcess extends Process {
+
+    /**
+     * Exit code when the connection to the daemon was lost.
+     */
+    static final int LOST_EXIT_CODE = -1;
+
+    private final Socket socket;
+    private final ChunkInputStream stdout = new ChunkInputStream();
+    private final ChunkInputStream stderr = new ChunkInputStream();
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private volatile int exitCode = LOST_EXIT_CODE;
+
+    /**
+     * @param socket connected to the daemon, once the command started
+     * @param in the frames of the command
+     */
+    RemoteProcess(Socket socket, final DataInputStream in) {
+        this.socket = socket;
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                readFrames(in);
+            }
+        }, "ios-daemon-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readFrames(DataInputStream in) {
+        try {
+            while (true) {
+                int type = in.readByte();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                if (BuildDaemon.STDOUT == type) {
+                    stdout.add(data);
+                } else if (BuildDaemon.STDERR == type) {
+                    stderr.add(data);
+                } else if (BuildDaemon.EXIT == type) {
+                    exitCode = ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8)
+                            | (data[3] & 0xff);
+                    break;
+                } else if (BuildDaemon.ERROR == type) {
+                    stderr.add(("The build daemon failed: " + new String(data, CommandHelper.OUTPUT_CHARSET) + "\n")
+                            .getBytes(CommandHelper.OUTPUT_CHARSET));
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            stderr.add("The connection to the build daemon was lost\n".getBytes(CommandHelper.OUTPUT_CHARSET));
+        } finally {
+            stdout.end();
+            stderr.end();
+            exited.countDown();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        // The commands of the plugin do not read their standard input
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return stderr;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        exited.await();
+        return exitCode;
+    }
+
+    @Override
+    public int exitValue() {
+        if (exited.getCount() > 0) {
+            throw new IllegalThreadStateException("The command is still running");
+        }
+        return exitCode;
+    }
+
+    /**
+     * Closes the connection, the daemon then kills the command along with its descendants.
+     */
+    @Override
+    public void destroy() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignored
+        }
+    }
+
+    /**
+     * Stream of the chunks received so far, blocking until the next one or the end.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+        private byte[] current;
+        private int position;
+        private boolean ended;
+
+        void add(byte[] chunk) {
+            chunks.add(chunk);
+        }
+
+        void end() {
+            chunks.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!ended && (null == current || position == current.length)) {
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+                ended = current == END;
+            }
+            if (ended) {
+                return -1;
+            }
+
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
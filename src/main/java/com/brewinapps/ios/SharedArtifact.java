@@ -0,0 +1,146 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An artifact read once and shared by all the distribution providers through a memory-mapped buffer.
+ * A buffer addresses at most 2 GB, so larger artifacts are streamed from the file by each provider instead.
+ *
+ * @author Brewin' Apps AS
+ */
+public class SharedArtifact {
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final long size;
+
+    private SharedArtifact(File file, ByteBuffer buffer, long size) {
+        this.file = file;
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * @param file
+     * @return the artifact, mapped unless it is larger than 2 GB
+     * @throws IOException
+     */
+    public static SharedArtifact open(File file) throws IOException {
+        long size = file.length();
+        if (size > Integer.MAX_VALUE) {
+            return new SharedArtifact(file, null, size);
+        }
+        return map(file);
+    }
+
+    /**
+     * @param file
+     * @return the mapped artifact
+     * @throws IOException if it is larger than 2 GB
+     */
+    public static SharedArtifact map(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped");
+            }
+            // The mapping stays valid once the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SharedArtifact(file, buffer.asReadOnlyBuffer(), buffer.capacity());
+        } finally {
+            input.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isMapped() {
+        return null != buffer;
+    }
+
+    /**
+     * @return a new view on the content, with its own position
+     * @throws IllegalStateException if the artifact is not mapped
+     */
+    public ByteBuffer newBuffer() {
+        if (null == buffer) {
+            throw new IllegalStateException(file + " is not mapped");
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return a new stream on the content
+     * @throws IOException
+     */
+    public InputStream newInputStream() throws IOException {
+        if (null == buffer) {
+            return new FileInputStream(file);
+        }
+        final ByteBuffer content = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return content.hasRemaining() ? content.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!content.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, content.remaining());
+                content.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return content.remaining();
+            }
+        };
+    }
+
+    /**
+     * Writes the content, in chunks of at most 1 MB.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] chunk = new byte[(int) Math.max(1, Math.min(ByteBufferBody.BUFFER_SIZE, size))];
+        if (null != buffer) {
+            ByteBuffer content = buffer.duplicate();
+            while (content.hasRemaining()) {
+                int count = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        } else {
+            InputStream input = new FileInputStream(file);
+            try {
+                int count;
+                while ((count = input.read(chunk)) >= 0) {
+                    out.write(chunk, 0, count);
+                }
+            } finally {
+                input.close();
+            }
+        }
+        out.flush();
+    }
+}
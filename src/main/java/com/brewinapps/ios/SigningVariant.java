@@ -0,0 +1,64 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+
+/**
+ * One signed IPA produced by the resign goal from the built app.
+ *
+ * @author Brewin' Apps AS
+ */
+public class SigningVariant {
+
+    /**
+     * Name of the variant, used as the classifier of its IPA, e.g. 'adhoc' or 'enterprise'
+     */
+    private String name;
+
+    /**
+     * Code sign identity, e.g. 'iPhone Distribution: ACME Inc'
+     */
+    private String codeSignIdentity;
+
+    /**
+     * Provisioning profile embedded in the app
+     */
+    private File provisioningProfile;
+
+    /**
+     * Entitlements of the app. Defaults to the entitlements of the provisioning profile, or else to the
+     * current entitlements of the app.
+     */
+    private File entitlements;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getCodeSignIdentity() {
+        return codeSignIdentity;
+    }
+
+    public void setCodeSignIdentity(String codeSignIdentity) {
+        this.codeSignIdentity = codeSignIdentity;
+    }
+
+    public File getProvisioningProfile() {
+        return provisioningProfile;
+    }
+
+    public void setProvisioningProfile(File provisioningProfile) {
+        this.provisioningProfile = provisioningProfile;
+    }
+
+    public File getEntitlements() {
+        return entitlements;
+    }
+
+    public void setEntitlements(File entitlements) {
+        this.entitlements = entitlements;
+    }
+}
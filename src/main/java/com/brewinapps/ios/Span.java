@@ -0,0 +1,133 @@
+package com.brewinapps.ios;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation of the build, such as a goal, a command or an upload.
+ * The spans of a disabled tracer do nothing, so they can be created unconditionally.
+ *
+ * @author Brewin' Apps AS
+ */
+public class Span {
+
+    static final Span NOOP = new Span(null, null, null, null);
+
+    private final Tracer tracer;
+    private final String name;
+    private final String spanId;
+    private final String parentSpanId;
+    private final long startMillis;
+    private final long startNanos;
+    private final long threadId;
+    private final Map<String, Object> attributes;
+
+    private long durationNanos = -1;
+    private String error;
+    private Span previous;
+
+    Span(Tracer tracer, String name, String spanId, String parentSpanId) {
+        this.tracer = tracer;
+        this.name = name;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.threadId = Thread.currentThread().getId();
+        this.attributes = null != tracer ? new LinkedHashMap<String, Object>() : null;
+    }
+
+    /**
+     * Makes this span the parent of the spans started on this thread, until it ends.
+     *
+     * @return this span
+     */
+    public Span activate() {
+        if (null != tracer) {
+            previous = tracer.setCurrent(this);
+        }
+        return this;
+    }
+
+    /**
+     * @param key
+     * @param value a string, a number or a boolean
+     * @return this span
+     */
+    public Span setAttribute(String key, Object value) {
+        if (null != tracer && null != value) {
+            synchronized (attributes) {
+                attributes.put(key, value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Marks the span as failed.
+     *
+     * @param message
+     * @return this span
+     */
+    public Span setError(String message) {
+        if (null != tracer) {
+            error = null != message ? message : "error";
+        }
+        return this;
+    }
+
+    /**
+     * Ends the span and exports it. Only the first call has an effect.
+     */
+    public void end() {
+        if (null == tracer) {
+            return;
+        }
+        synchronized (this) {
+            if (durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        tracer.restoreCurrent(this, previous);
+        tracer.export(this);
+    }
+
+    boolean isRecording() {
+        return null != tracer;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getSpanId() {
+        return spanId;
+    }
+
+    String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    long getStartMillis() {
+        return startMillis;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    long getThreadId() {
+        return threadId;
+    }
+
+    String getError() {
+        return error;
+    }
+
+    Map<String, Object> getAttributes() {
+        synchronized (attributes) {
+            return new LinkedHashMap<String, Object>(attributes);
+        }
+    }
+}
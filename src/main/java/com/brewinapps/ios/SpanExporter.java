@@ -0,0 +1,18 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+
+/**
+ * Writes the ended spans somewhere they can be looked at.
+ *
+ * @author Brewin' Apps AS
+ */
+interface SpanExporter {
+
+    /**
+     * @param traceId the trace of the span, one per JVM
+     * @param span an ended span
+     * @throws IOException
+     */
+    void export(String traceId, Span span) throws IOException;
+}
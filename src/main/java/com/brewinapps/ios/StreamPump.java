@@ -0,0 +1,127 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Drains a process stream on a pump thread, decoding it with an explicit charset
+ * and dispatching every line to the consumers. Lines longer than {@link #MAX_LINE_LENGTH}
+ * are dispatched in pieces, so that a tool printing megabytes without a newline cannot
+ * exhaust the heap.
+ *
+ * @author Brewin' Apps AS
+ */
+class StreamPump implements Callable<Void> {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Characters buffered before a line without a newline is dispatched anyway.
+     */
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Direct buffers are expensive to allocate, so each pump thread keeps its own.
+     */
+    private static final ThreadLocal<ByteBuffer> BYTE_BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final InputStream input;
+    private final Charset charset;
+    private final List<StreamConsumer> consumers;
+    private final StringBuilder line = new StringBuilder();
+    private volatile long bytesRead;
+
+    StreamPump(InputStream input, Charset charset, List<StreamConsumer> consumers) {
+        this.input = input;
+        this.charset = charset;
+        this.consumers = consumers;
+    }
+
+    public Void call() throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = BYTE_BUFFERS.get();
+        bytes.clear();
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        ReadableByteChannel channel = Channels.newChannel(input);
+        try {
+            int read;
+            while ((read = channel.read(bytes)) != -1) {
+                bytesRead += read;
+                bytes.flip();
+                decode(decoder, bytes, chars, false);
+                bytes.compact();
+            }
+            bytes.flip();
+            decode(decoder, bytes, chars, true);
+            decoder.flush(chars);
+            dispatch(chars);
+        } finally {
+            channel.close();
+        }
+
+        if (line.length() > 0) {
+            emitLine();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of bytes read from the stream so far
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    private void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, boolean endOfInput) {
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            dispatch(chars);
+        } while (result.isOverflow());
+    }
+
+    private void dispatch(CharBuffer chars) {
+        chars.flip();
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (c == '\n') {
+                emitLine();
+            } else if (c != '\r') {
+                // A surrogate pair is never split across two pieces
+                if (line.length() >= MAX_LINE_LENGTH && !Character.isLowSurrogate(c)) {
+                    emitLine();
+                }
+                line.append(c);
+            }
+        }
+        chars.clear();
+    }
+
+    private void emitLine() {
+        String outLine = line.toString();
+        line.setLength(0);
+        for (StreamConsumer consumer : consumers) {
+            consumer.consumeLine(outLine);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the XCTestCase subclasses declared in the Objective-C and Swift sources, without compiling them,
+ * and the test target of each from the directory it is in.
+ *
+ * @author Brewin' Apps AS
+ */
+class TestClassFinder {
+
+    static final String XCTEST_CASE = "XCTestCase";
+
+    private static final Pattern OBJC_INTERFACE = Pattern.compile("@interface\\s+(\\w+)\\s*:\\s*(\\w+)");
+    private static final Pattern SWIFT_CLASS = Pattern.compile(
+            "(?m)^\\s*(?:(?:@\\w+|public|open|final|internal|private|fileprivate)\\s+)*class\\s+(\\w+)\\s*:\\s*(?:\\w+\\.)?(\\w+)");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, String> superclasses = new HashMap<String, String>();
+    private final Map<String, Path> files = new HashMap<String, Path>();
+
+    /**
+     * Reads the declarations of the sources under the directory, skipping the build output,
+     * the dependencies and the Xcode containers.
+     *
+     * @param sourceDir
+     * @param excludedDir
+     * @throws IOException
+     */
+    void scan(final Path sourceDir, final Path excludedDir) throws IOException {
+        Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName().toString();
+                if (dir.equals(excludedDir) || (!dir.equals(sourceDir) && (name.startsWith(".")
+                        || name.equals("Pods") || name.equals("Carthage") || name.endsWith(".xcodeproj")
+                        || name.endsWith(".xcworkspace")))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".swift")) {
+                    read(file, SWIFT_CLASS);
+                } else if (name.endsWith(".m") || name.endsWith(".mm") || name.endsWith(".h")) {
+                    read(file, OBJC_INTERFACE);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void read(Path file, Pattern declaration) throws IOException {
+        Matcher matcher = declaration.matcher(new String(Files.readAllBytes(file), UTF_8));
+        while (matcher.find()) {
+            superclasses.put(matcher.group(1), matcher.group(2));
+            // The implementation file tells the target better than a shared header
+            if (!files.containsKey(matcher.group(1)) || !file.getFileName().toString().endsWith(".h")) {
+                files.put(matcher.group(1), file);
+            }
+        }
+    }
+
+    /**
+     * @return the test classes found, direct or indirect subclasses of XCTestCase, with their source file
+     */
+    Map<String, Path> getTestClasses() {
+        Map<String, Path> tests = new TreeMap<String, Path>();
+        for (String className : superclasses.keySet()) {
+            if (isTestClass(className)) {
+                tests.put(className, files.get(className));
+            }
+        }
+        return tests;
+    }
+
+    private boolean isTestClass(String className) {
+        String current = superclasses.get(className);
+        // Bounded, in case of a cycle between misparsed declarations
+        for (int depth = 0; null != current && depth < 32; depth++) {
+            if (XCTEST_CASE.equals(current)) {
+                return true;
+            }
+            current = superclasses.get(current);
+        }
+        return false;
+    }
+
+    /**
+     * Attributes each test class to the test target whose name is one of the directories of its source file,
+     * or to the only test target.
+     *
+     * @param sourceDir
+     * @param testTargets
+     * @return the test classes as Target/Class, or null if a class could not be attributed
+     */
+    List<String> getTestIdentifiers(Path sourceDir, List<String> testTargets) {
+        List<String> identifiers = new ArrayList<String>();
+        for (Map.Entry<String, Path> test : getTestClasses().entrySet()) {
+            String target = null;
+            if (testTargets.size() == 1) {
+                target = testTargets.get(0);
+            } else {
+                for (Path segment : sourceDir.relativize(test.getValue())) {
+                    if (testTargets.contains(segment.toString())) {
+                        target = segment.toString();
+                    }
+                }
+            }
+            if (null == target) {
+                return null;
+            }
+            identifiers.add(target + "/" + test.getKey());
+        }
+        return identifiers;
+    }
+}
@@ -0,0 +1,114 @@
+package com.brewinapps.ios;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Splits the test classes in shards of about the same duration: the longest classes are placed first,
+ * each in the shard with the least expected duration so far.
+ * <p/>
+ * Classes without history are expected to take the median duration of the others, or one second.
+ *
+ * @author Brewin' Apps AS
+ */
+class TestShardPlanner {
+
+    static final long DEFAULT_DURATION_MILLIS = 1000;
+
+    private TestShardPlanner() {
+    }
+
+    /**
+     * @param tests the test classes, as Target/Class
+     * @param durations the expected durations of the classes with a history, in milliseconds
+     * @param shardCount
+     * @return the non empty shards, the longest first
+     */
+    static List<Shard> plan(Collection<String> tests, final Map<String, Long> durations, int shardCount) {
+        final long defaultDuration = getDefaultDuration(tests, durations);
+        List<String> sorted = new ArrayList<String>(tests);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                long durationA = getDuration(a, durations, defaultDuration);
+                long durationB = getDuration(b, durations, defaultDuration);
+                if (durationA != durationB) {
+                    return durationA > durationB ? -1 : 1;
+                }
+                return a.compareTo(b);
+            }
+        });
+
+        PriorityQueue<Shard> shards = new PriorityQueue<Shard>(Math.max(1, shardCount), new Comparator<Shard>() {
+            public int compare(Shard a, Shard b) {
+                if (a.expectedMillis != b.expectedMillis) {
+                    return a.expectedMillis < b.expectedMillis ? -1 : 1;
+                }
+                return a.index - b.index;
+            }
+        });
+        for (int i = 0; i < Math.max(1, shardCount); i++) {
+            shards.add(new Shard(i));
+        }
+
+        for (String test : sorted) {
+            Shard shard = shards.poll();
+            shard.tests.add(test);
+            shard.expectedMillis += getDuration(test, durations, defaultDuration);
+            shards.add(shard);
+        }
+
+        List<Shard> plan = new ArrayList<Shard>();
+        for (Shard shard : shards) {
+            if (!shard.tests.isEmpty()) {
+                plan.add(shard);
+            }
+        }
+        Collections.sort(plan, new Comparator<Shard>() {
+            public int compare(Shard a, Shard b) {
+                if (a.expectedMillis != b.expectedMillis) {
+                    return a.expectedMillis > b.expectedMillis ? -1 : 1;
+                }
+                return a.index - b.index;
+            }
+        });
+        return plan;
+    }
+
+    private static long getDefaultDuration(Collection<String> tests, Map<String, Long> durations) {
+        List<Long> known = new ArrayList<Long>();
+        for (String test : tests) {
+            Long duration = durations.get(test);
+            if (null != duration) {
+                known.add(duration);
+            }
+        }
+        if (known.isEmpty()) {
+            return DEFAULT_DURATION_MILLIS;
+        }
+        Collections.sort(known);
+        return known.get(known.size() / 2);
+    }
+
+    private static long getDuration(String test, Map<String, Long> durations, long defaultDuration) {
+        Long duration = durations.get(test);
+        return null != duration ? duration : defaultDuration;
+    }
+
+    /**
+     * The test classes run by one xcodebuild.
+     */
+    static class Shard {
+        final int index;
+        final List<String> tests = new ArrayList<String>();
+        long expectedMillis;
+
+        Shard(int index) {
+            this.index = index;
+        }
+    }
+}
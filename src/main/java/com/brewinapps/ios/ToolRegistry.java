@@ -0,0 +1,311 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * JVM wide registry of the external tools used by the plugin.
+ * <p/>
+ * Tools are looked up on the PATH without forking any process, and their versions are queried
+ * once per stamp: the PATH, the selected Xcode, the modification time of its version.plist and of each
+ * tool. The stamp is checked on every lookup, so that a long running daemon notices an Xcode update or
+ * xcode-select -s. Versions can also be persisted on disk under their stamp, so that later builds do not
+ * fork at all.
+ *
+ * @author Brewin' Apps AS
+ */
+class ToolRegistry {
+
+    static final String XCTOOL = "xctool";
+    static final String XCODEBUILD = "xcodebuild";
+    static final String XCRUN = "xcrun";
+    static final String AGVTOOL = "agvtool";
+    static final String POD = "pod";
+    static final String ZIP = "zip";
+
+    /**
+     * Arguments printing the version of each tool.
+     */
+    static final Map<String, List<String>> VERSION_ARGUMENTS;
+
+    static {
+        Map<String, List<String>> arguments = new HashMap<String, List<String>>();
+        arguments.put(XCTOOL, Arrays.asList("-version"));
+        arguments.put(XCODEBUILD, Arrays.asList("-version"));
+        arguments.put(XCRUN, Arrays.asList("--version"));
+        arguments.put(AGVTOOL, Arrays.asList("vers", "-terse"));
+        arguments.put(POD, Arrays.asList("--version"));
+        arguments.put(ZIP, Arrays.asList("-v"));
+        VERSION_ARGUMENTS = Collections.unmodifiableMap(arguments);
+    }
+
+    /**
+     * Changed by xcode-select -s, which switches the Xcode behind the /usr/bin shims.
+     */
+    private static final String XCODE_SELECT_LINK = "/var/db/xcode_select_link";
+
+    private static final File NOT_FOUND = new File("");
+
+    private static final ToolRegistry INSTANCE = new ToolRegistry(System.getenv("PATH"), System.getenv("DEVELOPER_DIR"));
+
+    /**
+     * Registries of the environments of the clients of the build daemon.
+     */
+    private static final ConcurrentMap<String, ToolRegistry> ENVIRONMENTS = new ConcurrentHashMap<String, ToolRegistry>();
+
+    private final String searchPath;
+    private final String developerDir;
+    private final ConcurrentMap<String, File> paths = new ConcurrentHashMap<String, File>();
+    private final ConcurrentMap<String, StampedVersion> versions = new ConcurrentHashMap<String, StampedVersion>();
+
+    private File cacheFile;
+    private Properties cache;
+
+    /**
+     * @param searchPath the PATH the tools are looked up on
+     * @param developerDir the DEVELOPER_DIR selecting the Xcode, may be null
+     */
+    ToolRegistry(String searchPath, String developerDir) {
+        this.searchPath = null != searchPath ? searchPath : "";
+        this.developerDir = null != developerDir && developerDir.length() > 0 ? developerDir : null;
+    }
+
+    static ToolRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param searchPath
+     * @param developerDir may be null
+     * @return the registry of another environment than the one of this JVM, e.g. of a client of the daemon
+     */
+    static ToolRegistry getInstance(String searchPath, String developerDir) {
+        ToolRegistry registry = new ToolRegistry(searchPath, developerDir);
+        if (registry.searchPath.equals(INSTANCE.searchPath) && equal(registry.developerDir, INSTANCE.developerDir)) {
+            return INSTANCE;
+        }
+        ToolRegistry previous = ENVIRONMENTS.putIfAbsent(registry.searchPath + File.pathSeparator
+                + File.pathSeparator + registry.developerDir, registry);
+        return null != previous ? previous : registry;
+    }
+
+    private static boolean equal(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+    String getSearchPath() {
+        return searchPath;
+    }
+
+    String getDeveloperDir() {
+        return developerDir;
+    }
+
+    /**
+     * Enables the on-disk cache of tool versions. Only the first call has an effect.
+     *
+     * @param file
+     */
+    synchronized void setCacheFile(File file) {
+        if (null == cacheFile) {
+            cacheFile = file;
+        }
+    }
+
+    /**
+     * A path found earlier is kept while it is still executable, a missing tool is looked up again.
+     *
+     * @param name
+     * @return the executable of the tool, or null if it is not on the PATH
+     */
+    File findTool(String name) {
+        File path = paths.get(name);
+        if (null != path && path != NOT_FOUND && isExecutable(path)) {
+            return path;
+        }
+
+        path = NOT_FOUND;
+        for (String dir : searchPath.split(File.pathSeparator)) {
+            if (dir.length() > 0) {
+                File candidate = new File(dir, name);
+                if (isExecutable(candidate)) {
+                    path = candidate;
+                    break;
+                }
+            }
+        }
+        paths.put(name, path);
+        return path == NOT_FOUND ? null : path;
+    }
+
+    private static boolean isExecutable(File file) {
+        return file.isFile() && file.canExecute();
+    }
+
+    /**
+     * @param name
+     * @return true if the tool is on the PATH
+     */
+    boolean hasTool(String name) {
+        return null != findTool(name);
+    }
+
+    /**
+     * @param name
+     * @param logger
+     * @return the version output of the tool
+     * @throws IOSException if the tool is missing or its version could not be queried
+     */
+    String getVersion(String name, Log logger) throws IOSException {
+        File tool = findTool(name);
+        if (null == tool) {
+            throw new IOSException("Could not find '" + name + "' on the PATH");
+        }
+
+        // A few stat calls, so that the version in memory is never older than the tool
+        String stamp = getStamp(tool);
+        StampedVersion known = versions.get(name);
+        if (null != known && known.stamp.equals(stamp)) {
+            return known.version;
+        }
+
+        String version = null;
+        synchronized (this) {
+            Properties cached = loadCache();
+            if (null != cached && stamp.equals(cached.getProperty(name + ".stamp"))) {
+                version = cached.getProperty(name + ".version");
+            }
+        }
+
+        if (null == version) {
+            List<String> command = new ArrayList<String>();
+            command.add(tool.getAbsolutePath());
+            command.addAll(VERSION_ARGUMENTS.containsKey(name)
+                    ? VERSION_ARGUMENTS.get(name) : Arrays.asList("--version"));
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.environment().put("PATH", searchPath);
+            if (null != developerDir) {
+                pb.environment().put("DEVELOPER_DIR", developerDir);
+            } else {
+                pb.environment().remove("DEVELOPER_DIR");
+            }
+            version = CommandHelper.performCommandForOutput(pb, logger).trim();
+            storeInCache(name, stamp, version, logger);
+        }
+
+        versions.put(name, new StampedVersion(stamp, version));
+        return version;
+    }
+
+    private String getStamp(File tool) {
+        MessageDigest sha1 = Digests.newSha1();
+        Digests.update(sha1, searchPath);
+        Digests.update(sha1, tool.getAbsolutePath());
+        Digests.update(sha1, String.valueOf(tool.lastModified()));
+        try {
+            // The tools of /usr/bin are shims, which an Xcode update in place does not touch
+            File realTool = tool.toPath().toRealPath().toFile();
+            Digests.update(sha1, realTool.getPath() + "@" + realTool.lastModified());
+        } catch (IOException e) {
+            // Identified by the shim only
+        }
+
+        String developerDir = this.developerDir;
+        Path xcodeSelectLink = Paths.get(XCODE_SELECT_LINK);
+        try {
+            if (null == developerDir && Files.isSymbolicLink(xcodeSelectLink)) {
+                developerDir = Files.readSymbolicLink(xcodeSelectLink).toString();
+            }
+        } catch (IOException e) {
+            // The selected Xcode is then only identified by the PATH
+        }
+        Digests.update(sha1, null != developerDir ? developerDir : "");
+        if (null != developerDir) {
+            // Rewritten by every Xcode update, unlike the selected path
+            File versionPlist = new File(new File(developerDir).getParentFile(), "version.plist");
+            Digests.update(sha1, String.valueOf(versionPlist.lastModified()));
+        }
+        return Digests.toHex(sha1.digest());
+    }
+
+    private Properties loadCache() {
+        if (null == cacheFile) {
+            return null;
+        }
+        if (null == cache) {
+            cache = new Properties();
+            if (cacheFile.exists()) {
+                try {
+                    InputStream input = new FileInputStream(cacheFile);
+                    try {
+                        cache.load(input);
+                    } finally {
+                        input.close();
+                    }
+                } catch (IOException e) {
+                    cache.clear();
+                } catch (IllegalArgumentException e) {
+                    cache.clear();
+                }
+            }
+        }
+        return cache;
+    }
+
+    private synchronized void storeInCache(String name, String stamp, String version, Log logger) {
+        Properties cached = loadCache();
+        if (null == cached) {
+            return;
+        }
+
+        cached.setProperty(name + ".stamp", stamp);
+        cached.setProperty(name + ".version", version);
+        try {
+            cacheFile.getParentFile().mkdirs();
+            File temp = new File(cacheFile.getPath() + ".tmp-" + System.nanoTime());
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                cached.store(output, "iOS tool versions");
+            } finally {
+                output.close();
+            }
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.debug("Failed to store the tool versions in " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A version and the stamp of the tool it was queried from.
+     */
+    private static class StampedVersion {
+        final String stamp;
+        final String version;
+
+        StampedVersion(String stamp, String version) {
+            this.stamp = stamp;
+            this.version = version;
+        }
+    }
+}
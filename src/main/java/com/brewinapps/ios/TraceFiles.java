@@ -0,0 +1,50 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Appends to the trace files, which may be shared by the builds running on the host.
+ *
+ * @author Brewin' Apps AS
+ */
+class TraceFiles {
+
+    private TraceFiles() {
+    }
+
+    /**
+     * @param traceFile
+     * @param header written first if the file is empty, may be null
+     * @param text
+     * @throws IOException
+     */
+    static synchronized void append(File traceFile, String header, String text) throws IOException {
+        File parent = traceFile.getAbsoluteFile().getParentFile();
+        if (null != parent) {
+            parent.mkdirs();
+        }
+
+        RandomAccessFile file = new RandomAccessFile(traceFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            FileLock lock = channel.lock();
+            try {
+                String data = null != header && channel.size() == 0 ? header + text : text;
+                ByteBuffer buffer = ByteBuffer.wrap(data.getBytes("UTF-8"));
+                long position = channel.size();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Creates the spans of the build and hands them to an exporter once they end.
+ * <p>
+ * All the goals of a Maven session run in the same JVM and share one trace. When tracing is disabled,
+ * the tracer hands out a shared no-op span, so instrumented code costs a field read and a few empty calls.
+ *
+ * @author Brewin' Apps AS
+ */
+public class Tracer {
+
+    static final String CHROME_FORMAT = "chrome";
+    static final String OTLP_FORMAT = "otlp";
+
+    private static final Tracer DISABLED = new Tracer(null, null, null);
+    private static volatile Tracer instance = DISABLED;
+
+    private final SpanExporter exporter;
+    private final File traceFile;
+    private final String format;
+    private final String traceId;
+    private final Random random = new SecureRandom();
+    private final InheritableThreadLocal<Span> current = new InheritableThreadLocal<Span>();
+
+    private volatile boolean failed;
+
+    private Tracer(SpanExporter exporter, File traceFile, String format) {
+        this.exporter = exporter;
+        this.traceFile = traceFile;
+        this.format = format;
+        this.traceId = null != exporter ? newId(16) : null;
+    }
+
+    /**
+     * @return the tracer of the JVM, disabled unless {@link #configure} was called
+     */
+    public static Tracer get() {
+        return instance;
+    }
+
+    /**
+     * Enables tracing to the file. The tracer is kept if it already writes the same file in the same format,
+     * so that the goals of a session end up in the same trace.
+     *
+     * @param traceFile the file the spans are appended to, null to disable tracing
+     * @param format {@link #CHROME_FORMAT} or {@link #OTLP_FORMAT}
+     * @throws IOSException if the format is unknown
+     */
+    static synchronized void configure(File traceFile, String format) throws IOSException {
+        if (null == traceFile) {
+            instance = DISABLED;
+            return;
+        }
+        if (traceFile.equals(instance.traceFile) && format.equals(instance.format)) {
+            return;
+        }
+
+        SpanExporter exporter;
+        if (CHROME_FORMAT.equals(format)) {
+            exporter = new ChromeTraceExporter(traceFile);
+        } else if (OTLP_FORMAT.equals(format)) {
+            exporter = new OtlpJsonExporter(traceFile);
+        } else {
+            throw new IOSException("Unknown trace format '" + format + "', use " + CHROME_FORMAT + " or " + OTLP_FORMAT);
+        }
+        instance = new Tracer(exporter, traceFile, format);
+    }
+
+    /**
+     * Starts a span, child of the active span of the thread.
+     *
+     * @param name
+     * @return the span, to end once the operation completed
+     */
+    public Span startSpan(String name) {
+        if (null == exporter) {
+            return Span.NOOP;
+        }
+        Span parent = current.get();
+        return new Span(this, name, newId(8), null != parent ? parent.getSpanId() : null);
+    }
+
+    Span setCurrent(Span span) {
+        Span previous = current.get();
+        current.set(span);
+        return previous;
+    }
+
+    void restoreCurrent(Span span, Span previous) {
+        if (current.get() == span) {
+            current.set(previous);
+        }
+    }
+
+    void export(Span span) {
+        if (failed) {
+            return;
+        }
+        try {
+            exporter.export(traceId, span);
+        } catch (IOException e) {
+            // Tracing never fails the build, it stops at the first error
+            failed = true;
+        }
+    }
+
+    private String newId(int bytes) {
+        byte[] id = new byte[bytes];
+        random.nextBytes(id);
+        return Digests.toHex(id);
+    }
+}
@@ -0,0 +1,108 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Persistent record of the content already uploaded to each destination.
+ * Updates hold a lock file, so that concurrent builds on the host share the ledger safely, and replace the
+ * ledger atomically, so that it is never read half written nor lost if the build dies while updating it.
+ *
+ * @author Brewin' Apps AS
+ */
+public class UploadLedger {
+
+    /**
+     * File locks are held by the JVM, the modules of a parallel build also need to exclude each other.
+     */
+    private static final Object LOCK = new Object();
+
+    private final File ledgerFile;
+
+    /**
+     * @param ledgerFile
+     */
+    public UploadLedger(File ledgerFile) {
+        this.ledgerFile = ledgerFile;
+    }
+
+    /**
+     * @param destination
+     * @param contentHash
+     * @return true if the content was uploaded to the destination
+     * @throws IOException
+     */
+    public boolean contains(String destination, String contentHash) throws IOException {
+        return null != read().getProperty(getKey(destination, contentHash));
+    }
+
+    /**
+     * Records that the content was uploaded to the destination.
+     *
+     * @param destination
+     * @param contentHash
+     * @param description what the content is, for whoever reads the ledger
+     * @throws IOException
+     */
+    public void record(String destination, String contentHash, String description) throws IOException {
+        synchronized (LOCK) {
+            update(getKey(destination, contentHash), System.currentTimeMillis() + " " + description);
+        }
+    }
+
+    private void update(String key, String value) throws IOException {
+        ledgerFile.getParentFile().mkdirs();
+        RandomAccessFile lockFile = new RandomAccessFile(new File(ledgerFile.getPath() + ".lock"), "rw");
+        try {
+            FileLock lock = lockFile.getChannel().lock();
+            try {
+                Properties entries = read();
+                entries.setProperty(key, value);
+
+                Path temp = PropertyList.createTempFile(ledgerFile.toPath());
+                try {
+                    OutputStream output = Files.newOutputStream(temp);
+                    try {
+                        entries.store(output, "Uploaded content");
+                    } finally {
+                        output.close();
+                    }
+                    Files.move(temp, ledgerFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    private Properties read() throws IOException {
+        Properties entries = new Properties();
+        if (ledgerFile.exists()) {
+            InputStream input = new FileInputStream(ledgerFile);
+            try {
+                entries.load(input);
+            } finally {
+                input.close();
+            }
+        }
+        return entries;
+    }
+
+    private static String getKey(String destination, String contentHash) {
+        return destination + "|" + contentHash;
+    }
+}
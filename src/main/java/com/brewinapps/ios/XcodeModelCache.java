@@ -0,0 +1,149 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parsed Xcode projects and workspaces, kept for the life of the JVM and reparsed only when the
+ * modification time or size of one of their files changed.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeModelCache {
+
+    public static final String SCHEMES = "schemes";
+    public static final String TARGETS = "targets";
+    public static final String CONFIGURATIONS = "configurations";
+
+    private static final Map<File, Entry<XcodeProject>> PROJECTS = new HashMap<File, Entry<XcodeProject>>();
+    private static final Map<File, Entry<XcodeWorkspace>> WORKSPACES = new HashMap<File, Entry<XcodeWorkspace>>();
+
+    private XcodeModelCache() {
+    }
+
+    /**
+     * @param projectDir the .xcodeproj directory
+     * @return the model of the project
+     * @throws IOException if the project cannot be parsed
+     */
+    public static XcodeProject getProject(File projectDir) throws IOException {
+        File key = projectDir.getAbsoluteFile();
+        String stamp = XcodeProject.computeStamp(key);
+        synchronized (PROJECTS) {
+            Entry<XcodeProject> entry = PROJECTS.get(key);
+            if (null != entry && entry.stamp.equals(stamp)) {
+                return entry.model;
+            }
+        }
+
+        XcodeProject project = XcodeProject.load(key);
+        synchronized (PROJECTS) {
+            PROJECTS.put(key, new Entry<XcodeProject>(stamp, project));
+        }
+        return project;
+    }
+
+    /**
+     * @param workspaceDir the .xcworkspace directory
+     * @return the model of the workspace and of its projects
+     * @throws IOException if the workspace or one of its projects cannot be parsed
+     */
+    public static XcodeWorkspace getWorkspace(File workspaceDir) throws IOException {
+        File key = workspaceDir.getAbsoluteFile();
+        File contents = new File(key, "contents.xcworkspacedata");
+        StringBuilder stamp = new StringBuilder();
+        stamp.append(contents.lastModified()).append(':').append(contents.length()).append(';');
+        XcodeScheme.appendStamp(stamp, key);
+
+        XcodeWorkspace cached = null;
+        synchronized (WORKSPACES) {
+            Entry<XcodeWorkspace> entry = WORKSPACES.get(key);
+            if (null != entry && entry.stamp.equals(stamp.toString())) {
+                cached = entry.model;
+            }
+        }
+        if (null != cached) {
+            // The projects of the workspace are checked on their own
+            List<XcodeProject> projects = getProjects(cached);
+            if (projects.equals(cached.getProjects())) {
+                return cached;
+            }
+            XcodeWorkspace workspace = new XcodeWorkspace(key, projects, cached.getOwnSchemes());
+            synchronized (WORKSPACES) {
+                WORKSPACES.put(key, new Entry<XcodeWorkspace>(stamp.toString(), workspace));
+            }
+            return workspace;
+        }
+
+        List<XcodeProject> projects = new ArrayList<XcodeProject>();
+        for (File projectDir : XcodeWorkspace.getProjectDirs(key)) {
+            if (projectDir.isDirectory()) {
+                projects.add(getProject(projectDir));
+            }
+        }
+        XcodeWorkspace workspace = new XcodeWorkspace(key, projects, XcodeScheme.loadAll(key));
+        synchronized (WORKSPACES) {
+            WORKSPACES.put(key, new Entry<XcodeWorkspace>(stamp.toString(), workspace));
+        }
+        return workspace;
+    }
+
+    /**
+     * @param container the .xcworkspace or .xcodeproj directory
+     * @return the names of the schemes, targets and configurations, keyed by {@link #SCHEMES}, {@link #TARGETS}
+     *         and {@link #CONFIGURATIONS}
+     * @throws IOException if the workspace or project cannot be parsed
+     */
+    public static Map<String, List<String>> describe(File container) throws IOException {
+        List<XcodeProject> projects;
+        List<String> schemes;
+        if (container.getName().endsWith(".xcworkspace")) {
+            XcodeWorkspace workspace = getWorkspace(container);
+            projects = workspace.getProjects();
+            schemes = workspace.getSchemeNames();
+        } else {
+            XcodeProject project = getProject(container);
+            projects = Collections.singletonList(project);
+            schemes = project.getSchemeNames();
+        }
+
+        Set<String> targets = new LinkedHashSet<String>();
+        Set<String> configurations = new LinkedHashSet<String>();
+        for (XcodeProject project : projects) {
+            targets.addAll(project.getTargets().keySet());
+            configurations.addAll(project.getConfigurations().keySet());
+        }
+
+        Map<String, List<String>> names = new LinkedHashMap<String, List<String>>();
+        names.put(SCHEMES, new ArrayList<String>(schemes));
+        names.put(TARGETS, new ArrayList<String>(targets));
+        names.put(CONFIGURATIONS, new ArrayList<String>(configurations));
+        return names;
+    }
+
+    private static List<XcodeProject> getProjects(XcodeWorkspace workspace) throws IOException {
+        List<XcodeProject> projects = new ArrayList<XcodeProject>();
+        for (XcodeProject project : workspace.getProjects()) {
+            projects.add(getProject(project.getProjectDir()));
+        }
+        return projects;
+    }
+
+    private static class Entry<T> {
+        final String stamp;
+        final T model;
+
+        Entry(String stamp, T model) {
+            this.stamp = stamp;
+            this.model = model;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model of an Xcode project: its configurations, targets and schemes, parsed from the project.pbxproj
+ * and the xcschemes directories. Use {@link XcodeModelCache} to get one.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeProject {
+
+    private final File projectDir;
+    private final String defaultConfiguration;
+    private final Map<String, Map<String, String>> configurations;
+    private final Map<String, XcodeTarget> targets;
+    private final List<XcodeScheme> schemes;
+
+    private XcodeProject(File projectDir, String defaultConfiguration, Map<String, Map<String, String>> configurations,
+                         Map<String, XcodeTarget> targets, List<XcodeScheme> schemes) {
+        this.projectDir = projectDir;
+        this.defaultConfiguration = defaultConfiguration;
+        this.configurations = Collections.unmodifiableMap(configurations);
+        this.targets = Collections.unmodifiableMap(targets);
+        this.schemes = Collections.unmodifiableList(schemes);
+    }
+
+    /**
+     * @param workDir
+     * @param projectName the name of the project, null to use the only project of the directory
+     * @return the .xcodeproj directory
+     * @throws IOSException if the project cannot be found
+     */
+    static File findProject(File workDir, String projectName) throws IOSException {
+        if (null != projectName) {
+            File project = new File(workDir, projectName.endsWith(".xcodeproj") ? projectName : projectName + ".xcodeproj");
+            if (!project.isDirectory()) {
+                throw new IOSException("Could not find the project at '" + project + "'");
+            }
+            return project;
+        }
+
+        File[] projects = workDir.listFiles();
+        File found = null;
+        if (null != projects) {
+            for (File project : projects) {
+                if (project.getName().endsWith(".xcodeproj") && project.isDirectory()) {
+                    if (null != found) {
+                        throw new IOSException("There are several projects in '" + workDir
+                                + "', set the 'projectName' parameter");
+                    }
+                    found = project;
+                }
+            }
+        }
+        if (null == found) {
+            throw new IOSException("Could not find an Xcode project in '" + workDir + "'");
+        }
+        return found;
+    }
+
+    /**
+     * @param projectDir the .xcodeproj directory
+     * @return the model of the project
+     * @throws IOException if the project cannot be parsed
+     */
+    static XcodeProject load(File projectDir) throws IOException {
+        Object root = OpenStepPlistParser.parse(new File(projectDir, "project.pbxproj"));
+        if (!(root instanceof Map) || !(((Map<?, ?>) root).get("objects") instanceof Map)) {
+            throw new IOException("The project.pbxproj of '" + projectDir + "' has no objects");
+        }
+        Map<?, ?> objects = (Map<?, ?>) ((Map<?, ?>) root).get("objects");
+
+        Map<?, ?> project = asMap(objects.get(((Map<?, ?>) root).get("rootObject")));
+        if (null == project) {
+            throw new IOException("The project.pbxproj of '" + projectDir + "' has no root object");
+        }
+        Map<?, ?> configurationList = asMap(objects.get(project.get("buildConfigurationList")));
+        String defaultConfiguration = null != configurationList
+                ? (String) configurationList.get("defaultConfigurationName") : null;
+
+        Map<String, XcodeTarget> targets = new LinkedHashMap<String, XcodeTarget>();
+        if (project.get("targets") instanceof List) {
+            for (Object targetId : (List<?>) project.get("targets")) {
+                Map<?, ?> target = asMap(objects.get(targetId));
+                if (null != target && target.get("name") instanceof String) {
+                    String name = (String) target.get("name");
+                    targets.put(name, new XcodeTarget(name, (String) target.get("productType"),
+                            getConfigurations(objects, target.get("buildConfigurationList"))));
+                }
+            }
+        }
+
+        return new XcodeProject(projectDir, defaultConfiguration,
+                getConfigurations(objects, project.get("buildConfigurationList")), targets,
+                XcodeScheme.loadAll(projectDir));
+    }
+
+    /**
+     * @param projectDir
+     * @return a stamp that changes whenever one of the files the model is parsed from changes
+     */
+    static String computeStamp(File projectDir) {
+        File pbxproj = new File(projectDir, "project.pbxproj");
+        StringBuilder stamp = new StringBuilder();
+        stamp.append(pbxproj.lastModified()).append(':').append(pbxproj.length()).append(';');
+        XcodeScheme.appendStamp(stamp, projectDir);
+        return stamp.toString();
+    }
+
+    private static Map<String, Map<String, String>> getConfigurations(Map<?, ?> objects, Object listId) {
+        Map<String, Map<String, String>> configurations = new LinkedHashMap<String, Map<String, String>>();
+        Map<?, ?> list = asMap(objects.get(listId));
+        if (null == list || !(list.get("buildConfigurations") instanceof List)) {
+            return configurations;
+        }
+
+        for (Object configurationId : (List<?>) list.get("buildConfigurations")) {
+            Map<?, ?> configuration = asMap(objects.get(configurationId));
+            if (null == configuration || !(configuration.get("name") instanceof String)) {
+                continue;
+            }
+
+            Map<String, String> settings = new LinkedHashMap<String, String>();
+            Map<?, ?> buildSettings = asMap(configuration.get("buildSettings"));
+            if (null != buildSettings) {
+                for (Map.Entry<?, ?> setting : buildSettings.entrySet()) {
+                    settings.put((String) setting.getKey(), toSettingValue(setting.getValue()));
+                }
+            }
+            configurations.put((String) configuration.get("name"), Collections.unmodifiableMap(settings));
+        }
+        return configurations;
+    }
+
+    private static String toSettingValue(Object value) {
+        if (!(value instanceof List)) {
+            return String.valueOf(value);
+        }
+        StringBuilder joined = new StringBuilder();
+        for (Object element : (List<?>) value) {
+            if (joined.length() > 0) {
+                joined.append(' ');
+            }
+            joined.append(element);
+        }
+        return joined.toString();
+    }
+
+    private static Map<?, ?> asMap(Object object) {
+        return object instanceof Map ? (Map<?, ?>) object : null;
+    }
+
+    public String getName() {
+        return projectDir.getName().replaceFirst("\\.xcodeproj$", "");
+    }
+
+    public File getProjectDir() {
+        return projectDir;
+    }
+
+    /**
+     * @return the configuration xcodebuild uses when none is given, or null
+     */
+    public String getDefaultConfiguration() {
+        return defaultConfiguration;
+    }
+
+    /**
+     * @return the build settings set on the project, by configuration name
+     */
+    public Map<String, Map<String, String>> getConfigurations() {
+        return configurations;
+    }
+
+    public Map<String, XcodeTarget> getTargets() {
+        return targets;
+    }
+
+    public List<XcodeScheme> getSchemes() {
+        return schemes;
+    }
+
+    /**
+     * @param name
+     * @return the scheme, or null
+     */
+    public XcodeScheme getScheme(String name) {
+        for (XcodeScheme scheme : schemes) {
+            if (scheme.getName().equals(name)) {
+                return scheme;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the schemes, without duplicates
+     */
+    public List<String> getSchemeNames() {
+        List<String> names = new ArrayList<String>();
+        for (XcodeScheme scheme : schemes) {
+            if (!names.contains(scheme.getName())) {
+                names.add(scheme.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,179 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A scheme, as saved in the xcschemes directory of a project or a workspace.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeScheme {
+
+    private final String name;
+    private final boolean shared;
+    private final List<String> buildTargets;
+    private final List<String> testTargets;
+    private final String launchConfiguration;
+    private final String archiveConfiguration;
+
+    XcodeScheme(String name, boolean shared, List<String> buildTargets, List<String> testTargets,
+                String launchConfiguration, String archiveConfiguration) {
+        this.name = name;
+        this.shared = shared;
+        this.buildTargets = Collections.unmodifiableList(buildTargets);
+        this.testTargets = Collections.unmodifiableList(testTargets);
+        this.launchConfiguration = launchConfiguration;
+        this.archiveConfiguration = archiveConfiguration;
+    }
+
+    /**
+     * @param schemeFile a .xcscheme file
+     * @param shared if it is in xcshareddata
+     * @return the scheme
+     * @throws IOException if the file is not a valid scheme
+     */
+    static XcodeScheme parse(File schemeFile, boolean shared) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            document = factory.newDocumentBuilder().parse(schemeFile);
+        } catch (Exception e) {
+            throw new IOException("Invalid scheme '" + schemeFile + "': " + e.getMessage());
+        }
+
+        String name = schemeFile.getName().replaceFirst("\\.xcscheme$", "");
+        List<String> buildTargets = getTargets(document, "BuildActionEntry");
+        List<String> testTargets = getTargets(document, "TestableReference");
+        return new XcodeScheme(name, shared, buildTargets, testTargets,
+                getConfiguration(document, "LaunchAction"), getConfiguration(document, "ArchiveAction"));
+    }
+
+    /**
+     * @param container a .xcodeproj or .xcworkspace directory
+     * @return the shared schemes of the container, then the schemes of its users
+     * @throws IOException
+     */
+    static List<XcodeScheme> loadAll(File container) throws IOException {
+        List<XcodeScheme> schemes = new ArrayList<XcodeScheme>();
+        for (File schemeFile : listSchemeFiles(new File(container, "xcshareddata/xcschemes"))) {
+            schemes.add(parse(schemeFile, true));
+        }
+        for (File userDir : listFiles(new File(container, "xcuserdata"))) {
+            for (File schemeFile : listSchemeFiles(new File(userDir, "xcschemes"))) {
+                schemes.add(parse(schemeFile, false));
+            }
+        }
+        return schemes;
+    }
+
+    /**
+     * Appends the names and modification times of the scheme files of the container to the stamp.
+     *
+     * @param stamp
+     * @param container
+     */
+    static void appendStamp(StringBuilder stamp, File container) {
+        List<File> schemeFiles = new ArrayList<File>(listSchemeFiles(new File(container, "xcshareddata/xcschemes")));
+        for (File userDir : listFiles(new File(container, "xcuserdata"))) {
+            schemeFiles.addAll(listSchemeFiles(new File(userDir, "xcschemes")));
+        }
+        for (File schemeFile : schemeFiles) {
+            stamp.append(schemeFile.getPath()).append(':').append(schemeFile.lastModified()).append(';');
+        }
+    }
+
+    private static List<File> listSchemeFiles(File dir) {
+        List<File> schemeFiles = new ArrayList<File>();
+        for (File file : listFiles(dir)) {
+            if (file.getName().endsWith(".xcscheme")) {
+                schemeFiles.add(file);
+            }
+        }
+        return schemeFiles;
+    }
+
+    private static List<File> listFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return Collections.emptyList();
+        }
+        List<File> sorted = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static List<String> getTargets(Document document, String entryName) {
+        List<String> targets = new ArrayList<String>();
+        NodeList entries = document.getElementsByTagName(entryName);
+        for (int i = 0; i < entries.getLength(); i++) {
+            NodeList references = ((Element) entries.item(i)).getElementsByTagName("BuildableReference");
+            for (int j = 0; j < references.getLength(); j++) {
+                String target = ((Element) references.item(j)).getAttribute("BlueprintName");
+                if (target.length() > 0 && !targets.contains(target)) {
+                    targets.add(target);
+                }
+            }
+        }
+        return targets;
+    }
+
+    private static String getConfiguration(Document document, String action) {
+        NodeList actions = document.getElementsByTagName(action);
+        if (actions.getLength() == 0) {
+            return null;
+        }
+        String configuration = ((Element) actions.item(0)).getAttribute("buildConfiguration");
+        return configuration.length() > 0 ? configuration : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if the scheme is shared, false if it belongs to a user
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return the names of the targets the scheme builds
+     */
+    public List<String> getBuildTargets() {
+        return buildTargets;
+    }
+
+    /**
+     * @return the names of the test targets of the scheme
+     */
+    public List<String> getTestTargets() {
+        return testTargets;
+    }
+
+    /**
+     * @return the configuration the scheme runs with, or null
+     */
+    public String getLaunchConfiguration() {
+        return launchConfiguration;
+    }
+
+    /**
+     * @return the configuration the scheme archives with, or null
+     */
+    public String getArchiveConfiguration() {
+        return archiveConfiguration;
+    }
+}
@@ -0,0 +1,40 @@
+package com.brewinapps.ios;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A target of an Xcode project, with the build settings of each of its configurations.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeTarget {
+
+    private final String name;
+    private final String productType;
+    private final Map<String, Map<String, String>> configurations;
+
+    XcodeTarget(String name, String productType, Map<String, Map<String, String>> configurations) {
+        this.name = name;
+        this.productType = productType;
+        this.configurations = Collections.unmodifiableMap(configurations);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the product type, such as com.apple.product-type.application, null for aggregate targets
+     */
+    public String getProductType() {
+        return productType;
+    }
+
+    /**
+     * @return the build settings set on the target, by configuration name
+     */
+    public Map<String, Map<String, String>> getConfigurations() {
+        return configurations;
+    }
+}
@@ -0,0 +1,397 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Sets the marketing version and the build number of an Xcode project the way agvtool does,
+ * without forking it once per operation.
+ * <p>
+ * The project.pbxproj is parsed once to find the Info.plist files of the targets, which are then
+ * read in parallel. The values are replaced in place, so the formatting of the files is kept, and every
+ * changed file is written to a temporary file first and moved over the original once all of them are ready.
+ * A value referencing a build setting, such as $(MARKETING_VERSION), is updated in the project instead.
+ * Binary Info.plist files are decoded and written back whole.
+ *
+ * @author Brewin' Apps AS
+ */
+class XcodeVersionUpdater {
+
+    static final String MARKETING_VERSION = "MARKETING_VERSION";
+    static final String CURRENT_PROJECT_VERSION = "CURRENT_PROJECT_VERSION";
+
+    private static final String SHORT_VERSION_KEY = "CFBundleShortVersionString";
+    private static final String VERSION_KEY = "CFBundleVersion";
+
+    private static final Pattern VARIABLE = Pattern.compile("^\\$[({]([A-Za-z0-9_]+)(?::[^)}]*)?[)}]$");
+    private static final Pattern SRCROOT = Pattern.compile("^\\$[({](SRCROOT|PROJECT_DIR)[)}]/?");
+    private static final Pattern UNQUOTED = Pattern.compile("[A-Za-z0-9_$+/:.-]+");
+
+    private final File projectDir;
+    private final Log logger;
+
+    /**
+     * @param projectDir the .xcodeproj directory
+     * @param logger
+     */
+    XcodeVersionUpdater(File projectDir, Log logger) {
+        this.projectDir = projectDir;
+        this.logger = logger;
+    }
+
+    /**
+     * Applies the changes in a single pass.
+     *
+     * @param marketingVersion the new CFBundleShortVersionString, null to keep it
+     * @param newBuildNumber the new CFBundleVersion, null to keep it
+     * @param incrementBuildNumber if the build number should be set to the next integer, when no build number is given
+     * @return the resulting build number, null if the project has none
+     * @throws IOException
+     */
+    String update(String marketingVersion, String newBuildNumber, boolean incrementBuildNumber) throws IOException {
+        File pbxproj = new File(projectDir, "project.pbxproj");
+        String projectText = new String(Files.readAllBytes(pbxproj.toPath()), "UTF-8");
+        Object root = OpenStepPlistParser.parse(projectText);
+        List<Map<?, ?>> configurations = getBuildConfigurations(root);
+
+        // The Info.plist files of the targets are independent, they are read in parallel
+        Set<File> plistFiles = getInfoPlists(configurations);
+        List<Future<PlistEdit>> reads = new ArrayList<Future<PlistEdit>>();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(plistFiles.size(), Runtime.getRuntime().availableProcessors())));
+        List<PlistEdit> plists = new ArrayList<PlistEdit>();
+        try {
+            for (final File plist : plistFiles) {
+                reads.add(executor.submit(new Callable<PlistEdit>() {
+                    public PlistEdit call() throws IOException {
+                        return readInfoPlist(plist);
+                    }
+                }));
+            }
+            for (Future<PlistEdit> read : reads) {
+                plists.add(getResult(read));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String buildNumber = getSetting(root, configurations, CURRENT_PROJECT_VERSION);
+        for (PlistEdit plist : plists) {
+            if (null == buildNumber) {
+                buildNumber = plist.buildNumber;
+            }
+        }
+        String build = null;
+        if (null != newBuildNumber) {
+            build = newBuildNumber;
+        } else if (incrementBuildNumber) {
+            build = nextVersion(buildNumber);
+        }
+
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        if (null != build) {
+            settings.put(CURRENT_PROJECT_VERSION, build);
+        }
+        if (null != marketingVersion) {
+            settings.put(MARKETING_VERSION, marketingVersion);
+        }
+
+        Map<File, byte[]> changes = new LinkedHashMap<File, byte[]>();
+        for (PlistEdit plist : plists) {
+            if (null != plist.root) {
+                boolean changed = false;
+                if (null != marketingVersion) {
+                    changed |= setPlistValue(plist.root, SHORT_VERSION_KEY, marketingVersion, settings);
+                }
+                if (null != build) {
+                    changed |= setPlistValue(plist.root, VERSION_KEY, build, settings);
+                }
+                if (changed) {
+                    changes.put(plist.file, PropertyList.toBytes(plist.root, PropertyList.Format.BINARY));
+                }
+                continue;
+            }
+
+            String text = plist.text;
+            if (null != marketingVersion) {
+                text = setPlistValue(text, SHORT_VERSION_KEY, marketingVersion, settings);
+            }
+            if (null != build) {
+                text = setPlistValue(text, VERSION_KEY, build, settings);
+            }
+            if (!text.equals(plist.text)) {
+                changes.put(plist.file, text.getBytes("UTF-8"));
+            }
+        }
+
+        String newProjectText = setBuildSettings(projectText, settings);
+        if (!newProjectText.equals(projectText)) {
+            changes.put(pbxproj, newProjectText.getBytes("UTF-8"));
+        }
+        writeAtomically(changes);
+
+        return null != build ? build : buildNumber;
+    }
+
+    private static PlistEdit getResult(Future<PlistEdit> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static List<Map<?, ?>> getBuildConfigurations(Object root) throws IOException {
+        Map<?, ?> objects = getObjects(root);
+        List<Map<?, ?>> configurations = new ArrayList<Map<?, ?>>();
+        for (Object object : objects.values()) {
+            if (object instanceof Map && "XCBuildConfiguration".equals(((Map<?, ?>) object).get("isa"))) {
+                configurations.add((Map<?, ?>) object);
+            }
+        }
+        return configurations;
+    }
+
+    private static Map<?, ?> getObjects(Object root) throws IOException {
+        if (!(root instanceof Map) || !(((Map<?, ?>) root).get("objects") instanceof Map)) {
+            throw new IOException("The project.pbxproj has no objects");
+        }
+        return (Map<?, ?>) ((Map<?, ?>) root).get("objects");
+    }
+
+    /**
+     * @return the value of the setting in the configurations of the project, or else of its targets
+     */
+    private static String getSetting(Object root, List<Map<?, ?>> configurations, String name) throws IOException {
+        Map<?, ?> objects = getObjects(root);
+        Object projectId = ((Map<?, ?>) root).get("rootObject");
+        Object project = objects.get(projectId);
+        if (project instanceof Map) {
+            Object list = objects.get(((Map<?, ?>) project).get("buildConfigurationList"));
+            if (list instanceof Map && ((Map<?, ?>) list).get("buildConfigurations") instanceof List) {
+                for (Object id : (List<?>) ((Map<?, ?>) list).get("buildConfigurations")) {
+                    String value = getSetting(objects.get(id), name);
+                    if (null != value) {
+                        return value;
+                    }
+                }
+            }
+        }
+        for (Map<?, ?> configuration : configurations) {
+            String value = getSetting(configuration, name);
+            if (null != value) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static String getSetting(Object configuration, String name) {
+        if (!(configuration instanceof Map)) {
+            return null;
+        }
+        Object settings = ((Map<?, ?>) configuration).get("buildSettings");
+        if (!(settings instanceof Map)) {
+            return null;
+        }
+        Object value = ((Map<?, ?>) settings).get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private Set<File> getInfoPlists(List<Map<?, ?>> configurations) {
+        File srcRoot = projectDir.getAbsoluteFile().getParentFile();
+        Set<File> plists = new LinkedHashSet<File>();
+        for (Map<?, ?> configuration : configurations) {
+            String path = getSetting(configuration, "INFOPLIST_FILE");
+            if (null == path) {
+                continue;
+            }
+            path = SRCROOT.matcher(path).replaceFirst("");
+            if (path.contains("$")) {
+                logger.debug("Skipping the Info.plist '" + path + "', it depends on build settings");
+                continue;
+            }
+
+            File plist = path.startsWith("/") ? new File(path) : new File(srcRoot, path);
+            if (plist.isFile()) {
+                plists.add(plist);
+            } else {
+                logger.debug("Skipping the missing Info.plist '" + plist + "'");
+            }
+        }
+        return plists;
+    }
+
+    private static PlistEdit readInfoPlist(File plist) throws IOException {
+        byte[] content = Files.readAllBytes(plist.toPath());
+        PlistEdit edit;
+        String current;
+        if (PropertyList.Format.BINARY == PropertyList.detect(content)) {
+            // Binary files cannot be edited in place, they are decoded and written back whole
+            Object root = PropertyList.parse(content);
+            if (!(root instanceof Map)) {
+                throw new IOException("'" + plist + "' is not a dictionary");
+            }
+            edit = new PlistEdit(plist, null);
+            edit.root = castDictionary(root);
+            Object value = edit.root.get(VERSION_KEY);
+            current = value instanceof String ? (String) value : null;
+        } else {
+            String text = new String(content, "UTF-8");
+            edit = new PlistEdit(plist, text);
+            current = getPlistValue(text, VERSION_KEY);
+        }
+        if (null != current && !VARIABLE.matcher(current).matches()) {
+            edit.buildNumber = current;
+        }
+        return edit;
+    }
+
+    private static Pattern plistEntry(String key) {
+        return Pattern.compile("(<key>" + Pattern.quote(key) + "</key>\\s*<string>)([^<]*)(</string>)");
+    }
+
+    private static String getPlistValue(String text, String key) {
+        Matcher matcher = plistEntry(key).matcher(text);
+        return matcher.find() ? unescapeXml(matcher.group(2).trim()) : null;
+    }
+
+    private static String setPlistValue(String text, String key, String value, Map<String, String> settings) {
+        Matcher matcher = plistEntry(key).matcher(text);
+        if (!matcher.find()) {
+            return text;
+        }
+
+        Matcher variable = VARIABLE.matcher(unescapeXml(matcher.group(2).trim()));
+        if (variable.matches()) {
+            // The value comes from a build setting of the project
+            settings.put(variable.group(1), value);
+            return text;
+        }
+        return text.substring(0, matcher.start(2)) + escapeXml(value) + text.substring(matcher.end(2));
+    }
+
+    private static boolean setPlistValue(Map<String, Object> root, String key, String value,
+                                         Map<String, String> settings) {
+        Object current = root.get(key);
+        if (!(current instanceof String)) {
+            return false;
+        }
+
+        Matcher variable = VARIABLE.matcher(((String) current).trim());
+        if (variable.matches()) {
+            settings.put(variable.group(1), value);
+            return false;
+        }
+        root.put(key, value);
+        return !value.equals(current);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castDictionary(Object root) {
+        return (Map<String, Object>) root;
+    }
+
+    /**
+     * Replaces the value of the build settings wherever they are defined in the project.
+     */
+    static String setBuildSettings(String projectText, Map<String, String> settings) {
+        String text = projectText;
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            Pattern pattern = Pattern.compile("(?m)^(\\s*" + Pattern.quote(setting.getKey())
+                    + "\\s*=\\s*)(\"(?:[^\"\\\\]|\\\\.)*\"|[^;\\s]*)(\\s*;)");
+            text = pattern.matcher(text).replaceAll("$1" + Matcher.quoteReplacement(quote(setting.getValue())) + "$3");
+        }
+        return text;
+    }
+
+    private static String quote(String value) {
+        if (UNQUOTED.matcher(value).matches()) {
+            return value;
+        }
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String unescapeXml(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    /**
+     * @return the next integer version, as agvtool next-version does
+     */
+    static String nextVersion(String current) throws IOException {
+        if (null == current || current.trim().length() == 0) {
+            return "1";
+        }
+        try {
+            return new BigDecimal(current.trim()).toBigInteger().add(BigInteger.ONE).toString();
+        } catch (NumberFormatException e) {
+            throw new IOException("Cannot increment the build number '" + current + "', it is not a number");
+        }
+    }
+
+    /**
+     * Writes every file to a temporary file first, so that a failure leaves the project untouched.
+     */
+    private static void writeAtomically(Map<File, byte[]> changes) throws IOException {
+        Map<Path, Path> staged = new LinkedHashMap<Path, Path>();
+        try {
+            for (Map.Entry<File, byte[]> change : changes.entrySet()) {
+                Path target = change.getKey().toPath();
+                Path temp = PropertyList.createTempFile(target);
+                staged.put(temp, target);
+                Files.write(temp, change.getValue());
+            }
+            for (Map.Entry<Path, Path> entry : staged.entrySet()) {
+                Files.move(entry.getKey(), entry.getValue(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            for (Path temp : staged.keySet()) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static class PlistEdit {
+        final File file;
+        final String text;
+        Map<String, Object> root;
+        String buildNumber;
+
+        PlistEdit(File file, String text) {
+            this.file = file;
+            this.text = text;
+        }
+    }
+}
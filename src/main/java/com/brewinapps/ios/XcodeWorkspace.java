@@ -0,0 +1,147 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Model of an Xcode workspace: its projects and schemes, parsed from contents.xcworkspacedata
+ * and the xcschemes directories. Use {@link XcodeModelCache} to get one.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeWorkspace {
+
+    private final File workspaceDir;
+    private final List<XcodeProject> projects;
+    private final List<XcodeScheme> schemes;
+
+    XcodeWorkspace(File workspaceDir, List<XcodeProject> projects, List<XcodeScheme> schemes) {
+        this.workspaceDir = workspaceDir;
+        this.projects = Collections.unmodifiableList(projects);
+        this.schemes = Collections.unmodifiableList(schemes);
+    }
+
+    /**
+     * @param workspaceDir the .xcworkspace directory
+     * @return the locations of the projects of the workspace
+     * @throws IOException if the workspace cannot be parsed
+     */
+    static List<File> getProjectDirs(File workspaceDir) throws IOException {
+        File contents = new File(workspaceDir, "contents.xcworkspacedata");
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            document = factory.newDocumentBuilder().parse(contents);
+        } catch (Exception e) {
+            throw new IOException("Invalid workspace '" + workspaceDir + "': " + e.getMessage());
+        }
+
+        List<File> projectDirs = new ArrayList<File>();
+        collectProjects(document.getDocumentElement(), workspaceDir.getAbsoluteFile().getParentFile(), projectDirs);
+        return projectDirs;
+    }
+
+    private static void collectProjects(Element element, File groupDir, List<File> projectDirs) {
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (!(child instanceof Element)) {
+                continue;
+            }
+
+            Element childElement = (Element) child;
+            File location = resolve(childElement.getAttribute("location"), groupDir);
+            if ("Group".equals(childElement.getTagName())) {
+                collectProjects(childElement, null != location ? location : groupDir, projectDirs);
+            } else if ("FileRef".equals(childElement.getTagName()) && null != location
+                    && location.getName().endsWith(".xcodeproj")) {
+                projectDirs.add(location);
+            }
+        }
+    }
+
+    private static File resolve(String location, File groupDir) {
+        int separator = location.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+
+        String type = location.substring(0, separator);
+        String path = location.substring(separator + 1);
+        if ("group".equals(type)) {
+            return path.length() > 0 ? new File(groupDir, path) : groupDir;
+        }
+        if ("absolute".equals(type)) {
+            return new File(path);
+        }
+        // Only the projects next to the workspace are resolved for 'container', which is all CocoaPods writes
+        if ("container".equals(type)) {
+            return new File(groupDir, path);
+        }
+        return null;
+    }
+
+    public String getName() {
+        return workspaceDir.getName().replaceFirst("\\.xcworkspace$", "");
+    }
+
+    public File getWorkspaceDir() {
+        return workspaceDir;
+    }
+
+    public List<XcodeProject> getProjects() {
+        return projects;
+    }
+
+    List<XcodeScheme> getOwnSchemes() {
+        return schemes;
+    }
+
+    /**
+     * @return the schemes of the workspace, then the schemes of its projects
+     */
+    public List<XcodeScheme> getSchemes() {
+        List<XcodeScheme> all = new ArrayList<XcodeScheme>(schemes);
+        for (XcodeProject project : projects) {
+            all.addAll(project.getSchemes());
+        }
+        return all;
+    }
+
+    /**
+     * @param name
+     * @return the scheme, or null
+     */
+    public XcodeScheme getScheme(String name) {
+        for (XcodeScheme scheme : getSchemes()) {
+            if (scheme.getName().equals(name)) {
+                return scheme;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names of the schemes, without duplicates
+     */
+    public List<String> getSchemeNames() {
+        List<String> names = new ArrayList<String>();
+        for (XcodeScheme scheme : getSchemes()) {
+            if (!names.contains(scheme.getName())) {
+                names.add(scheme.getName());
+            }
+        }
+        return names;
+    }
+}
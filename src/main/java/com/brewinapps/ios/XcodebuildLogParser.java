@@ -0,0 +1,267 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Extracts a build-time breakdown from the output of xcodebuild, as it is produced.
+ * <p>
+ * The time of each phase is read from the summary printed by xcodebuild -showBuildTimingSummary, which
+ * sums the durations of its tasks. Without that summary, and for the targets, the times are approximate:
+ * xcodebuild prints a header line when it starts a build step, so a step is timed from its header to the
+ * header of the next step, which misattributes the time of the steps running in parallel. Only aggregates
+ * are kept, so the memory used does not depend on the size of the log.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodebuildLogParser implements StreamConsumer {
+
+    /**
+     * The build steps that are timed.
+     */
+    private static final Set<String> PHASES = new HashSet<String>(Arrays.asList(
+            "CompileC", "CompileSwift", "CompileSwiftSources", "CompileStoryboard", "CompileXIB",
+            "CompileAssetCatalog", "Ld", "Libtool", "CodeSign", "PhaseScriptExecution", "CpResource",
+            "CopyPNGFile", "CopyStringsFile", "ProcessInfoPlistFile", "ProcessPCH", "GenerateDSYMFile", "Touch"));
+
+    private static final Pattern TARGET_HEADER = Pattern.compile("^=== BUILD (?:AGGREGATE )?TARGET (.+?) OF PROJECT .*===$");
+    private static final Pattern TARGET_SUFFIX = Pattern.compile("\\(in target '([^']+)'(?: from project '[^']*')?\\)\\s*$");
+    private static final String TIMING_SUMMARY_HEADER = "Build Timing Summary";
+    private static final Pattern TIMING_SUMMARY =
+            Pattern.compile("^(\\S+) \\((\\d+) tasks?\\) \\| (\\d+(?:\\.\\d+)?) seconds$");
+
+    private final Map<String, Aggregate> phases = new HashMap<String, Aggregate>();
+    private final Map<String, Aggregate> targets = new HashMap<String, Aggregate>();
+    private final Map<String, Aggregate> summaryPhases = new HashMap<String, Aggregate>();
+
+    private boolean inSummary;
+    private String currentTarget;
+    private Step currentStep;
+    private long startTime = -1;
+    private long lastTime;
+    private long lineCount;
+    private String result;
+
+    public void consumeLine(String line) {
+        consumeLine(line, System.currentTimeMillis());
+    }
+
+    /**
+     * @param line
+     * @param time when the line was output
+     */
+    synchronized void consumeLine(String line, long time) {
+        if (lineCount++ == 0) {
+            startTime = time;
+        }
+        lastTime = time;
+        if (line.length() == 0 || Character.isWhitespace(line.charAt(0))) {
+            // Details of the current step
+            return;
+        }
+
+        if (line.startsWith("=== ")) {
+            Matcher matcher = TARGET_HEADER.matcher(line);
+            if (matcher.matches()) {
+                endStep(time);
+                currentTarget = matcher.group(1);
+            }
+            return;
+        }
+        if (line.startsWith("** ")) {
+            endStep(time);
+            inSummary = false;
+            result = line.replaceAll("\\*\\*([^*]*)\\*\\*.*", "$1").trim();
+            return;
+        }
+        if (line.equals(TIMING_SUMMARY_HEADER)) {
+            endStep(time);
+            inSummary = true;
+            return;
+        }
+        if (inSummary) {
+            Matcher matcher = TIMING_SUMMARY.matcher(line);
+            if (matcher.matches()) {
+                Aggregate aggregate = new Aggregate(matcher.group(1));
+                aggregate.count = Integer.parseInt(matcher.group(2));
+                aggregate.duration = Math.round(Double.parseDouble(matcher.group(3)) * 1000);
+                summaryPhases.put(aggregate.name, aggregate);
+            }
+            return;
+        }
+
+        int space = line.indexOf(' ');
+        String phase = space > 0 ? line.substring(0, space) : line;
+        if (!PHASES.contains(phase)) {
+            return;
+        }
+
+        endStep(time);
+        String target = currentTarget;
+        Matcher matcher = TARGET_SUFFIX.matcher(line);
+        if (matcher.find()) {
+            target = matcher.group(1);
+        }
+        currentStep = new Step(phase, null != target ? target : "", time);
+    }
+
+    /**
+     * Ends the step in progress, once the command completed.
+     */
+    public synchronized void finish() {
+        endStep(lastTime);
+    }
+
+    private void endStep(long time) {
+        if (null == currentStep) {
+            return;
+        }
+
+        Step step = currentStep;
+        currentStep = null;
+        step.duration = time - step.start;
+        aggregate(phases, step.phase, step.duration);
+        aggregate(targets, step.target, step.duration);
+    }
+
+    private static void aggregate(Map<String, Aggregate> aggregates, String key, long duration) {
+        Aggregate aggregate = aggregates.get(key);
+        if (null == aggregate) {
+            aggregate = new Aggregate(key);
+            aggregates.put(key, aggregate);
+        }
+        aggregate.count++;
+        aggregate.duration += duration;
+    }
+
+    /**
+     * @return the total time of each phase, slowest first
+     * @see #isTimingSummary()
+     */
+    public synchronized List<Aggregate> getPhases() {
+        return sort(summaryPhases.isEmpty() ? phases.values() : summaryPhases.values());
+    }
+
+    /**
+     * @return true if the phase times come from the timing summary of xcodebuild, false if they are approximate
+     */
+    public synchronized boolean isTimingSummary() {
+        return !summaryPhases.isEmpty();
+    }
+
+    /**
+     * @return the approximate time of each target, slowest first
+     */
+    public synchronized List<Aggregate> getTargets() {
+        return sort(targets.values());
+    }
+
+    private static List<Aggregate> sort(Collection<Aggregate> values) {
+        List<Aggregate> sorted = new ArrayList<Aggregate>(values);
+        Collections.sort(sorted, new Comparator<Aggregate>() {
+            public int compare(Aggregate a, Aggregate b) {
+                return a.duration > b.duration ? -1 : (a.duration == b.duration ? a.name.compareTo(b.name) : 1);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Writes the breakdown as JSON.
+     *
+     * @param reportFile
+     * @throws IOException
+     */
+    public synchronized void writeReport(File reportFile) throws IOException {
+        reportFile.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("result").value(result);
+            json.name("durationMillis").value(lineCount > 0 ? lastTime - startTime : 0);
+            json.name("lines").value(lineCount);
+
+            json.name("phasesApproximate").value(!isTimingSummary());
+            json.name("phases");
+            writeAggregates(json, getPhases());
+            json.name("targetsApproximate").value(true);
+            json.name("targets");
+            writeAggregates(json, getTargets());
+            json.endObject();
+            json.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeAggregates(JsonWriter json, List<Aggregate> aggregates) throws IOException {
+        json.beginArray();
+        for (Aggregate aggregate : aggregates) {
+            json.beginObject();
+            json.name("name").value(aggregate.name);
+            json.name("count").value(aggregate.count);
+            json.name("durationMillis").value(aggregate.duration);
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Total time of a phase or a target.
+     */
+    public static class Aggregate {
+        private final String name;
+        private int count;
+        private long duration;
+
+        Aggregate(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getDurationMillis() {
+            return duration;
+        }
+    }
+
+    /**
+     * A single build step, such as the compilation of a file, timed from its header to the next one.
+     */
+    private static class Step {
+        private final String phase;
+        private final String target;
+        private final long start;
+        private long duration;
+
+        Step(String phase, String target, long start) {
+            this.phase = phase;
+            this.target = target;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.brewinapps.ios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Collects the test results from the output of xcodebuild test, as it streams.
+ * <p/>
+ * Swift test classes are printed with their module, which is dropped: results are keyed by class name.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodebuildTestParser implements StreamConsumer {
+
+    private static final Pattern TEST_CASE = Pattern.compile(
+            "^Test Case '-\\[(?:[^\\s\\]]+\\.)?([^\\s.\\]]+) ([^\\s\\]]+)\\]' (passed|failed|skipped) \\((\\d+(?:\\.\\d+)?) seconds\\)");
+    private static final Pattern FAILURE = Pattern.compile(
+            "^(.*?:\\d+): error: -\\[(?:[^\\s\\]]+\\.)?([^\\s.\\]]+) ([^\\s\\]]+)\\] : (.*)$");
+
+    private final List<TestResult> results = new ArrayList<TestResult>();
+    private final Map<String, StringBuilder> failures = new LinkedHashMap<String, StringBuilder>();
+
+    public synchronized void consumeLine(String line) {
+        Matcher failure = FAILURE.matcher(line);
+        if (failure.find()) {
+            String key = failure.group(2) + " " + failure.group(3);
+            StringBuilder messages = failures.get(key);
+            if (null == messages) {
+                messages = new StringBuilder();
+                failures.put(key, messages);
+            } else {
+                messages.append('\n');
+            }
+            messages.append(failure.group(1)).append(": ").append(failure.group(4));
+            return;
+        }
+
+        Matcher testCase = TEST_CASE.matcher(line);
+        if (testCase.find()) {
+            String className = testCase.group(1);
+            String name = testCase.group(2);
+            String outcome = testCase.group(3);
+            long durationMillis = Math.round(Double.parseDouble(testCase.group(4)) * 1000);
+
+            TestResult.Status status;
+            String message = null;
+            if ("passed".equals(outcome)) {
+                status = TestResult.Status.PASSED;
+            } else if ("skipped".equals(outcome)) {
+                status = TestResult.Status.SKIPPED;
+            } else {
+                status = TestResult.Status.FAILED;
+                StringBuilder messages = failures.remove(className + " " + name);
+                message = null != messages ? messages.toString() : "Failed";
+            }
+            results.add(new TestResult(className, name, durationMillis, status, message));
+        }
+    }
+
+    /**
+     * @return the results, in the order the tests completed
+     */
+    public synchronized List<TestResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<TestResult>(results));
+    }
+
+    /**
+     * The result of a test method.
+     */
+    public static class TestResult {
+
+        public enum Status {
+            PASSED, FAILED, SKIPPED, ERROR
+        }
+
+        private final String className;
+        private final String name;
+        private final long durationMillis;
+        private final Status status;
+        private final String message;
+
+        public TestResult(String className, String name, long durationMillis, Status status, String message) {
+            this.className = className;
+            this.name = name;
+            this.durationMillis = durationMillis;
+            this.status = status;
+            this.message = message;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the failure messages with their locations, null if the test did not fail
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses XML property lists in a single streaming pass, without building a DOM. The objects are the
+ * ones of {@link BinaryPlistReader#readObject(long)}.
+ *
+ * @author Brewin' Apps AS
+ */
+class XmlPlistParser {
+
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private XmlPlistParser() {
+    }
+
+    private static XMLInputFactory createFactory() {
+        // The DOCTYPE of the property lists points to a DTD on apple.com, which must never be fetched
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * @param content
+     * @return the root object of the property list
+     * @throws IOException if the content is not a valid property list
+     */
+    static Object parse(byte[] content) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+            // Skips the prolog, DOCTYPE included
+            while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (!"plist".equals(reader.getLocalName())) {
+                throw new IOException("Expected <plist> but found <" + reader.getLocalName() + ">");
+            }
+            reader.nextTag();
+            Object root = parseValue(reader);
+            reader.nextTag();
+            return root;
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " at line " + reader.getLocation().getLineNumber());
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the value starting at the current element, and leaves the reader on its end.
+     */
+    private static Object parseValue(XMLStreamReader reader) throws XMLStreamException, IOException {
+        if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw error(reader, "Expected a value");
+        }
+        String name = reader.getLocalName();
+        if ("dict".equals(name)) {
+            Map<String, Object> dictionary = new LinkedHashMap<String, Object>();
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (!"key".equals(reader.getLocalName())) {
+                    throw error(reader, "Expected <key> but found <" + reader.getLocalName() + ">");
+                }
+                String key = reader.getElementText();
+                reader.nextTag();
+                dictionary.put(key, parseValue(reader));
+            }
+            return dictionary;
+        }
+        if ("array".equals(name)) {
+            List<Object> array = new ArrayList<Object>();
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                array.add(parseValue(reader));
+            }
+            return array;
+        }
+        if ("string".equals(name)) {
+            return reader.getElementText();
+        }
+        if ("integer".equals(name)) {
+            String text = reader.getElementText().trim();
+            return text.startsWith("0x") ? Long.parseLong(text.substring(2), 16) : Long.parseLong(text);
+        }
+        if ("real".equals(name)) {
+            return Double.parseDouble(reader.getElementText().trim());
+        }
+        if ("true".equals(name) || "false".equals(name)) {
+            reader.nextTag();
+            return "true".equals(name);
+        }
+        if ("data".equals(name)) {
+            return decodeBase64(reader.getElementText());
+        }
+        if ("date".equals(name)) {
+            String text = reader.getElementText().trim();
+            try {
+                return newDateFormat().parse(text);
+            } catch (ParseException e) {
+                throw error(reader, "Invalid date '" + text + "'");
+            }
+        }
+        throw error(reader, "Unknown element <" + name + ">");
+    }
+
+    /**
+     * @return the ISO 8601 format of the dates of the property lists, in UTC
+     */
+    static SimpleDateFormat newDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * @return the date as written in XML property lists
+     */
+    static String formatDate(Date date) {
+        return newDateFormat().format(date);
+    }
+
+    static String encodeBase64(byte[] data) {
+        StringBuilder text = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int chunk = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) {
+                chunk |= (data[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < data.length) {
+                chunk |= data[i + 2] & 0xff;
+            }
+            text.append(BASE64.charAt(chunk >> 18 & 0x3f)).append(BASE64.charAt(chunk >> 12 & 0x3f));
+            text.append(i + 1 < data.length ? BASE64.charAt(chunk >> 6 & 0x3f) : '=');
+            text.append(i + 2 < data.length ? BASE64.charAt(chunk & 0x3f) : '=');
+        }
+        return text.toString();
+    }
+
+    static byte[] decodeBase64(String text) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(text.length() * 3 / 4);
+        int chunk = 0;
+        int bits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int value = BASE64.indexOf(c);
+            if (value < 0) {
+                throw new IOException("Invalid character '" + c + "' in data");
+            }
+            chunk = (chunk << 6 | value) & 0xffffff;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                data.write(chunk >> bits & 0xff);
+            }
+        }
+        return data.toByteArray();
+    }
+
+    private static IOException error(XMLStreamReader reader, String message) {
+        return new IOException(message + " at line " + reader.getLocation().getLineNumber());
+    }
+}
@@ -0,0 +1,402 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * The central directory of a zip archive, read without inflating anything. Only the end records and the
+ * central directory are read from the file, so archives of any size are supported, ZIP64 ones included.
+ * Every entry is checked to point at a local header within the archive, so that a truncated or corrupt
+ * archive is rejected before any upload.
+ *
+ * @author Brewin' Apps AS
+ */
+class ZipCentralDirectory {
+
+    /**
+     * Largest entry {@link #read(Entry)} loads in memory; the others are only verified, in a stream.
+     */
+    static final int MAX_READ_SIZE = 16 * 1024 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset CP437 = Charset.forName("IBM437");
+
+    private final File file;
+    private final Map<String, Entry> entries;
+
+    private ZipCentralDirectory(File file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * @param file
+     * @return the central directory of the archive
+     * @throws IOException if the archive is truncated or corrupt
+     */
+    static ZipCentralDirectory read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            return read(file, input.getChannel());
+        } finally {
+            input.close();
+        }
+    }
+
+    private static ZipCentralDirectory read(File file, FileChannel channel) throws IOException {
+        String name = file.getName();
+        long fileSize = channel.size();
+        // The end record, its comment and the ZIP64 locator before it
+        int tailSize = (int) Math.min(fileSize, ZIP64_LOCATOR_SIZE + END_SIZE + MAX_COMMENT_SIZE);
+        long tailStart = fileSize - tailSize;
+        ByteBuffer tail = readFully(channel, tailStart, tailSize);
+        int endInTail = findEnd(tail, name);
+        long end = tailStart + endInTail;
+
+        long count = tail.getShort(endInTail + 10) & 0xffff;
+        long size = tail.getInt(endInTail + 12) & 0xffffffffL;
+        long offset = tail.getInt(endInTail + 16) & 0xffffffffL;
+        int locator = endInTail - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64End = tail.getLong(locator + 8);
+            if (zip64End < 0 || zip64End + ZIP64_END_SIZE > end - ZIP64_LOCATOR_SIZE) {
+                throw new IOException(name + " has an invalid ZIP64 end of central directory");
+            }
+            ByteBuffer record = readFully(channel, zip64End, ZIP64_END_SIZE);
+            if (record.getInt(0) != ZIP64_END_SIGNATURE) {
+                throw new IOException(name + " has an invalid ZIP64 end of central directory");
+            }
+            count = record.getLong(32);
+            size = record.getLong(40);
+            offset = record.getLong(48);
+        }
+        if (offset < 0 || size < 0 || offset + size > end) {
+            throw new IOException(name + " is truncated: its central directory ends at " + (offset + size)
+                    + " but the archive has only " + end + " bytes before its end record");
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(name + " has a central directory larger than 2 GB");
+        }
+
+        // The central directory is mapped on its own, wherever it lies in the archive
+        ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > size || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException(name + " has a corrupt central directory at entry " + i);
+            }
+            int flags = directory.getShort(position + 8) & 0xffff;
+            int method = directory.getShort(position + 10) & 0xffff;
+            long crc = directory.getInt(position + 16) & 0xffffffffL;
+            long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+            long uncompressedSize = directory.getInt(position + 24) & 0xffffffffL;
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            long localOffset = directory.getInt(position + 42) & 0xffffffffL;
+            if ((long) position + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength > size) {
+                throw new IOException(name + " has a corrupt central directory at entry " + i);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = directory.duplicate();
+            nameBuffer.position(position + CENTRAL_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String entryName = new String(nameBytes, (flags & UTF8_FLAG) != 0 ? UTF_8 : CP437);
+
+            // Sizes and offset too large for 32 bits are in the ZIP64 extra field, in this order
+            int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xffff;
+                int dataSize = directory.getShort(extra + 2) & 0xffff;
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (uncompressedSize == 0xffffffffL && field + 8 <= extraEnd) {
+                        uncompressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xffffffffL && field + 8 <= extraEnd) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localOffset == 0xffffffffL && field + 8 <= extraEnd) {
+                        localOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+
+            if (localOffset < 0 || localOffset + LOCAL_HEADER_SIZE > offset) {
+                throw new IOException(name + " is corrupt: the data of " + entryName + " is missing");
+            }
+            localHeader.clear();
+            readFully(channel, localOffset, localHeader);
+            if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException(name + " is corrupt: the data of " + entryName + " is missing");
+            }
+            int localNameLength = localHeader.getShort(26) & 0xffff;
+            int localExtraLength = localHeader.getShort(28) & 0xffff;
+            long dataOffset = localOffset + LOCAL_HEADER_SIZE + localNameLength + localExtraLength;
+            if (compressedSize < 0 || dataOffset + compressedSize > offset) {
+                throw new IOException(name + " is truncated: the data of " + entryName + " overlaps the central directory");
+            }
+
+            entries.put(entryName, new Entry(entryName, method, crc, compressedSize, uncompressedSize, dataOffset));
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new ZipCentralDirectory(file, entries);
+    }
+
+    /**
+     * The end record is the last one with a comment ending exactly at the end of the archive.
+     */
+    private static int findEnd(ByteBuffer tail, String name) throws IOException {
+        int limit = tail.limit();
+        for (int position = limit - END_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_SIGNATURE
+                    && position + END_SIZE + (tail.getShort(position + 20) & 0xffff) == limit) {
+                return position;
+            }
+        }
+        throw new IOException(name + " is not a zip archive, or is truncated: no end of central directory");
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, position, buffer);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of the archive at " + position);
+            }
+            position += count;
+        }
+        buffer.flip();
+    }
+
+    private static int read(FileChannel channel, long position, long end, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+        readFully(channel, position, buffer);
+        return buffer.limit();
+    }
+
+    /**
+     * @return the entries, in the order of the central directory
+     */
+    Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * @param entry a small entry, such as an Info.plist
+     * @return the uncompressed content of the entry
+     * @throws IOException if it is larger than {@link #MAX_READ_SIZE}, cannot be inflated or its CRC does not match
+     */
+    byte[] read(Entry entry) throws IOException {
+        if (entry.uncompressedSize > MAX_READ_SIZE) {
+            throw new IOException(entry.name + " is too large to be read in memory");
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) entry.uncompressedSize);
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            inflate(input.getChannel(), entry, content);
+        } finally {
+            input.close();
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Inflates the entry in a stream through fixed buffers, checking its size and CRC.
+     *
+     * @param channel the archive, read at absolute positions so that it can be shared between threads
+     * @param entry
+     * @param out receives the content, null to only check it
+     * @throws IOException if it cannot be inflated or its CRC does not match
+     */
+    private static void inflate(FileChannel channel, Entry entry, OutputStream out) throws IOException {
+        if (ZipEntry.STORED != entry.method && ZipEntry.DEFLATED != entry.method) {
+            throw new IOException(entry.name + " uses the unsupported compression method " + entry.method);
+        }
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        long length = 0;
+        long position = entry.dataOffset;
+        long end = entry.dataOffset + entry.compressedSize;
+        if (ZipEntry.STORED == entry.method) {
+            while (position < end) {
+                position += read(channel, position, end, input);
+                crc.update(input.array(), 0, input.limit());
+                length += input.limit();
+                if (null != out) {
+                    out.write(input.array(), 0, input.limit());
+                }
+            }
+        } else {
+            byte[] output = new byte[BUFFER_SIZE];
+            Inflater inflater = new Inflater(true);
+            try {
+                boolean padded = false;
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (position < end) {
+                            position += read(channel, position, end, input);
+                            inflater.setInput(input.array(), 0, input.limit());
+                        } else if (!padded) {
+                            // Without the zlib wrapper, the inflater may need a byte past the end of the data
+                            inflater.setInput(new byte[1]);
+                            padded = true;
+                        } else {
+                            break;
+                        }
+                    }
+                    int inflated = inflater.inflate(output);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        break;
+                    }
+                    crc.update(output, 0, inflated);
+                    length += inflated;
+                    if (null != out) {
+                        out.write(output, 0, inflated);
+                    }
+                }
+                if (!inflater.finished()) {
+                    throw new IOException(entry.name + " is truncated");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(entry.name + " is corrupt: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+
+        if (length != entry.uncompressedSize) {
+            throw new IOException(entry.name + " is corrupt: it holds " + length + " bytes instead of "
+                    + entry.uncompressedSize);
+        }
+        if (crc.getValue() != entry.crc) {
+            throw new IOException(entry.name + " is corrupt: its CRC does not match");
+        }
+    }
+
+    /**
+     * Inflates every file of the archive in a stream and checks its size and CRC.
+     *
+     * @param executor
+     * @return the problems found, empty if the archive is sound
+     * @throws IOException if the archive cannot be opened
+     * @throws InterruptedException
+     */
+    List<String> verifyContent(ExecutorService executor) throws IOException, InterruptedException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            return verifyContent(executor, input.getChannel());
+        } finally {
+            input.close();
+        }
+    }
+
+    private List<String> verifyContent(ExecutorService executor, final FileChannel channel) throws InterruptedException {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final Entry entry : entries.values()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            results.add(executor.submit(new Callable<String>() {
+                public String call() {
+                    try {
+                        inflate(channel, entry, null);
+                        return null;
+                    } catch (IOException e) {
+                        return e.getMessage();
+                    }
+                }
+            }));
+        }
+
+        List<String> problems = new ArrayList<String>();
+        for (Future<String> result : results) {
+            try {
+                String problem = result.get();
+                if (null != problem) {
+                    problems.add(problem);
+                }
+            } catch (ExecutionException e) {
+                problems.add(e.getCause().toString());
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * An entry of the central directory.
+     */
+    static class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long uncompressedSize;
+        final long dataOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long uncompressedSize, long dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.dataOffset = dataOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
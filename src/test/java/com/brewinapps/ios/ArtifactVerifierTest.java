@@ -0,0 +1,219 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the IPA and dSYM checks of the verify goal on archives built in the test.
+ *
+ * @author Brewin' Apps AS
+ */
+public class ArtifactVerifierTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private File ipa;
+    private File dsym;
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("verify");
+        ipa = workDir.resolve("sample-1.0.ipa").toFile();
+        dsym = workDir.resolve("sample-1.0.dSYM.zip").toFile();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testVerifyIpa() throws Exception {
+        writeZip(ipa, "Payload/", new byte[0], "Payload/Sample.app/", new byte[0],
+                "Payload/Sample.app/Info.plist", infoPlist(PropertyList.Format.XML),
+                "Payload/Sample.app/Sample", text("executable"));
+
+        Map<String, String> info = new ArtifactVerifier(executor).verifyIpa(ipa, "Sample");
+        assertEquals("com.brewinapps.sample", info.get(ArtifactVerifier.BUNDLE_IDENTIFIER));
+        assertEquals("1.0", info.get(ArtifactVerifier.BUNDLE_SHORT_VERSION));
+        assertEquals("42", info.get(ArtifactVerifier.BUNDLE_VERSION));
+        assertEquals("Sample", info.get(ArtifactVerifier.BUNDLE_EXECUTABLE));
+    }
+
+    public void testVerifyIpaWithBinaryInfoPlist() throws Exception {
+        writeZip(ipa, "Payload/Sample.app/Info.plist", infoPlist(PropertyList.Format.BINARY),
+                "Payload/Sample.app/Sample", text("executable"));
+
+        Map<String, String> info = new ArtifactVerifier(null).verifyIpa(ipa, "Sample");
+        assertEquals("com.brewinapps.sample", info.get(ArtifactVerifier.BUNDLE_IDENTIFIER));
+        assertEquals("42", info.get(ArtifactVerifier.BUNDLE_VERSION));
+    }
+
+    public void testMissingInfoPlist() throws Exception {
+        writeZip(ipa, "Payload/Other.app/Info.plist", infoPlist(PropertyList.Format.XML),
+                "Payload/Other.app/Sample", text("executable"));
+
+        try {
+            new ArtifactVerifier(null).verifyIpa(ipa, "Sample");
+            fail("The Info.plist should be missing");
+        } catch (IOSException e) {
+            assertEquals("sample-1.0.ipa has no Payload/Sample.app/Info.plist, the bundles are [Other.app]",
+                    e.getMessage());
+        }
+    }
+
+    public void testMissingExecutable() throws Exception {
+        writeZip(ipa, "Payload/Sample.app/Info.plist", infoPlist(PropertyList.Format.XML));
+
+        try {
+            new ArtifactVerifier(null).verifyIpa(ipa, "Sample");
+            fail("The executable should be missing");
+        } catch (IOSException e) {
+            assertEquals("sample-1.0.ipa has no executable Payload/Sample.app/Sample", e.getMessage());
+        }
+    }
+
+    public void testInvalidInfoPlist() throws Exception {
+        writeZip(ipa, "Payload/Sample.app/Info.plist", text("<plist><dict><key>broken</dict></plist>"));
+
+        try {
+            new ArtifactVerifier(null).verifyIpa(ipa, "Sample");
+            fail("The Info.plist should be invalid");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid Info.plist in sample-1.0.ipa: "));
+        }
+    }
+
+    public void testTruncatedIpa() throws Exception {
+        writeZip(ipa, "Payload/Sample.app/Info.plist", infoPlist(PropertyList.Format.XML),
+                "Payload/Sample.app/Sample", text("executable"));
+        RandomAccessFile file = new RandomAccessFile(ipa, "rw");
+        try {
+            file.setLength(ipa.length() / 2);
+        } finally {
+            file.close();
+        }
+
+        try {
+            new ArtifactVerifier(null).verifyIpa(ipa, "Sample");
+            fail("The IPA should be truncated");
+        } catch (IOSException e) {
+            assertEquals("sample-1.0.ipa is not a zip archive, or is truncated: no end of central directory",
+                    e.getMessage());
+        }
+    }
+
+    public void testCorruptContentIsOnlyFoundWhenInflating() throws Exception {
+        byte[] executable = new byte[4096];
+        writeZip(ipa, "Payload/Sample.app/Info.plist", infoPlist(PropertyList.Format.XML),
+                "Payload/Sample.app/Sample", executable);
+        ZipCentralDirectory.Entry entry = ZipCentralDirectory.read(ipa).getEntry("Payload/Sample.app/Sample");
+        RandomAccessFile file = new RandomAccessFile(ipa, "rw");
+        try {
+            file.seek(entry.dataOffset + entry.compressedSize / 2);
+            file.write(0x55);
+        } finally {
+            file.close();
+        }
+
+        new ArtifactVerifier(null).verifyIpa(ipa, "Sample");
+        try {
+            new ArtifactVerifier(executor).verifyIpa(ipa, "Sample");
+            fail("The executable should be corrupt");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(
+                    "sample-1.0.ipa is corrupt: 1 entries failed verification, e.g. Payload/Sample.app/Sample is "));
+        }
+    }
+
+    public void testVerifyDsym() throws Exception {
+        writeZip(dsym, "Sample.app.dSYM/Contents/Info.plist", infoPlist(PropertyList.Format.XML),
+                "Sample.app.dSYM/Contents/Resources/DWARF/Sample", new byte[100000]);
+        new ArtifactVerifier(executor).verifyDsym(dsym);
+
+        writeZip(dsym, "Sample.app.dSYM/Contents/Info.plist", infoPlist(PropertyList.Format.XML));
+        try {
+            new ArtifactVerifier(executor).verifyDsym(dsym);
+            fail("The dSYM should hold no DWARF file");
+        } catch (IOSException e) {
+            assertEquals("sample-1.0.dSYM.zip holds no DWARF file", e.getMessage());
+        }
+    }
+
+    public void testVersionMismatch() throws Exception {
+        IOSVerifyMojo mojo = new IOSVerifyMojo();
+        mojo.targetDir = workDir.toFile();
+        Map<String, String> info = new LinkedHashMap<String, String>();
+        info.put(ArtifactVerifier.BUNDLE_SHORT_VERSION, "1.0");
+        info.put(ArtifactVerifier.BUNDLE_VERSION, "42");
+
+        // Nothing to compare with until update-version ran
+        mojo.verifyVersion(info);
+
+        Properties versions = new Properties();
+        versions.setProperty(IOSUpdateVersion.VERSION_PROPERTY, "1.0");
+        versions.setProperty(IOSUpdateVersion.BUILD_NUMBER_PROPERTY, "42");
+        writeVersions(versions);
+        mojo.verifyVersion(info);
+
+        versions.setProperty(IOSUpdateVersion.BUILD_NUMBER_PROPERTY, "43");
+        writeVersions(versions);
+        try {
+            mojo.verifyVersion(info);
+            fail("The build numbers should not match");
+        } catch (IOSException e) {
+            assertEquals("The CFBundleVersion of the IPA is '42' but update-version set it to '43'", e.getMessage());
+        }
+    }
+
+    private void writeVersions(Properties versions) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(workDir.toFile(), IOSUpdateVersion.VERSION_FILE));
+        try {
+            versions.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] infoPlist(PropertyList.Format format) throws IOException {
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        info.put("CFBundleIdentifier", "com.brewinapps.sample");
+        info.put("CFBundleShortVersionString", "1.0");
+        info.put("CFBundleVersion", "42");
+        info.put("CFBundleExecutable", "Sample");
+        return PropertyList.toBytes(info, format);
+    }
+
+    private static void writeZip(File file, Object... namesAndContents) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                out.putNextEntry(new ZipEntry((String) namesAndContents[i]));
+                out.write((byte[]) namesAndContents[i + 1]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(UTF_8);
+    }
+}
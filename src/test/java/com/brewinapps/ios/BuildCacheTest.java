@@ -0,0 +1,176 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the keys of the build cache, its hit and miss counts, the LRU eviction and the leases.
+ *
+ * @author Brewin' Apps AS
+ */
+public class BuildCacheTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("build-cache");
+        cacheDir = workDir.resolve("cache").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testComputeKey() {
+        String key = BuildCache.computeKey("My App", "com.acme:app:/src/app", "feature/login", "Release", "iphoneos");
+        assertTrue(key, key.matches("My_App-feature_login-Release-iphoneos-[0-9a-f]{8}"));
+        assertEquals(key, BuildCache.computeKey("My App", "com.acme:app:/src/app", "feature/login", "Release",
+                "iphoneos"));
+        // Two checkouts of the same project do not share an entry
+        assertFalse(key.equals(BuildCache.computeKey("My App", "com.acme:app:/src/app2", "feature/login", "Release",
+                "iphoneos")));
+    }
+
+    public void testReadBranch() throws Exception {
+        Path repository = Files.createDirectories(workDir.resolve("repository/.git"));
+        Path sources = Files.createDirectories(workDir.resolve("repository/app/src"));
+        Files.write(repository.resolve("HEAD"), "ref: refs/heads/feature/login\n".getBytes(UTF_8));
+        assertEquals("feature/login", BuildCache.readBranch(sources.toFile()));
+
+        Files.write(repository.resolve("HEAD"), "3f1a2b4c5d6e7f8091a2b3c4d5e6f708192a3b4c\n".getBytes(UTF_8));
+        assertEquals("detached", BuildCache.readBranch(sources.toFile()));
+
+        // A worktree points to its own git directory
+        Path worktreeGit = Files.createDirectories(workDir.resolve("repository/.git/worktrees/hotfix"));
+        Files.write(worktreeGit.resolve("HEAD"), "ref: refs/heads/hotfix\n".getBytes(UTF_8));
+        Path worktree = Files.createDirectories(workDir.resolve("hotfix"));
+        Files.write(worktree.resolve(".git"), ("gitdir: " + worktreeGit + "\n").getBytes(UTF_8));
+        assertEquals("hotfix", BuildCache.readBranch(worktree.toFile()));
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        BuildCache cache = new BuildCache(cacheDir, Long.MAX_VALUE);
+        BuildCache.Lease first = cache.open("app");
+        assertFalse(first.hit);
+        cache.close(first);
+
+        BuildCache.Lease second = cache.open("app");
+        assertTrue(second.hit);
+        cache.close(second);
+
+        // Reusing the products of a build is not counted
+        cache.close(cache.lease("app"));
+
+        Properties stats = cache.loadStats();
+        assertEquals("1", stats.getProperty("hits"));
+        assertEquals("1", stats.getProperty("misses"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        // Room for three entries
+        BuildCache cache = new BuildCache(cacheDir, 35000);
+        assertEquals(Collections.<File>emptyList(), build(cache, "a"));
+        assertEquals(Collections.<File>emptyList(), build(cache, "b"));
+        assertEquals(Collections.<File>emptyList(), build(cache, "c"));
+        assertEquals(Arrays.asList(cache.getEntryDir("a")), build(cache, "d"));
+
+        // Using an entry makes it the most recent one
+        assertEquals(Collections.<File>emptyList(), build(cache, "b"));
+        assertEquals(Arrays.asList(cache.getEntryDir("c")), build(cache, "e"));
+        assertTrue(cache.getEntryDir("b").isDirectory());
+        assertFalse(cache.getEntryDir("a").exists());
+        assertEquals("2", cache.loadStats().getProperty("evictions"));
+    }
+
+    public void testLeasedEntryIsNotEvicted() throws Exception {
+        BuildCache cache = new BuildCache(cacheDir, 15000);
+        build(cache, "a");
+        // Tests still run on the products of the first build
+        BuildCache.Lease tests = cache.lease("a");
+        assertEquals(Collections.<File>emptyList(), build(cache, "b"));
+
+        List<BuildCache.CachedEntry> entries = cache.listEntries();
+        assertEquals(2, entries.size());
+
+        cache.close(tests);
+        assertEquals(Arrays.asList(cache.getEntryDir("a")), build(cache, "c"));
+    }
+
+    public void testEntryLeasedTwice() throws Exception {
+        BuildCache cache = new BuildCache(cacheDir, 15000);
+        build(cache, "a");
+        BuildCache.Lease first = cache.lease("a");
+        BuildCache.Lease second = cache.lease("a");
+
+        // Returning one lease leaves the other one in place
+        cache.close(first);
+        assertEquals(Collections.<File>emptyList(), build(cache, "b"));
+        cache.close(second);
+        assertEquals(Arrays.asList(cache.getEntryDir("a")), build(cache, "c"));
+    }
+
+    public void testStaleLeaseIsIgnored() throws Exception {
+        BuildCache cache = new BuildCache(cacheDir, 15000);
+        build(cache, "a");
+        // Left behind by a build that was killed
+        File entryFile = new File(cache.getEntryDir("a"), ".cache-entry");
+        Properties entry = load(entryFile);
+        entry.setProperty("inUse.killed", Long.toString(
+                System.currentTimeMillis() - BuildCache.IN_USE_TIMEOUT - 1000));
+        store(entry, entryFile);
+
+        assertEquals(Arrays.asList(cache.getEntryDir("a")), build(cache, "b"));
+    }
+
+    /**
+     * Builds 10000 bytes of intermediates in the entry.
+     *
+     * @return the evicted entries
+     */
+    private static List<File> build(BuildCache cache, String key) throws Exception {
+        BuildCache.Lease lease = cache.open(key);
+        File intermediates = new File(cache.getEntryDir(key), BuildCache.INTERMEDIATES_DIR);
+        intermediates.mkdirs();
+        Files.write(new File(intermediates, "main.o").toPath(), new byte[10000]);
+        // Entries are ordered by their last use, in milliseconds
+        Thread.sleep(5);
+        return cache.close(lease);
+    }
+
+    private static Properties load(File file) throws Exception {
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) throws Exception {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, null);
+        } finally {
+            output.close();
+        }
+    }
+}
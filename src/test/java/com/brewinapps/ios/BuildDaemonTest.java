@@ -0,0 +1,157 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Runs a build daemon in this JVM and drives it through a client, with a stand-in xcodebuild.
+ *
+ * @author Brewin' Apps AS
+ */
+public class BuildDaemonTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private Thread daemonThread;
+    private DaemonClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("build-daemon");
+        final BuildDaemon daemon = new BuildDaemon(workDir.resolve("daemon").toFile(), TimeUnit.MINUTES.toMillis(5));
+        daemonThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        daemonThread.start();
+
+        for (int i = 0; i < 100 && null == client; i++) {
+            Thread.sleep(100);
+            client = DaemonClient.find(workDir.resolve("daemon").toFile());
+        }
+        assertNotNull("The daemon did not start", client);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (null != client) {
+            client.stop();
+        }
+        daemonThread.join(10000);
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testConnectFindsRunningDaemon() throws Exception {
+        assertTrue(client.ping());
+        DaemonClient connected = DaemonClient.connect(workDir.resolve("daemon").toFile(), 5, new SystemStreamLog());
+        assertTrue(connected.ping());
+        // No other daemon was started
+        assertFalse(workDir.resolve("daemon/" + BuildDaemon.LOG_FILE).toFile().exists());
+    }
+
+    public void testRunCommand() throws Exception {
+        ProcessBuilder pb = new ProcessBuilder("sh", "-c", "echo out; echo err >&2; pwd; echo $GREETING; exit 3");
+        pb.directory(workDir.toFile());
+        pb.environment().put("GREETING", "hello");
+        Process process = client.start(pb);
+
+        String stdout = read(process.getInputStream());
+        String stderr = read(process.getErrorStream());
+        assertEquals(3, process.waitFor());
+        assertEquals("out\n" + workDir.toRealPath() + "\nhello\n", stdout);
+        assertEquals("err\n", stderr);
+    }
+
+    public void testCommandHelperThroughDaemon() throws Exception {
+        CommandOptions options = CommandOptions.DEFAULT.withDaemon(client);
+        assertEquals("done", CommandHelper.performCommandForOutput(new ProcessBuilder("echo", "done"),
+                new SystemStreamLog(), options).trim());
+        try {
+            CommandHelper.performCommand(new ProcessBuilder("sh", "-c", "echo failing >&2; exit 2"),
+                    new SystemStreamLog(), options);
+            fail("The command should have failed");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exit code 2"));
+            assertTrue(e.getMessage(), e.getMessage().contains("failing"));
+        }
+    }
+
+    public void testTimeoutKillsRemoteCommand() throws Exception {
+        File pidFile = workDir.resolve("child.pid").toFile();
+        File script = new File(getClass().getResource("/commands/spawn.sh").toURI());
+        try {
+            CommandHelper.performCommand(new ProcessBuilder("sh", script.getAbsolutePath(), pidFile.getAbsolutePath()),
+                    new SystemStreamLog(), CommandOptions.DEFAULT.withDaemon(client).withTimeout(1, TimeUnit.SECONDS));
+            fail("The command should have been killed");
+        } catch (IOSCommandTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("did not complete within 1 seconds"));
+        }
+
+        // Closing the connection makes the daemon kill the command and its child
+        String pid = new String(Files.readAllBytes(pidFile.toPath()), UTF_8).trim();
+        for (int i = 0; i < 50; i++) {
+            if (0 != new ProcessBuilder("kill", "-0", pid).start().waitFor()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("The child process " + pid + " survived");
+    }
+
+    public void testVersionInClientEnvironment() throws Exception {
+        Path first = installTool("first");
+        Path second = installTool("second");
+
+        // The daemon looks the tool up on the PATH of the client, not on its own
+        assertEquals("Xcode 10.1 in first\nDEVELOPER_DIR=unset", client.getVersion(ToolRegistry.XCODEBUILD,
+                new ToolRegistry(first + File.pathSeparator + second, null)));
+        assertEquals("Xcode 10.1 in second\nDEVELOPER_DIR=unset", client.getVersion(ToolRegistry.XCODEBUILD,
+                new ToolRegistry(second.toString(), null)));
+        assertEquals("Xcode 10.1 in second\nDEVELOPER_DIR=/Applications/Xcode-beta.app/Contents/Developer",
+                client.getVersion(ToolRegistry.XCODEBUILD, new ToolRegistry(second.toString(),
+                        "/Applications/Xcode-beta.app/Contents/Developer")));
+
+        try {
+            client.getVersion(ToolRegistry.XCODEBUILD, new ToolRegistry(workDir.toString(), null));
+            fail("xcodebuild is not on the PATH");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Could not find 'xcodebuild'"));
+        }
+    }
+
+    private Path installTool(String dir) throws Exception {
+        Path tool = Files.createDirectories(workDir.resolve(dir)).resolve(ToolRegistry.XCODEBUILD);
+        Files.copy(Paths.get(getClass().getResource("/daemon/xcodebuild").toURI()), tool,
+                StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(tool.toFile().setExecutable(true));
+        return tool.getParent();
+    }
+
+    private static String read(InputStream input) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, count);
+        }
+        return new String(output.toByteArray(), UTF_8);
+    }
+}
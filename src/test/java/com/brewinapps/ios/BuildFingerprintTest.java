@@ -0,0 +1,268 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Tests the fingerprint of the build inputs on a temporary source tree, and its use by the build goal to
+ * skip the builds whose inputs did not change.
+ *
+ * @author Brewin' Apps AS
+ */
+public class BuildFingerprintTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final List<String> ARGUMENTS = Arrays.asList("xcodebuild", "-scheme", "Sample");
+    private static final String VERSION = "Xcode 10.1";
+
+    private Path workDir;
+    private Path sourceDir;
+    private File targetDir;
+    private File podfileLock;
+    private File fingerprintFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("fingerprint");
+        sourceDir = Files.createDirectories(workDir.resolve("Sample"));
+        targetDir = Files.createDirectories(sourceDir.resolve("target")).toFile();
+        podfileLock = sourceDir.resolve("Podfile.lock").toFile();
+        fingerprintFile = new File(targetDir, "ios-build-Release-iphoneos.fingerprint");
+
+        write("Sample/AppDelegate.m", "@implementation AppDelegate\n@end\n");
+        write("Sample/Info.plist", "<plist/>\n");
+        write("Sample.xcodeproj/project.pbxproj", "{ objects = { }; }\n");
+        write("Podfile.lock", "COCOAPODS: 1.5.3\n");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testUnchangedTreeMatches() throws Exception {
+        BuildFingerprint first = compute();
+        assertEquals(4, first.getHashedFileCount());
+        assertFalse(first.matchesPrevious());
+        first.save();
+
+        BuildFingerprint second = compute();
+        assertTrue(second.matchesPrevious());
+        // The modification times and sizes matched, nothing was read
+        assertEquals(0, second.getHashedFileCount());
+    }
+
+    public void testStampPrecheck() throws Exception {
+        String digest = compute(new BuildFingerprint(fingerprintFile));
+        save();
+
+        // Same size and modification time: the stored hash is trusted
+        File source = sourceDir.resolve("Sample/AppDelegate.m").toFile();
+        long modified = source.lastModified();
+        write("Sample/AppDelegate.m", "@implementation AppDelegatf\n@end\n");
+        assertTrue(source.setLastModified(modified));
+        BuildFingerprint trusted = new BuildFingerprint(fingerprintFile);
+        assertEquals(digest, compute(trusted));
+        assertEquals(0, trusted.getHashedFileCount());
+
+        // A touched file is hashed again, its content decides
+        assertTrue(source.setLastModified(modified + 10000));
+        BuildFingerprint touched = new BuildFingerprint(fingerprintFile);
+        assertFalse(digest.equals(compute(touched)));
+        assertEquals(1, touched.getHashedFileCount());
+    }
+
+    public void testTouchedFileWithSameContentMatches() throws Exception {
+        save();
+        File source = sourceDir.resolve("Sample/Info.plist").toFile();
+        assertTrue(source.setLastModified(source.lastModified() + 10000));
+
+        BuildFingerprint fingerprint = compute();
+        assertEquals(1, fingerprint.getHashedFileCount());
+        assertTrue(fingerprint.matchesPrevious());
+    }
+
+    public void testParallelRehash() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            write("Sample/Generated/File" + i + ".m", "// generated " + i + "\n");
+        }
+        String digest = compute(new BuildFingerprint(fingerprintFile));
+        save();
+
+        // Every changed file is hashed again, the digest does not depend on the order the hashes complete in
+        for (int i = 0; i < 200; i += 2) {
+            File file = sourceDir.resolve("Sample/Generated/File" + i + ".m").toFile();
+            assertTrue(file.setLastModified(file.lastModified() + 10000));
+        }
+        BuildFingerprint fingerprint = new BuildFingerprint(fingerprintFile);
+        assertEquals(digest, compute(fingerprint));
+        assertEquals(100, fingerprint.getHashedFileCount());
+        assertTrue(fingerprint.matchesPrevious());
+
+        write("Sample/Generated/File7.m", "// edited 7\n");
+        assertFalse(digest.equals(compute(new BuildFingerprint(fingerprintFile))));
+    }
+
+    public void testExclusions() throws Exception {
+        save();
+
+        write(".git/index", "git");
+        write("Pods/Manifest.lock", "pods");
+        write("build/Release-iphoneos/Sample.app/Sample", "binary");
+        write("Sample.xcodeproj/xcuserdata/build.xcuserdatad/UserInterfaceState.xcuserstate", "state");
+        write("Sample/.DS_Store", "finder");
+        write("target/Release-iphoneos/Sample.app/Sample", "binary");
+        BuildFingerprint fingerprint = compute();
+        assertTrue(fingerprint.matchesPrevious());
+        assertEquals(0, fingerprint.getHashedFileCount());
+
+        // Only the names are excluded, not the paths that contain them
+        write("Sample/Podsfile.txt", "not excluded");
+        assertFalse(compute().matchesPrevious());
+    }
+
+    public void testNewAndDeletedFiles() throws Exception {
+        save();
+        write("Sample/ViewController.m", "@implementation ViewController\n@end\n");
+        assertFalse(compute().matchesPrevious());
+
+        save();
+        Files.delete(sourceDir.resolve("Sample/ViewController.m"));
+        assertFalse(compute().matchesPrevious());
+    }
+
+    public void testPodfileLockChangeMismatches() throws Exception {
+        String digest = compute(new BuildFingerprint(fingerprintFile));
+
+        BuildFingerprint fingerprint = new BuildFingerprint(fingerprintFile);
+        write("Podfile.lock", "COCOAPODS: 1.6.0\n");
+        assertFalse(digest.equals(compute(fingerprint)));
+        assertTrue(podfileLock.delete());
+        assertFalse(digest.equals(compute(fingerprint)));
+    }
+
+    public void testArgumentsOrToolVersionChangeMismatch() throws Exception {
+        save();
+
+        BuildFingerprint otherArguments = new BuildFingerprint(fingerprintFile);
+        otherArguments.compute(sourceDir.toFile(), targetDir, podfileLock,
+                Arrays.asList("xcodebuild", "-scheme", "Sample", "ONLY_ACTIVE_ARCH=NO"), VERSION);
+        assertFalse(otherArguments.matchesPrevious());
+
+        BuildFingerprint otherVersion = new BuildFingerprint(fingerprintFile);
+        otherVersion.compute(sourceDir.toFile(), targetDir, podfileLock, ARGUMENTS, "Xcode 10.2");
+        assertFalse(otherVersion.matchesPrevious());
+    }
+
+    public void testCorruptFingerprintIsIgnored() throws Exception {
+        save();
+        Files.write(fingerprintFile.toPath(), "digest=\\u00zz\n".getBytes(UTF_8));
+
+        BuildFingerprint fingerprint = compute();
+        assertFalse(fingerprint.matchesPrevious());
+        assertEquals(4, fingerprint.getHashedFileCount());
+    }
+
+    public void testBuildInvalidatesBeforeXcodebuild() throws Exception {
+        FakeBuildMojo mojo = createMojo();
+        mojo.build();
+        assertEquals(1, mojo.builds);
+        assertFalse(mojo.fingerprintExisted);
+        assertTrue(fingerprintFile.isFile());
+
+        // Nothing changed and the app is there
+        Files.createDirectories(targetDir.toPath().resolve("Release-iphoneos/Sample.app"));
+        mojo.build();
+        assertEquals(1, mojo.builds);
+
+        // A failed build leaves no fingerprint behind, the next one builds again
+        write("Sample/AppDelegate.m", "@implementation AppDelegate\n- (void)broken\n@end\n");
+        mojo.failure = new IOSException("xcodebuild failed");
+        try {
+            mojo.build();
+            fail("The build should have failed");
+        } catch (IOSException e) {
+            assertEquals("xcodebuild failed", e.getMessage());
+        }
+        assertEquals(2, mojo.builds);
+        assertFalse(mojo.fingerprintExisted);
+        assertFalse(fingerprintFile.exists());
+
+        mojo.failure = null;
+        mojo.build();
+        assertEquals(3, mojo.builds);
+        assertTrue(fingerprintFile.isFile());
+    }
+
+    private FakeBuildMojo createMojo() throws Exception {
+        FakeBuildMojo mojo = new FakeBuildMojo();
+        Model model = new Model();
+        model.setGroupId("com.brewinapps");
+        model.setArtifactId("sample");
+        mojo.project = new MavenProject(model);
+        mojo.workDir = sourceDir.toFile();
+        mojo.targetDir = targetDir;
+        mojo.appDir = targetDir + File.separator + "Release-iphoneos" + File.separator;
+        mojo.appName = "Sample";
+        mojo.scheme = "Sample";
+        mojo.sdk = "iphoneos";
+        mojo.buildConfiguration = "Release";
+        Field incrementalBuild = IOSBuildMojo.class.getDeclaredField("incrementalBuild");
+        incrementalBuild.setAccessible(true);
+        incrementalBuild.set(mojo, true);
+        return mojo;
+    }
+
+    private BuildFingerprint compute() throws Exception {
+        BuildFingerprint fingerprint = new BuildFingerprint(fingerprintFile);
+        compute(fingerprint);
+        return fingerprint;
+    }
+
+    private String compute(BuildFingerprint fingerprint) throws Exception {
+        return fingerprint.compute(sourceDir.toFile(), targetDir, podfileLock, ARGUMENTS, VERSION);
+    }
+
+    private void save() throws Exception {
+        compute().save();
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path file = sourceDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(UTF_8));
+    }
+
+    /**
+     * Build goal that records the state of the fingerprint when xcodebuild would have run.
+     */
+    private class FakeBuildMojo extends IOSBuildMojo {
+        int builds;
+        boolean fingerprintExisted;
+        IOSException failure;
+
+        @Override
+        protected String getBuildToolVersion() {
+            return VERSION;
+        }
+
+        @Override
+        protected void xcodebuild() throws IOSException {
+            builds++;
+            fingerprintExisted = fingerprintFile.exists();
+            if (null != failure) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the record format of the build statistics store, its recovery from torn and truncated records,
+ * and the histories it returns.
+ *
+ * @author Brewin' Apps AS
+ */
+public class BuildStatsStoreTest extends TestCase {
+
+    private static final String KEY = "com.brewinapps:sample:Sample:Release";
+
+    private Path workDir;
+    private File storeFile;
+    private BuildStatsStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("stats");
+        storeFile = workDir.resolve("stats/build-stats.db").toFile();
+        store = BuildStatsStore.forFile(storeFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testSharedPerFile() throws Exception {
+        assertSame(store, BuildStatsStore.forFile(new File(storeFile.getPath())));
+        assertNotSame(store, BuildStatsStore.forFile(workDir.resolve("other.db").toFile()));
+    }
+
+    public void testRecordFormat() throws Exception {
+        long before = System.currentTimeMillis();
+        store.append(KEY, "xcodebuild", 61000);
+        long after = System.currentTimeMillis();
+
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(storeFile.toPath()));
+        assertEquals(0x494f5353, file.getInt());
+        assertEquals(1, file.getInt());
+        assertEquals(0x5245437c, file.getInt());
+        int length = file.getInt();
+        byte[] payload = new byte[length];
+        file.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        assertEquals((int) crc.getValue(), file.getInt());
+        assertFalse(file.hasRemaining());
+
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload));
+        long timestamp = fields.readLong();
+        assertTrue(timestamp >= before && timestamp <= after);
+        assertEquals(KEY, fields.readUTF());
+        assertEquals("xcodebuild", fields.readUTF());
+        assertEquals(61000, fields.readLong());
+        assertEquals(-1, fields.read());
+
+        BuildStatsStore.MetricHistory history = store.query(KEY, 20).get("xcodebuild");
+        assertEquals(61000, history.getLatest());
+        assertEquals(timestamp, history.getLatestTimestamp());
+        assertEquals(0, history.getPreviousCount());
+    }
+
+    public void testMissingOrForeignFile() throws Exception {
+        assertTrue(store.query(KEY, 20).isEmpty());
+
+        Files.createDirectories(storeFile.getParentFile().toPath());
+        Files.write(storeFile.toPath(), new byte[4]);
+        assertTrue(store.query(KEY, 20).isEmpty());
+
+        Files.write(storeFile.toPath(), "<plist></plist>".getBytes("UTF-8"));
+        try {
+            store.query(KEY, 20);
+            fail("The file should not be a store");
+        } catch (IOException e) {
+            assertEquals(storeFile + " is not a build statistics store", e.getMessage());
+        }
+    }
+
+    public void testKeyFiltering() throws Exception {
+        store.append(KEY, "xcodebuild", 1);
+        store.append("com.brewinapps:sample:Sample:Debug", "xcodebuild", 2);
+        // A key the queried one starts with, the length written before the key tells them apart
+        store.append("com.brewinapps:sample:Sample", "xcodebuild", 3);
+        store.append(KEY + "s", "xcodebuild", 4);
+        store.append(KEY, "ipaSize", 5);
+
+        Map<String, BuildStatsStore.MetricHistory> histories = store.query(KEY, 20);
+        assertEquals(Arrays.asList("ipaSize", "xcodebuild"), Arrays.asList(histories.keySet().toArray()));
+        assertEquals(1, histories.get("xcodebuild").getLatest());
+        assertEquals(0, histories.get("xcodebuild").getPreviousCount());
+        assertEquals(5, histories.get("ipaSize").getLatest());
+        assertTrue(store.query("com.brewinapps:other:Sample:Release", 20).isEmpty());
+    }
+
+    public void testWindow() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            store.append(KEY, "xcodebuild", i * 1000);
+        }
+
+        BuildStatsStore.MetricHistory history = store.query(KEY, 3).get("xcodebuild");
+        assertEquals(10000, history.getLatest());
+        // The latest value is not part of the window
+        assertEquals(3, history.getPreviousCount());
+        assertEquals(7000 + 8000 + 9000, history.getPreviousSum());
+
+        history = store.query(KEY, 20).get("xcodebuild");
+        assertEquals(9, history.getPreviousCount());
+    }
+
+    public void testPercentile() throws Exception {
+        BuildStatsStore.MetricHistory history = new BuildStatsStore.MetricHistory("xcodebuild", 20);
+        history.add(1, 500);
+        // No previous value: the latest one
+        assertEquals(500, history.getPercentile(50));
+
+        history = new BuildStatsStore.MetricHistory("xcodebuild", 20);
+        for (long value : new long[] {40, 10, 30, 20, 100, 70, 50, 90, 60, 80, 1}) {
+            history.add(value, value);
+        }
+        // Nearest rank over 40, 10, 30, 20, 100, 70, 50, 90, 60, 80, the latest value left out
+        assertEquals(1, history.getLatest());
+        assertEquals(50, history.getPercentile(50));
+        assertEquals(90, history.getPercentile(90));
+        assertEquals(100, history.getPercentile(100));
+        assertEquals(10, history.getPercentile(0));
+        assertEquals(10, history.getPercentile(1));
+    }
+
+    public void testTornRecordIsSkipped() throws Exception {
+        store.append(KEY, "xcodebuild", 1000);
+        long end = storeFile.length();
+        store.append(KEY, "xcodebuild", 2000);
+        // A build killed in the middle of an append left half a record
+        truncate(end + (storeFile.length() - end) / 2);
+        store.append(KEY, "xcodebuild", 3000);
+        store.append(KEY, "xcodebuild", 4000);
+
+        BuildStatsStore.MetricHistory history = store.query(KEY, 20).get("xcodebuild");
+        assertEquals(4000, history.getLatest());
+        assertEquals(2, history.getPreviousCount());
+        assertEquals(1000 + 3000, history.getPreviousSum());
+    }
+
+    public void testCorruptRecordIsSkipped() throws Exception {
+        store.append(KEY, "xcodebuild", 1000);
+        long start = storeFile.length();
+        store.append(KEY, "xcodebuild", 2000);
+        store.append(KEY, "xcodebuild", 3000);
+
+        // A flipped byte in the value: the CRC no longer matches, the scan resyncs on the next marker
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        try {
+            long value = storeFile.length() - (storeFile.length() - start) / 2 - 4 - 1;
+            file.seek(value);
+            int flipped = file.read() ^ 0x10;
+            file.seek(value);
+            file.write(flipped);
+        } finally {
+            file.close();
+        }
+
+        BuildStatsStore.MetricHistory history = store.query(KEY, 20).get("xcodebuild");
+        assertEquals(3000, history.getLatest());
+        assertEquals(1, history.getPreviousCount());
+        assertEquals(1000, history.getPreviousSum());
+    }
+
+    public void testTruncatedTail() throws Exception {
+        store.append(KEY, "xcodebuild", 1000);
+        long end = storeFile.length();
+        store.append(KEY, "xcodebuild", 2000);
+        store.append(KEY, "xcodebuild", 3000);
+        truncate(storeFile.length() - 5);
+
+        BuildStatsStore.MetricHistory history = store.query(KEY, 20).get("xcodebuild");
+        assertEquals(2000, history.getLatest());
+        assertEquals(1, history.getPreviousCount());
+
+        // Down to two bytes of the marker of the second record
+        truncate(end + 2);
+        history = store.query(KEY, 20).get("xcodebuild");
+        assertEquals(1000, history.getLatest());
+        assertEquals(0, history.getPreviousCount());
+    }
+
+    public void testUnits() throws Exception {
+        assertEquals(BuildStatsStore.Unit.BYTES, BuildStatsStore.Unit.of("ipaSize"));
+        assertEquals(BuildStatsStore.Unit.FLAG, BuildStatsStore.Unit.of("buildCacheHit"));
+        assertEquals(BuildStatsStore.Unit.MILLISECONDS, BuildStatsStore.Unit.of("xcodebuild"));
+        assertEquals(BuildStatsStore.Unit.MILLISECONDS, BuildStatsStore.Unit.of("packageDsym"));
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the command timeouts and the idle output watchdog with a stand-in script.
+ *
+ * @author Brewin' Apps AS
+ */
+public class CommandHelperTest extends TestCase {
+
+    private File pidFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        pidFile = File.createTempFile("child", ".pid");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pidFile.delete();
+    }
+
+    public void testCompletesWithinTimeout() throws Exception {
+        String output = CommandHelper.performCommandForOutput(new ProcessBuilder("echo", "done"), new SystemStreamLog(),
+                CommandOptions.DEFAULT.withTimeout(30, TimeUnit.SECONDS));
+        assertEquals("done", output.trim());
+    }
+
+    public void testTimeoutKillsProcessTree() throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            CommandHelper.performCommand(spawn(0), new SystemStreamLog(),
+                    CommandOptions.DEFAULT.withTimeout(1, TimeUnit.SECONDS));
+            fail("The command should have been killed");
+        } catch (IOSCommandTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("did not complete within 1 seconds"));
+        }
+        // The child holds the output open, so waitFor only returns early if the child was killed too
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertChildKilled();
+    }
+
+    public void testIdleTimeoutKillsSilentCommand() throws Exception {
+        try {
+            CommandHelper.performCommand(spawn(3), new SystemStreamLog(),
+                    CommandOptions.DEFAULT.withIdleTimeout(1, TimeUnit.SECONDS));
+            fail("The command should have been killed");
+        } catch (IOSCommandTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("produced no output for 1 seconds"));
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+        assertChildKilled();
+    }
+
+    public void testToolTimeoutOverridesTimeout() throws Exception {
+        CommandOptions options = CommandOptions.DEFAULT.withTimeout(1, TimeUnit.SECONDS)
+                .withToolTimeout("sleep", 30, TimeUnit.SECONDS);
+        CommandHelper.performCommand(new ProcessBuilder("sleep", "2"), new SystemStreamLog(), options);
+    }
+
+    private ProcessBuilder spawn(int lines) throws Exception {
+        File script = new File(getClass().getResource("/commands/spawn.sh").toURI());
+        return new ProcessBuilder("sh", script.getAbsolutePath(), pidFile.getAbsolutePath(), String.valueOf(lines));
+    }
+
+    private void assertChildKilled() throws Exception {
+        String pid = new String(Files.readAllBytes(pidFile.toPath()), Charset.forName("US-ASCII")).trim();
+        assertTrue(pid.length() > 0);
+        // kill -0 fails once the process is gone
+        for (int i = 0; i < 50; i++) {
+            if (0 != new ProcessBuilder("kill", "-0", pid).start().waitFor()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("The child process " + pid + " survived");
+    }
+}
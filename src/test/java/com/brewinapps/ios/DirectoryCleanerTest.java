@@ -0,0 +1,192 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parallel deletion of trees and their deletion through the trash, on temporary trees.
+ *
+ * @author Brewin' Apps AS
+ */
+public class DirectoryCleanerTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private Path outside;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("cleaner");
+        outside = Files.createTempDirectory("cleaner-outside");
+        write(outside.resolve("keep.txt"));
+        write(outside.resolve("nested/keep.txt"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+        DirectoryCleaner.delete(outside);
+    }
+
+    public void testDeleteTree() throws Exception {
+        Path tree = workDir.resolve("DerivedData");
+        long count = createTree(tree, 3, 4, 5);
+
+        assertEquals(count, DirectoryCleaner.delete(tree));
+        assertFalse(Files.exists(tree));
+        assertTrue(Files.isDirectory(workDir));
+        assertEquals(0, DirectoryCleaner.delete(tree));
+    }
+
+    public void testConcurrentDeletesOfTheSameTree() throws Exception {
+        final Path tree = workDir.resolve("Pods");
+        long count = createTree(tree, 3, 6, 10);
+
+        // Each file is deleted by one of them, the other one ignores it
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Long> delete = new Callable<Long>() {
+                public Long call() throws Exception {
+                    return DirectoryCleaner.delete(tree);
+                }
+            };
+            Future<Long> first = executor.submit(delete);
+            Future<Long> second = executor.submit(delete);
+            assertEquals(count, first.get() + second.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(Files.exists(tree));
+    }
+
+    public void testSymlinksAreNotFollowed() throws Exception {
+        Path tree = workDir.resolve("build");
+        write(tree.resolve("Sample.app/Sample"));
+        Files.createSymbolicLink(tree.resolve("outside-dir"), outside);
+        Files.createSymbolicLink(tree.resolve("Sample.app/outside-file"), outside.resolve("keep.txt"));
+        Files.createSymbolicLink(tree.resolve("Sample.app/outside-nested"), outside.resolve("nested"));
+        Files.createSymbolicLink(tree.resolve("dangling"), workDir.resolve("missing"));
+
+        // build, Sample.app, Sample and the four links
+        assertEquals(7, DirectoryCleaner.delete(tree));
+        assertFalse(Files.exists(tree));
+        assertTrue(Files.isRegularFile(outside.resolve("keep.txt")));
+        assertTrue(Files.isRegularFile(outside.resolve("nested/keep.txt")));
+    }
+
+    public void testSymlinkToDirectoryIsDeletedAlone() throws Exception {
+        Path link = workDir.resolve("Pods");
+        Files.createSymbolicLink(link, outside);
+
+        assertEquals(1, DirectoryCleaner.delete(link));
+        assertFalse(Files.exists(link, LinkOption.NOFOLLOW_LINKS));
+        assertTrue(Files.isRegularFile(outside.resolve("keep.txt")));
+    }
+
+    public void testDeleteInBackground() throws Exception {
+        Path tree = workDir.resolve("project/build");
+        Path trashDir = workDir.resolve("project/.ios-trash");
+        long count = createTree(tree, 2, 3, 4);
+
+        Future<Long> deletion = DirectoryCleaner.deleteInBackground(tree, trashDir);
+        // Moved aside before returning, so that the next build starts from a clean directory
+        assertFalse(Files.exists(tree));
+        assertEquals(count, (long) deletion.get());
+        assertTrue(Files.isDirectory(trashDir));
+        assertEquals(0, trashDir.toFile().list().length);
+    }
+
+    public void testSymlinksAreNotFollowedInTheTrash() throws Exception {
+        Path tree = workDir.resolve("project/Pods");
+        Path trashDir = workDir.resolve("project/.ios-trash");
+        write(tree.resolve("Manifest.lock"));
+        Files.createSymbolicLink(tree.resolve("Local"), outside);
+
+        assertEquals(3, (long) DirectoryCleaner.deleteInBackground(tree, trashDir).get());
+        assertTrue(Files.isRegularFile(outside.resolve("nested/keep.txt")));
+    }
+
+    public void testEmptyTrashDeletesLeftovers() throws Exception {
+        Path trashDir = workDir.resolve(".ios-trash");
+        // Moved aside by a build that was killed before the trash was emptied
+        long count = createTree(trashDir.resolve("build-1539830000000-1"), 2, 2, 3);
+        write(trashDir.resolve("Pods-1539830000000-2/Manifest.lock"));
+        count += 2;
+
+        assertEquals(count, (long) DirectoryCleaner.emptyTrash(trashDir).get());
+        assertEquals(0, trashDir.toFile().list().length);
+
+        // A missing trash is empty
+        assertEquals(0, (long) DirectoryCleaner.emptyTrash(workDir.resolve("missing")).get());
+    }
+
+    public void testDeleteInBackgroundEmptiesLeftovers() throws Exception {
+        Path trashDir = workDir.resolve(".ios-trash");
+        write(trashDir.resolve("build-1539830000000-1/leftover"));
+
+        // Nothing to move: the leftovers are deleted anyway
+        assertEquals(2, (long) DirectoryCleaner.deleteInBackground(workDir.resolve("missing"), trashDir).get());
+
+        Path tree = workDir.resolve("build");
+        write(tree.resolve("file"));
+        write(trashDir.resolve("Pods-1539830000000-2/leftover"));
+        assertEquals(4, (long) DirectoryCleaner.deleteInBackground(tree, trashDir).get());
+        assertEquals(0, trashDir.toFile().list().length);
+    }
+
+    public void testDeletedInPlaceWhenTheMoveFails() throws Exception {
+        // Needs a trash on another file system than the tree, so that it cannot be moved atomically
+        File shm = new File("/dev/shm");
+        if (!shm.isDirectory() || !shm.canWrite()
+                || Files.getFileStore(shm.toPath()).equals(Files.getFileStore(workDir))) {
+            return;
+        }
+        Path trashDir = Files.createTempDirectory(shm.toPath(), "cleaner-trash");
+        try {
+            Path tree = workDir.resolve("build");
+            createTree(tree, 2, 2, 2);
+            Files.createSymbolicLink(tree.resolve("outside"), outside);
+
+            Future<Long> deletion = DirectoryCleaner.deleteInBackground(tree, trashDir);
+            // Deleted before returning, nothing went through the trash
+            assertFalse(Files.exists(tree));
+            assertEquals(0, (long) deletion.get());
+            assertTrue(Files.isRegularFile(outside.resolve("nested/keep.txt")));
+        } finally {
+            DirectoryCleaner.delete(trashDir);
+        }
+    }
+
+    /**
+     * @return the number of files and directories created, the root included
+     */
+    private static long createTree(Path root, int depth, int dirs, int files) throws Exception {
+        Files.createDirectories(root);
+        long count = 1;
+        for (int i = 0; i < files; i++) {
+            write(root.resolve("file" + i + ".o"));
+            count++;
+        }
+        if (depth > 0) {
+            for (int i = 0; i < dirs; i++) {
+                count += createTree(root.resolve("dir" + i), depth - 1, dirs, files);
+            }
+        }
+        return count;
+    }
+
+    private static void write(Path file) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, file.getFileName().toString().getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,160 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the uploads of the shared artifacts to a generic endpoint, against a local HTTP stub.
+ *
+ * @author Brewin' Apps AS
+ */
+public class HttpDistributionProviderTest extends TestCase {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private File ipaFile;
+    private File dsymFile;
+    private HttpStub stub;
+
+    @Override
+    protected void setUp() throws Exception {
+        ipaFile = File.createTempFile("Sample", ".ipa");
+        dsymFile = File.createTempFile("Sample", ".dSYM.zip");
+        StringBuilder ipa = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            ipa.append("ipa ").append(i).append('\n');
+        }
+        Files.write(ipaFile.toPath(), ipa.toString().getBytes(US_ASCII));
+        Files.write(dsymFile.toPath(), "dsym content".getBytes(US_ASCII));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (null != stub) {
+            stub.stop();
+        }
+        ipaFile.delete();
+        dsymFile.delete();
+    }
+
+    public void testPutEachArtifact() throws Exception {
+        stub = new HttpStub();
+        DistributionTarget target = createTarget("PUT", "ipa,dsym");
+        target.setHeaders(Collections.singletonMap(HttpStub.HEADER, "secret"));
+        HttpDistributionProvider provider = new HttpDistributionProvider(target);
+        provider.validate();
+        provider.distribute(createContext(0));
+
+        assertEquals(2, stub.getRequests().size());
+        HttpStub.Request ipa = stub.getRequests().get(0);
+        assertEquals("PUT", ipa.method);
+        assertEquals("/" + ipaFile.getName(), ipa.path);
+        assertEquals("application/zip", ipa.contentType);
+        assertEquals("secret", ipa.header);
+        assertTrue(Arrays.equals(Files.readAllBytes(ipaFile.toPath()), ipa.body));
+        HttpStub.Request dsym = stub.getRequests().get(1);
+        assertEquals("/" + dsymFile.getName(), dsym.path);
+        assertEquals("dsym content", dsym.getBodyAsString());
+    }
+
+    public void testPostMultipart() throws Exception {
+        stub = new HttpStub();
+        new HttpDistributionProvider(createTarget("POST", "ipa, dsym")).distribute(createContext(0));
+
+        assertEquals(1, stub.getRequests().size());
+        HttpStub.Request request = stub.getRequests().get(0);
+        assertEquals("POST", request.method);
+        assertTrue(request.contentType, request.contentType.startsWith("multipart/form-data"));
+        String body = request.getBodyAsString();
+        assertTrue(body.contains("name=\"ipa\"; filename=\"" + ipaFile.getName() + "\""));
+        assertTrue(body.contains("name=\"dsym\"; filename=\"" + dsymFile.getName() + "\""));
+        assertTrue(body.contains(new String(Files.readAllBytes(ipaFile.toPath()), US_ASCII)));
+        assertTrue(body.contains("dsym content"));
+    }
+
+    public void testRetryResendsMappedArtifact() throws Exception {
+        stub = new HttpStub(503);
+        new HttpDistributionProvider(createTarget("PUT", "ipa")).distribute(createContext(1));
+
+        // Each attempt streams from its own view of the mapped buffer
+        assertEquals(2, stub.getRequests().size());
+        for (HttpStub.Request request : stub.getRequests()) {
+            assertTrue(Arrays.equals(Files.readAllBytes(ipaFile.toPath()), request.body));
+        }
+    }
+
+    public void testMissingDsym() throws Exception {
+        stub = new HttpStub();
+        DistributionContext context = new DistributionContext(SharedArtifact.open(ipaFile), null,
+                new HttpUploader(0, 0, new SystemStreamLog()), new SystemStreamLog());
+        try {
+            new HttpDistributionProvider(createTarget("PUT", "dsym")).distribute(context);
+            fail("The upload should have failed");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No dsym"));
+        }
+        assertTrue(stub.getRequests().isEmpty());
+    }
+
+    public void testValidate() throws Exception {
+        try {
+            new HttpDistributionProvider(createTarget("GET", "ipa")).validate();
+            fail("GET should be rejected");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unsupported method 'GET'"));
+        }
+        try {
+            new HttpDistributionProvider(createTarget("PUT", "ipa,apk")).validate();
+            fail("apk should be rejected");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unknown artifact 'apk'"));
+        }
+    }
+
+    public void testSharedArtifactViews() throws Exception {
+        SharedArtifact artifact = SharedArtifact.open(ipaFile);
+        assertTrue(artifact.isMapped());
+        assertEquals(ipaFile.length(), artifact.getSize());
+
+        byte[] expected = Files.readAllBytes(ipaFile.toPath());
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        new ByteBufferBody(artifact, "application/zip").writeTo(written);
+        assertTrue(Arrays.equals(expected, written.toByteArray()));
+
+        // Reading a view leaves the others untouched
+        InputStream first = new ByteBufferEntity(artifact, "application/zip").getContent();
+        assertEquals(expected[0] & 0xff, first.read());
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        InputStream second = new ByteBufferEntity(artifact, "application/zip").getContent();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = second.read(buffer)) >= 0) {
+            read.write(buffer, 0, count);
+        }
+        assertTrue(Arrays.equals(expected, read.toByteArray()));
+        assertEquals(expected[1] & 0xff, first.read());
+    }
+
+    private DistributionTarget createTarget(String method, String artifacts) {
+        DistributionTarget target = new DistributionTarget();
+        target.setName("stub");
+        target.setUrl(stub != null ? stub.getUrl() : "http://127.0.0.1/");
+        target.setMethod(method);
+        target.setArtifacts(artifacts);
+        return target;
+    }
+
+    private DistributionContext createContext(int retries) throws Exception {
+        return new DistributionContext(SharedArtifact.open(ipaFile), SharedArtifact.open(dsymFile),
+                new HttpUploader(retries, 0, new SystemStreamLog()), new SystemStreamLog());
+    }
+}
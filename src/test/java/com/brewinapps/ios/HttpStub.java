@@ -0,0 +1,103 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server recording the requests it receives and answering them with scripted statuses.
+ *
+ * @author Brewin' Apps AS
+ */
+class HttpStub {
+
+    /**
+     * A request received by the stub.
+     */
+    static class Request {
+        final String method;
+        final String path;
+        final String contentType;
+        final String header;
+        final byte[] body;
+
+        Request(String method, String path, String contentType, String header, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.contentType = contentType;
+            this.header = header;
+            this.body = body;
+        }
+
+        String getBodyAsString() {
+            return new String(body, Charset.forName("ISO-8859-1"));
+        }
+    }
+
+    static final String HEADER = "X-Stub";
+
+    private final HttpServer server;
+    private final Queue<Integer> statuses = new LinkedList<Integer>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+
+    /**
+     * @param statuses the status of each request in turn, then 200
+     * @throws IOException
+     */
+    HttpStub(Integer... statuses) throws IOException {
+        Collections.addAll(this.statuses, statuses);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream input = exchange.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = input.read(buffer)) >= 0) {
+                    body.write(buffer, 0, count);
+                }
+                requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                        exchange.getRequestHeaders().getFirst("Content-Type"),
+                        exchange.getRequestHeaders().getFirst(HEADER), body.toByteArray()));
+
+                int status;
+                synchronized (HttpStub.this.statuses) {
+                    Integer next = HttpStub.this.statuses.poll();
+                    status = null != next ? next : 200;
+                }
+                byte[] response = ("status " + status).getBytes(Charset.forName("US-ASCII"));
+                exchange.sendResponseHeaders(status, response.length);
+                OutputStream output = exchange.getResponseBody();
+                output.write(response);
+                output.close();
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<Request>(requests);
+        }
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,110 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the retries of the uploads and their progress reporting against a local HTTP stub.
+ *
+ * @author Brewin' Apps AS
+ */
+public class HttpUploaderTest extends TestCase {
+
+    private static final byte[] CONTENT = new byte[300 * 1024];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) i;
+        }
+    }
+
+    private HttpStub stub;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (null != stub) {
+            stub.stop();
+        }
+    }
+
+    public void testSuccessfulUpload() throws Exception {
+        stub = new HttpStub(201);
+        assertEquals("status 201", new HttpUploader(3, 0, new SystemStreamLog()).upload("app.ipa", put()));
+
+        assertEquals(1, stub.getRequests().size());
+        HttpStub.Request request = stub.getRequests().get(0);
+        assertEquals("PUT", request.method);
+        assertTrue(Arrays.equals(CONTENT, request.body));
+    }
+
+    public void testRetriesServerErrors() throws Exception {
+        stub = new HttpStub(503, 429);
+        assertEquals("status 200", new HttpUploader(3, 0, new SystemStreamLog()).upload("app.ipa", put()));
+
+        // Every attempt sends the whole body again
+        assertEquals(3, stub.getRequests().size());
+        for (HttpStub.Request request : stub.getRequests()) {
+            assertTrue(Arrays.equals(CONTENT, request.body));
+        }
+    }
+
+    public void testGivesUpAfterRetries() throws Exception {
+        stub = new HttpStub(500, 502, 503);
+        try {
+            new HttpUploader(1, 0, new SystemStreamLog()).upload("app.ipa", put());
+            fail("The upload should have failed");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("failed after 2 attempts"));
+            assertTrue(e.getMessage(), e.getMessage().contains("502"));
+        }
+        assertEquals(2, stub.getRequests().size());
+    }
+
+    public void testDoesNotRetryRejectedUpload() throws Exception {
+        stub = new HttpStub(403);
+        try {
+            new HttpUploader(3, 0, new SystemStreamLog()).upload("app.ipa", put());
+            fail("The upload should have been rejected");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("was rejected"));
+        }
+        assertEquals(1, stub.getRequests().size());
+    }
+
+    public void testProgressCountsBytesSent() throws Exception {
+        ProgressHttpEntity entity = new ProgressHttpEntity(new ByteArrayEntity(CONTENT), "app.ipa",
+                new SystemStreamLog());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertEquals(CONTENT.length, entity.getBytesSent());
+        assertTrue(Arrays.equals(CONTENT, out.toByteArray()));
+
+        // A retry starts counting again
+        entity.writeTo(new ByteArrayOutputStream());
+        assertEquals(CONTENT.length, entity.getBytesSent());
+    }
+
+    public void testFormatProgress() {
+        ProgressHttpEntity entity = new ProgressHttpEntity(new ByteArrayEntity(CONTENT), "app.ipa",
+                new SystemStreamLog());
+        assertEquals("Uploading app.ipa: 1.0 MB of 4.0 MB (25%), 512.0 KB/s, 6 s remaining",
+                entity.formatProgress(1024 * 1024, 4 * 1024 * 1024, 2000));
+    }
+
+    private HttpUploader.RequestFactory put() {
+        return new HttpUploader.RequestFactory() {
+            public HttpUriRequest createRequest() {
+                HttpPut put = new HttpPut(stub.getUrl() + "app.ipa");
+                put.setEntity(new ByteArrayEntity(CONTENT));
+                return put;
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Tests the naming of the build variants and their build directories, without running xcodebuild.
+ *
+ * @author Brewin' Apps AS
+ */
+public class IOSBuildMatrixMojoTest extends TestCase {
+
+    private Path workDir;
+    private IOSBuildMatrixMojo mojo;
+    private final List<List<String>> commands = Collections.synchronizedList(new ArrayList<List<String>>());
+    private final List<String> warnings = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("matrix");
+        CommandScheduler.getInstance().configure(null, null);
+        mojo = new IOSBuildMatrixMojo() {
+            @Override
+            protected void executeCommand(ProcessBuilder pb, StreamConsumer... consumers) {
+                commands.add(pb.command());
+            }
+        };
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void warn(CharSequence content) {
+                warnings.add(content.toString());
+                super.warn(content);
+            }
+        });
+        Model model = new Model();
+        model.setGroupId("com.brewinapps");
+        model.setArtifactId("sample");
+        mojo.project = new MavenProject(model);
+        mojo.workDir = workDir.toFile();
+        mojo.targetDir = workDir.resolve("target").toFile();
+        mojo.scheme = "Sample";
+        mojo.sdk = "iphoneos";
+        mojo.buildConfiguration = "Release";
+        set("matrixParallelism", 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CommandScheduler.getInstance().configure(null, null);
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testVariantDirectories() throws Exception {
+        set("variants", Arrays.asList(variant("adhoc", null, null), variant(null, "Sample App", "iphonesimulator")));
+        mojo.validateParameters();
+        mojo.buildMatrix();
+
+        assertEquals(2, commands.size());
+        List<String> symRoots = new ArrayList<String>();
+        for (List<String> command : commands) {
+            for (String parameter : command) {
+                if (parameter.startsWith("SYMROOT=")) {
+                    symRoots.add(parameter.substring("SYMROOT=".length()));
+                }
+            }
+        }
+        Collections.sort(symRoots);
+        File matrixDir = new File(mojo.targetDir, IOSBuildMatrixMojo.MATRIX_DIR);
+        // The derived names are sanitized
+        assertEquals(Arrays.asList(new File(matrixDir, "Sample_App-Release-iphonesimulator").getAbsolutePath(),
+                new File(matrixDir, "adhoc").getAbsolutePath()), symRoots);
+    }
+
+    public void testExplicitNamesMustStayInTheMatrixDirectory() throws Exception {
+        for (String name : new String[] {"../x", "..", ".", "a/b", "a\\b", "/tmp/x", "ad hoc", ""}) {
+            set("variants", Arrays.asList(variant(name, null, null)));
+            try {
+                mojo.validateParameters();
+                fail("'" + name + "' should be rejected");
+            } catch (IOSException e) {
+                assertEquals("Invalid build variant name '" + name + "', use only letters, digits, '.', '_' and '-'",
+                        e.getMessage());
+            }
+        }
+
+        set("variants", Arrays.asList(variant("app-store_1.0", null, null), variant("..x", null, null)));
+        mojo.validateParameters();
+    }
+
+    public void testDuplicateVariants() throws Exception {
+        set("variants", Arrays.asList(variant(null, "Sample App", null), variant(null, "Sample/App", null)));
+        try {
+            mojo.validateParameters();
+            fail("The names should collide");
+        } catch (IOSException e) {
+            assertEquals("Duplicate build variant 'Sample_App-Release-iphoneos'", e.getMessage());
+        }
+    }
+
+    public void testParallelismAboveThePermits() throws Exception {
+        set("variants", Arrays.asList(variant("a", null, null), variant("b", null, null), variant("c", null, null),
+                variant("d", null, null)));
+        mojo.validateParameters();
+        assertTrue(warnings.isEmpty());
+
+        set("matrixParallelism", 4);
+        mojo.validateParameters();
+        assertEquals(Arrays.asList("matrixParallelism is 4 but only 2 xcodebuild commands run at the same time, "
+                + "raise <commandPermits><xcodebuild> to build more variants at once"), warnings);
+
+        // Raising the permits, or lifting the limit, silences it
+        warnings.clear();
+        CommandScheduler.getInstance().configure(Collections.singletonMap(ToolRegistry.XCODEBUILD, 4), null);
+        mojo.validateParameters();
+        CommandScheduler.getInstance().configure(Collections.singletonMap(ToolRegistry.XCODEBUILD, 0), null);
+        mojo.validateParameters();
+        assertTrue(warnings.isEmpty());
+    }
+
+    public void testFewVariantsDoNotWarn() throws Exception {
+        set("matrixParallelism", 8);
+        set("variants", Arrays.asList(variant("a", null, null), variant("b", null, null)));
+        mojo.validateParameters();
+        assertTrue(warnings.isEmpty());
+    }
+
+    private static BuildVariant variant(String name, String scheme, String sdk) {
+        BuildVariant variant = new BuildVariant();
+        variant.setName(name);
+        variant.setScheme(scheme);
+        variant.setSdk(sdk);
+        return variant;
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = IOSBuildMatrixMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+}
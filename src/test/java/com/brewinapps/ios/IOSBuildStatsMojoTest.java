@@ -0,0 +1,166 @@
+package com.brewinapps.ios;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Tests the regression report of the build-stats goal on a store filled by the test.
+ *
+ * @author Brewin' Apps AS
+ */
+public class IOSBuildStatsMojoTest extends TestCase {
+
+    private static final String KEY = "com.brewinapps:sample:Sample:Release";
+
+    private Path workDir;
+    private BuildStatsStore store;
+    private IOSBuildStatsMojo mojo;
+    private final List<String> infos = new ArrayList<String>();
+    private final List<String> warnings = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("build-stats");
+        mojo = new IOSBuildStatsMojo();
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void info(CharSequence content) {
+                infos.add(content.toString());
+                super.info(content);
+            }
+
+            @Override
+            public void warn(CharSequence content) {
+                warnings.add(content.toString());
+                super.warn(content);
+            }
+        });
+        Model model = new Model();
+        model.setGroupId("com.brewinapps");
+        model.setArtifactId("sample");
+        mojo.project = new MavenProject(model);
+        mojo.scheme = "Sample";
+        mojo.buildConfiguration = "Release";
+        mojo.buildStatsFile = workDir.resolve("build-stats.db").toFile();
+        store = BuildStatsStore.forFile(mojo.buildStatsFile);
+        set("statsWindow", 20);
+        set("regressionThreshold", 30);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testNoStats() throws Exception {
+        mojo.reportStats();
+        assertEquals("No build statistics recorded for " + KEY, infos.get(0));
+    }
+
+    public void testRegression() throws Exception {
+        record("xcodebuild", 60000, 60000, 60000, 90000);
+        record("ipaSize", 1000000, 1000000, 1000000, 1000000);
+        mojo.reportStats();
+
+        assertTrue(getLine("xcodebuild"), getLine("xcodebuild").endsWith("+50.0% REGRESSION"));
+        assertTrue(getLine("xcodebuild"), getLine("xcodebuild").contains("90.0 s"));
+        assertFalse(getLine("ipaSize"), getLine("ipaSize").contains("REGRESSION"));
+        assertEquals("1 build metrics are more than 30% worse than the median of the previous builds",
+                warnings.get(0));
+
+        set("failOnRegression", true);
+        try {
+            mojo.reportStats();
+            fail("The regression should fail the goal");
+        } catch (IOSException e) {
+            assertEquals("1 build metrics are more than 30% worse than the median of the previous builds",
+                    e.getMessage());
+        }
+    }
+
+    public void testThreshold() throws Exception {
+        set("failOnRegression", true);
+        // 30% worse is not more than 30% worse
+        record("xcodebuild", 60000, 60000, 60000, 78000);
+        mojo.reportStats();
+        assertTrue(getLine("xcodebuild"), getLine("xcodebuild").endsWith("+30.0%"));
+
+        record("xcodebuild", 120000);
+        set("regressionThreshold", 100);
+        mojo.reportStats();
+        set("regressionThreshold", 90);
+        try {
+            mojo.reportStats();
+            fail("The regression should fail the goal");
+        } catch (IOSException e) {
+            assertEquals("1 build metrics are more than 90% worse than the median of the previous builds",
+                    e.getMessage());
+        }
+    }
+
+    public void testShortHistoryIsNotChecked() throws Exception {
+        set("failOnRegression", true);
+        record("xcodebuild", 60000, 60000, 600000);
+        mojo.reportStats();
+        assertTrue(warnings.isEmpty());
+
+        record("xcodebuild", 600000);
+        try {
+            mojo.reportStats();
+            fail("The history is long enough");
+        } catch (IOSException e) {
+            // expected
+        }
+    }
+
+    public void testFlagsAreNeverRegressions() throws Exception {
+        set("failOnRegression", true);
+        record("buildCacheHit", 1, 1, 1, 0);
+        record("xcodebuild", 60000, 60000, 60000, 60000);
+        mojo.reportStats();
+        assertTrue(warnings.isEmpty());
+
+        // Listed after the other metrics, as a count of the previous builds that hit
+        String line = getLine("buildCacheHit");
+        assertTrue(infos.indexOf(line) > infos.indexOf(getLine("xcodebuild")));
+        assertTrue(line, line.matches("\\s+buildCacheHit\\s+no 3 of the previous 3 builds"));
+
+        // A hit after a miss is not an improvement either
+        record("buildCacheHit", 1);
+        infos.clear();
+        mojo.reportStats();
+        assertTrue(getLine("buildCacheHit").matches("\\s+buildCacheHit\\s+yes 3 of the previous 4 builds"));
+        assertFalse(getLine("buildCacheHit").contains("%"));
+    }
+
+    private void record(String metric, long... values) throws Exception {
+        for (long value : values) {
+            store.append(KEY, metric, value);
+        }
+    }
+
+    private String getLine(String metric) {
+        for (String info : infos) {
+            if (info.trim().startsWith(metric + " ")) {
+                return info;
+            }
+        }
+        fail("No line for " + metric + " in " + infos);
+        return null;
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = IOSBuildStatsMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+}
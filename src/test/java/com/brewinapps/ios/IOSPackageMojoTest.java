@@ -0,0 +1,217 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Tests the IPA packaging on a synthetic app holding an executable and a framework with symlinks, the way
+ * an Xcode build lays it out. The modes are read from the central directory, which ZipFile does not expose.
+ *
+ * @author Brewin' Apps AS
+ */
+public class IOSPackageMojoTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SYMLINK_TYPE = 0120000;
+    private static final int FILE_TYPE = 0100000;
+    private static final int DIRECTORY_TYPE = 040000;
+
+    private Path workDir;
+    private Path app;
+    private final List<File> signed = new ArrayList<File>();
+    private IOSPackageMojo mojo;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("package");
+        Path appDir = Files.createDirectories(workDir.resolve("target/Release-iphoneos"));
+        app = Files.createDirectories(appDir.resolve("Sample.app"));
+        Files.write(app.resolve("Info.plist"), PropertyList.toBytes(
+                Collections.singletonMap("CFBundleExecutable", "Sample"), PropertyList.Format.BINARY));
+        Files.write(app.resolve("Sample"), text("Sample executable\n"));
+        assertTrue(app.resolve("Sample").toFile().setExecutable(true, false));
+
+        Path framework = Files.createDirectories(app.resolve("Frameworks/Lib.framework"));
+        Files.createDirectories(framework.resolve("Versions/A"));
+        Files.write(framework.resolve("Versions/A/Lib"), text("Lib binary\n"));
+        assertTrue(framework.resolve("Versions/A/Lib").toFile().setExecutable(true, false));
+        Files.createSymbolicLink(framework.resolve("Versions/Current"), Paths.get("A"));
+        Files.createSymbolicLink(framework.resolve("Lib"), Paths.get("Versions/Current/Lib"));
+
+        mojo = new IOSPackageMojo() {
+            @Override
+            protected void codesign(File app) throws IOSException {
+                signed.add(app);
+                try {
+                    Files.createDirectories(app.toPath().resolve("_CodeSignature"));
+                    Files.write(app.toPath().resolve("_CodeSignature/CodeResources"), text("signed\n"));
+                } catch (IOException e) {
+                    throw new IOSException(e);
+                }
+            }
+        };
+        Model model = new Model();
+        model.setBuild(new Build());
+        model.getBuild().setFinalName("sample-1.0");
+        mojo.project = new MavenProject(model);
+        mojo.targetDir = workDir.resolve("target").toFile();
+        mojo.appDir = appDir.toString();
+        mojo.appName = "Sample";
+        mojo.zipThreads = 2;
+        set("ipaCompressionLevel", 6);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testPackageIpa() throws Exception {
+        mojo.packageIpa();
+
+        File ipa = new File(mojo.appDir, "sample-1.0.ipa");
+        ZipFile zip = new ZipFile(ipa);
+        try {
+            assertTrue(zip.getEntry("Payload/").isDirectory());
+            assertTrue(zip.getEntry("Payload/Sample.app/").isDirectory());
+            assertEquals("Sample executable\n", read(zip, "Payload/Sample.app/Sample"));
+            assertEquals("Lib binary\n", read(zip, "Payload/Sample.app/Frameworks/Lib.framework/Versions/A/Lib"));
+            // A symlink holds its target, unzip and ditto restore it from the mode
+            assertEquals("A", read(zip, "Payload/Sample.app/Frameworks/Lib.framework/Versions/Current"));
+            assertEquals("Versions/Current/Lib", read(zip, "Payload/Sample.app/Frameworks/Lib.framework/Lib"));
+            assertEquals("Sample",
+                    new ArtifactVerifier(null).verifyIpa(ipa, "Sample").get(ArtifactVerifier.BUNDLE_EXECUTABLE));
+        } finally {
+            zip.close();
+        }
+
+        Map<String, Integer> modes = readModes(ipa);
+        for (String name : modes.keySet()) {
+            assertTrue(name, name.startsWith("Payload/"));
+        }
+        assertEquals(DIRECTORY_TYPE, (int) modes.get("Payload/Sample.app/") & 0170000);
+        assertEquals(FILE_TYPE | 0755, (int) modes.get("Payload/Sample.app/Sample") & 0170755);
+        assertEquals(FILE_TYPE | 0755,
+                (int) modes.get("Payload/Sample.app/Frameworks/Lib.framework/Versions/A/Lib") & 0170755);
+        assertEquals(FILE_TYPE, (int) modes.get("Payload/Sample.app/Info.plist") & 0170111);
+        assertEquals(SYMLINK_TYPE, (int) modes.get("Payload/Sample.app/Frameworks/Lib.framework/Lib") & 0170000);
+        assertEquals(SYMLINK_TYPE,
+                (int) modes.get("Payload/Sample.app/Frameworks/Lib.framework/Versions/Current") & 0170000);
+        // The symlinks are stored, not followed
+        assertNull(modes.get("Payload/Sample.app/Frameworks/Lib.framework/Versions/Current/Lib"));
+        assertTrue(signed.isEmpty());
+    }
+
+    public void testPackageSignedIpa() throws Exception {
+        set("codeSignIdentity", "iPhone Distribution: Brewin' Apps AS");
+        mojo.packageIpa();
+
+        ZipFile zip = new ZipFile(new File(mojo.appDir, "sample-1.0.ipa"));
+        try {
+            assertEquals("signed\n", read(zip, "Payload/Sample.app/_CodeSignature/CodeResources"));
+            assertEquals("Versions/Current/Lib", read(zip, "Payload/Sample.app/Frameworks/Lib.framework/Lib"));
+        } finally {
+            zip.close();
+        }
+
+        // The staging copy is signed and removed, the built app keeps its signature
+        assertEquals(1, signed.size());
+        assertFalse(signed.get(0).toPath().startsWith(app));
+        assertFalse(app.resolve("_CodeSignature").toFile().exists());
+        assertFalse(signed.get(0).exists());
+    }
+
+    public void testMissingApp() throws Exception {
+        mojo.appName = "Missing";
+        try {
+            mojo.packageIpa();
+            fail("The app should be missing");
+        } catch (IOSException e) {
+            assertEquals("Could not find the app at '" + new File(mojo.appDir, "Missing.app") + "'", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the Unix modes of the entries, kept in the high word of the external attributes of the central
+     * directory headers.
+     */
+    private static Map<String, Integer> readModes(File zipFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(zipFile, "r");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            // No archive comment: the end record is the last 22 bytes
+            int end = bytes.length - 22;
+            assertEquals(0x06054b50, buffer.getInt(end));
+            int count = buffer.getShort(end + 10) & 0xffff;
+            int position = buffer.getInt(end + 16);
+
+            Map<String, Integer> modes = new LinkedHashMap<String, Integer>();
+            for (int i = 0; i < count; i++) {
+                assertEquals(0x02014b50, buffer.getInt(position));
+                // Made by Unix, so that the high word is read as a mode
+                assertEquals(3, (buffer.getShort(position + 4) >> 8) & 0xff);
+                int nameLength = buffer.getShort(position + 28) & 0xffff;
+                int extraLength = buffer.getShort(position + 30) & 0xffff;
+                int commentLength = buffer.getShort(position + 32) & 0xffff;
+                String name = new String(bytes, position + 46, nameLength, UTF_8);
+                modes.put(name, buffer.getInt(position + 38) >>> 16);
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return modes;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(name, entry);
+        InputStream in = zip.getInputStream(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = IOSPackageMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(UTF_8);
+    }
+}
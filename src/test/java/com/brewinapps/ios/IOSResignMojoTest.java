@@ -0,0 +1,216 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Tests the signing variants on a fixture app, with a stand-in codesign script.
+ *
+ * @author Brewin' Apps AS
+ */
+public class IOSResignMojoTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private Path fixtures;
+    private File codesignLog;
+    private IOSResignMojo mojo;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("resign");
+        fixtures = Paths.get(getClass().getResource("/resign/codesign").toURI()).getParent();
+        Path appDir = workDir.resolve("target/Release-iphoneos");
+        DirectoryCopier.copy(fixtures.resolve("Sample.app"), Files.createDirectories(appDir).resolve("Sample.app"));
+        codesignLog = workDir.resolve("codesign.log").toFile();
+
+        final String codesign = fixtures.resolve("codesign").toString();
+        mojo = new IOSResignMojo() {
+            @Override
+            protected void executeCommand(ProcessBuilder pb, StreamConsumer... consumers) throws IOSException {
+                if ("codesign".equals(pb.command().get(0))) {
+                    List<String> command = new ArrayList<String>(Arrays.asList("sh", codesign,
+                            codesignLog.getAbsolutePath()));
+                    command.addAll(pb.command().subList(1, pb.command().size()));
+                    pb.command(command);
+                }
+                super.executeCommand(pb, consumers);
+            }
+        };
+
+        Model model = new Model();
+        model.setBuild(new Build());
+        model.getBuild().setFinalName("sample-1.0");
+        mojo.project = new MavenProject(model);
+        mojo.targetDir = workDir.resolve("target").toFile();
+        mojo.appDir = appDir.toString();
+        mojo.appName = "Sample";
+        mojo.commandOptions = CommandOptions.DEFAULT;
+        mojo.zipThreads = 2;
+        set("resignParallelism", 2);
+        set("ipaCompressionLevel", 6);
+        set("attachSignedIpas", false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testSignsEachVariant() throws Exception {
+        set("signingVariants", Arrays.asList(
+                variant("adhoc", "iPhone Distribution: Brewin' Apps AS", "adhoc.mobileprovision"),
+                variant("enterprise", "iPhone Distribution: Brewin' Apps Enterprise", null)));
+        mojo.validateParameters();
+        mojo.resign();
+
+        ZipFile adhoc = new ZipFile(new File(mojo.appDir, "sample-1.0-adhoc.ipa"));
+        try {
+            assertEquals("iPhone Distribution: Brewin' Apps AS\n",
+                    read(adhoc, "Payload/Sample.app/_CodeSignature/CodeResources"));
+            assertEquals("iPhone Distribution: Brewin' Apps AS\n",
+                    read(adhoc, "Payload/Sample.app/Frameworks/Lib.framework/_CodeSignature/CodeResources"));
+            assertEquals("iPhone Distribution: Brewin' Apps AS\n",
+                    read(adhoc, "Payload/Sample.app/PlugIns/Widget.appex/_CodeSignature/CodeResources"));
+            assertNotNull(adhoc.getEntry("Payload/Sample.app/embedded.mobileprovision"));
+            assertEquals("Sample executable\n", read(adhoc, "Payload/Sample.app/Sample"));
+        } finally {
+            adhoc.close();
+        }
+        ZipFile enterprise = new ZipFile(new File(mojo.appDir, "sample-1.0-enterprise.ipa"));
+        try {
+            assertEquals("iPhone Distribution: Brewin' Apps Enterprise\n",
+                    read(enterprise, "Payload/Sample.app/_CodeSignature/CodeResources"));
+            assertNull(enterprise.getEntry("Payload/Sample.app/embedded.mobileprovision"));
+        } finally {
+            enterprise.close();
+        }
+
+        // The nested code is signed first, the extensions keep their entitlements
+        List<String> adhocCalls = getCodesignCalls("iPhone Distribution: Brewin' Apps AS");
+        assertEquals(3, adhocCalls.size());
+        assertTrue(adhocCalls.get(0), adhocCalls.get(0).endsWith("/Frameworks/Lib.framework"));
+        assertTrue(adhocCalls.get(1), adhocCalls.get(1).contains("--preserve-metadata=identifier,entitlements"));
+        assertTrue(adhocCalls.get(1), adhocCalls.get(1).endsWith("/PlugIns/Widget.appex"));
+        assertTrue(adhocCalls.get(2), adhocCalls.get(2).contains("--entitlements "
+                + new File(mojo.targetDir, "resign/adhoc/adhoc.entitlements").getAbsolutePath()));
+        assertTrue(adhocCalls.get(2), adhocCalls.get(2).endsWith("/resign/adhoc/Payload/Sample.app"));
+        List<String> enterpriseCalls = getCodesignCalls("iPhone Distribution: Brewin' Apps Enterprise");
+        assertTrue(enterpriseCalls.get(2), enterpriseCalls.get(2).contains("--preserve-metadata"));
+
+        // The built app is left untouched and the staging copies are removed
+        assertFalse(new File(mojo.appDir, "Sample.app/_CodeSignature").exists());
+        assertFalse(new File(mojo.targetDir, "resign/adhoc").exists());
+        assertFalse(new File(mojo.targetDir, "resign/enterprise").exists());
+    }
+
+    public void testFailedVariantDoesNotStopTheOthers() throws Exception {
+        set("signingVariants", Arrays.asList(variant("adhoc", "broken", null),
+                variant("enterprise", "iPhone Distribution: Brewin' Apps Enterprise", null)));
+        mojo.validateParameters();
+        try {
+            mojo.resign();
+            fail("The adhoc variant should have failed");
+        } catch (IOSException e) {
+            assertEquals("1 of 2 signing variants failed", e.getMessage());
+        }
+        assertTrue(new File(mojo.appDir, "sample-1.0-enterprise.ipa").isFile());
+        assertFalse(new File(mojo.appDir, "sample-1.0-adhoc.ipa").exists());
+    }
+
+    public void testProfileEntitlements() throws Exception {
+        set("signingVariants", Collections.singletonList(
+                variant("adhoc", "iPhone Distribution: Brewin' Apps AS", "adhoc.mobileprovision")));
+        mojo.validateParameters();
+
+        // The wildcard of the profile is resolved to the bundle identifier of the app
+        Map<Object, Object> entitlements = mojo.getProfileEntitlements(
+                ProvisioningProfile.read(fixtures.resolve("adhoc.mobileprovision").toFile()));
+        assertEquals("ABCDE12345.com.brewinapps.sample", entitlements.get("application-identifier"));
+        assertEquals(Boolean.FALSE, entitlements.get("get-task-allow"));
+        assertEquals(Arrays.asList("ABCDE12345.*"), entitlements.get("keychain-access-groups"));
+    }
+
+    public void testValidateParameters() throws Exception {
+        assertInvalid("expired on", variant("adhoc", "iPhone Distribution", "expired.mobileprovision"));
+        assertInvalid("does not cover the bundle identifier 'com.brewinapps.sample'",
+                variant("adhoc", "iPhone Distribution", "other.mobileprovision"));
+        assertInvalid("has no codeSignIdentity", variant("adhoc", null, null));
+        assertInvalid("needs a name", variant("ad hoc", "iPhone Distribution", null));
+        assertInvalid("Duplicate signing variant 'adhoc'", variant("adhoc", "iPhone Distribution", null),
+                variant("adhoc", "iPhone Developer", null));
+        assertInvalid("At least one signing variant");
+    }
+
+    private void assertInvalid(String message, SigningVariant... variants) throws Exception {
+        set("signingVariants", Arrays.asList(variants));
+        try {
+            mojo.validateParameters();
+            fail("Expected an error containing: " + message);
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private SigningVariant variant(String name, String identity, String profile) {
+        SigningVariant variant = new SigningVariant();
+        variant.setName(name);
+        variant.setCodeSignIdentity(identity);
+        if (null != profile) {
+            variant.setProvisioningProfile(fixtures.resolve(profile).toFile());
+        }
+        return variant;
+    }
+
+    private List<String> getCodesignCalls(String identity) throws Exception {
+        List<String> calls = new ArrayList<String>();
+        for (String line : Files.readAllLines(codesignLog.toPath(), UTF_8)) {
+            if (line.startsWith("--force --sign " + identity + " ")) {
+                calls.add(line);
+            }
+        }
+        return calls;
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = IOSResignMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private static String read(ZipFile zip, String name) throws Exception {
+        assertNotNull(name, zip.getEntry(name));
+        InputStream input = zip.getInputStream(zip.getEntry(name));
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, count);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the plist engine with a DOM parse of the same property lists, as most plist libraries do it.
+ * The property lists are generated: an Info.plist followed by {@code entries} dictionaries holding values
+ * of every type, as the asset and localization plists of a large app. Run it with
+ * {@code mvn -P benchmark verify -Dbenchmark=PlistBenchmark}.
+ *
+ * @author Brewin' Apps AS
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlistBenchmark {
+
+    private static final String KEY_PATH = ":CFBundleVersion";
+
+    @Param({"1000", "20000"})
+    public int entries;
+
+    private byte[] xml;
+    private byte[] binary;
+    private String lastKey;
+    private DocumentBuilderFactory domFactory;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("CFBundleIdentifier", "com.brewinapps.sample");
+        root.put("CFBundleShortVersionString", "1.4.2");
+        for (int i = 0; i < entries; i++) {
+            Map<String, Object> entry = new LinkedHashMap<String, Object>();
+            entry.put("name", "Asset " + i);
+            entry.put("size", (long) i * 1024);
+            entry.put("scale", 1.0 + i % 3);
+            entry.put("localized", i % 2 == 0);
+            entry.put("modified", new Date(1500000000000L + i * 1000L));
+            entry.put("digest", Arrays.copyOf(("digest-" + i).getBytes("UTF-8"), 20));
+            entry.put("idioms", Arrays.<Object>asList("iphone", "ipad"));
+            root.put("asset-" + i, entry);
+        }
+        // Last, so that a DOM lookup has the whole document to walk as well
+        root.put("CFBundleVersion", "42");
+        lastKey = "asset-" + (entries - 1);
+
+        xml = PropertyList.toBytes(root, PropertyList.Format.XML);
+        binary = PropertyList.toBytes(root, PropertyList.Format.BINARY);
+
+        domFactory = DocumentBuilderFactory.newInstance();
+        try {
+            domFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Benchmark
+    public Object parseXml() throws IOException {
+        return XmlPlistParser.parse(xml);
+    }
+
+    @Benchmark
+    public Object parseXmlDom() throws Exception {
+        return toObject(firstChild(parseDom().getDocumentElement()));
+    }
+
+    @Benchmark
+    public Object parseBinary() throws IOException {
+        return PropertyList.parse(binary);
+    }
+
+    @Benchmark
+    public Object getXml() throws IOException {
+        return PropertyList.get(XmlPlistParser.parse(xml), KEY_PATH);
+    }
+
+    @Benchmark
+    public Object getXmlDom() throws Exception {
+        Element value = lookup(firstChild(parseDom().getDocumentElement()), KEY_PATH.substring(1));
+        return null != value ? value.getTextContent() : null;
+    }
+
+    @Benchmark
+    public Object getBinary() throws IOException {
+        return new BinaryPlistReader(ByteBuffer.wrap(binary)).get(PropertyList.parseKeyPath(KEY_PATH));
+    }
+
+    @Benchmark
+    public Object getBinaryEntry() throws IOException {
+        return new BinaryPlistReader(ByteBuffer.wrap(binary)).get(lastKey, "digest");
+    }
+
+    private Document parseDom() throws ParserConfigurationException, SAXException, IOException {
+        DocumentBuilder builder = domFactory.newDocumentBuilder();
+        return builder.parse(new ByteArrayInputStream(xml));
+    }
+
+    private static Element lookup(Element dict, String key) {
+        for (Element child = firstChild(dict); null != child; child = nextSibling(child)) {
+            if ("key".equals(child.getTagName()) && key.equals(child.getTextContent())) {
+                return nextSibling(child);
+            }
+        }
+        return null;
+    }
+
+    private static Object toObject(Element element) throws IOException {
+        String name = element.getTagName();
+        if ("dict".equals(name)) {
+            Map<String, Object> dictionary = new LinkedHashMap<String, Object>();
+            for (Element key = firstChild(element); null != key; key = nextSibling(nextSibling(key))) {
+                dictionary.put(key.getTextContent(), toObject(nextSibling(key)));
+            }
+            return dictionary;
+        }
+        if ("array".equals(name)) {
+            List<Object> array = new ArrayList<Object>();
+            for (Element child = firstChild(element); null != child; child = nextSibling(child)) {
+                array.add(toObject(child));
+            }
+            return array;
+        }
+        String text = element.getTextContent();
+        if ("integer".equals(name)) {
+            return Long.parseLong(text.trim());
+        }
+        if ("real".equals(name)) {
+            return Double.parseDouble(text.trim());
+        }
+        if ("true".equals(name) || "false".equals(name)) {
+            return "true".equals(name);
+        }
+        if ("data".equals(name)) {
+            return XmlPlistParser.decodeBase64(text);
+        }
+        if ("date".equals(name)) {
+            try {
+                return XmlPlistParser.newDateFormat().parse(text.trim());
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+        }
+        return text;
+    }
+
+    private static Element firstChild(Node node) {
+        Node child = node.getFirstChild();
+        while (null != child && child.getNodeType() != Node.ELEMENT_NODE) {
+            child = child.getNextSibling();
+        }
+        return (Element) child;
+    }
+
+    private static Element nextSibling(Node node) {
+        Node sibling = node.getNextSibling();
+        while (null != sibling && sibling.getNodeType() != Node.ELEMENT_NODE) {
+            sibling = sibling.getNextSibling();
+        }
+        return (Element) sibling;
+    }
+}
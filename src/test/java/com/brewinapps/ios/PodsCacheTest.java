@@ -0,0 +1,133 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the keying of the pods cache and the restore of cached pods.
+ *
+ * @author Brewin' Apps AS
+ */
+public class PodsCacheTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private File podfile;
+    private File podfileLock;
+    private PodsCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("pods-cache");
+        Path fixtures = Paths.get(getClass().getResource("/pods/Podfile").toURI()).getParent();
+        podfile = Files.copy(fixtures.resolve("Podfile"), workDir.resolve("Podfile")).toFile();
+        podfileLock = Files.copy(fixtures.resolve("Podfile.lock"), workDir.resolve("Podfile.lock")).toFile();
+        cache = new PodsCache(workDir.resolve("cache").toFile());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testNoKeyWithoutLock() throws Exception {
+        assertTrue(podfileLock.delete());
+        assertNull(cache.computeKey(podfile, podfileLock));
+    }
+
+    public void testKeyFollowsPodfileLock() throws Exception {
+        String key = cache.computeKey(podfile, podfileLock);
+        assertEquals(40, key.length());
+        assertEquals(key, cache.computeKey(podfile, podfileLock));
+
+        Files.write(podfileLock.toPath(), "COCOAPODS: 1.0.0\n".getBytes(UTF_8));
+        assertFalse(key.equals(cache.computeKey(podfile, podfileLock)));
+    }
+
+    public void testRestoreMiss() throws Exception {
+        String key = cache.computeKey(podfile, podfileLock);
+        assertFalse(cache.contains(key));
+        assertFalse(cache.restore(key, workDir.resolve("Pods").toFile()));
+        assertFalse(cache.restore(null, workDir.resolve("Pods").toFile()));
+    }
+
+    public void testStoreAndRestore() throws Exception {
+        String key = cache.computeKey(podfile, podfileLock);
+        Path pods = createPods();
+        cache.store(key, pods.toFile());
+        assertTrue(cache.contains(key));
+
+        // The restored pods replace the current ones, stale files included
+        DirectoryCleaner.delete(pods);
+        Files.createDirectories(pods);
+        Files.write(pods.resolve("stale"), "stale".getBytes(UTF_8));
+        assertTrue(cache.restore(key, pods.toFile()));
+
+        assertFalse(Files.exists(pods.resolve("stale")));
+        Path header = pods.resolve("AFNetworking/AFNetworking/AFHTTPSessionManager.h");
+        assertEquals("// AFHTTPSessionManager.h\n", new String(Files.readAllBytes(header), UTF_8));
+        Path link = pods.resolve("Headers/Public/AFNetworking/AFHTTPSessionManager.h");
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals(Paths.get("../../../AFNetworking/AFNetworking/AFHTTPSessionManager.h"), Files.readSymbolicLink(link));
+    }
+
+    public void testRestoredPodsDoNotShareCachedFiles() throws Exception {
+        String key = cache.computeKey(podfile, podfileLock);
+        Path pods = createPods();
+        cache.store(key, pods.toFile());
+        assertTrue(cache.restore(key, pods.toFile()));
+
+        // 'pod install' and the build modify the restored files in place
+        Path header = pods.resolve("AFNetworking/AFNetworking/AFHTTPSessionManager.h");
+        Files.write(header, "modified".getBytes(UTF_8));
+
+        Path other = workDir.resolve("Other");
+        assertTrue(cache.restore(key, other.toFile()));
+        assertEquals("// AFHTTPSessionManager.h\n", new String(Files.readAllBytes(
+                other.resolve("AFNetworking/AFNetworking/AFHTTPSessionManager.h")), UTF_8));
+    }
+
+    public void testCleanThenBuildRestoresPods() throws Exception {
+        IOSBuildMojo build = new IOSBuildMojo();
+        build.workDir = workDir.toFile();
+        set(build, "podsCache", true);
+        set(build, "podsCacheDir", workDir.resolve("cache").toFile());
+        Path pods = createPods();
+        build.cachePods();
+
+        IOSCleanMojo clean = new IOSCleanMojo();
+        clean.workDir = workDir.toFile();
+        clean.targetDir = workDir.resolve("target").toFile();
+        clean.cleanPods();
+        assertFalse(Files.exists(pods));
+        assertTrue(podfileLock.exists());
+
+        // The Podfile.lock kept by the clean keys the pods installed before it
+        assertTrue(build.restorePods());
+        assertTrue(Files.exists(pods.resolve("AFNetworking/AFNetworking/AFHTTPSessionManager.h")));
+    }
+
+    private static void set(IOSBuildMojo mojo, String name, Object value) throws Exception {
+        Field field = IOSBuildMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private Path createPods() throws Exception {
+        Path pods = workDir.resolve("Pods");
+        Path sources = Files.createDirectories(pods.resolve("AFNetworking/AFNetworking"));
+        Files.write(sources.resolve("AFHTTPSessionManager.h"), "// AFHTTPSessionManager.h\n".getBytes(UTF_8));
+        Path headers = Files.createDirectories(pods.resolve("Headers/Public/AFNetworking"));
+        Files.createSymbolicLink(headers.resolve("AFHTTPSessionManager.h"),
+                Paths.get("../../../AFNetworking/AFNetworking/AFHTTPSessionManager.h"));
+        Files.copy(podfileLock.toPath(), pods.resolve("Manifest.lock"));
+        return pods;
+    }
+}
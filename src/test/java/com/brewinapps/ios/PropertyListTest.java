@@ -0,0 +1,315 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the round trips of the property lists through the three formats, the key path lookups, and the
+ * rejection of corrupt binary property lists.
+ *
+ * @author Brewin' Apps AS
+ */
+public class PropertyListTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("plist");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testBinaryRoundTrip() throws Exception {
+        Map<String, Object> root = createRoot();
+        byte[] binary = PropertyList.toBytes(root, PropertyList.Format.BINARY);
+        assertEquals(PropertyList.Format.BINARY, PropertyList.detect(binary));
+        assertEquals(toComparable(root), toComparable(PropertyList.parse(binary)));
+    }
+
+    public void testXmlRoundTrip() throws Exception {
+        Map<String, Object> root = createRoot();
+        byte[] xml = PropertyList.toBytes(root, PropertyList.Format.XML);
+        assertEquals(PropertyList.Format.XML, PropertyList.detect(xml));
+        assertEquals(toComparable(root), toComparable(PropertyList.parse(xml)));
+    }
+
+    public void testOpenStepRoundTrip() throws Exception {
+        // OpenStep only has strings, data, arrays and dictionaries
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("plain", "com.brewinapps.sample");
+        root.put("quoted", "a \"quoted\" \\ value\twith\nescapes");
+        root.put("empty", "");
+        root.put("unicode", "Bokmål 日本語");
+        root.put("slashes", "//not a comment");
+        root.put("url", "//server/share");
+        root.put("comment", "/*not*/");
+        root.put("data", bytes(20));
+        root.put("array", Arrays.<Object>asList("a", "b c", new LinkedHashMap<String, Object>()));
+        root.put("nested", Collections.singletonMap("key with spaces", "value"));
+
+        byte[] openStep = PropertyList.toBytes(root, PropertyList.Format.OPENSTEP);
+        assertEquals(PropertyList.Format.OPENSTEP, PropertyList.detect(openStep));
+        assertEquals(toComparable(root), toComparable(PropertyList.parse(openStep)));
+    }
+
+    public void testBinaryUniquesScalars() throws Exception {
+        List<Object> array = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            array.add("same");
+            array.add(1L);
+            array.add(1.0);
+            array.add(true);
+        }
+        byte[] binary = PropertyList.toBytes(array, PropertyList.Format.BINARY);
+        // The array and 4 distinct objects: 1 and 1.0 and true stay apart
+        assertEquals(5, ByteBuffer.wrap(binary).getLong(binary.length - 24));
+        assertEquals(array, PropertyList.parse(binary));
+    }
+
+    public void testBinaryWideReferences() throws Exception {
+        // More than 255 objects need 2 byte references, more than 65535 need 4
+        for (int count : new int[]{300, 70000}) {
+            List<Object> array = new ArrayList<Object>();
+            for (int i = 0; i < count; i++) {
+                array.add("string " + i);
+            }
+            byte[] binary = PropertyList.toBytes(array, PropertyList.Format.BINARY);
+            assertEquals(count > 0xffff ? 4 : 2, binary[binary.length - 25]);
+            assertTrue(binary[binary.length - 26] >= 2);
+            assertEquals(array, PropertyList.parse(binary));
+
+            BinaryPlistReader reader = new BinaryPlistReader(ByteBuffer.wrap(binary));
+            assertEquals("string " + (count - 1), reader.get(String.valueOf(count - 1)));
+            assertNull(reader.get(String.valueOf(count)));
+        }
+    }
+
+    public void testBinaryKeyPaths() throws Exception {
+        byte[] binary = PropertyList.toBytes(createRoot(), PropertyList.Format.BINARY);
+        BinaryPlistReader reader = new BinaryPlistReader(ByteBuffer.wrap(binary));
+        assertEquals("com.brewinapps.sample", reader.get("CFBundleIdentifier"));
+        assertEquals("image@2x.png", reader.get("CFBundleIcons", "CFBundlePrimaryIcon", "CFBundleIconFiles", "1"));
+        assertEquals("日本語 — Bokmål", reader.get("unicode"));
+        assertEquals("été", reader.get("été"));
+        assertNull(reader.get("missing"));
+        assertNull(reader.get("CFBundleIcons", "missing", "CFBundleIconFiles"));
+        assertNull(reader.get("array", "99"));
+        try {
+            reader.get("array", "first");
+            fail("An array should only be indexed by numbers");
+        } catch (IOException e) {
+            assertEquals("'first' is not an array index", e.getMessage());
+        }
+    }
+
+    public void testGetFromFile() throws Exception {
+        for (PropertyList.Format format : PropertyList.Format.values()) {
+            File file = workDir.resolve("Info-" + format + ".plist").toFile();
+            Map<String, Object> root = new LinkedHashMap<String, Object>();
+            Map<String, Object> primaryIcon = new LinkedHashMap<String, Object>();
+            primaryIcon.put("CFBundleIconFiles", Arrays.<Object>asList("image.png", "image@2x.png"));
+            root.put("CFBundleIcons", Collections.<String, Object>singletonMap("CFBundlePrimaryIcon", primaryIcon));
+            root.put("UIRequiredDeviceCapabilities", Arrays.<Object>asList("armv7", "metal"));
+            PropertyList.write(root, format, file);
+
+            assertEquals(format.toString(), "image@2x.png",
+                    PropertyList.get(file, ":CFBundleIcons:CFBundlePrimaryIcon:CFBundleIconFiles:1"));
+            assertEquals(format.toString(), "metal", PropertyList.get(file, "UIRequiredDeviceCapabilities:1"));
+            assertNull(format.toString(), PropertyList.get(file, ":UIRequiredDeviceCapabilities:2"));
+            assertEquals(format.toString(), toComparable(root), toComparable(PropertyList.get(file, "")));
+        }
+    }
+
+    public void testGetThroughScalar() throws Exception {
+        try {
+            PropertyList.get(createRoot(), ":CFBundleIdentifier:key");
+            fail("A string has no keys");
+        } catch (IOException e) {
+            assertEquals("Cannot look up 'key' in ':CFBundleIdentifier:key', its parent is not a dictionary or an array",
+                    e.getMessage());
+        }
+    }
+
+    public void testCorruptTrailer() throws Exception {
+        byte[] binary = PropertyList.toBytes(createRoot(), PropertyList.Format.BINARY);
+        byte[] corrupt = binary.clone();
+        // Offset size of 0
+        corrupt[corrupt.length - 26] = 0;
+        assertCorrupt(corrupt, "Corrupt binary property list trailer");
+
+        corrupt = binary.clone();
+        // Offset table past the trailer
+        ByteBuffer.wrap(corrupt).putLong(corrupt.length - 8, corrupt.length);
+        assertCorrupt(corrupt, "Corrupt binary property list trailer");
+
+        assertCorrupt(Arrays.copyOf(binary, 20), "Not a binary property list");
+        assertCorrupt(Arrays.copyOf(binary, binary.length - 1), "Corrupt binary property list trailer");
+    }
+
+    public void testCorruptObject() throws Exception {
+        List<Object> array = Arrays.<Object>asList("a", "b");
+        byte[] binary = PropertyList.toBytes(array, PropertyList.Format.BINARY);
+        // The array claims 15 elements, more than follow it
+        int offsetTable = (int) ByteBuffer.wrap(binary).getLong(binary.length - 8);
+        int arrayOffset = binary[offsetTable] & 0xff;
+        binary[arrayOffset] = (byte) 0xae;
+
+        try {
+            PropertyList.parse(binary);
+            fail("The array should be corrupt");
+        } catch (IOException e) {
+            // Reading its references runs into the offset table, then into the trailer
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid object reference")
+                    || e.getMessage().startsWith("Corrupt binary property list"));
+        }
+    }
+
+    public void testCyclicReferences() throws Exception {
+        // An array holding itself: magic, 0xa1 0x00, the offset table, then the trailer
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + 1 + 32).order(ByteOrder.BIG_ENDIAN);
+        buffer.put(BinaryPlistReader.MAGIC.getBytes(UTF_8));
+        buffer.put((byte) 0xa1).put((byte) 0);
+        buffer.put((byte) 8);
+        buffer.put(new byte[6]).put((byte) 1).put((byte) 1);
+        buffer.putLong(1).putLong(0).putLong(10);
+
+        try {
+            PropertyList.parse(buffer.array());
+            fail("The cycle should be detected");
+        } catch (IOException e) {
+            assertEquals("The binary property list nests too deep, or has a cycle", e.getMessage());
+        }
+        // Lookups only follow the path
+        BinaryPlistReader reader = new BinaryPlistReader(ByteBuffer.wrap(buffer.array()));
+        assertEquals(0, reader.element(reader.element(reader.getTopObject(), 0), 0));
+    }
+
+    public void testInvalidXml() throws Exception {
+        assertInvalid("<?xml version=\"1.0\"?><dict/>", "Expected <plist> but found <dict>");
+        assertInvalid("<plist><dict><string>no key</string></dict></plist>", "Expected <key> but found <string>");
+        assertInvalid("<plist><float>1</float></plist>", "Unknown element <float>");
+        assertInvalid("<plist><date>yesterday</date></plist>", "Invalid date 'yesterday'");
+    }
+
+    public void testInvalidOpenStep() throws Exception {
+        assertInvalid("{ key = value }", "Expected ';'");
+        assertInvalid("( a b )", "Expected ',' or ')'");
+        assertInvalid("{ key = \"unterminated; }", "Unterminated string");
+        assertInvalid("<0a1>", "Unterminated data");
+    }
+
+    private static void assertInvalid(String content, String message) {
+        try {
+            PropertyList.parse(content.getBytes(UTF_8));
+            fail("Expected an error containing: " + message);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static void assertCorrupt(byte[] binary, String message) {
+        try {
+            new BinaryPlistReader(ByteBuffer.wrap(binary));
+            fail("Expected: " + message);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Holds every type, counts of 15 and more that need an extended marker, and non-ASCII strings.
+     */
+    private static Map<String, Object> createRoot() throws Exception {
+        Map<String, Object> root = new LinkedHashMap<String, Object>();
+        root.put("CFBundleIdentifier", "com.brewinapps.sample");
+        root.put("CFBundleShortVersionString", "1.4.2");
+        root.put("unicode", "日本語 — Bokmål");
+        root.put("été", "été");
+        root.put("emoji", "🚀");
+        root.put("xml", "<tag> & \"quotes\"");
+        root.put("long string", "a string longer than fifteen characters");
+        root.put("true", true);
+        root.put("false", false);
+        root.put("zero", 0L);
+        root.put("byte", 255L);
+        root.put("short", 65535L);
+        root.put("int", 4294967295L);
+        root.put("long", Long.MAX_VALUE);
+        root.put("negative", -42L);
+        root.put("real", 3.25);
+        root.put("exponent", 1.5e300);
+        // XML dates have a precision of a second
+        root.put("date", new Date(1500000000000L));
+        root.put("data", bytes(40));
+        root.put("empty data", new byte[0]);
+        List<Object> array = new ArrayList<Object>();
+        for (int i = 0; i < 20; i++) {
+            array.add((long) i);
+        }
+        root.put("array", array);
+        root.put("empty array", new ArrayList<Object>());
+        root.put("empty dict", new LinkedHashMap<String, Object>());
+
+        Map<String, Object> primaryIcon = new LinkedHashMap<String, Object>();
+        primaryIcon.put("CFBundleIconFiles", Arrays.<Object>asList("image.png", "image@2x.png"));
+        primaryIcon.put("UIPrerenderedIcon", false);
+        root.put("CFBundleIcons", Collections.<String, Object>singletonMap("CFBundlePrimaryIcon", primaryIcon));
+        for (int i = 0; i < 15; i++) {
+            root.put("key" + i, "value" + i);
+        }
+        return root;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 37);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the value with its byte arrays wrapped, so that they compare by content
+     */
+    @SuppressWarnings("unchecked")
+    private static Object toComparable(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                map.put(entry.getKey(), toComparable(entry.getValue()));
+            }
+            return map;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object element : (List<Object>) value) {
+                list.add(toComparable(element));
+            }
+            return list;
+        }
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        return value;
+    }
+}
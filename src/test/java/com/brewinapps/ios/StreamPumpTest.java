@@ -0,0 +1,90 @@
+package com.brewinapps.ios;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Tests the decoding and line splitting of the process output pump.
+ *
+ * @author Brewin' Apps AS
+ */
+public class StreamPumpTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testLines() throws Exception {
+        assertEquals(Arrays.asList("first", "", "second", "last"), pump("first\n\r\nsecond\r\nlast", UTF_8));
+        assertEquals(Collections.emptyList(), pump("", UTF_8));
+    }
+
+    public void testCharset() throws Exception {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        assertEquals(Arrays.asList("Brewin' Apps AS \u00e6\u00f8\u00e5"),
+                pump("Brewin' Apps AS \u00e6\u00f8\u00e5\n".getBytes(latin1), latin1));
+        // Malformed input is replaced, not fatal
+        assertEquals(Arrays.asList("a\ufffdb"), pump(new byte[] {'a', (byte) 0xff, 'b'}, UTF_8));
+    }
+
+    public void testLongLineIsDispatchedInPieces() throws Exception {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 3 * StreamPump.MAX_LINE_LENGTH + 10; i++) {
+            output.append((char) ('a' + i % 26));
+        }
+        String longLine = output.toString();
+        output.append("\nnext\n");
+
+        List<String> lines = pump(output.toString(), UTF_8);
+        assertEquals(5, lines.size());
+        int max = StreamPump.MAX_LINE_LENGTH;
+        assertEquals(longLine.substring(0, max), lines.get(0));
+        assertEquals(longLine.substring(max, 2 * max), lines.get(1));
+        assertEquals(longLine.substring(2 * max, 3 * max), lines.get(2));
+        assertEquals(longLine.substring(3 * max), lines.get(3));
+        assertEquals("next", lines.get(4));
+    }
+
+    public void testLineOfExactlyTheMaximumIsNotSplit() throws Exception {
+        char[] line = new char[StreamPump.MAX_LINE_LENGTH];
+        Arrays.fill(line, 'x');
+        List<String> lines = pump(new String(line) + "\n", UTF_8);
+        assertEquals(1, lines.size());
+        assertEquals(StreamPump.MAX_LINE_LENGTH, lines.get(0).length());
+    }
+
+    public void testSurrogatePairIsNotSplit() throws Exception {
+        char[] line = new char[StreamPump.MAX_LINE_LENGTH - 1];
+        Arrays.fill(line, 'x');
+        String emoji = "\ud83d\ude80";
+        List<String> lines = pump(new String(line) + emoji + "tail", UTF_8);
+
+        assertEquals(2, lines.size());
+        assertEquals(new String(line) + emoji, lines.get(0));
+        assertEquals("tail", lines.get(1));
+    }
+
+    private static List<String> pump(String output, Charset charset) throws Exception {
+        return pump(output.getBytes(charset), charset);
+    }
+
+    private static List<String> pump(byte[] output, Charset charset) throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        StreamConsumer consumer = new StreamConsumer() {
+            public void consumeLine(String line) {
+                lines.add(line);
+            }
+        };
+        StreamPump pump = new StreamPump(new ByteArrayInputStream(output), charset,
+                Collections.singletonList(consumer));
+        pump.call();
+        assertEquals(output.length, pump.getBytesRead());
+        return lines;
+    }
+}
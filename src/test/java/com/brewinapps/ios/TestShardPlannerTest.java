@@ -0,0 +1,75 @@
+package com.brewinapps.ios;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the split of the test classes in shards of about the same duration.
+ *
+ * @author Brewin' Apps AS
+ */
+public class TestShardPlannerTest extends TestCase {
+
+    public void testBalancesKnownDurations() {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("SampleTests/A", 10000L);
+        durations.put("SampleTests/B", 6000L);
+        durations.put("SampleTests/C", 5000L);
+        durations.put("SampleTests/D", 4000L);
+
+        List<TestShardPlanner.Shard> plan = TestShardPlanner.plan(Arrays.asList("SampleTests/D", "SampleTests/C",
+                "SampleTests/B", "SampleTests/A"), durations, 2);
+        assertEquals(2, plan.size());
+        assertEquals(Arrays.asList("SampleTests/A", "SampleTests/D"), plan.get(0).tests);
+        assertEquals(14000, plan.get(0).expectedMillis);
+        assertEquals(Arrays.asList("SampleTests/B", "SampleTests/C"), plan.get(1).tests);
+        assertEquals(11000, plan.get(1).expectedMillis);
+    }
+
+    public void testNewClassesTakeTheMedianDuration() {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("SampleTests/A", 9000L);
+        durations.put("SampleTests/B", 1000L);
+        durations.put("SampleTests/C", 3000L);
+
+        List<TestShardPlanner.Shard> plan = TestShardPlanner.plan(Arrays.asList("SampleTests/A", "SampleTests/B",
+                "SampleTests/C", "SampleTests/New"), durations, 2);
+        // A alone, then C and New at 3 s each, and B
+        assertEquals(Arrays.asList("SampleTests/A"), plan.get(0).tests);
+        assertEquals(Arrays.asList("SampleTests/C", "SampleTests/New", "SampleTests/B"), plan.get(1).tests);
+        assertEquals(7000, plan.get(1).expectedMillis);
+    }
+
+    public void testWithoutHistory() {
+        List<TestShardPlanner.Shard> plan = TestShardPlanner.plan(Arrays.asList("SampleTests/E", "SampleTests/D",
+                "SampleTests/C", "SampleTests/B", "SampleTests/A"), Collections.<String, Long>emptyMap(), 2);
+        assertEquals(2, plan.size());
+        // Ties are broken by name, so that the plan is stable
+        assertEquals(Arrays.asList("SampleTests/A", "SampleTests/C", "SampleTests/E"), plan.get(0).tests);
+        assertEquals(3 * TestShardPlanner.DEFAULT_DURATION_MILLIS, plan.get(0).expectedMillis);
+        assertEquals(Arrays.asList("SampleTests/B", "SampleTests/D"), plan.get(1).tests);
+    }
+
+    public void testOnlyNonEmptyShards() {
+        List<TestShardPlanner.Shard> plan = TestShardPlanner.plan(Arrays.asList("SampleTests/A", "SampleTests/B"),
+                Collections.<String, Long>emptyMap(), 4);
+        assertEquals(2, plan.size());
+        assertEquals(1, plan.get(0).tests.size());
+        assertEquals(1, plan.get(1).tests.size());
+
+        assertTrue(TestShardPlanner.plan(Collections.<String>emptyList(), Collections.<String, Long>emptyMap(), 4)
+                .isEmpty());
+    }
+
+    public void testSingleShard() {
+        List<TestShardPlanner.Shard> plan = TestShardPlanner.plan(Arrays.asList("SampleTests/A", "SampleTests/B"),
+                Collections.<String, Long>emptyMap(), 0);
+        assertEquals(1, plan.size());
+        assertEquals(Arrays.asList("SampleTests/A", "SampleTests/B"), plan.get(0).tests);
+    }
+}
@@ -0,0 +1,109 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the lookup of the tools and their versions with a stand-in xcodebuild, which prints the version
+ * written in the version.plist of the selected Xcode.
+ *
+ * @author Brewin' Apps AS
+ */
+public class ToolRegistryTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Log log = new SystemStreamLog();
+    private Path workDir;
+    private Path bin;
+    private Path versionPlist;
+    private ToolRegistry registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("tools");
+        bin = Files.createDirectories(workDir.resolve("bin"));
+        Path developerDir = Files.createDirectories(workDir.resolve("Xcode.app/Contents/Developer"));
+        versionPlist = developerDir.getParent().resolve("version.plist");
+        setXcodeVersion("10.1", 1000000000000L);
+        registry = new ToolRegistry(bin.toString(), developerDir.toString());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testFindTool() throws Exception {
+        assertNull(registry.findTool(ToolRegistry.XCODEBUILD));
+
+        // A missing tool is looked up again
+        File xcodebuild = createXcodebuild();
+        assertEquals(xcodebuild, registry.findTool(ToolRegistry.XCODEBUILD));
+        assertTrue(registry.hasTool(ToolRegistry.XCODEBUILD));
+
+        assertTrue(xcodebuild.delete());
+        assertNull(registry.findTool(ToolRegistry.XCODEBUILD));
+    }
+
+    public void testMissingTool() throws Exception {
+        try {
+            registry.getVersion(ToolRegistry.XCODEBUILD, log);
+            fail("xcodebuild should be missing");
+        } catch (IOSException e) {
+            assertEquals("Could not find 'xcodebuild' on the PATH", e.getMessage());
+        }
+    }
+
+    public void testVersionIsQueriedOncePerStamp() throws Exception {
+        createXcodebuild();
+        assertEquals("Xcode 10.1", registry.getVersion(ToolRegistry.XCODEBUILD, log));
+
+        // Same modification time: the version in memory is used, xcodebuild is not run again
+        setXcodeVersion("10.9", 1000000000000L);
+        assertEquals("Xcode 10.1", registry.getVersion(ToolRegistry.XCODEBUILD, log));
+    }
+
+    public void testXcodeUpdatedInPlace() throws Exception {
+        createXcodebuild();
+        assertEquals("Xcode 10.1", registry.getVersion(ToolRegistry.XCODEBUILD, log));
+
+        setXcodeVersion("10.2", 1000000010000L);
+        assertEquals("Xcode 10.2", registry.getVersion(ToolRegistry.XCODEBUILD, log));
+    }
+
+    public void testDiskCache() throws Exception {
+        createXcodebuild();
+        File cacheFile = workDir.resolve("cache/tools.properties").toFile();
+        registry.setCacheFile(cacheFile);
+        assertEquals("Xcode 10.1", registry.getVersion(ToolRegistry.XCODEBUILD, log));
+        assertTrue(cacheFile.isFile());
+
+        // A later build reads the version from the disk, as long as the stamp matches
+        setXcodeVersion("10.9", 1000000000000L);
+        ToolRegistry later = new ToolRegistry(registry.getSearchPath(), registry.getDeveloperDir());
+        later.setCacheFile(cacheFile);
+        assertEquals("Xcode 10.1", later.getVersion(ToolRegistry.XCODEBUILD, log));
+    }
+
+    private File createXcodebuild() throws Exception {
+        // Only builtins, the PATH holds nothing else
+        Path script = bin.resolve(ToolRegistry.XCODEBUILD);
+        Files.write(script, ("#!/bin/sh\nread version < \"$DEVELOPER_DIR/../version.plist\"\n"
+                + "echo \"Xcode $version\"\n").getBytes(UTF_8));
+        assertTrue(script.toFile().setExecutable(true));
+        return script.toFile();
+    }
+
+    private void setXcodeVersion(String version, long modified) throws Exception {
+        Files.write(versionPlist, (version + "\n").getBytes(UTF_8));
+        assertTrue(versionPlist.toFile().setLastModified(modified));
+    }
+}
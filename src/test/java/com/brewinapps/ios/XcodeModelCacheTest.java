@@ -0,0 +1,181 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the reuse of the parsed projects and workspaces while their files keep their modification times,
+ * and the validation of the scheme, target and configuration against them, on a copy of the fixtures.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeModelCacheTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private File projectDir;
+    private File workspaceDir;
+    private IOSBuildMojo mojo;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("xcodemodel");
+        Path fixtures = Paths.get(getClass().getResource("/xcodeproj/Sample.xcodeproj/project.pbxproj").toURI())
+                .getParent().getParent();
+        DirectoryCopier.copy(fixtures, workDir.resolve("project"));
+        projectDir = workDir.resolve("project/Sample.xcodeproj").toFile();
+        workspaceDir = workDir.resolve("project/Sample.xcworkspace").toFile();
+
+        mojo = new IOSBuildMojo();
+        mojo.workDir = workDir.resolve("project").toFile();
+        mojo.validateProject = true;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testProjectIsParsedOncePerStamp() throws Exception {
+        XcodeProject project = XcodeModelCache.getProject(projectDir);
+        assertSame(project, XcodeModelCache.getProject(projectDir));
+
+        // A saved scheme changes the stamp
+        File scheme = new File(projectDir, "xcshareddata/xcschemes/Sample.xcscheme");
+        assertTrue(scheme.setLastModified(scheme.lastModified() - 10000));
+        XcodeProject reparsed = XcodeModelCache.getProject(projectDir);
+        assertNotSame(project, reparsed);
+        assertSame(reparsed, XcodeModelCache.getProject(projectDir));
+
+        // So does an edit of the project.pbxproj that keeps its size
+        File pbxproj = new File(projectDir, "project.pbxproj");
+        String content = new String(Files.readAllBytes(pbxproj.toPath()), UTF_8);
+        long modified = pbxproj.lastModified();
+        Files.write(pbxproj.toPath(), content.replace("SDKROOT = iphoneos", "SDKROOT = IPHONEOS").getBytes(UTF_8));
+        assertTrue(pbxproj.setLastModified(modified + 10000));
+        XcodeProject edited = XcodeModelCache.getProject(projectDir);
+        assertNotSame(reparsed, edited);
+        assertEquals("IPHONEOS", edited.getConfigurations().get("Release").get("SDKROOT"));
+    }
+
+    public void testUnchangedStampKeepsTheParsedProject() throws Exception {
+        XcodeProject project = XcodeModelCache.getProject(projectDir);
+
+        // An edit the stamp cannot see is not noticed: same size, same modification time
+        File pbxproj = new File(projectDir, "project.pbxproj");
+        String content = new String(Files.readAllBytes(pbxproj.toPath()), UTF_8);
+        long modified = pbxproj.lastModified();
+        Files.write(pbxproj.toPath(), content.replace("SDKROOT = iphoneos", "SDKROOT = IPHONEOS").getBytes(UTF_8));
+        assertTrue(pbxproj.setLastModified(modified));
+        assertSame(project, XcodeModelCache.getProject(projectDir));
+    }
+
+    public void testWorkspaceFollowsItsProjects() throws Exception {
+        XcodeWorkspace workspace = XcodeModelCache.getWorkspace(workspaceDir);
+        assertSame(workspace, XcodeModelCache.getWorkspace(workspaceDir));
+        assertSame(XcodeModelCache.getProject(projectDir), workspace.getProjects().get(0));
+
+        // A project changed on its own: the workspace is rebuilt around it, without reparsing its own files
+        File pbxproj = new File(projectDir, "project.pbxproj");
+        assertTrue(pbxproj.setLastModified(pbxproj.lastModified() + 10000));
+        XcodeWorkspace updated = XcodeModelCache.getWorkspace(workspaceDir);
+        assertNotSame(workspace, updated);
+        assertNotSame(workspace.getProjects().get(0), updated.getProjects().get(0));
+        assertSame(XcodeModelCache.getProject(projectDir), updated.getProjects().get(0));
+        assertSame(updated, XcodeModelCache.getWorkspace(workspaceDir));
+
+        // A scheme saved in the workspace changes its stamp
+        Path schemes = Files.createDirectories(workspaceDir.toPath().resolve("xcshareddata/xcschemes"));
+        Files.write(schemes.resolve("All.xcscheme"), "<Scheme/>".getBytes(UTF_8));
+        XcodeWorkspace withScheme = XcodeModelCache.getWorkspace(workspaceDir);
+        assertEquals(Arrays.asList("All", "Sample"), withScheme.getSchemeNames());
+        assertTrue(withScheme.getScheme("All").isShared());
+    }
+
+    public void testValidScheme() throws Exception {
+        mojo.validateXcodeModel("Sample", "Release");
+        mojo.validateXcodeModel(null, null);
+
+        mojo.workspaceName = "Sample";
+        mojo.validateXcodeModel("Sample", "Release");
+    }
+
+    public void testUnknownScheme() throws Exception {
+        try {
+            mojo.validateXcodeModel("Sampel", "Release");
+            fail("The scheme should be unknown");
+        } catch (IOSException e) {
+            assertEquals("Unknown scheme 'Sampel', the schemes are [Sample] and the targets are "
+                    + "[Sample, SampleTests, Widget]", e.getMessage());
+        }
+
+        mojo.workspaceName = "Sample.xcworkspace";
+        try {
+            mojo.validateXcodeModel("Sampel", null);
+            fail("The scheme should be unknown in the workspace");
+        } catch (IOSException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Unknown scheme 'Sampel'"));
+        }
+    }
+
+    public void testAutocreatedScheme() throws Exception {
+        // xcodebuild creates a scheme for a target that has none, even if other schemes are saved
+        mojo.validateXcodeModel("Widget", "Release");
+        mojo.workspaceName = "Sample";
+        mojo.validateXcodeModel("SampleTests", "Release");
+
+        // Without saved schemes any name is left to xcodebuild
+        DirectoryCleaner.delete(new File(projectDir, "xcshareddata").toPath());
+        mojo.workspaceName = null;
+        mojo.validateXcodeModel("Anything", "Release");
+    }
+
+    public void testUnknownTarget() throws Exception {
+        mojo.target = "Widget";
+        mojo.validateXcodeModel(null, "Release");
+
+        mojo.target = "Gadget";
+        try {
+            mojo.validateXcodeModel(null, "Release");
+            fail("The target should be unknown");
+        } catch (IOSException e) {
+            assertEquals("Unknown target 'Gadget', the targets are [Sample, SampleTests, Widget]", e.getMessage());
+        }
+    }
+
+    public void testUnknownConfiguration() throws Exception {
+        try {
+            mojo.validateXcodeModel("Sample", "Debug");
+            fail("The configuration should be unknown");
+        } catch (IOSException e) {
+            assertEquals("Unknown configuration 'Debug', the configurations are [Release]", e.getMessage());
+        }
+    }
+
+    public void testMissingWorkspace() throws Exception {
+        mojo.workspaceName = "Missing";
+        try {
+            mojo.validateXcodeModel("Sample", "Release");
+            fail("The workspace should be missing");
+        } catch (IOSException e) {
+            assertEquals("Could not find the workspace at '" + new File(mojo.workDir, "Missing.xcworkspace") + "'",
+                    e.getMessage());
+        }
+    }
+
+    public void testUnreadableProjectIsNotValidated() throws Exception {
+        Files.write(new File(projectDir, "project.pbxproj").toPath(), "{ objects = ".getBytes(UTF_8));
+        mojo.validateXcodeModel("Sampel", "Debug");
+
+        mojo.validateProject = false;
+        mojo.workspaceName = "Missing";
+        mojo.validateXcodeModel("Sampel", "Debug");
+    }
+}
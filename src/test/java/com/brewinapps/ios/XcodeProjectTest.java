@@ -0,0 +1,205 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of the project.pbxproj, contents.xcworkspacedata and .xcscheme files of the fixture
+ * project and workspace.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeProjectTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path fixtures;
+    private Path workDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        fixtures = Paths.get(getClass().getResource("/xcodeproj/Sample.xcodeproj/project.pbxproj").toURI())
+                .getParent().getParent();
+        workDir = Files.createTempDirectory("xcodeproj");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testLoadProject() throws Exception {
+        XcodeProject project = XcodeProject.load(fixtures.resolve("Sample.xcodeproj").toFile());
+        assertEquals("Sample", project.getName());
+        assertEquals("Release", project.getDefaultConfiguration());
+        assertEquals(Collections.singleton("Release"), project.getConfigurations().keySet());
+        assertEquals("41", project.getConfigurations().get("Release").get("CURRENT_PROJECT_VERSION"));
+        assertEquals("iphoneos", project.getConfigurations().get("Release").get("SDKROOT"));
+
+        assertEquals(Arrays.asList("Sample", "SampleTests", "Widget"),
+                Arrays.asList(project.getTargets().keySet().toArray()));
+        XcodeTarget tests = project.getTargets().get("SampleTests");
+        assertEquals("com.apple.product-type.bundle.unit-test", tests.getProductType());
+        assertEquals("$(SRCROOT)/SampleTests/Info.plist", tests.getConfigurations().get("Release").get("INFOPLIST_FILE"));
+
+        assertEquals(Arrays.asList("Sample"), project.getSchemeNames());
+        assertNull(project.getScheme("Widget"));
+    }
+
+    public void testListSettingsAreJoined() throws Exception {
+        Path projectDir = Files.createDirectories(workDir.resolve("Lists.xcodeproj"));
+        write(projectDir.resolve("project.pbxproj"), "{ objects = {"
+                + " P = { isa = PBXProject; buildConfigurationList = L; targets = ( ); };"
+                + " L = { isa = XCConfigurationList; buildConfigurations = ( C ); };"
+                + " C = { isa = XCBuildConfiguration; name = Debug;"
+                + " buildSettings = { OTHER_LDFLAGS = ( \"-ObjC\", \"-lz\" ); }; };"
+                + " }; rootObject = P; }");
+
+        XcodeProject project = XcodeProject.load(projectDir.toFile());
+        assertNull(project.getDefaultConfiguration());
+        assertEquals("-ObjC -lz", project.getConfigurations().get("Debug").get("OTHER_LDFLAGS"));
+        assertTrue(project.getTargets().isEmpty());
+        assertTrue(project.getSchemes().isEmpty());
+    }
+
+    public void testInvalidProject() throws Exception {
+        Path projectDir = Files.createDirectories(workDir.resolve("Broken.xcodeproj"));
+        write(projectDir.resolve("project.pbxproj"), "{ archiveVersion = 1; }");
+        try {
+            XcodeProject.load(projectDir.toFile());
+            fail("The project should have no objects");
+        } catch (IOException e) {
+            assertEquals("The project.pbxproj of '" + projectDir + "' has no objects", e.getMessage());
+        }
+
+        write(projectDir.resolve("project.pbxproj"), "{ objects = { }; rootObject = P; }");
+        try {
+            XcodeProject.load(projectDir.toFile());
+            fail("The project should have no root object");
+        } catch (IOException e) {
+            assertEquals("The project.pbxproj of '" + projectDir + "' has no root object", e.getMessage());
+        }
+
+        write(projectDir.resolve("project.pbxproj"), "{ objects = { ");
+        try {
+            XcodeProject.load(projectDir.toFile());
+            fail("The project should not parse");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testFindProject() throws Exception {
+        File projectDir = fixtures.resolve("Sample.xcodeproj").toFile();
+        assertEquals(projectDir, XcodeProject.findProject(fixtures.toFile(), null));
+        assertEquals(projectDir, XcodeProject.findProject(fixtures.toFile(), "Sample"));
+        assertEquals(projectDir, XcodeProject.findProject(fixtures.toFile(), "Sample.xcodeproj"));
+
+        try {
+            XcodeProject.findProject(workDir.toFile(), null);
+            fail("There should be no project");
+        } catch (IOSException e) {
+            assertEquals("Could not find an Xcode project in '" + workDir + "'", e.getMessage());
+        }
+
+        Files.createDirectories(workDir.resolve("A.xcodeproj"));
+        Files.createDirectories(workDir.resolve("B.xcodeproj"));
+        try {
+            XcodeProject.findProject(workDir.toFile(), null);
+            fail("There should be several projects");
+        } catch (IOSException e) {
+            assertEquals("There are several projects in '" + workDir + "', set the 'projectName' parameter",
+                    e.getMessage());
+        }
+    }
+
+    public void testParseScheme() throws Exception {
+        XcodeScheme scheme = XcodeScheme.parse(
+                fixtures.resolve("Sample.xcodeproj/xcshareddata/xcschemes/Sample.xcscheme").toFile(), true);
+        assertEquals("Sample", scheme.getName());
+        assertTrue(scheme.isShared());
+        assertEquals(Arrays.asList("Sample", "Widget"), scheme.getBuildTargets());
+        assertEquals(Arrays.asList("SampleTests"), scheme.getTestTargets());
+        assertEquals("Debug", scheme.getLaunchConfiguration());
+        assertEquals("Release", scheme.getArchiveConfiguration());
+    }
+
+    public void testLoadAllSchemes() throws Exception {
+        Path container = workDir.resolve("Sample.xcodeproj");
+        DirectoryCopier.copy(fixtures.resolve("Sample.xcodeproj"), container);
+        Path userSchemes = Files.createDirectories(container.resolve("xcuserdata/build.xcuserdatad/xcschemes"));
+        write(userSchemes.resolve("Nightly.xcscheme"), "<Scheme><ArchiveAction/></Scheme>");
+        write(userSchemes.resolve("notes.txt"), "not a scheme");
+
+        XcodeProject project = XcodeProject.load(container.toFile());
+        assertEquals(Arrays.asList("Sample", "Nightly"), project.getSchemeNames());
+        XcodeScheme nightly = project.getScheme("Nightly");
+        assertFalse(nightly.isShared());
+        assertTrue(nightly.getBuildTargets().isEmpty());
+        assertNull(nightly.getLaunchConfiguration());
+        assertNull(nightly.getArchiveConfiguration());
+
+        write(userSchemes.resolve("Broken.xcscheme"), "<Scheme>");
+        try {
+            XcodeScheme.loadAll(container.toFile());
+            fail("The scheme should be invalid");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(
+                    "Invalid scheme '" + userSchemes.resolve("Broken.xcscheme") + "': "));
+        }
+    }
+
+    public void testWorkspaceProjects() throws Exception {
+        File workspaceDir = fixtures.resolve("Sample.xcworkspace").toFile();
+        // The projects of a group are resolved in its directory
+        assertEquals(Arrays.asList(fixtures.resolve("Sample.xcodeproj").toFile(),
+                fixtures.resolve("Pods/Pods.xcodeproj").toFile()), XcodeWorkspace.getProjectDirs(workspaceDir));
+
+        Path workspace = Files.createDirectories(workDir.resolve("Other.xcworkspace"));
+        write(workspace.resolve("contents.xcworkspacedata"), "<Workspace>"
+                + "<FileRef location=\"container:App.xcodeproj\"/>"
+                + "<FileRef location=\"absolute:/src/Lib.xcodeproj\"/>"
+                + "<FileRef location=\"group:README.md\"/>"
+                + "<FileRef location=\"self:\"/>"
+                + "<Group location=\"container:\" name=\"Empty\"><FileRef location=\"group:Tools.xcodeproj\"/></Group>"
+                + "</Workspace>");
+        assertEquals(Arrays.asList(workDir.resolve("App.xcodeproj").toFile(), new File("/src/Lib.xcodeproj"),
+                workDir.resolve("Tools.xcodeproj").toFile()), XcodeWorkspace.getProjectDirs(workspace.toFile()));
+
+        write(workspace.resolve("contents.xcworkspacedata"), "<Workspace>");
+        try {
+            XcodeWorkspace.getProjectDirs(workspace.toFile());
+            fail("The workspace should be invalid");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid workspace '" + workspace + "': "));
+        }
+    }
+
+    public void testWorkspaceSchemes() throws Exception {
+        XcodeWorkspace workspace = XcodeModelCache.getWorkspace(fixtures.resolve("Sample.xcworkspace").toFile());
+        assertEquals("Sample", workspace.getName());
+        // The Pods project is not checked out
+        assertEquals(1, workspace.getProjects().size());
+        assertEquals("Sample", workspace.getProjects().get(0).getName());
+        assertEquals(Arrays.asList("Sample"), workspace.getSchemeNames());
+        assertEquals(Arrays.asList("Sample", "Widget"), workspace.getScheme("Sample").getBuildTargets());
+
+        Map<String, ?> model = XcodeModelCache.describe(workspace.getWorkspaceDir());
+        assertEquals(Arrays.asList("Sample"), model.get(XcodeModelCache.SCHEMES));
+        assertEquals(Arrays.asList("Sample", "SampleTests", "Widget"), model.get(XcodeModelCache.TARGETS));
+        assertEquals(Arrays.asList("Release"), model.get(XcodeModelCache.CONFIGURATIONS));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(UTF_8));
+    }
+}
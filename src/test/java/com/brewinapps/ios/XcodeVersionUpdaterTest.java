@@ -0,0 +1,122 @@
+package com.brewinapps.ios;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the version updates on a fixture project. Its app has literal versions, its tests reference the
+ * build settings of the project, and its extension has a binary Info.plist.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodeVersionUpdaterTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private Path pbxproj;
+    private Path appPlist;
+    private Path testsPlist;
+    private Path widgetPlist;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("xcodeproj");
+        Path fixture = Paths.get(getClass().getResource("/xcodeproj/Sample.xcodeproj/project.pbxproj").toURI())
+                .getParent().getParent();
+        DirectoryCopier.copy(fixture, workDir.resolve("project"));
+        pbxproj = workDir.resolve("project/Sample.xcodeproj/project.pbxproj");
+        appPlist = workDir.resolve("project/Sample/Info.plist");
+        testsPlist = workDir.resolve("project/SampleTests/Info.plist");
+
+        Map<String, Object> widget = new LinkedHashMap<String, Object>();
+        widget.put("CFBundleIdentifier", "com.brewinapps.sample.widget");
+        widget.put("CFBundleShortVersionString", "1.0");
+        widget.put("CFBundleVersion", "41");
+        widgetPlist = Files.createDirectories(workDir.resolve("project/Widget")).resolve("Info.plist");
+        Files.write(widgetPlist, PropertyList.toBytes(widget, PropertyList.Format.BINARY));
+        Files.setPosixFilePermissions(widgetPlist, PosixFilePermissions.fromString("rw-r-----"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testIncrementBuildNumber() throws Exception {
+        String project = read(pbxproj);
+        String app = read(appPlist);
+        String tests = read(testsPlist);
+
+        assertEquals("42", createUpdater().update("2.0", null, true));
+
+        // Only the values change, the formatting of the files is kept
+        assertEquals(project.replace("CURRENT_PROJECT_VERSION = 41;", "CURRENT_PROJECT_VERSION = 42;")
+                .replace("MARKETING_VERSION = 1.0;", "MARKETING_VERSION = 2.0;"), read(pbxproj));
+        assertEquals(app.replace("<string>1.0</string>", "<string>2.0</string>")
+                .replace("<string>41</string>", "<string>42</string>"), read(appPlist));
+        // The build settings it references were updated instead
+        assertEquals(tests, read(testsPlist));
+    }
+
+    public void testSetBuildNumber() throws Exception {
+        assertEquals("build 7", createUpdater().update(null, "build 7", false));
+
+        assertTrue(read(pbxproj).contains("CURRENT_PROJECT_VERSION = \"build 7\";"));
+        assertTrue(read(pbxproj).contains("MARKETING_VERSION = 1.0;"));
+        assertTrue(read(appPlist).contains("<key>CFBundleVersion</key>\n\t<string>build 7</string>"));
+        assertTrue(read(appPlist).contains("<key>CFBundleShortVersionString</key>\n\t<string>1.0</string>"));
+    }
+
+    public void testBinaryInfoPlist() throws Exception {
+        createUpdater().update("2.0", "42", false);
+
+        byte[] content = Files.readAllBytes(widgetPlist);
+        assertEquals(PropertyList.Format.BINARY, PropertyList.detect(content));
+        Map<?, ?> widget = (Map<?, ?>) PropertyList.parse(content);
+        assertEquals("2.0", widget.get("CFBundleShortVersionString"));
+        assertEquals("42", widget.get("CFBundleVersion"));
+        assertEquals("com.brewinapps.sample.widget", widget.get("CFBundleIdentifier"));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(widgetPlist)));
+    }
+
+    public void testNoChange() throws Exception {
+        String project = read(pbxproj);
+        assertEquals("41", createUpdater().update(null, null, false));
+        assertEquals(project, read(pbxproj));
+
+        // No temporary file is left behind
+        assertEquals(2, workDir.resolve("project/Sample.xcodeproj").toFile().list().length);
+        assertEquals(1, workDir.resolve("project/Sample").toFile().list().length);
+    }
+
+    public void testNextVersion() throws Exception {
+        assertEquals("1", XcodeVersionUpdater.nextVersion(null));
+        assertEquals("42", XcodeVersionUpdater.nextVersion("41"));
+        assertEquals("2", XcodeVersionUpdater.nextVersion("1.5"));
+        try {
+            XcodeVersionUpdater.nextVersion("1.0.1");
+            fail("1.0.1 is not a number");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("'1.0.1'"));
+        }
+    }
+
+    private XcodeVersionUpdater createUpdater() {
+        return new XcodeVersionUpdater(workDir.resolve("project/Sample.xcodeproj").toFile(), new SystemStreamLog());
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), UTF_8);
+    }
+}
@@ -0,0 +1,111 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the build-time breakdown on recorded xcodebuild logs. Line n of a log is output n seconds into the build.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodebuildLogParserTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testApproximateTimes() throws Exception {
+        XcodebuildLogParser parser = parse("build-legacy.log");
+        assertFalse(parser.isTimingSummary());
+
+        List<XcodebuildLogParser.Aggregate> phases = parser.getPhases();
+        assertEquals(7, phases.size());
+        assertAggregate("CompileC", 3, 11000, phases.get(0));
+        // Ties are sorted by name
+        assertAggregate("CodeSign", 1, 3000, phases.get(1));
+        assertAggregate("CompileStoryboard", 1, 3000, phases.get(2));
+        assertAggregate("GenerateDSYMFile", 1, 3000, phases.get(3));
+        assertAggregate("Ld", 1, 3000, phases.get(4));
+        assertAggregate("Libtool", 1, 3000, phases.get(5));
+        assertAggregate("PhaseScriptExecution", 1, 3000, phases.get(6));
+
+        List<XcodebuildLogParser.Aggregate> targets = parser.getTargets();
+        assertEquals(2, targets.size());
+        assertAggregate("Sample", 6, 18000, targets.get(0));
+        assertAggregate("Pods-AFNetworking", 3, 11000, targets.get(1));
+    }
+
+    public void testTimingSummary() throws Exception {
+        XcodebuildLogParser parser = parse("build-timing-summary.log");
+        assertTrue(parser.isTimingSummary());
+
+        List<XcodebuildLogParser.Aggregate> phases = parser.getPhases();
+        assertEquals(6, phases.size());
+        assertAggregate("CompileSwiftSources", 1, 42315, phases.get(0));
+        assertAggregate("CompileC", 2, 8100, phases.get(1));
+        assertAggregate("CompileStoryboard", 1, 3250, phases.get(2));
+        assertAggregate("CodeSign", 1, 1000, phases.get(3));
+        assertAggregate("Ld", 1, 875, phases.get(4));
+        assertAggregate("Libtool", 1, 120, phases.get(5));
+
+        // The targets are read from the suffix of the steps, as the new build system prints no target header
+        List<XcodebuildLogParser.Aggregate> targets = parser.getTargets();
+        assertEquals(2, targets.size());
+        assertAggregate("Sample", 4, 12000, targets.get(0));
+        assertAggregate("AFNetworking", 2, 6000, targets.get(1));
+    }
+
+    public void testReport() throws Exception {
+        File report = File.createTempFile("build-report", ".json");
+        try {
+            parse("build-timing-summary.log").writeReport(report);
+            String json = new String(Files.readAllBytes(report.toPath()), UTF_8);
+            assertTrue(json, json.contains("\"result\":\"BUILD SUCCEEDED\""));
+            assertTrue(json, json.contains("\"phasesApproximate\":false"));
+            assertTrue(json, json.contains("\"targetsApproximate\":true"));
+            assertTrue(json, json.contains("{\"name\":\"CompileSwiftSources\",\"count\":1,\"durationMillis\":42315}"));
+
+            parse("build-legacy.log").writeReport(report);
+            json = new String(Files.readAllBytes(report.toPath()), UTF_8);
+            assertTrue(json, json.contains("\"phasesApproximate\":true"));
+            assertTrue(json, json.contains("\"durationMillis\":41000"));
+        } finally {
+            report.delete();
+        }
+    }
+
+    public void testFailedBuild() throws Exception {
+        XcodebuildLogParser parser = parse("build-failed.log");
+        File report = File.createTempFile("build-report", ".json");
+        try {
+            parser.writeReport(report);
+            String json = new String(Files.readAllBytes(report.toPath()), UTF_8);
+            assertTrue(json, json.contains("\"result\":\"BUILD FAILED\""));
+        } finally {
+            report.delete();
+        }
+        // The failed step ends with the result, the list of failed commands that follows is not timed
+        assertEquals(1, parser.getPhases().size());
+        assertAggregate("CompileC", 1, 7000, parser.getPhases().get(0));
+    }
+
+    private XcodebuildLogParser parse(String log) throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(getClass().getResource("/xcodebuild/" + log).toURI()), UTF_8);
+        XcodebuildLogParser parser = new XcodebuildLogParser();
+        for (int i = 0; i < lines.size(); i++) {
+            parser.consumeLine(lines.get(i), (i + 1) * 1000L);
+        }
+        parser.finish();
+        return parser;
+    }
+
+    private static void assertAggregate(String name, int count, long durationMillis,
+                                        XcodebuildLogParser.Aggregate aggregate) {
+        assertEquals(name, aggregate.getName());
+        assertEquals(name, count, aggregate.getCount());
+        assertEquals(name, durationMillis, aggregate.getDurationMillis());
+    }
+}
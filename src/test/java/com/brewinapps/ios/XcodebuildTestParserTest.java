@@ -0,0 +1,91 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+
+/**
+ * Tests the test results read from a recorded xcodebuild test output, and their JUnit report.
+ *
+ * @author Brewin' Apps AS
+ */
+public class XcodebuildTestParserTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testResults() throws Exception {
+        List<XcodebuildTestParser.TestResult> results = parse();
+        assertEquals(5, results.size());
+
+        assertResult("LoginTests", "testEmptyPassword", 12, XcodebuildTestParser.TestResult.Status.PASSED,
+                results.get(0));
+        assertNull(results.get(0).getMessage());
+        // Every failure of the test is kept, with its location
+        assertResult("LoginTests", "testWrongPassword", 250, XcodebuildTestParser.TestResult.Status.FAILED,
+                results.get(1));
+        assertEquals("/Users/ci/Sample/SampleTests/LoginTests.m:42: ((error) != nil) failed\n"
+                + "/Users/ci/Sample/SampleTests/LoginTests.m:43: XCTAssertEqualObjects failed: (\"<Locked>\") "
+                + "is not equal to (\"<Invalid>\")", results.get(1).getMessage());
+
+        // The module of the Swift classes is dropped
+        assertResult("CartTests", "testAddItem", 1500, XcodebuildTestParser.TestResult.Status.PASSED,
+                results.get(2));
+        assertResult("CartTests", "testCheckout", 4, XcodebuildTestParser.TestResult.Status.FAILED, results.get(3));
+        assertResult("CartTests", "testPayPal", 1, XcodebuildTestParser.TestResult.Status.SKIPPED, results.get(4));
+    }
+
+    public void testFailureWithoutMessage() {
+        XcodebuildTestParser parser = new XcodebuildTestParser();
+        parser.consumeLine("Test Case '-[LoginTests testCrash]' failed (0.100 seconds).");
+        assertEquals("Failed", parser.getResults().get(0).getMessage());
+    }
+
+    public void testJUnitReport() throws Exception {
+        List<XcodebuildTestParser.TestResult> results = new ArrayList<XcodebuildTestParser.TestResult>(parse());
+        // Reported for the classes of a shard that failed before running them
+        results.add(new XcodebuildTestParser.TestResult("ProfileTests", "(not run)", 0,
+                XcodebuildTestParser.TestResult.Status.ERROR, "The shard failed: xcodebuild crashed"));
+
+        File report = File.createTempFile("TEST-Sample", ".xml");
+        try {
+            JUnitReportWriter.write(report, "Sample", results);
+            String expected = new String(Files.readAllBytes(Paths.get(
+                    getClass().getResource("/xcodebuild/junit-report.xml").toURI())), UTF_8);
+            assertEquals(expected, new String(Files.readAllBytes(report.toPath()), UTF_8));
+
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(report);
+            assertEquals("6", document.getDocumentElement().getAttribute("tests"));
+            assertEquals("XCTAssertTrue failed - Total <is> wrong & \"rounded\"", document.getElementsByTagName("failure")
+                    .item(1).getTextContent().replaceFirst("^[^ ]+ ", ""));
+        } finally {
+            report.delete();
+        }
+    }
+
+    private List<XcodebuildTestParser.TestResult> parse() throws Exception {
+        XcodebuildTestParser parser = new XcodebuildTestParser();
+        for (String line : Files.readAllLines(Paths.get(getClass().getResource("/xcodebuild/test-output.log").toURI()),
+                UTF_8)) {
+            parser.consumeLine(line);
+        }
+        return parser.getResults();
+    }
+
+    private static void assertResult(String className, String name, long durationMillis,
+                                     XcodebuildTestParser.TestResult.Status status,
+                                     XcodebuildTestParser.TestResult result) {
+        assertEquals(className, result.getClassName());
+        assertEquals(name, result.getName());
+        assertEquals(durationMillis, result.getDurationMillis());
+        assertEquals(status, result.getStatus());
+    }
+}
@@ -0,0 +1,127 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the in-process dSYM packaging with the 'zip -r' fork it replaced, on a synthetic dSYM: an
+ * Info.plist and a DWARF binary of {@code dwarfSize} MB, half symbol names and half random bytes, so that
+ * it deflates about as well as a real one. Run it with {@code mvn -P benchmark verify -Dbenchmark=ZipBenchmark};
+ * 'zip' must be on the PATH.
+ *
+ * @author Brewin' Apps AS
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DSYM_NAME = "Sample.app.dSYM";
+
+    @Param({"256"})
+    public int dwarfSize;
+
+    @Param({"0", "6"})
+    public int level;
+
+    private Path workDir;
+    private File dsymDir;
+    private File zipFile;
+    private int threads;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("zip-benchmark");
+        dsymDir = workDir.resolve(DSYM_NAME).toFile();
+        Path contents = dsymDir.toPath().resolve("Contents");
+        Files.createDirectories(contents.resolve("Resources/DWARF"));
+        Files.write(contents.resolve("Info.plist"), PropertyList.toBytes(
+                Collections.singletonMap("CFBundleIdentifier", "com.apple.xcode.dsym.com.brewinapps.sample"),
+                PropertyList.Format.XML));
+        writeDwarf(contents.resolve("Resources/DWARF/Sample").toFile(), dwarfSize * 1024L * 1024L);
+
+        zipFile = workDir.resolve(DSYM_NAME + ".zip").toFile();
+        threads = Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        DirectoryCleaner.delete(workDir);
+    }
+
+    @Benchmark
+    public long parallelArchiver() throws IOException {
+        ParallelZipArchiver archiver = new ParallelZipArchiver(zipFile, level, pool, threads);
+        try {
+            archiver.addTree(dsymDir.toPath(), DSYM_NAME);
+        } finally {
+            archiver.close();
+        }
+        return zipFile.length();
+    }
+
+    @Benchmark
+    public long zipFork() throws IOException, InterruptedException {
+        // 'zip' updates an existing archive instead of replacing it
+        Files.deleteIfExists(zipFile.toPath());
+        List<String> command = Arrays.asList("zip", "-r", "-q", "-y", "-" + level, zipFile.getAbsolutePath(), DSYM_NAME);
+        Process process = new ProcessBuilder(command).directory(workDir.toFile()).inheritIO().start();
+        if (0 != process.waitFor()) {
+            throw new IOException("zip exited with " + process.exitValue());
+        }
+        return zipFile.length();
+    }
+
+    private static void writeDwarf(File file, long size) throws IOException {
+        Random random = new Random(42);
+        byte[] symbols = ("_$s6Sample14ViewControllerC11viewDidLoadyyF __swift_FORCE_LOAD_$_swiftUIKit "
+                + "-[SampleAppDelegate application:didFinishLaunchingWithOptions:] /Users/build/Sample/Sources/")
+                .getBytes(UTF_8);
+        byte[] block = new byte[64 * 1024];
+        OutputStream out = Files.newOutputStream(file.toPath());
+        try {
+            for (long written = 0; written < size; written += block.length) {
+                int half = block.length / 2;
+                for (int i = 0; i < half; i++) {
+                    block[i] = symbols[(i + random.nextInt(8)) % symbols.length];
+                }
+                byte[] noise = new byte[block.length - half];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, block, half, noise.length);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
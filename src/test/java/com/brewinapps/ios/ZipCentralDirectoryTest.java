@@ -0,0 +1,210 @@
+package com.brewinapps.ios;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the central directory and content checks on zip archives written by ZipOutputStream, then
+ * truncated or corrupted.
+ *
+ * @author Brewin' Apps AS
+ */
+public class ZipCentralDirectoryTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path workDir;
+    private File zipFile;
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        workDir = Files.createTempDirectory("zip");
+        zipFile = workDir.resolve("Sample.zip").toFile();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        DirectoryCleaner.delete(workDir);
+    }
+
+    public void testReadEntries() throws Exception {
+        byte[] large = new byte[300 * 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 31 / 7);
+        }
+        writeZip("dir/", new byte[0], "dir/deflated.txt", text("deflated"), "dir/large", large,
+                "stored.txt", stored(text("stored")));
+
+        ZipCentralDirectory zip = ZipCentralDirectory.read(zipFile);
+        assertEquals(Arrays.asList("dir/", "dir/deflated.txt", "dir/large", "stored.txt"),
+                Arrays.asList(zip.getEntries().keySet().toArray()));
+        assertTrue(zip.getEntry("dir/").isDirectory());
+        assertNull(zip.getEntry("missing"));
+        assertEquals("deflated", new String(zip.read(zip.getEntry("dir/deflated.txt")), UTF_8));
+        assertEquals("stored", new String(zip.read(zip.getEntry("stored.txt")), UTF_8));
+        // Larger than the buffers the entries are inflated through
+        assertTrue(Arrays.equals(large, zip.read(zip.getEntry("dir/large"))));
+        assertEquals(0, zip.verifyContent(executor).size());
+    }
+
+    public void testLargeEntriesAreOnlyStreamed() throws Exception {
+        writeZip("DWARF/Sample", new byte[ZipCentralDirectory.MAX_READ_SIZE + 1]);
+
+        ZipCentralDirectory zip = ZipCentralDirectory.read(zipFile);
+        try {
+            zip.read(zip.getEntry("DWARF/Sample"));
+            fail("The entry should be too large to be read in memory");
+        } catch (IOException e) {
+            assertEquals("DWARF/Sample is too large to be read in memory", e.getMessage());
+        }
+        assertEquals(0, zip.verifyContent(executor).size());
+    }
+
+    public void testZip64() throws Exception {
+        // More entries than the end record can count
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            for (int i = 0; i < 0x10000 + 10; i++) {
+                out.putNextEntry(new ZipEntry("f" + i));
+                out.write(text("entry " + i));
+            }
+        } finally {
+            out.close();
+        }
+
+        ZipCentralDirectory zip = ZipCentralDirectory.read(zipFile);
+        assertEquals(0x10000 + 10, zip.getEntries().size());
+        assertEquals("entry 65545", new String(zip.read(zip.getEntry("f65545")), UTF_8));
+    }
+
+    public void testTruncated() throws Exception {
+        writeZip("a.txt", text("aaaa"), "b.txt", text("bbbb"));
+        truncate(zipFile.length() - 10);
+
+        try {
+            ZipCentralDirectory.read(zipFile);
+            fail("The archive should be truncated");
+        } catch (IOException e) {
+            assertEquals("Sample.zip is not a zip archive, or is truncated: no end of central directory",
+                    e.getMessage());
+        }
+    }
+
+    public void testMissingLocalHeader() throws Exception {
+        writeZip("a.txt", text("aaaa"));
+        write(0, new byte[4]);
+
+        try {
+            ZipCentralDirectory.read(zipFile);
+            fail("The local header should be missing");
+        } catch (IOException e) {
+            assertEquals("Sample.zip is corrupt: the data of a.txt is missing", e.getMessage());
+        }
+    }
+
+    public void testBadCrc() throws Exception {
+        writeZip("a.txt", text("aaaa"), "b.txt", stored(text("bbbb")));
+        ZipCentralDirectory.Entry entry = ZipCentralDirectory.read(zipFile).getEntry("b.txt");
+        write(entry.dataOffset, text("c"));
+
+        ZipCentralDirectory zip = ZipCentralDirectory.read(zipFile);
+        List<String> problems = zip.verifyContent(executor);
+        assertEquals(Arrays.asList("b.txt is corrupt: its CRC does not match"), problems);
+        try {
+            zip.read(zip.getEntry("b.txt"));
+            fail("The CRC should not match");
+        } catch (IOException e) {
+            assertEquals("b.txt is corrupt: its CRC does not match", e.getMessage());
+        }
+    }
+
+    public void testCorruptDeflatedData() throws Exception {
+        writeZip("a.txt", text("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+        ZipCentralDirectory.Entry entry = ZipCentralDirectory.read(zipFile).getEntry("a.txt");
+        byte[] garbage = new byte[(int) entry.compressedSize];
+        Arrays.fill(garbage, (byte) 0xff);
+        write(entry.dataOffset, garbage);
+
+        List<String> problems = ZipCentralDirectory.read(zipFile).verifyContent(executor);
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0), problems.get(0).startsWith("a.txt is corrupt: "));
+    }
+
+    /**
+     * @param namesAndContents the names of the entries, each followed by its content: deflated bytes,
+     *        or stored ones wrapped by {@link #stored(byte[])}
+     */
+    private void writeZip(Object... namesAndContents) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                ZipEntry entry = new ZipEntry((String) namesAndContents[i]);
+                byte[] content;
+                if (namesAndContents[i + 1] instanceof Stored) {
+                    content = ((Stored) namesAndContents[i + 1]).content;
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                } else {
+                    content = (byte[]) namesAndContents[i + 1];
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Stored stored(byte[] content) {
+        Stored stored = new Stored();
+        stored.content = content;
+        return stored;
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(zipFile, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void write(long position, byte[] bytes) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(zipFile, "rw");
+        try {
+            file.seek(position);
+            file.write(bytes);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(UTF_8);
+    }
+
+    private static class Stored {
+        byte[] content;
+    }
+}
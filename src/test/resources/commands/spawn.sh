@@ -0,0 +1,11 @@
+#!/bin/sh
+# Stand-in for a tool that spawns a child, like xcodebuild running clang.
+# Writes the pid of the child to $1, prints $2 lines, then hangs.
+sleep 60 &
+echo $! > "$1"
+i=0
+while [ "$i" -lt "${2:-0}" ]; do
+    echo "line $i"
+    i=$((i + 1))
+done
+wait